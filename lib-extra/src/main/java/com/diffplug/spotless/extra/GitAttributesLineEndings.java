@@ -15,20 +15,25 @@
  */
 package com.diffplug.spotless.extra;
 
-import static com.diffplug.spotless.extra.LibExtraPreconditions.requireElementsNonNull;
-
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 
@@ -44,9 +49,6 @@ import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
 import org.eclipse.jgit.util.FS;
 import org.eclipse.jgit.util.SystemReader;
 
-import com.googlecode.concurrenttrees.radix.ConcurrentRadixTree;
-import com.googlecode.concurrenttrees.radix.node.concrete.DefaultCharSequenceNodeFactory;
-
 import com.diffplug.common.base.Errors;
 import com.diffplug.spotless.FileSignature;
 import com.diffplug.spotless.LazyForwardingEquality;
@@ -65,68 +67,79 @@ public final class GitAttributesLineEndings {
 	private GitAttributesLineEndings() {}
 
 	/**
-	 * Creates a line-endings policy whose serialized state is relativized against projectDir,
-	 * at the cost of eagerly evaluating the line-ending state of every target file when the
-	 * policy is checked for equality with another policy.
+	 * Creates a line-endings policy whose serialized state is relativized against projectDir.
+	 * The state is the line-ending config plus the content of every {@code .gitattributes} file
+	 * which can apply to the project, so comparing two policies never needs to look at the target
+	 * files, and the line ending of each file is only evaluated when it is asked for.
 	 */
+	public static LineEnding.Policy create(File projectDir) {
+		return new RelocatablePolicy(projectDir);
+	}
+
+	/** @deprecated the policy no longer needs the files to format, use {@link #create(File)} instead. */
+	@Deprecated
 	public static LineEnding.Policy create(File projectDir, Supplier<Iterable<File>> toFormat) {
-		return new RelocatablePolicy(projectDir, toFormat);
+		return create(projectDir);
 	}
 
-	static class RelocatablePolicy extends LazyForwardingEquality<CachedEndings> implements LineEnding.Policy {
+	static class RelocatablePolicy extends LazyForwardingEquality<AttributesState> implements LineEnding.Policy {
 		private static final long serialVersionUID = 5868522122123693015L;
 
 		final transient File projectDir;
-		final transient Supplier<Iterable<File>> toFormat;
+		private transient volatile @Nullable Runtime runtime;
 
-		RelocatablePolicy(File projectDir, Supplier<Iterable<File>> toFormat) {
+		RelocatablePolicy(File projectDir) {
 			this.projectDir = Objects.requireNonNull(projectDir, "projectDir");
-			this.toFormat = Objects.requireNonNull(toFormat, "toFormat");
 		}
 
 		@Override
-		protected CachedEndings calculateState() throws Exception {
-			Runtime runtime = new RuntimeInit(projectDir, toFormat.get()).atRuntime();
-			return new CachedEndings(projectDir, runtime, toFormat.get());
+		protected AttributesState calculateState() throws Exception {
+			return new AttributesState(projectDir, runtime());
 		}
 
 		@Override
 		public String getEndingFor(File file) {
-			return state().endingFor(file);
+			return runtime().getEndingFor(file);
+		}
+
+		private Runtime runtime() {
+			Runtime result = runtime;
+			if (result == null) {
+				synchronized (this) {
+					result = runtime;
+					if (result == null) {
+						result = Errors.rethrow().get(() -> new RuntimeInit(projectDir).atRuntime());
+						runtime = result;
+					}
+				}
+			}
+			return result;
 		}
 	}
 
-	@SuppressFBWarnings("SE_TRANSIENT_FIELD_NOT_RESTORED")
-	static class CachedEndings implements Serializable {
-		private static final long serialVersionUID = -2534772773057900619L;
+	static class AttributesState implements Serializable {
+		private static final long serialVersionUID = -2534772773057900620L;
 
-		/** this is transient, to simulate PathSensitive.RELATIVE */
-		transient final String rootDir;
-		/** the line ending used for most files */
+		/** the line ending used for files without an eol attribute */
 		final String defaultEnding;
-		/** any exceptions to that default, in terms of relative path from rootDir */
-		final ConcurrentRadixTree<String> hasNonDefaultEnding = new ConcurrentRadixTree<>(new DefaultCharSequenceNodeFactory());
+		/** every attributes file which can apply, keyed by its path relative to the project (or "info" and "global") */
+		final TreeMap<String, FileSignature> attributes = new TreeMap<>();
 
-		CachedEndings(File projectDir, Runtime runtime, Iterable<File> toFormat) {
-			String rootPath = FileSignature.pathNativeToUnix(projectDir.getAbsolutePath());
-			rootDir = rootPath.equals("/") ? rootPath : rootPath + "/";
+		AttributesState(File projectDir, Runtime runtime) throws IOException {
 			defaultEnding = runtime.defaultEnding;
-			for (File file : toFormat) {
-				String ending = runtime.getEndingFor(file);
-				if (!ending.equals(defaultEnding)) {
-					String absPath = FileSignature.pathNativeToUnix(file.getAbsolutePath());
-					String subPath = FileSignature.subpath(rootDir, absPath);
-					hasNonDefaultEnding.put(subPath, ending);
-				}
+			Path projectPath = projectDir.getAbsoluteFile().toPath();
+			for (File file : runtime.init.localAttributesFiles(projectDir)) {
+				String relative = FileSignature.pathNativeToUnix(projectPath.relativize(file.toPath()).toString());
+				attributes.put(relative, FileSignature.signAsList(file));
 			}
+			putIfFile("info", runtime.init.repoAttributesFile);
+			putIfFile("global", runtime.init.globalAttributesFile);
 		}
 
-		/** Returns the line ending appropriate for the given file. */
-		public String endingFor(File file) {
-			String absPath = FileSignature.pathNativeToUnix(file.getAbsolutePath());
-			String subpath = FileSignature.subpath(rootDir, absPath);
-			String ending = hasNonDefaultEnding.getValueForExactKey(subpath);
-			return ending == null ? defaultEnding : ending;
+		private void putIfFile(String key, @Nullable File file) throws IOException {
+			if (file != null && file.isFile()) {
+				attributes.put(key, FileSignature.signAsList(file));
+			}
 		}
 	}
 
@@ -137,12 +150,11 @@ public final class GitAttributesLineEndings {
 		/** Global .gitattributes file pointed at by systemConfig or userConfig, and the file in the repo. */
 		final @Nullable File globalAttributesFile, repoAttributesFile;
 
-		/** git worktree root, might not exist if we're not in a git repo. */
-		final @Nullable File workTree;
+		/** git worktree root and git dir, might not exist if we're not in a git repo. */
+		final @Nullable File workTree, gitDir;
 
 		@SuppressFBWarnings("SIC_INNER_SHOULD_BE_STATIC_ANON")
-		RuntimeInit(File projectDir, Iterable<File> toFormat) throws IOException {
-			requireElementsNonNull(toFormat);
+		RuntimeInit(File projectDir) throws IOException {
 			/////////////////////////////////
 			// USER AND SYSTEM-WIDE VALUES //
 			/////////////////////////////////
@@ -172,10 +184,12 @@ public final class GitAttributesLineEndings {
 			builder.findGitDir(projectDir);
 			if (builder.getGitDir() != null) {
 				workTree = builder.getWorkTree();
+				gitDir = builder.getGitDir();
 				repoConfig = new FileBasedConfig(userConfig, new File(builder.getGitDir(), Constants.CONFIG), FS.DETECTED);
 				repoAttributesFile = new File(builder.getGitDir(), Constants.INFO_ATTRIBUTES);
 			} else {
 				workTree = null;
+				gitDir = null;
 				// null would make repoConfig.getFile() bomb below
 				repoConfig = new FileBasedConfig(userConfig, null, FS.DETECTED) {
 					@Override
@@ -195,12 +209,47 @@ public final class GitAttributesLineEndings {
 		}
 
 		private Runtime atRuntime() {
-			return new Runtime(parseRules(repoAttributesFile), workTree, repoConfig, parseRules(globalAttributesFile));
+			return new Runtime(this, parseRules(repoAttributesFile), workTree, repoConfig, parseRules(globalAttributesFile));
+		}
+
+		/**
+		 * Returns the {@code .gitattributes} files in the parents of the project, and those within the project,
+		 * whether they are tracked or not.  Within a git repo the walk of the project skips ignored folders,
+		 * which is much cheaper than walking all of it.
+		 */
+		List<File> localAttributesFiles(File projectDir) throws IOException {
+			File projectAbs = projectDir.getAbsoluteFile();
+			Set<File> files = new TreeSet<>();
+			for (File parent = projectAbs.getParentFile(); parent != null; parent = parent.getParentFile()) {
+				addIfFile(files, new File(parent, Constants.DOT_GIT_ATTRIBUTES));
+			}
+			addIfFile(files, new File(projectAbs, Constants.DOT_GIT_ATTRIBUTES));
+			if (gitDir != null) {
+				for (String path : GitIndexTargets.candidates(projectAbs)) {
+					if (path.equals(Constants.DOT_GIT_ATTRIBUTES) || path.endsWith("/" + Constants.DOT_GIT_ATTRIBUTES)) {
+						addIfFile(files, new File(projectAbs, path));
+					}
+				}
+			} else {
+				try (Stream<Path> walk = Files.walk(projectAbs.toPath())) {
+					walk.filter(path -> path.getFileName() != null && path.getFileName().toString().equals(Constants.DOT_GIT_ATTRIBUTES))
+							.forEach(path -> addIfFile(files, path.toFile()));
+				}
+			}
+			return new ArrayList<>(files);
+		}
+
+		private static void addIfFile(Set<File> files, File file) {
+			if (file.isFile()) {
+				files.add(file);
+			}
 		}
 	}
 
 	/** https://github.com/git/git/blob/1fe8f2cf461179c41f64efbd1dc0a9fb3b7a0fb1/Documentation/gitattributes.txt */
 	static class Runtime {
+		final RuntimeInit init;
+
 		/** .git/info/attributes (and the worktree with that file) */
 		final List<AttributesRule> infoRules;
 
@@ -222,7 +271,8 @@ public final class GitAttributesLineEndings {
 		 */
 		final String defaultEnding;
 
-		private Runtime(List<AttributesRule> infoRules, @Nullable File workTree, Config config, List<AttributesRule> globalRules) {
+		private Runtime(RuntimeInit init, List<AttributesRule> infoRules, @Nullable File workTree, Config config, List<AttributesRule> globalRules) {
+			this.init = init;
 			this.infoRules = Objects.requireNonNull(infoRules);
 			this.workTree = workTree;
 			this.defaultEnding = fromEol(config.getEnum(ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_KEY_EOL, EOL.NATIVE)).str();
@@ -233,10 +283,10 @@ public final class GitAttributesLineEndings {
 		private static final boolean IS_FOLDER = false;
 
 		public String getEndingFor(File file) {
+			String path = FileSignature.pathNativeToUnix(file.getAbsolutePath());
 			// handle the info rules first, since they trump everything
 			if (workTree != null && !infoRules.isEmpty()) {
-				String rootPath = workTree.getAbsolutePath();
-				String path = file.getAbsolutePath();
+				String rootPath = FileSignature.pathNativeToUnix(workTree.getAbsolutePath());
 				if (path.startsWith(rootPath)) {
 					String subpath = path.substring(rootPath.length() + 1);
 					String infoResult = findAttributeInRules(subpath, IS_FOLDER, KEY_EOL, infoRules);
@@ -253,7 +303,7 @@ public final class GitAttributesLineEndings {
 			}
 
 			// handle the global .gitattributes
-			String globalResult = findAttributeInRules(file.getAbsolutePath(), IS_FOLDER, KEY_EOL, globalRules);
+			String globalResult = findAttributeInRules(path, IS_FOLDER, KEY_EOL, globalRules);
 			if (globalResult != null) {
 				return convertEolToLineEnding(globalResult, file);
 			}
@@ -287,34 +337,62 @@ public final class GitAttributesLineEndings {
 		}
 	}
 
-	/** Parses and caches .gitattributes files. */
+	/**
+	 * Parses and caches .gitattributes files.  Every folder is mapped to the nearest folder at
+	 * or above it which has any rules, so a lookup only visits the folders which can match,
+	 * and each folder is parsed at most once.  Safe for concurrent use.
+	 */
 	static class AttributesCache {
-		final Map<File, List<AttributesRule>> rulesAtPath = new HashMap<>();
+		private static final Folder NONE = new Folder(Collections.emptyList(), 0, null);
 
-		/** Returns a value if there is one, or unspecified if there isn't. */
-		public @Nullable String valueFor(File file, String key) {
-			StringBuilder pathBuilder = new StringBuilder(file.getAbsolutePath().length());
-			boolean isDirectory = file.isDirectory();
-			File parent = file.getParentFile();
-
-			pathBuilder.append(file.getName());
-			while (parent != null) {
-				String path = pathBuilder.toString();
+		final Map<File, Folder> nearestWithRules = new ConcurrentHashMap<>();
 
-				String value = findAttributeInRules(path, isDirectory, key, getRulesForFolder(parent));
+		/** Returns a value if there is one, or unspecified if there isn't.  The given file must not be a directory. */
+		public @Nullable String valueFor(File file, String key) {
+			File absFile = file.getAbsoluteFile();
+			String path = FileSignature.pathNativeToUnix(absFile.getPath());
+			for (Folder folder = nearestWithRules(absFile.getParentFile()); folder != NONE; folder = folder.parent) {
+				String value = findAttributeInRules(path.substring(folder.prefixLength), false, key, folder.rules);
 				if (value != null) {
 					return value;
 				}
-
-				pathBuilder.insert(0, parent.getName() + "/");
-				parent = parent.getParentFile();
 			}
 			return null;
 		}
 
-		/** Returns the gitattributes rules for the given folder. */
-		private List<AttributesRule> getRulesForFolder(File folder) {
-			return rulesAtPath.computeIfAbsent(folder, f -> parseRules(new File(f, Constants.DOT_GIT_ATTRIBUTES)));
+		/** Returns the nearest folder at or above the given one which has any gitattributes rules. */
+		private Folder nearestWithRules(@Nullable File folder) {
+			if (folder == null) {
+				return NONE;
+			}
+			Folder cached = nearestWithRules.get(folder);
+			if (cached != null) {
+				return cached;
+			}
+			Folder parent = nearestWithRules(folder.getParentFile());
+			List<AttributesRule> rules = parseRules(new File(folder, Constants.DOT_GIT_ATTRIBUTES));
+			Folder result = rules.isEmpty() ? parent : new Folder(rules, prefixLength(folder), parent);
+			Folder existing = nearestWithRules.putIfAbsent(folder, result);
+			return existing == null ? result : existing;
+		}
+
+		/** The length of the folder's path, including the trailing slash. */
+		private static int prefixLength(File folder) {
+			String path = FileSignature.pathNativeToUnix(folder.getPath());
+			return path.endsWith("/") ? path.length() : path.length() + 1;
+		}
+
+		private static final class Folder {
+			final List<AttributesRule> rules;
+			final int prefixLength;
+			/** only null for {@link #NONE} */
+			final @Nullable Folder parent;
+
+			Folder(List<AttributesRule> rules, int prefixLength, @Nullable Folder parent) {
+				this.rules = rules;
+				this.prefixLength = prefixLength;
+				this.parent = parent;
+			}
 		}
 	}
 
@@ -339,7 +417,8 @@ public final class GitAttributesLineEndings {
 		String value = null;
 		// later rules override earlier ones
 		for (AttributesRule rule : rules) {
-			if (rule.isMatch(subpath, isFolder)) {
+			// matching the path is far more expensive than looking for the key, so do that last
+			if (hasKey(rule, key) && rule.isMatch(subpath, isFolder)) {
 				for (Attribute attribute : rule.getAttributes()) {
 					if (attribute.getKey().equals(key)) {
 						value = attribute.getValue();
@@ -349,4 +428,13 @@ public final class GitAttributesLineEndings {
 		}
 		return value;
 	}
+
+	private static boolean hasKey(AttributesRule rule, String key) {
+		for (Attribute attribute : rule.getAttributes()) {
+			if (attribute.getKey().equals(key)) {
+				return true;
+			}
+		}
+		return false;
+	}
 }
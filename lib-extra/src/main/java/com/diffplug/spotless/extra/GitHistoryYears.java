@@ -0,0 +1,328 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.extra;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.diff.DiffConfig;
+import org.eclipse.jgit.diff.DiffEntry;
+import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import com.diffplug.common.base.Errors;
+import com.diffplug.spotless.FileSignature;
+
+/**
+ * The year each file was added and last modified, according to the git history of HEAD,
+ * used by {@code LicenseHeaderStep} in {@code SET_FROM_GIT} mode.
+ *
+ * The whole history is read in a single walk from the oldest commit to HEAD, following renames
+ * the same way as {@code git log --follow --find-renames=40%}, rather than running git once or
+ * more per file.  The result is saved in the git directory, keyed on HEAD, so a later build
+ * only walks the commits which are new since then.
+ */
+public final class GitHistoryYears {
+	static final String FILENAME = "spotless/license-years-v1.idx";
+	private static final int RENAME_SCORE = 40;
+
+	/** Returns the sha of HEAD for the repository which contains the given folder, or the empty string if there isn't one. */
+	public static String headSha(File projectDir) throws IOException {
+		Optional<Location> location = locationOf(projectDir);
+		if (!location.isPresent()) {
+			return "";
+		}
+		ObjectId head;
+		try (Repository repo = location.get().open()) {
+			head = repo.resolve(Constants.HEAD);
+		}
+		if (head == null) {
+			return "";
+		}
+		// a new HEAD means the cached years are stale
+		GitHistoryYears years = byGitDir.get(location.get().gitDir);
+		if (years != null && !years.head.equals(head)) {
+			byGitDir.remove(location.get().gitDir, years);
+		}
+		return head.name();
+	}
+
+	/**
+	 * Returns the years in which the given file was added and last modified,
+	 * or null if the file isn't in a git repository, or hasn't been committed yet.
+	 */
+	public static @Nullable int[] yearsOf(File file) throws IOException {
+		File absFile = file.getAbsoluteFile();
+		Optional<Location> location = locationOf(absFile.getParentFile());
+		if (!location.isPresent()) {
+			return null;
+		}
+		GitHistoryYears years = byGitDir.get(location.get().gitDir);
+		if (years == null) {
+			years = byGitDir.computeIfAbsent(location.get().gitDir, unused -> Errors.rethrow().get(() -> {
+				try (Repository repo = location.get().open()) {
+					return new GitHistoryYears(repo);
+				}
+			}));
+		}
+		String workTree = location.get().workTree;
+		String path = FileSignature.pathNativeToUnix(absFile.getPath());
+		if (!path.startsWith(workTree + "/")) {
+			return null;
+		}
+		int[] result = years.years.get(path.substring(workTree.length() + 1));
+		return result == null ? null : result.clone();
+	}
+
+	/**
+	 * Only the locations and the years are kept between calls, never an open {@link Repository},
+	 * because these maps live as long as the classloader, e.g. for the whole life of a Gradle daemon.
+	 */
+	private static final Map<File, Optional<Location>> locationsByDir = new ConcurrentHashMap<>();
+	private static final Map<File, Location> locationsByGitDir = new ConcurrentHashMap<>();
+	private static final Map<File, GitHistoryYears> byGitDir = new ConcurrentHashMap<>();
+
+	private static Optional<Location> locationOf(@Nullable File dir) throws IOException {
+		if (dir == null) {
+			return Optional.empty();
+		}
+		Optional<Location> cached = locationsByDir.get(dir);
+		if (cached != null) {
+			return cached;
+		}
+		FileRepositoryBuilder builder = new FileRepositoryBuilder();
+		builder.findGitDir(dir);
+		Optional<Location> location;
+		if (builder.getGitDir() == null) {
+			location = Optional.empty();
+		} else {
+			File gitDir = builder.getGitDir().getCanonicalFile();
+			location = Optional.of(locationsByGitDir.computeIfAbsent(gitDir, unused -> Errors.rethrow().get(() -> {
+				try (Repository repo = builder.build()) {
+					return new Location(dir, gitDir, FileSignature.pathNativeToUnix(repo.getWorkTree().getAbsolutePath()));
+				}
+			})));
+		}
+		locationsByDir.put(dir, location);
+		return location;
+	}
+
+	/** Where a repository is, so that it can be opened whenever it's needed. */
+	private static final class Location {
+		/** a folder inside the repository, from which it can be found */
+		final File dir;
+		final File gitDir;
+		/** the worktree as a unix path */
+		final String workTree;
+
+		Location(File dir, File gitDir, String workTree) {
+			this.dir = dir;
+			this.gitDir = gitDir;
+			this.workTree = workTree;
+		}
+
+		Repository open() throws IOException {
+			FileRepositoryBuilder builder = new FileRepositoryBuilder();
+			builder.findGitDir(dir);
+			return builder.build();
+		}
+	}
+
+	private final ObjectId head;
+	/** repo-relative path to {yearAdded, yearLastModified} */
+	private final Map<String, int[]> years;
+
+	private GitHistoryYears(Repository repo) throws IOException {
+		ObjectId resolved = repo.resolve(Constants.HEAD);
+		if (resolved == null) {
+			head = ObjectId.zeroId();
+			years = new HashMap<>();
+			return;
+		}
+		head = resolved;
+		File file = new File(repo.getDirectory(), FILENAME);
+		Map<String, int[]> loaded = new HashMap<>();
+		ObjectId loadedHead = load(file, loaded);
+		if (head.equals(loadedHead)) {
+			years = loaded;
+			return;
+		}
+		try (RevWalk walk = new RevWalk(repo)) {
+			if (loadedHead == null || !repo.getObjectDatabase().has(loadedHead) || !walk.isMergedInto(walk.parseCommit(loadedHead), walk.parseCommit(head))) {
+				// the saved history isn't part of HEAD's history (e.g. a rebase), so start over
+				loaded.clear();
+				loadedHead = null;
+			}
+		}
+		applyHistory(repo, loadedHead, head, loaded);
+		years = loaded;
+		save(file, head, years);
+	}
+
+	/** Applies every commit after {@code from} (exclusive, may be null) up to {@code to} (inclusive), oldest first. */
+	private static void applyHistory(Repository repo, @Nullable ObjectId from, ObjectId to, Map<String, int[]> years) throws IOException {
+		DiffConfig diffConfig = repo.getConfig().get(DiffConfig.KEY);
+		try (RevWalk walk = new RevWalk(repo);
+				ObjectReader reader = repo.newObjectReader();
+				TreeWalk treeWalk = new TreeWalk(reader)) {
+			walk.sort(RevSort.TOPO, true);
+			walk.sort(RevSort.REVERSE, true);
+			walk.markStart(walk.parseCommit(to));
+			if (from != null) {
+				walk.markUninteresting(walk.parseCommit(from));
+			}
+			treeWalk.setRecursive(true);
+			treeWalk.setFilter(TreeFilter.ANY_DIFF);
+			for (RevCommit commit : walk) {
+				if (commit.getParentCount() > 1) {
+					// a merge brings in changes which were already counted on the merged branch
+					continue;
+				}
+				treeWalk.reset();
+				if (commit.getParentCount() == 0) {
+					treeWalk.addTree(new EmptyTreeIterator());
+				} else {
+					treeWalk.addTree(walk.parseCommit(commit.getParent(0)).getTree());
+				}
+				treeWalk.addTree(commit.getTree());
+				List<DiffEntry> diffs = DiffEntry.scan(treeWalk);
+				if (hasAddAndDelete(diffs)) {
+					RenameDetector renames = new RenameDetector(reader, diffConfig);
+					renames.setRenameScore(RENAME_SCORE);
+					renames.addAll(diffs);
+					diffs = renames.compute();
+				}
+				int year = yearOf(commit.getAuthorIdent());
+				for (DiffEntry diff : diffs) {
+					apply(diff, year, years);
+				}
+			}
+		}
+	}
+
+	private static void apply(DiffEntry diff, int year, Map<String, int[]> years) {
+		switch (diff.getChangeType()) {
+		case ADD:
+		case COPY:
+			years.put(diff.getNewPath(), new int[]{year, year});
+			break;
+		case MODIFY:
+			years.merge(diff.getNewPath(), new int[]{year, year}, (existing, unused) -> new int[]{existing[0], Math.max(existing[1], year)});
+			break;
+		case RENAME:
+			int[] old = years.remove(diff.getOldPath());
+			years.put(diff.getNewPath(), old == null ? new int[]{year, year} : new int[]{old[0], Math.max(old[1], year)});
+			break;
+		case DELETE:
+			years.remove(diff.getOldPath());
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown change type " + diff.getChangeType());
+		}
+	}
+
+	private static boolean hasAddAndDelete(List<DiffEntry> diffs) {
+		boolean add = false, delete = false;
+		for (DiffEntry diff : diffs) {
+			add |= diff.getChangeType() == DiffEntry.ChangeType.ADD;
+			delete |= diff.getChangeType() == DiffEntry.ChangeType.DELETE;
+		}
+		return add && delete;
+	}
+
+	/** The year in the author's timezone, same as the date shown by {@code git log}. */
+	@SuppressWarnings("deprecation")
+	private static int yearOf(PersonIdent author) {
+		return author.getWhen().toInstant().atZone(author.getTimeZone().toZoneId()).getYear();
+	}
+
+	/** Loads the saved years into the given map, and returns the HEAD they were computed for, or null if there aren't any. */
+	private static @Nullable ObjectId load(File file, Map<String, int[]> years) {
+		if (!file.isFile()) {
+			return null;
+		}
+		try (BufferedReader reader = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String head = reader.readLine();
+			if (head == null || !ObjectId.isId(head)) {
+				return null;
+			}
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int firstTab = line.indexOf('\t');
+				int secondTab = line.indexOf('\t', firstTab + 1);
+				if (firstTab == -1 || secondTab == -1) {
+					return null;
+				}
+				years.put(line.substring(secondTab + 1), new int[]{
+						Integer.parseInt(line.substring(0, firstTab)),
+						Integer.parseInt(line.substring(firstTab + 1, secondTab))});
+			}
+			return ObjectId.fromString(head);
+		} catch (IOException | NumberFormatException e) {
+			logger.log(Level.FINE, "Unable to read license years " + file, e);
+			years.clear();
+			return null;
+		}
+	}
+
+	/** Saves to a temp file which is then moved into place, so that a concurrent build never sees half of it. */
+	private static void save(File file, ObjectId head, Map<String, int[]> years) {
+		File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+		try {
+			Files.createDirectories(file.getParentFile().toPath());
+			try (BufferedWriter writer = Files.newBufferedWriter(tmp.toPath(), StandardCharsets.UTF_8)) {
+				writer.write(head.name());
+				writer.write('\n');
+				for (Map.Entry<String, int[]> entry : years.entrySet()) {
+					if (entry.getKey().indexOf('\n') != -1) {
+						continue;
+					}
+					writer.write(entry.getValue()[0] + "\t" + entry.getValue()[1] + "\t" + entry.getKey() + "\n");
+				}
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Unable to write license years " + file, e);
+		}
+	}
+
+	private static final Logger logger = Logger.getLogger(GitHistoryYears.class.getName());
+}
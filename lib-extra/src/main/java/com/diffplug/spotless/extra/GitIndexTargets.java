@@ -0,0 +1,212 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.extra;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.codehaus.plexus.util.SelectorUtils;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+import com.diffplug.spotless.FileSignature;
+
+/**
+ * Finds the target files using git rather than a walk of the filesystem: every file which is
+ * in the git index, plus every untracked file which isn't ignored.  Ignored folders such as
+ * {@code node_modules} or {@code build} are never entered, which makes a big difference on
+ * large repositories.
+ */
+public final class GitIndexTargets {
+	private static final int INDEX = 0, WORK_TREE = 1;
+
+	private final ConcurrentMap<File, List<String>> candidatesByDir = new ConcurrentHashMap<>();
+
+	/**
+	 * Creates an empty memo of the walks.  Files which are created after a folder was walked won't show up,
+	 * so an instance should live no longer than a single build.
+	 */
+	public GitIndexTargets() {}
+
+	/**
+	 * Like {@link #candidates(File)}, but each folder is only walked once per instance, no matter how
+	 * many formats target it, or how many times their targets are resolved.
+	 */
+	public List<String> candidatesOf(File dir) throws IOException {
+		File absDir = dir.getAbsoluteFile();
+		try {
+			return candidatesByDir.computeIfAbsent(absDir, unused -> {
+				try {
+					return Collections.unmodifiableList(candidates(absDir));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Returns the files within {@code dir} which are tracked, or untracked and not ignored,
+	 * as paths relative to {@code dir} with unix separators.
+	 */
+	public static List<String> candidates(File dir) throws IOException {
+		File absDir = dir.getAbsoluteFile();
+		FileRepositoryBuilder builder = new FileRepositoryBuilder();
+		builder.findGitDir(absDir);
+		if (builder.getGitDir() == null) {
+			throw new IllegalArgumentException("Cannot find the targets from git, because " + absDir + " is not inside a git repository");
+		}
+		try (Repository repo = builder.build();
+				TreeWalk walk = new TreeWalk(repo)) {
+			String workTree = FileSignature.pathNativeToUnix(repo.getWorkTree().getAbsolutePath());
+			String dirPath = FileSignature.pathNativeToUnix(absDir.getPath());
+			String subpath = dirPath.equals(workTree) ? "" : FileSignature.subpath(workTree + "/", dirPath);
+
+			FileTreeIterator workTreeIter = new FileTreeIterator(repo);
+			// by default, jgit hides the contents of ignored folders, even the tracked files within them,
+			// but our filter already makes sure that we only enter an ignored folder if it has tracked files
+			workTreeIter.setWalkIgnoredDirectories(true);
+			walk.addTree(new DirCacheIterator(repo.readDirCache()));
+			walk.addTree(workTreeIter);
+			walk.setRecursive(true);
+			walk.setFilter(subpath.isEmpty() ? TRACKED_OR_NOT_IGNORED : AndTreeFilter.create(PathFilter.create(subpath), TRACKED_OR_NOT_IGNORED));
+
+			List<String> candidates = new ArrayList<>();
+			while (walk.next()) {
+				WorkingTreeIterator file = walk.getTree(WORK_TREE, WorkingTreeIterator.class);
+				if (file == null) {
+					// tracked, but deleted from the working tree
+					continue;
+				}
+				FileMode mode = file.getEntryFileMode();
+				if (mode != FileMode.REGULAR_FILE && mode != FileMode.EXECUTABLE_FILE) {
+					// e.g. a submodule or a symlink
+					continue;
+				}
+				String path = walk.getPathString();
+				candidates.add(subpath.isEmpty() ? path : path.substring(subpath.length() + 1));
+			}
+			return candidates;
+		}
+	}
+
+	/**
+	 * Returns the {@link #candidatesOf(File)} which match any of the includes and none of the excludes, which are
+	 * ant-style patterns relative to {@code dir}.  As with a Gradle file tree, excluding a folder excludes everything in it.
+	 */
+	public List<File> select(File dir, Collection<String> includes, Collection<String> excludes) throws IOException {
+		List<String> includePatterns = normalize(includes);
+		List<String> excludePatterns = normalize(excludes);
+		List<File> selected = new ArrayList<>();
+		for (String candidate : candidatesOf(dir)) {
+			if (matchesAny(includePatterns, candidate) && !isExcluded(excludePatterns, candidate)) {
+				selected.add(new File(dir, candidate));
+			}
+		}
+		return selected;
+	}
+
+	private static boolean isExcluded(List<String> excludePatterns, String path) {
+		if (excludePatterns.isEmpty()) {
+			return false;
+		}
+		for (int slash = path.indexOf('/'); slash != -1; slash = path.indexOf('/', slash + 1)) {
+			if (matchesAny(excludePatterns, path.substring(0, slash))) {
+				return true;
+			}
+		}
+		return matchesAny(excludePatterns, path);
+	}
+
+	/** Includes anything which is tracked, and anything which is untracked but not ignored, without entering ignored folders. */
+	private static final TreeFilter TRACKED_OR_NOT_IGNORED = new TreeFilter() {
+		@Override
+		public boolean include(TreeWalk walker) throws IOException {
+			if (walker.getTree(INDEX, DirCacheIterator.class) != null) {
+				return true;
+			}
+			WorkingTreeIterator workTreeIter = walker.getTree(WORK_TREE, WorkingTreeIterator.class);
+			return workTreeIter != null && !workTreeIter.isEntryIgnored();
+		}
+
+		@Override
+		public boolean shouldBeRecursive() {
+			return false;
+		}
+
+		@Override
+		public TreeFilter clone() {
+			return this;
+		}
+
+		@Override
+		public String toString() {
+			return "TRACKED_OR_NOT_IGNORED";
+		}
+	};
+
+	private static boolean matchesAny(List<String> patterns, String path) {
+		for (String pattern : patterns) {
+			if (SelectorUtils.matchPath(pattern, path, "/", true)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static List<String> normalize(Collection<String> antPatterns) {
+		List<String> patterns = new ArrayList<>(antPatterns.size());
+		for (String antPattern : antPatterns) {
+			patterns.add(normalize(antPattern));
+		}
+		return patterns;
+	}
+
+	/** Puts an ant-style pattern into the form which plexus expects for unix-style relative paths. */
+	static String normalize(String antPattern) {
+		String pattern = antPattern.replace('\\', '/');
+		if (pattern.startsWith("/")) {
+			pattern = pattern.substring(1);
+		}
+		if (pattern.endsWith("/")) {
+			// ant treats 'dir/' as 'dir/**'
+			pattern = pattern + "**";
+		}
+		return pattern;
+	}
+
+	/** Returns true if the given ant-style pattern matches the given unix-style relative path. */
+	static boolean matches(String antPattern, String path) {
+		return SelectorUtils.matchPath(normalize(antPattern), path, "/", true);
+	}
+}
@@ -17,18 +17,23 @@ package com.diffplug.spotless.extra;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import javax.annotation.Nullable;
 
 import org.eclipse.jgit.dircache.DirCache;
 import org.eclipse.jgit.dircache.DirCacheIterator;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.IndexDiff;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.lib.RepositoryCache;
@@ -43,11 +48,10 @@ import org.eclipse.jgit.treewalk.WorkingTreeIterator;
 import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
 import org.eclipse.jgit.treewalk.filter.IndexDiffFilter;
 import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 import org.eclipse.jgit.util.FS;
 
 import com.diffplug.common.base.Errors;
-import com.diffplug.common.collect.HashBasedTable;
-import com.diffplug.common.collect.Table;
 import com.diffplug.spotless.FileSignature;
 
 /**
@@ -55,14 +59,111 @@ import com.diffplug.spotless.FileSignature;
  * - For best performance, you should have one instance of GitRatchet, shared by all projects.
  * - Use {@link #rootTreeShaOf(Object, String)} to turn {@code origin/master} into the SHA of the tree object at that reference
  * - Use {@link #isClean(Object, ObjectId, File)} to see if the given file is "git clean" relative to that tree
+ * - Or use {@link #dirtyPaths(Object, ObjectId)} to get every file which isn't
+ * - If the GitRatchet outlives a single build, use {@link #isCleanNow(Object, ObjectId, File)} instead, because the dirty files are cached
  * - If you have up-to-date checking and want the best possible performance, use {@link #subtreeShaOf(Object, ObjectId)} to optimize up-to-date checks on a per-project basis.
  */
 public abstract class GitRatchet<Project> implements AutoCloseable {
 
+	/**
+	 * Returns true if the given file is clean relative to the given tree.  Rather than walking the tree for
+	 * every file, the first call for a project computes every dirty file within that project in a single pass,
+	 * and later calls are just a lookup in that set, see {@link #dirtyPaths(Object, ObjectId)}.
+	 */
 	public boolean isClean(Project project, ObjectId treeSha, File file) throws IOException {
 		Repository repo = repositoryFor(project);
-		String relativePath = FileSignature.pathNativeToUnix(repo.getWorkTree().toPath().relativize(file.toPath()).toString());
-		return isClean(project, treeSha, relativePath);
+		return !dirtyPaths(project, treeSha).contains(relativePathOf(repo, file));
+	}
+
+	/**
+	 * Like {@link #isClean(Object, ObjectId, File)}, but checks just the given file as it is right now, rather than
+	 * looking it up in the dirty set, which is only recomputed when the git index changes.  Use this from anything
+	 * which outlives a single build, such as a daemon, where a file can be edited after the dirty set was computed.
+	 */
+	public boolean isCleanNow(Project project, ObjectId treeSha, File file) throws IOException {
+		Repository repo = repositoryFor(project);
+		return isClean(project, treeSha, relativePathOf(repo, file));
+	}
+
+	private static String relativePathOf(Repository repo, File file) {
+		return FileSignature.pathNativeToUnix(repo.getWorkTree().toPath().relativize(file.toPath()).toString());
+	}
+
+	/**
+	 * Returns the paths (relative to the repository root, with unix separators) of every file within the given
+	 * project which is dirty relative to the given tree.  The result is cached per repository, tree, project directory,
+	 * and timestamp of the git index, so it assumes that the working tree doesn't change underneath it, which is true
+	 * for a GitRatchet which lives for a single build.
+	 */
+	public Set<String> dirtyPaths(Project project, ObjectId treeSha) throws IOException {
+		Repository repo = repositoryFor(project);
+		String subpath = subpathOf(repo, getDir(project));
+		long indexTimestamp = repo.getIndexFile().lastModified();
+		DirtyKey key = new DirtyKey(repo, treeSha, subpath);
+		try {
+			// compute() is single-flight per key, so concurrent tasks in the same project only compute the set once
+			return dirtyCache.compute(key, (unused, cached) -> {
+				if (cached != null && cached.indexTimestamp == indexTimestamp) {
+					return cached;
+				}
+				try {
+					return new DirtySet(indexTimestamp, Collections.unmodifiableSet(computeDirtyPaths(project, treeSha, subpath)));
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}).paths;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Computes the paths (relative to the repository root, with unix separators) of every file within
+	 * {@code subpath} which is dirty relative to the given tree, in a single pass over the tree, index and working copy.
+	 * Pass an empty subpath for the whole repository.
+	 */
+	protected Set<String> computeDirtyPaths(Project project, ObjectId treeSha, String subpath) throws IOException {
+		Repository repository = repositoryFor(project);
+		IndexDiff indexDiff = new IndexDiff(repository, treeSha, new FileTreeIterator(repository));
+		if (!subpath.isEmpty()) {
+			indexDiff.setFilter(PathFilterGroup.createFromStrings(subpath));
+		}
+		indexDiff.diff();
+
+		Set<String> dirtyPaths = new HashSet<>(indexDiff.getChanged());
+		dirtyPaths.addAll(indexDiff.getAdded());
+		dirtyPaths.addAll(indexDiff.getConflicting());
+		dirtyPaths.addAll(indexDiff.getUntracked());
+
+		for (String path : indexDiff.getModified()) {
+			if (!dirtyPaths.add(path)) {
+				// File differs to index both in working tree and local repository,
+				// which means the working tree and local repository versions may be equal
+				if (isClean(project, treeSha, path)) {
+					dirtyPaths.remove(path);
+				}
+			}
+		}
+		for (String path : indexDiff.getRemoved()) {
+			if (dirtyPaths.contains(path)) {
+				// A removed file can also be untracked, if a new file with the same name has been created.
+				// This file may be identical to the one in the local repository.
+				if (isClean(project, treeSha, path)) {
+					dirtyPaths.remove(path);
+				}
+			}
+		}
+		// A file can be modified in the index but removed in the tree
+		dirtyPaths.removeAll(indexDiff.getMissing());
+		return dirtyPaths;
+	}
+
+	/** The path of the given directory relative to the repository root, or the empty string if it is the root. */
+	private static String subpathOf(Repository repo, File directory) {
+		if (repo.getWorkTree().equals(directory)) {
+			return "";
+		}
+		return FileSignature.pathNativeToUnix(repo.getWorkTree().toPath().relativize(directory.toPath()).toString());
 	}
 
 	/**
@@ -74,9 +175,9 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 	public boolean isClean(Project project, ObjectId treeSha, String relativePathUnix) throws IOException {
 		Repository repo = repositoryFor(project);
 
-		// TODO: should be cached-per-repo if it is thread-safe, or per-repo-per-thread if it is not
-		DirCache dirCache = repo.readDirCache();
+		DirCache dirCache = dirCacheOf(repo);
 
+		// each TreeWalk opens (and closes) its own ObjectReader, so concurrent calls don't share one
 		try (TreeWalk treeWalk = new TreeWalk(repo)) {
 			treeWalk.setRecursive(true);
 			treeWalk.addTree(treeSha);
@@ -125,6 +226,41 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 		}
 	}
 
+	/**
+	 * The index is only read by the DirCacheIterator, so a single copy can be shared between threads,
+	 * as long as we reread it whenever it changes on disk.  This replaces reading it for every file.
+	 */
+	DirCache dirCacheOf(Repository repo) throws IOException {
+		long indexTimestamp = repo.getIndexFile().lastModified();
+		try {
+			return dirCaches.compute(repo, (unused, cached) -> {
+				if (cached != null && cached.indexTimestamp == indexTimestamp) {
+					return cached;
+				}
+				try {
+					DirCache dirCache = repo.readDirCache();
+					// DirCacheIterator builds the cache tree lazily, so we build it up-front rather than racing to build it
+					dirCache.getCacheTree(true);
+					return new IndexSnapshot(indexTimestamp, dirCache);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			}).dirCache;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static final class IndexSnapshot {
+		final long indexTimestamp;
+		final DirCache dirCache;
+
+		IndexSnapshot(long indexTimestamp, DirCache dirCache) {
+			this.indexTimestamp = indexTimestamp;
+			this.dirCache = dirCache;
+		}
+	}
+
 	/** Returns true if the worktree file is a clean checkout of head (possibly smudged). */
 	private static boolean worktreeIsCleanCheckout(TreeWalk treeWalk) {
 		return treeWalk.idEqual(TREE, WORKDIR);
@@ -134,9 +270,58 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 	private final static int INDEX = 1;
 	private final static int WORKDIR = 2;
 
-	Map<Project, Repository> gitRoots = new HashMap<>();
-	Table<Repository, String, ObjectId> rootTreeShaCache = HashBasedTable.create();
-	Map<Project, ObjectId> subtreeShaCache = new HashMap<>();
+	/*
+	 * Everything below is safe for concurrent use, because Gradle's --parallel and Maven's -T can
+	 * call into a single GitRatchet from several threads at once.  Repository is thread-safe, and
+	 * there is exactly one instance per git directory, so the identity of a Repository can be used as a key.
+	 */
+	final ConcurrentMap<Project, Repository> gitRoots = new ConcurrentHashMap<>();
+	private final ConcurrentMap<File, Repository> reposByGitDir = new ConcurrentHashMap<>();
+	final ConcurrentMap<Repository, ConcurrentMap<String, ObjectId>> rootTreeShaCache = new ConcurrentHashMap<>();
+	final ConcurrentMap<Project, ObjectId> subtreeShaCache = new ConcurrentHashMap<>();
+	private final ConcurrentMap<DirtyKey, DirtySet> dirtyCache = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Repository, IndexSnapshot> dirCaches = new ConcurrentHashMap<>();
+	private final ConcurrentMap<Repository, GitRatchetIndex> persistedShas = new ConcurrentHashMap<>();
+
+	private GitRatchetIndex persistedShasOf(Repository repo) {
+		return persistedShas.computeIfAbsent(repo, GitRatchetIndex::new);
+	}
+
+	private static final class DirtyKey {
+		final Repository repo;
+		final ObjectId treeSha;
+		final String subpath;
+
+		DirtyKey(Repository repo, ObjectId treeSha, String subpath) {
+			this.repo = repo;
+			this.treeSha = treeSha.copy();
+			this.subpath = subpath;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (!(other instanceof DirtyKey)) {
+				return false;
+			}
+			DirtyKey that = (DirtyKey) other;
+			return repo == that.repo && treeSha.equals(that.treeSha) && subpath.equals(that.subpath);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(System.identityHashCode(repo), treeSha, subpath);
+		}
+	}
+
+	private static final class DirtySet {
+		final long indexTimestamp;
+		final Set<String> paths;
+
+		DirtySet(long indexTimestamp, Set<String> paths) {
+			this.indexTimestamp = indexTimestamp;
+			this.paths = paths;
+		}
+	}
 
 	/**
 	 * The first part of making this fast is finding the appropriate git repository quickly.  Because of composite
@@ -146,8 +331,10 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 	protected Repository repositoryFor(Project project) throws IOException {
 		Repository repo = gitRoots.get(project);
 		if (repo == null) {
+			// no lock here: two threads might both resolve the same project, but openRepo
+			// is single-flight, so they will both end up with the same Repository
 			if (isGitRoot(getDir(project))) {
-				repo = createRepo(getDir(project));
+				repo = openRepo(getDir(project));
 			} else {
 				Project parentProj = getParent(project);
 				if (parentProj == null) {
@@ -162,7 +349,10 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 					}
 				}
 			}
-			gitRoots.put(project, repo);
+			Repository existing = gitRoots.putIfAbsent(project, repo);
+			if (existing != null) {
+				repo = existing;
+			}
 		}
 		return repo;
 	}
@@ -171,10 +361,10 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 
 	protected abstract @Nullable Project getParent(Project project);
 
-	private static @Nullable Repository traverseParentsUntil(File startWith, File file) throws IOException {
+	private @Nullable Repository traverseParentsUntil(File startWith, File file) throws IOException {
 		while (startWith != null && !Objects.equals(startWith, file)) {
 			if (isGitRoot(startWith)) {
-				return createRepo(startWith);
+				return openRepo(startWith);
 			} else {
 				startWith = startWith.getParentFile();
 			}
@@ -211,63 +401,101 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 		return dotGit != null && RepositoryCache.FileKey.isGitRepository(dotGit, FS.DETECTED);
 	}
 
-	static Repository createRepo(File dir) throws IOException {
-		return FileRepositoryBuilder.create(getDotGitDir(dir, Constants.DOT_GIT));
+	/** Opens the repository at the given directory, or returns the one which is already open. */
+	private Repository openRepo(File dir) throws IOException {
+		File dotGit = getDotGitDir(dir, Constants.DOT_GIT);
+		if (dotGit == null) {
+			throw new IllegalArgumentException("No git repository at " + dir);
+		}
+		File gitDir = dotGit.getCanonicalFile();
+		try {
+			return reposByGitDir.computeIfAbsent(gitDir, unused -> {
+				try {
+					return FileRepositoryBuilder.create(gitDir);
+				} catch (IOException e) {
+					throw new UncheckedIOException(e);
+				}
+			});
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
 	}
 
 	/**
 	 * Fast way to return treeSha of the given ref against the git repository which stores the given project.
-	 * Because of parallel project evaluation, there may be races here, so we synchronize on ourselves.  However, this method
-	 * is the only method which can trigger any changes, and it is only called during project evaluation.  That means our state
-	 * is final/read-only during task execution, so we don't need any locks during the heavy lifting.
+	 * The merge-base walk is single-flight per repository and reference, so parallel project evaluation
+	 * only walks the history once.
 	 */
-	public synchronized ObjectId rootTreeShaOf(Project project, String reference) {
+	public ObjectId rootTreeShaOf(Project project, String reference) {
 		try {
 			Repository repo = repositoryFor(project);
-			ObjectId treeSha = rootTreeShaCache.get(repo, reference);
-			if (treeSha == null) {
-				try (RevWalk revWalk = new RevWalk(repo)) {
-					ObjectId commitSha = repo.resolve(reference);
-					if (commitSha == null) {
-						throw new IllegalArgumentException("No such reference '" + reference + "'");
-					}
+			return rootTreeShaCache.computeIfAbsent(repo, unused -> new ConcurrentHashMap<>())
+					.computeIfAbsent(reference, unused -> {
+						try {
+							return mergeBaseTreeSha(repo, reference);
+						} catch (IOException e) {
+							throw Errors.asRuntime(e);
+						}
+					});
+		} catch (IOException e) {
+			throw Errors.asRuntime(e);
+		}
+	}
 
-					RevCommit ratchetFrom = revWalk.parseCommit(commitSha);
-					RevCommit head = revWalk.parseCommit(repo.resolve(Constants.HEAD));
+	private ObjectId mergeBaseTreeSha(Repository repo, String reference) throws IOException {
+		ObjectId commitSha = repo.resolve(reference);
+		if (commitSha == null) {
+			throw new IllegalArgumentException("No such reference '" + reference + "'");
+		}
+		ObjectId headSha = repo.resolve(Constants.HEAD);
+		// the merge-base of two commits never changes, so a previous build may have already walked it
+		GitRatchetIndex persisted = persistedShasOf(repo);
+		String key = GitRatchetIndex.mergeBaseKey(commitSha, headSha);
+		ObjectId treeSha = persisted.get(key);
+		if (treeSha != null) {
+			return treeSha;
+		}
+		try (RevWalk revWalk = new RevWalk(repo)) {
+			RevCommit ratchetFrom = revWalk.parseCommit(commitSha);
+			RevCommit head = revWalk.parseCommit(headSha);
 
-					revWalk.setRevFilter(RevFilter.MERGE_BASE);
-					revWalk.markStart(ratchetFrom);
-					revWalk.markStart(head);
+			revWalk.setRevFilter(RevFilter.MERGE_BASE);
+			revWalk.markStart(ratchetFrom);
+			revWalk.markStart(head);
 
-					RevCommit mergeBase = revWalk.next();
-					treeSha = Optional.ofNullable(mergeBase).orElse(ratchetFrom).getTree();
-				}
-				rootTreeShaCache.put(repo, reference, treeSha);
-			}
-			return treeSha;
-		} catch (IOException e) {
-			throw Errors.asRuntime(e);
+			RevCommit mergeBase = revWalk.next();
+			treeSha = Optional.ofNullable(mergeBase).orElse(ratchetFrom).getTree().copy();
 		}
+		persisted.put(key, treeSha);
+		return treeSha;
 	}
 
 	/**
 	 * Returns the sha of the git subtree which represents the root of the given project, or {@link ObjectId#zeroId()}
 	 * if there is no git subtree at the project root.
 	 */
-	public synchronized ObjectId subtreeShaOf(Project project, ObjectId rootTreeSha) {
+	public ObjectId subtreeShaOf(Project project, ObjectId rootTreeSha) {
 		try {
 			ObjectId subtreeSha = subtreeShaCache.get(project);
 			if (subtreeSha == null) {
 				Repository repo = repositoryFor(project);
-				File directory = getDir(project);
-				if (repo.getWorkTree().equals(directory)) {
+				String subpath = subpathOf(repo, getDir(project));
+				if (subpath.isEmpty()) {
 					subtreeSha = rootTreeSha;
 				} else {
-					String subpath = FileSignature.pathNativeToUnix(repo.getWorkTree().toPath().relativize(directory.toPath()).toString());
-					TreeWalk treeWalk = TreeWalk.forPath(repo, subpath, rootTreeSha);
-					subtreeSha = treeWalk == null ? ObjectId.zeroId() : treeWalk.getObjectId(0);
+					GitRatchetIndex persisted = persistedShasOf(repo);
+					String key = GitRatchetIndex.subtreeKey(rootTreeSha, subpath);
+					subtreeSha = persisted.get(key);
+					if (subtreeSha == null) {
+						TreeWalk treeWalk = TreeWalk.forPath(repo, subpath, rootTreeSha);
+						subtreeSha = treeWalk == null ? ObjectId.zeroId() : treeWalk.getObjectId(0).copy();
+						persisted.put(key, subtreeSha);
+					}
+				}
+				ObjectId existing = subtreeShaCache.putIfAbsent(project, subtreeSha);
+				if (existing != null) {
+					subtreeSha = existing;
 				}
-				subtreeShaCache.put(project, subtreeSha);
 			}
 			return subtreeSha;
 		} catch (IOException e) {
@@ -277,8 +505,6 @@ public abstract class GitRatchet<Project> implements AutoCloseable {
 
 	@Override
 	public void close() {
-		gitRoots.values().stream()
-				.distinct()
-				.forEach(Repository::close);
+		reposByGitDir.values().forEach(Repository::close);
 	}
 }
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.extra;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+
+import com.diffplug.spotless.IndexFile;
+
+/**
+ * Remembers the results of {@link GitRatchet}'s expensive history walks across builds, in the git directory
+ * of each repository.  Every result is a pure function of immutable git objects (e.g. the merge-base of two
+ * commits), so an entry never goes stale, it can only point to an object which has since been garbage-collected,
+ * which we check for before using it.
+ *
+ * The file is an append-only {@link IndexFile} with one {@code key, sha} record per result, and is simply
+ * deleted once it gets too big.
+ */
+final class GitRatchetIndex {
+	static final String FILENAME = "spotless/ratchet-v1.idx";
+	static final String HEADER = "spotless-ratchet-v1";
+	private static final int MAX_LINES = 10_000;
+
+	private final Repository repo;
+	private final File file;
+	private final Map<String, ObjectId> entries = new ConcurrentHashMap<>();
+
+	GitRatchetIndex(Repository repo) {
+		this.repo = repo;
+		this.file = new File(repo.getDirectory(), FILENAME);
+		if (load() > MAX_LINES) {
+			entries.clear();
+			delete();
+		}
+	}
+
+	/** The key for the tree of the merge-base between the ratchet commit and HEAD. */
+	static String mergeBaseKey(ObjectId ratchetFrom, ObjectId head) {
+		return "merge-base:" + ratchetFrom.name() + ":" + head.name();
+	}
+
+	/** The key for the subtree at the given path within a tree. */
+	static String subtreeKey(ObjectId rootTree, String subpath) {
+		return "subtree:" + rootTree.name() + ":" + subpath;
+	}
+
+	/** Returns the sha for the given key, or null if we don't have it (or it's no longer in the repository). */
+	@Nullable
+	ObjectId get(String key) {
+		ObjectId sha = entries.get(key);
+		if (sha == null || ObjectId.zeroId().equals(sha)) {
+			return sha;
+		}
+		try {
+			return repo.getObjectDatabase().has(sha) ? sha : null;
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	void put(String key, ObjectId sha) {
+		entries.put(key, sha);
+		if (!IndexFile.canWrite(key, sha.name())) {
+			// not representable in our format, but also not worth escaping
+			return;
+		}
+		synchronized (this) {
+			try {
+				IndexFile.append(file, HEADER, key, sha.name());
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Unable to write ratchet index " + file, e);
+			}
+		}
+	}
+
+	private int load() {
+		if (!file.isFile()) {
+			return 0;
+		}
+		try {
+			return IndexFile.read(file, HEADER, 2, pieces -> {
+				if (pieces.length != 2 || !ObjectId.isId(pieces[1])) {
+					// partially written line from a concurrent writer, just skip it
+					return;
+				}
+				entries.put(pieces[0], ObjectId.fromString(pieces[1]));
+			});
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Unable to read ratchet index " + file + ", starting over", e);
+			entries.clear();
+			delete();
+			return 0;
+		}
+	}
+
+	private void delete() {
+		try {
+			Files.deleteIfExists(file.toPath());
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Unable to delete ratchet index " + file, e);
+		}
+	}
+
+	private static final Logger logger = Logger.getLogger(GitRatchetIndex.class.getName());
+}
@@ -0,0 +1,107 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.extra;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.IndexDiff;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevSort;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+
+/**
+ * Finds the files which changed recently according to git, for {@link com.diffplug.spotless.TargetSampler}.
+ *
+ * "Recently" is measured back from the commit time of {@code HEAD} rather than from now, so the
+ * result only depends on the checkout, and is the same on a fresh CI clone as on a developer's machine.
+ * Files with uncommitted changes are recent too.  A commit without parents, such as the tip of a
+ * shallow clone, is skipped, because every file in it would look changed.
+ */
+public final class GitRecentFiles {
+	private GitRecentFiles() {}
+
+	/**
+	 * Returns the files which were changed by a commit within {@code hours} of {@code HEAD}, or which have
+	 * uncommitted changes, in the git repository which contains {@code dir}.  Returns an empty list if there
+	 * isn't a repository, or it doesn't have any commits.
+	 */
+	public static List<File> changedWithin(File dir, long hours) throws IOException {
+		FileRepositoryBuilder builder = new FileRepositoryBuilder();
+		builder.findGitDir(dir.getAbsoluteFile());
+		if (builder.getGitDir() == null) {
+			return new ArrayList<>();
+		}
+		try (Repository repo = builder.build()) {
+			ObjectId head = repo.resolve(Constants.HEAD);
+			if (head == null) {
+				return new ArrayList<>();
+			}
+			Set<String> paths = new TreeSet<>();
+			try (RevWalk revWalk = new RevWalk(repo)) {
+				RevCommit headCommit = revWalk.parseCommit(head);
+				long cutoff = headCommit.getCommitTime() - TimeUnit.HOURS.toSeconds(hours);
+				revWalk.sort(RevSort.COMMIT_TIME_DESC);
+				revWalk.markStart(headCommit);
+				for (RevCommit commit : revWalk) {
+					if (commit.getCommitTime() < cutoff) {
+						break;
+					}
+					for (RevCommit parent : commit.getParents()) {
+						addChanged(repo, revWalk.parseCommit(parent), commit, paths);
+					}
+				}
+			}
+			IndexDiff uncommitted = new IndexDiff(repo, head, new FileTreeIterator(repo));
+			uncommitted.diff();
+			paths.addAll(uncommitted.getAdded());
+			paths.addAll(uncommitted.getChanged());
+			paths.addAll(uncommitted.getModified());
+			paths.addAll(uncommitted.getUntracked());
+			paths.addAll(uncommitted.getConflicting());
+
+			List<File> files = new ArrayList<>(paths.size());
+			for (String path : paths) {
+				files.add(new File(repo.getWorkTree(), path));
+			}
+			return files;
+		}
+	}
+
+	private static void addChanged(Repository repo, RevCommit parent, RevCommit commit, Set<String> paths) throws IOException {
+		try (TreeWalk walk = new TreeWalk(repo)) {
+			walk.addTree(parent.getTree());
+			walk.addTree(commit.getTree());
+			walk.setRecursive(true);
+			walk.setFilter(TreeFilter.ANY_DIFF);
+			while (walk.next()) {
+				paths.add(walk.getPathString());
+			}
+		}
+	}
+}
@@ -0,0 +1,293 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.extra;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEditor;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.CoreConfig.EolStreamType;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
+import org.eclipse.jgit.treewalk.EmptyTreeIterator;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.TreeWalk.OperationType;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilter;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.io.EolStreamTypeUtil;
+
+import com.diffplug.spotless.FileSignature;
+import com.diffplug.spotless.Formatter;
+import com.diffplug.spotless.PaddedCell;
+
+/**
+ * Formats the content which is staged in the git index, rather than the content in the working tree,
+ * for use in a pre-commit hook.  Only the files which are staged are read, and the tree is never walked.
+ *
+ * Formatting results are kept in memory until {@link #write()}, which stores them in the index as new
+ * blobs.  A file in the working tree is only updated if it matches what was staged, so a partially
+ * staged file keeps its unstaged changes, and only the staged part is formatted.
+ *
+ * The formatter sees the staged content as it would be checked out, so that {@code core.autocrlf} and
+ * the {@code eol} and {@code text} attributes apply just as they do to the working tree, and the result
+ * is converted back to the form that {@code git add} would store in the index.
+ */
+public final class GitStagedFormat implements AutoCloseable {
+	private final Repository repo;
+	private final String workTree;
+	private final Map<File, Staged> staged = new LinkedHashMap<>();
+
+	private GitStagedFormat(Repository repo, Map<File, Staged> staged) {
+		this.repo = repo;
+		this.workTree = FileSignature.pathNativeToUnix(repo.getWorkTree().getAbsolutePath());
+		this.staged.putAll(staged);
+	}
+
+	/** Finds the files within {@code projectDir} which are added or modified in the index, relative to HEAD. */
+	public static GitStagedFormat open(File projectDir) throws IOException {
+		File absDir = projectDir.getAbsoluteFile();
+		FileRepositoryBuilder builder = new FileRepositoryBuilder();
+		builder.findGitDir(absDir);
+		if (builder.getGitDir() == null) {
+			throw new IllegalArgumentException("Cannot format staged files, because " + absDir + " is not inside a git repository");
+		}
+		Repository repo = builder.build();
+		try {
+			String workTreePath = FileSignature.pathNativeToUnix(repo.getWorkTree().getAbsolutePath());
+			String dirPath = FileSignature.pathNativeToUnix(absDir.getPath());
+			String subpath = dirPath.equals(workTreePath) ? "" : FileSignature.subpath(workTreePath + "/", dirPath);
+
+			Map<File, Staged> staged = new LinkedHashMap<>();
+			try (RevWalk revWalk = new RevWalk(repo);
+					TreeWalk walk = new TreeWalk(repo)) {
+				ObjectId head = repo.resolve(Constants.HEAD);
+				if (head == null) {
+					// the first commit, so everything in the index is staged
+					walk.addTree(new EmptyTreeIterator());
+				} else {
+					CanonicalTreeParser headTree = new CanonicalTreeParser();
+					headTree.reset(walk.getObjectReader(), revWalk.parseCommit(head).getTree());
+					walk.addTree(headTree);
+				}
+				walk.addTree(new DirCacheIterator(repo.readDirCache()));
+				walk.setRecursive(true);
+				walk.setFilter(subpath.isEmpty() ? TreeFilter.ANY_DIFF : AndTreeFilter.create(PathFilter.create(subpath), TreeFilter.ANY_DIFF));
+				while (walk.next()) {
+					DirCacheIterator index = walk.getTree(1, DirCacheIterator.class);
+					if (index == null) {
+						// deleted, nothing to format
+						continue;
+					}
+					DirCacheEntry entry = index.getDirCacheEntry();
+					if (entry == null || entry.getStage() != DirCacheEntry.STAGE_0 || !isFile(entry.getFileMode())) {
+						// a merge conflict, submodule or symlink
+						continue;
+					}
+					String path = walk.getPathString();
+					Staged value = new Staged(path, entry.getObjectId(), eolStreamType(walk, OperationType.CHECKOUT_OP), eolStreamType(walk, OperationType.CHECKIN_OP));
+					staged.put(new File(absDir, subpath.isEmpty() ? path : path.substring(subpath.length() + 1)), value);
+				}
+			}
+			return new GitStagedFormat(repo, staged);
+		} catch (IOException | RuntimeException e) {
+			repo.close();
+			throw e;
+		}
+	}
+
+	/** How git converts the line endings of the walk's current path, when it is checked out or added. */
+	private static EolStreamType eolStreamType(TreeWalk walk, OperationType operation) {
+		EolStreamType type = walk.getEolStreamType(operation);
+		return type == null ? EolStreamType.DIRECT : type;
+	}
+
+	private static boolean isFile(FileMode mode) {
+		return mode == FileMode.REGULAR_FILE || mode == FileMode.EXECUTABLE_FILE;
+	}
+
+	/** The files which are staged, within the folder this was opened on. */
+	public List<File> stagedFiles() {
+		return Collections.unmodifiableList(new ArrayList<>(staged.keySet()));
+	}
+
+	/**
+	 * Formats the staged content of the given file, including the result of any earlier calls for the same file,
+	 * and keeps the result in memory until {@link #write()}.
+	 */
+	public PaddedCell.DirtyState format(File file, Formatter formatter) throws IOException {
+		Staged entry = staged.get(file.getAbsoluteFile());
+		if (entry == null) {
+			throw new IllegalArgumentException(file + " is not staged");
+		}
+		byte[] content = entry.current(repo);
+		PaddedCell.DirtyState state = PaddedCell.calculateDirtyState(formatter, file, content);
+		if (!state.isClean() && !state.didNotConverge()) {
+			entry.formatted = state.canonicalBytes();
+		}
+		return state;
+	}
+
+	/** Stores every formatted file in the index, and in the working tree if it isn't partially staged. */
+	public Result write() throws IOException {
+		List<File> changedInIndex = new ArrayList<>();
+		List<File> changedInWorkTree = new ArrayList<>();
+		DirCache index = repo.lockDirCache();
+		try (ObjectInserter inserter = repo.newObjectInserter()) {
+			DirCacheEditor editor = index.editor();
+			for (Map.Entry<File, Staged> entry : staged.entrySet()) {
+				File file = entry.getKey();
+				Staged value = entry.getValue();
+				byte[] formatted = value.formatted;
+				if (formatted == null || Arrays.equals(formatted, value.checkedOut(repo))) {
+					continue;
+				}
+				ObjectId blob = inserter.insert(Constants.OBJ_BLOB, value.checkIn(formatted));
+				boolean updateWorkTree = file.isFile() && Arrays.equals(Files.readAllBytes(file.toPath()), value.checkedOut(repo));
+				if (updateWorkTree) {
+					Files.write(file.toPath(), formatted);
+					changedInWorkTree.add(file);
+				}
+				DirCacheEntry existing = index.getEntry(value.path);
+				FileMode mode = existing == null ? FileMode.REGULAR_FILE : existing.getFileMode();
+				BasicFileAttributes attributes = updateWorkTree ? Files.readAttributes(file.toPath(), BasicFileAttributes.class) : null;
+				editor.add(new DirCacheEditor.PathEdit(value.path) {
+					@Override
+					public void apply(DirCacheEntry ent) {
+						ent.setObjectId(blob);
+						ent.setFileMode(mode);
+						ent.setLength(formatted.length);
+						if (attributes != null) {
+							// the working tree matches the index, so git doesn't need to look at it again
+							ent.setLastModified(attributes.lastModifiedTime().toInstant());
+						}
+					}
+				});
+				changedInIndex.add(file);
+			}
+			inserter.flush();
+			if (!editor.commit()) {
+				throw new IOException("Unable to write the git index " + index);
+			}
+		} finally {
+			index.unlock();
+		}
+		return new Result(changedInIndex, changedInWorkTree);
+	}
+
+	@Override
+	public void close() {
+		repo.close();
+	}
+
+	@Override
+	public String toString() {
+		return "GitStagedFormat[" + workTree + ", " + staged.size() + " staged]";
+	}
+
+	/** The files which {@link #write()} changed. */
+	public static final class Result {
+		private final List<File> changedInIndex, changedInWorkTree;
+
+		private Result(List<File> changedInIndex, List<File> changedInWorkTree) {
+			this.changedInIndex = Collections.unmodifiableList(changedInIndex);
+			this.changedInWorkTree = Collections.unmodifiableList(changedInWorkTree);
+		}
+
+		/** The files whose staged content was formatted. */
+		public List<File> getChangedInIndex() {
+			return changedInIndex;
+		}
+
+		/** The files which were also formatted in the working tree, a subset of {@link #getChangedInIndex()}. */
+		public List<File> getChangedInWorkTree() {
+			return changedInWorkTree;
+		}
+	}
+
+	private static final class Staged {
+		final String path;
+		final ObjectId blob;
+		final EolStreamType checkout, checkin;
+		/** Both are in the checked-out form, i.e. with the line endings of the working tree. */
+		byte[] checkedOut, formatted;
+
+		Staged(String path, ObjectId blob, EolStreamType checkout, EolStreamType checkin) {
+			this.path = path;
+			this.blob = blob;
+			this.checkout = checkout;
+			this.checkin = checkin;
+		}
+
+		/** The staged content, as git would write it to the working tree. */
+		byte[] checkedOut(Repository repo) throws IOException {
+			if (checkedOut == null) {
+				byte[] raw = repo.open(blob, Constants.OBJ_BLOB).getBytes();
+				if (checkout == EolStreamType.DIRECT) {
+					checkedOut = raw;
+				} else {
+					ByteArrayOutputStream converted = new ByteArrayOutputStream(raw.length);
+					try (OutputStream out = EolStreamTypeUtil.wrapOutputStream(converted, checkout)) {
+						out.write(raw);
+					}
+					checkedOut = converted.toByteArray();
+				}
+			}
+			return checkedOut;
+		}
+
+		/** The given checked-out content, as git would store it in the index. */
+		byte[] checkIn(byte[] content) throws IOException {
+			if (checkin == EolStreamType.DIRECT) {
+				return content;
+			}
+			ByteArrayOutputStream converted = new ByteArrayOutputStream(content.length);
+			try (InputStream in = EolStreamTypeUtil.wrapInputStream(new ByteArrayInputStream(content), checkin)) {
+				byte[] buffer = new byte[8192];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					converted.write(buffer, 0, read);
+				}
+			}
+			return converted.toByteArray();
+		}
+
+		byte[] current(Repository repo) throws IOException {
+			return formatted != null ? formatted : checkedOut(repo);
+		}
+	}
+}
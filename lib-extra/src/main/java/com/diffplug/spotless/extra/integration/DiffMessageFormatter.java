@@ -18,11 +18,16 @@ package com.diffplug.spotless.extra.integration;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Objects;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.Nullable;
 
 import org.eclipse.jgit.diff.DiffFormatter;
 import org.eclipse.jgit.diff.EditList;
@@ -37,6 +42,7 @@ import com.diffplug.common.base.Splitter;
 import com.diffplug.spotless.Formatter;
 import com.diffplug.spotless.LineEnding;
 import com.diffplug.spotless.PaddedCell;
+import com.diffplug.spotless.ThrowingEx;
 
 /** Formats the messages of failed spotlessCheck invocations with a nice diff message. */
 public final class DiffMessageFormatter {
@@ -50,6 +56,7 @@ public final class DiffMessageFormatter {
 		private String runToFix;
 		private Formatter formatter;
 		private List<File> problemFiles;
+		private @Nullable ThrowingEx.Function<File, RawAndCanonical> precomputed;
 
 		/** "Run 'gradlew spotlessApply' to fix these violations." */
 		public Builder runToFix(String runToFix) {
@@ -68,6 +75,16 @@ public final class DiffMessageFormatter {
 			return this;
 		}
 
+		/**
+		 * Supplies the content of each problem file as it is and as it should be, which the caller has usually
+		 * computed already, e.g. in the output of {@code spotlessTask}.  The files aren't formatted again, and
+		 * their diffs are computed in parallel, but only for the files which fit in the message.
+		 */
+		public Builder precomputed(ThrowingEx.Function<File, RawAndCanonical> precomputed) {
+			this.precomputed = Objects.requireNonNull(precomputed);
+			return this;
+		}
+
 		/** Returns the error message. */
 		public String getMessage() {
 			try {
@@ -88,6 +105,20 @@ public final class DiffMessageFormatter {
 		}
 	}
 
+	/** The content of a problem file as it is, and as it should be, with line endings and encoding applied. */
+	public static final class RawAndCanonical {
+		private final byte[] raw, canonical;
+
+		private RawAndCanonical(byte[] raw, byte[] canonical) {
+			this.raw = Objects.requireNonNull(raw);
+			this.canonical = Objects.requireNonNull(canonical);
+		}
+
+		public static RawAndCanonical of(byte[] raw, byte[] canonical) {
+			return new RawAndCanonical(raw, canonical);
+		}
+	}
+
 	private static final int MAX_CHECK_MESSAGE_LINES = 50;
 	public static final int MAX_FILES_TO_LIST = 10;
 
@@ -97,8 +128,15 @@ public final class DiffMessageFormatter {
 	private DiffMessageFormatter(Builder builder) throws IOException {
 		ListIterator<File> problemIter = builder.problemFiles.listIterator();
 		while (problemIter.hasNext() && numLines < MAX_CHECK_MESSAGE_LINES) {
-			File file = problemIter.next();
-			addFile(builder.relativePath(file) + "\n" + DiffMessageFormatter.diff(builder, file));
+			// every file takes a few lines, so we only compute the diffs of the files which might fit
+			int batchSize = Math.max(1, (MAX_CHECK_MESSAGE_LINES - numLines) / MIN_LINES_PER_FILE);
+			List<File> batch = builder.problemFiles.subList(problemIter.nextIndex(), Math.min(builder.problemFiles.size(), problemIter.nextIndex() + batchSize));
+			for (String diff : diffs(builder, batch)) {
+				if (numLines >= MAX_CHECK_MESSAGE_LINES) {
+					break;
+				}
+				addFile(builder.relativePath(problemIter.next()) + "\n" + diff);
+			}
 		}
 		if (problemIter.hasNext()) {
 			int remainingFiles = builder.problemFiles.size() - problemIter.nextIndex();
@@ -156,6 +194,17 @@ public final class DiffMessageFormatter {
 		++numLines;
 	}
 
+	/** Returns the diffs of the given files, in parallel if they were precomputed, since then no formatter is involved. */
+	private static List<String> diffs(Builder builder, List<File> files) {
+		if (builder.precomputed == null) {
+			return files.stream().map(ThrowingEx.wrap(file -> diff(builder, file))).collect(Collectors.toList());
+		}
+		ThrowingEx.Function<File, RawAndCanonical> precomputed = builder.precomputed;
+		Charset encoding = builder.formatter.getEncoding();
+		Stream<File> stream = files.size() > 1 ? files.parallelStream() : files.stream();
+		return stream.map(ThrowingEx.wrap(file -> diff(precomputed.apply(file), encoding))).collect(Collectors.toList());
+	}
+
 	/**
 	 * Returns a git-style diff between the contents of the given file and what those contents would
 	 * look like if formatted using the given formatter. Does not end with any newline
@@ -176,6 +225,20 @@ public final class DiffMessageFormatter {
 		}
 	}
 
+	/** Same as {@link #diff(Builder, File)}, but for content which was already formatted. */
+	private static String diff(RawAndCanonical content, Charset encoding) throws IOException {
+		String raw = new String(content.raw, encoding);
+		String formatted = new String(content.canonical, encoding);
+		String rawUnix = LineEnding.toUnix(raw);
+		String formattedUnix = LineEnding.toUnix(formatted);
+		if (rawUnix.equals(formattedUnix)) {
+			// the formatting is fine, so it's a line-ending issue
+			return diffWhitespaceLineEndings(raw, formatted, false, true);
+		} else {
+			return diffWhitespaceLineEndings(rawUnix, formattedUnix, true, false);
+		}
+	}
+
 	/**
 	 * Returns a git-style diff between the two unix strings.
 	 *
@@ -15,36 +15,17 @@
  */
 package com.diffplug.spotless.extra;
 
-import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
 
 import org.assertj.core.api.Assertions;
+import org.eclipse.jgit.api.Git;
 import org.junit.jupiter.api.Test;
 
-import com.diffplug.common.base.Errors;
 import com.diffplug.common.base.StringPrinter;
 import com.diffplug.spotless.LineEnding;
 import com.diffplug.spotless.ResourceHarness;
 
 class GitAttributesTest extends ResourceHarness {
-	private List<File> testFiles() {
-		try {
-			List<File> result = new ArrayList<>();
-			for (String path : TEST_PATHS) {
-				setFile(path).toContent("");
-				result.add(newFile(path));
-			}
-			return result;
-		} catch (IOException e) {
-			throw Errors.asRuntime(e);
-		}
-	}
-
-	private static List<String> TEST_PATHS = Arrays.asList("someFile", "subfolder/someFile", "MANIFEST.MF", "subfolder/MANIFEST.MF");
-
 	@Test
 	void cacheTest() throws IOException {
 		setFile(".gitattributes").toContent(StringPrinter.buildStringFromLines(
@@ -81,10 +62,40 @@ class GitAttributesTest extends ResourceHarness {
 		setFile(".gitattributes").toContent(StringPrinter.buildStringFromLines(
 				"* eol=lf",
 				"*.MF eol=crlf"));
-		LineEnding.Policy policy = LineEnding.GIT_ATTRIBUTES.createPolicy(rootFolder(), () -> testFiles());
+		LineEnding.Policy policy = LineEnding.GIT_ATTRIBUTES.createPolicy(rootFolder());
 		Assertions.assertThat(policy.getEndingFor(newFile("someFile"))).isEqualTo("\n");
 		Assertions.assertThat(policy.getEndingFor(newFile("subfolder/someFile"))).isEqualTo("\n");
 		Assertions.assertThat(policy.getEndingFor(newFile("MANIFEST.MF"))).isEqualTo("\r\n");
 		Assertions.assertThat(policy.getEndingFor(newFile("subfolder/MANIFEST.MF"))).isEqualTo("\r\n");
 	}
+
+	@Test
+	void policyEqualityTracksAttributesFiles() throws IOException {
+		setFile(".gitattributes").toContent("* eol=lf");
+		setFile("subfolder/.gitattributes").toContent("*.MF eol=crlf");
+		LineEnding.Policy policy = LineEnding.GIT_ATTRIBUTES.createPolicy(rootFolder());
+		Assertions.assertThat(policy).isEqualTo(LineEnding.GIT_ATTRIBUTES.createPolicy(rootFolder()));
+
+		setFile("subfolder/.gitattributes").toContent("*.MF eol=lf");
+		Assertions.assertThat(policy).isNotEqualTo(LineEnding.GIT_ATTRIBUTES.createPolicy(rootFolder()));
+	}
+
+	@Test
+	void policyEqualityTracksUntrackedAttributesFiles() throws Exception {
+		try (Git git = Git.init().setDirectory(rootFolder()).call()) {
+			setFile(".gitignore").toContent("ignored/");
+			setFile(".gitattributes").toContent("* eol=lf");
+			git.add().addFilepattern(".").call();
+			git.commit().setMessage("init").call();
+
+			LineEnding.Policy policy = LineEnding.GIT_ATTRIBUTES.createPolicy(rootFolder());
+			setFile("ignored/.gitattributes").toContent("* eol=crlf");
+			Assertions.assertThat(policy).isEqualTo(LineEnding.GIT_ATTRIBUTES.createPolicy(rootFolder()));
+
+			setFile("subfolder/.gitattributes").toContent("*.MF eol=crlf");
+			LineEnding.Policy untracked = LineEnding.GIT_ATTRIBUTES.createPolicy(rootFolder());
+			Assertions.assertThat(policy).isNotEqualTo(untracked);
+			Assertions.assertThat(untracked.getEndingFor(newFile("subfolder/MANIFEST.MF"))).isEqualTo("\r\n");
+		}
+	}
 }
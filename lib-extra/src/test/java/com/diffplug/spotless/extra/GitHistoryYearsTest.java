@@ -0,0 +1,69 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.extra;
+
+import java.io.IOException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.assertj.core.api.Assertions;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.jupiter.api.Test;
+
+import com.diffplug.spotless.ResourceHarness;
+
+class GitHistoryYearsTest extends ResourceHarness {
+	@Test
+	void addedAndModifiedFollowingRenames() throws IOException, GitAPIException {
+		try (Git git = Git.init().setDirectory(rootFolder()).call()) {
+			setFile("A.java").toLines("line1", "line2", "line3", "line4", "line5");
+			setFile("B.java").toContent("b");
+			commit(git, 2015);
+			setFile("B.java").toContent("b changed");
+			commit(git, 2017);
+			setFile("C.java").toLines("line1", "line2", "line3", "line4", "line5");
+			newFile("A.java").delete();
+			commit(git, 2018);
+			setFile("C.java").toLines("line1", "line2", "line3", "line4", "line5", "line6");
+			commit(git, 2019);
+			setFile("D.java").toContent("d");
+
+			GitHistoryYears.headSha(rootFolder());
+			Assertions.assertThat(GitHistoryYears.yearsOf(newFile("B.java"))).containsExactly(2015, 2017);
+			Assertions.assertThat(GitHistoryYears.yearsOf(newFile("C.java"))).containsExactly(2015, 2019);
+			Assertions.assertThat(GitHistoryYears.yearsOf(newFile("A.java"))).isNull();
+			Assertions.assertThat(GitHistoryYears.yearsOf(newFile("D.java"))).isNull();
+
+			// a new HEAD only walks the new commits
+			commit(git, 2020);
+			GitHistoryYears.headSha(rootFolder());
+			Assertions.assertThat(GitHistoryYears.yearsOf(newFile("D.java"))).containsExactly(2020, 2020);
+			Assertions.assertThat(GitHistoryYears.yearsOf(newFile("C.java"))).containsExactly(2015, 2019);
+		}
+	}
+
+	private void commit(Git git, int year) throws GitAPIException {
+		Date date = Date.from(ZonedDateTime.of(year, 6, 1, 12, 0, 0, 0, ZoneOffset.UTC).toInstant());
+		PersonIdent ident = new PersonIdent("author", "author@example.com", date, TimeZone.getTimeZone("UTC"));
+		git.add().addFilepattern(".").call();
+		git.add().addFilepattern(".").setUpdate(true).call();
+		git.commit().setMessage(Integer.toString(year)).setAuthor(ident).setCommitter(ident).call();
+	}
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.extra;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.assertj.core.api.Assertions;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.junit.jupiter.api.Test;
+
+import com.diffplug.spotless.ResourceHarness;
+
+class GitIndexTargetsTest extends ResourceHarness {
+	@Test
+	void trackedAndUntrackedButNotIgnored() throws IOException, GitAPIException {
+		try (Git git = Git.init().setDirectory(rootFolder()).call()) {
+			// tracked before it was ignored
+			setFile("build/Tracked.md").toContent("tracked");
+			git.add().addFilepattern(".").call();
+			git.commit().setMessage("build").call();
+
+			setFile(".gitignore").toLines("node_modules/", "build/");
+			setFile("README.md").toContent("readme");
+			setFile("src/main/A.md").toContent("a");
+			setFile("node_modules/dep/N.md").toContent("ignored");
+			git.add().addFilepattern(".").call();
+			git.commit().setMessage("init").call();
+
+			setFile("src/main/Untracked.md").toContent("untracked");
+			setFile("build/Untracked.md").toContent("ignored");
+			newFile("README.md").delete();
+
+			Assertions.assertThat(GitIndexTargets.candidates(rootFolder())).containsExactlyInAnyOrder(
+					".gitignore", "build/Tracked.md", "src/main/A.md", "src/main/Untracked.md");
+			Assertions.assertThat(GitIndexTargets.candidates(newFile("src"))).containsExactlyInAnyOrder(
+					"main/A.md", "main/Untracked.md");
+			Assertions.assertThat(new GitIndexTargets().select(rootFolder(), Collections.singletonList("**/*.md"), Collections.singletonList("build")))
+					.containsExactlyInAnyOrder(newFile("src/main/A.md"), newFile("src/main/Untracked.md"));
+		}
+	}
+
+	@Test
+	void eachFolderIsWalkedOncePerInstance() throws IOException, GitAPIException {
+		try (Git git = Git.init().setDirectory(rootFolder()).call()) {
+			setFile("A.md").toContent("a");
+			GitIndexTargets targets = new GitIndexTargets();
+			Assertions.assertThat(targets.candidatesOf(rootFolder())).containsExactly("A.md");
+
+			setFile("B.md").toContent("b");
+			Assertions.assertThat(targets.candidatesOf(rootFolder())).containsExactly("A.md");
+			Assertions.assertThat(new GitIndexTargets().candidatesOf(rootFolder())).containsExactlyInAnyOrder("A.md", "B.md");
+		}
+	}
+
+	@Test
+	void antPatterns() {
+		assertMatches("**/*.md", "a.md", "dir/a.md", "dir/sub/a.md");
+		assertDoesNotMatch("**/*.md", "a.java", "dir/a.mdx");
+		assertMatches("*.gradle", "build.gradle");
+		assertDoesNotMatch("*.gradle", "sub/build.gradle");
+		assertMatches("src/**/*.java", "src/A.java", "src/main/A.java");
+		assertDoesNotMatch("src/**/*.java", "test/A.java");
+		assertMatches("src/", "src/A.java", "src/main/A.java");
+		assertMatches("a?c.txt", "abc.txt");
+		assertDoesNotMatch("a?c.txt", "a/c.txt");
+	}
+
+	private static void assertMatches(String pattern, String... paths) {
+		Arrays.stream(paths).forEach(path -> Assertions.assertThat(GitIndexTargets.matches(pattern, path))
+				.as(pattern + " should match " + path).isTrue());
+	}
+
+	private static void assertDoesNotMatch(String pattern, String... paths) {
+		Arrays.stream(paths).forEach(path -> Assertions.assertThat(GitIndexTargets.matches(pattern, path))
+				.as(pattern + " should not match " + path).isFalse());
+	}
+}
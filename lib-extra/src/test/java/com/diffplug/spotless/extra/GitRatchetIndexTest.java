@@ -0,0 +1,149 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.extra;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.jupiter.api.Test;
+
+import com.diffplug.spotless.ResourceHarness;
+
+class GitRatchetIndexTest extends ResourceHarness {
+	private static final ObjectId MISSING = ObjectId.fromString("0123456789abcdef0123456789abcdef01234567");
+
+	@Test
+	void roundTrip() throws IOException, GitAPIException {
+		try (Git git = initRepo()) {
+			Repository repo = git.getRepository();
+			ObjectId tree = commit(git).getTree();
+			String mergeBase = GitRatchetIndex.mergeBaseKey(tree, tree);
+			String subtree = GitRatchetIndex.subtreeKey(tree, "sub/path");
+
+			GitRatchetIndex written = new GitRatchetIndex(repo);
+			Assertions.assertThat(written.get(mergeBase)).isNull();
+			written.put(mergeBase, tree);
+			written.put(subtree, ObjectId.zeroId());
+			Assertions.assertThat(written.get(mergeBase)).isEqualTo(tree);
+
+			GitRatchetIndex read = new GitRatchetIndex(repo);
+			Assertions.assertThat(read.get(mergeBase)).isEqualTo(tree);
+			Assertions.assertThat(read.get(subtree)).isEqualTo(ObjectId.zeroId());
+		}
+	}
+
+	@Test
+	void entriesWhichArentInTheRepositoryAreIgnored() throws IOException, GitAPIException {
+		try (Git git = initRepo()) {
+			Repository repo = git.getRepository();
+			commit(git);
+			new GitRatchetIndex(repo).put("gone", MISSING);
+			Assertions.assertThat(new GitRatchetIndex(repo).get("gone")).isNull();
+		}
+	}
+
+	@Test
+	void corruptLinesAreSkipped() throws IOException, GitAPIException {
+		try (Git git = initRepo()) {
+			Repository repo = git.getRepository();
+			ObjectId tree = commit(git).getTree();
+			setFile(".git/" + GitRatchetIndex.FILENAME).toLines(
+					GitRatchetIndex.HEADER,
+					"no tab at all",
+					"partial\t" + tree.name().substring(0, 20),
+					"not a sha\tzzzzzzzzzzzzzzzzzzzzzzzzzzzzzzzzzzzzzzzz",
+					"good\t" + tree.name(),
+					"",
+					"truncat");
+			GitRatchetIndex index = new GitRatchetIndex(repo);
+			Assertions.assertThat(index.get("good")).isEqualTo(tree);
+			Assertions.assertThat(index.get("partial")).isNull();
+			Assertions.assertThat(index.get("not a sha")).isNull();
+
+			// keys which can't be written are only kept in memory
+			index.put("tab\tkey", tree);
+			index.put("newline\nkey", tree);
+			Assertions.assertThat(index.get("tab\tkey")).isEqualTo(tree);
+			GitRatchetIndex reread = new GitRatchetIndex(repo);
+			Assertions.assertThat(reread.get("tab\tkey")).isNull();
+			Assertions.assertThat(reread.get("newline\nkey")).isNull();
+			Assertions.assertThat(reread.get("good")).isEqualTo(tree);
+		}
+	}
+
+	@Test
+	void indexIsDroppedOnceItHasTooManyLines() throws IOException, GitAPIException {
+		try (Git git = initRepo()) {
+			Repository repo = git.getRepository();
+			ObjectId tree = commit(git).getTree();
+			File file = new File(repo.getDirectory(), GitRatchetIndex.FILENAME);
+
+			writeLines(file, tree, 10_000);
+			Assertions.assertThat(new GitRatchetIndex(repo).get("key0")).isEqualTo(tree);
+			Assertions.assertThat(file).exists();
+
+			writeLines(file, tree, 10_001);
+			GitRatchetIndex truncated = new GitRatchetIndex(repo);
+			Assertions.assertThat(truncated.get("key0")).isNull();
+			Assertions.assertThat(file).doesNotExist();
+
+			// and it starts over from scratch
+			truncated.put("key0", tree);
+			Assertions.assertThat(Files.readAllLines(file.toPath(), StandardCharsets.UTF_8)).containsExactly(GitRatchetIndex.HEADER, "key0\t" + tree.name());
+		}
+	}
+
+	@Test
+	void indexWithAnUnknownHeaderIsDropped() throws IOException, GitAPIException {
+		try (Git git = initRepo()) {
+			Repository repo = git.getRepository();
+			ObjectId tree = commit(git).getTree();
+			File file = setFile(".git/" + GitRatchetIndex.FILENAME).toLines("spotless-ratchet-v0", "key\t" + tree.name());
+			Assertions.assertThat(new GitRatchetIndex(repo).get("key")).isNull();
+			Assertions.assertThat(file).doesNotExist();
+		}
+	}
+
+	private static void writeLines(File file, ObjectId sha, int count) throws IOException {
+		List<String> lines = new ArrayList<>(count + 1);
+		lines.add(GitRatchetIndex.HEADER);
+		for (int i = 0; i < count; ++i) {
+			lines.add("key" + i + "\t" + sha.name());
+		}
+		Files.createDirectories(file.getParentFile().toPath());
+		Files.write(file.toPath(), lines, StandardCharsets.UTF_8);
+	}
+
+	private Git initRepo() throws GitAPIException {
+		return Git.init().setDirectory(rootFolder()).call();
+	}
+
+	private RevCommit commit(Git git) throws IOException, GitAPIException {
+		setFile("file.txt").toContent("content");
+		git.add().addFilepattern(".").call();
+		return git.commit().setMessage("init").call();
+	}
+}
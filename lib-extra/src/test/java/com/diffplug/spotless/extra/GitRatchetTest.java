@@ -0,0 +1,155 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.extra;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.assertj.core.api.Assertions;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.MergeResult;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.jupiter.api.Test;
+
+import com.diffplug.spotless.ResourceHarness;
+
+class GitRatchetTest extends ResourceHarness {
+	@Test
+	void dirtyPathsAgreeWithIsClean() throws IOException, GitAPIException {
+		try (Git git = Git.init().setDirectory(rootFolder()).call();
+				GitRachetMergeBaseTest.GitRatchetSimple ratchet = new GitRachetMergeBaseTest.GitRatchetSimple()) {
+			for (String name : Arrays.asList("clean", "changed", "modified", "both", "reverted", "missing", "removed", "conflict")) {
+				setFile(name + ".txt").toContent(name);
+			}
+			addAndCommit(git, "init");
+			git.checkout().setCreateBranch(true).setName("other").call();
+			setFile("conflict.txt").toContent("theirs");
+			addAndCommit(git, "theirs");
+			git.checkout().setName("master").call();
+			setFile("conflict.txt").toContent("ours");
+			addAndCommit(git, "ours");
+			MergeResult merge = git.merge().include(git.getRepository().resolve("other")).call();
+			Assertions.assertThat(merge.getConflicts()).containsOnlyKeys("conflict.txt");
+
+			setFile("changed.txt").toContent("changed and staged");
+			setFile("modified.txt").toContent("modified but not staged");
+			setFile("both.txt").toContent("staged");
+			setFile("reverted.txt").toContent("staged, then reverted");
+			setFile("added.txt").toContent("added");
+			git.add().addFilepattern("changed.txt").addFilepattern("both.txt").addFilepattern("reverted.txt").addFilepattern("added.txt").call();
+			setFile("both.txt").toContent("staged, then modified again");
+			setFile("reverted.txt").toContent("reverted");
+			setFile("untracked.txt").toContent("untracked");
+			newFile("missing.txt").delete();
+			git.rm().addFilepattern("removed.txt").call();
+
+			ObjectId head = ratchet.rootTreeShaOf(rootFolder(), "HEAD");
+			Set<String> dirty = ratchet.dirtyPaths(rootFolder(), head);
+			Assertions.assertThat(dirty).containsExactlyInAnyOrder(
+					"changed.txt", "modified.txt", "both.txt", "added.txt", "untracked.txt", "conflict.txt");
+			for (File file : rootFolder().listFiles(File::isFile)) {
+				boolean clean = ratchet.isClean(rootFolder(), head, file.getName());
+				Assertions.assertThat(clean).as(file.getName()).isEqualTo(!dirty.contains(file.getName()));
+				Assertions.assertThat(ratchet.isClean(rootFolder(), head, file)).as(file.getName()).isEqualTo(clean);
+			}
+		}
+	}
+
+	@Test
+	void dirtyCacheFollowsTheIndex() throws IOException, GitAPIException {
+		try (Git git = Git.init().setDirectory(rootFolder()).call();
+				GitRachetMergeBaseTest.GitRatchetSimple ratchet = new GitRachetMergeBaseTest.GitRatchetSimple()) {
+			setFile("a.txt").toContent("a");
+			setFile("b.txt").toContent("b");
+			addAndCommit(git, "init");
+			ObjectId head = ratchet.rootTreeShaOf(rootFolder(), "HEAD");
+
+			setFile("a.txt").toContent("a changed");
+			Set<String> dirty = ratchet.dirtyPaths(rootFolder(), head);
+			Assertions.assertThat(dirty).containsExactly("a.txt");
+
+			// an edit to the working tree alone doesn't invalidate the cache, but isCleanNow sees it
+			setFile("b.txt").toContent("b changed");
+			Assertions.assertThat(ratchet.dirtyPaths(rootFolder(), head)).isSameAs(dirty);
+			Assertions.assertThat(ratchet.isClean(rootFolder(), head, newFile("b.txt"))).isTrue();
+			Assertions.assertThat(ratchet.isCleanNow(rootFolder(), head, newFile("b.txt"))).isFalse();
+
+			// a change to the index does
+			git.add().addFilepattern("b.txt").call();
+			File index = newFile(".git/index");
+			index.setLastModified(index.lastModified() + 2_000);
+			Assertions.assertThat(ratchet.dirtyPaths(rootFolder(), head)).containsExactlyInAnyOrder("a.txt", "b.txt");
+		}
+	}
+
+	@Test
+	void concurrentCallersShareOneRepositoryAndIndex() throws Exception {
+		int threads = 16;
+		try (Git git = Git.init().setDirectory(rootFolder()).call();
+				GitRachetMergeBaseTest.GitRatchetSimple ratchet = new GitRachetMergeBaseTest.GitRatchetSimple()) {
+			for (int i = 0; i < threads; ++i) {
+				setFile("project" + i + "/file.txt").toContent("clean");
+			}
+			addAndCommit(git, "init");
+			setFile("project0/file.txt").toContent("dirty");
+			ObjectId head = ratchet.rootTreeShaOf(rootFolder(), "HEAD");
+			ratchet.gitRoots.clear();
+
+			ExecutorService executor = Executors.newFixedThreadPool(threads);
+			try {
+				CountDownLatch start = new CountDownLatch(1);
+				List<Future<Object[]>> results = new ArrayList<>();
+				for (int i = 0; i < threads; ++i) {
+					File project = newFile("project" + i);
+					results.add(executor.submit(() -> {
+						start.await();
+						Repository repo = ratchet.repositoryFor(project);
+						DirCache dirCache = ratchet.dirCacheOf(repo);
+						boolean clean = ratchet.isClean(project, head, new File(project, "file.txt"));
+						return new Object[]{repo, dirCache, clean};
+					}));
+				}
+				start.countDown();
+				Object[] first = results.get(0).get();
+				Assertions.assertThat(first[2]).isEqualTo(false);
+				for (int i = 1; i < threads; ++i) {
+					Object[] result = results.get(i).get();
+					Assertions.assertThat(result[0]).isSameAs(first[0]);
+					Assertions.assertThat(result[1]).isSameAs(first[1]);
+					Assertions.assertThat(result[2]).isEqualTo(true);
+				}
+			} finally {
+				executor.shutdown();
+			}
+		}
+	}
+
+	private static void addAndCommit(Git git, String message) throws GitAPIException {
+		git.add().addFilepattern(".").call();
+		git.commit().setMessage(message).call();
+	}
+}
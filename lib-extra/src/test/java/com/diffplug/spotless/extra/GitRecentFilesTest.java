@@ -0,0 +1,62 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.extra;
+
+import java.util.Date;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.junit.jupiter.api.Test;
+
+import com.diffplug.spotless.ResourceHarness;
+
+class GitRecentFilesTest extends ResourceHarness {
+	@Test
+	void recentIsRelativeToHead() throws Exception {
+		long head = TimeUnit.DAYS.toMillis(10_000);
+		try (Git git = Git.init().setDirectory(rootFolder()).call()) {
+			setFile("root.txt").toContent("root");
+			commit(git, head - TimeUnit.HOURS.toMillis(100));
+			setFile("old.txt").toContent("old");
+			commit(git, head - TimeUnit.HOURS.toMillis(48));
+			setFile("recent.txt").toContent("recent");
+			commit(git, head);
+			setFile("untracked.txt").toContent("untracked");
+
+			Assertions.assertThat(GitRecentFiles.changedWithin(rootFolder(), 24))
+					.containsExactly(newFile("recent.txt"), newFile("untracked.txt"));
+			Assertions.assertThat(GitRecentFiles.changedWithin(rootFolder(), 72))
+					.containsExactly(newFile("old.txt"), newFile("recent.txt"), newFile("untracked.txt"));
+			// the first commit has no parent, so its files don't count
+			Assertions.assertThat(GitRecentFiles.changedWithin(rootFolder(), 1000))
+					.doesNotContain(newFile("root.txt"));
+		}
+	}
+
+	@Test
+	void notAGitRepository() throws Exception {
+		Assertions.assertThat(GitRecentFiles.changedWithin(rootFolder(), 24)).isEmpty();
+	}
+
+	private static void commit(Git git, long millis) throws Exception {
+		git.add().addFilepattern(".").call();
+		PersonIdent ident = new PersonIdent("Test", "test@example.com", new Date(millis), TimeZone.getTimeZone("UTC"));
+		git.commit().setMessage("at " + millis).setAuthor(ident).setCommitter(ident).call();
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.extra;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Locale;
+
+import org.assertj.core.api.Assertions;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.api.errors.GitAPIException;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.junit.jupiter.api.Test;
+
+import com.diffplug.spotless.Formatter;
+import com.diffplug.spotless.FormatterStep;
+import com.diffplug.spotless.LineEnding;
+import com.diffplug.spotless.ResourceHarness;
+
+class GitStagedFormatTest extends ResourceHarness {
+	@Test
+	void formatsTheIndexAndLeavesUnstagedChanges() throws IOException, GitAPIException {
+		try (Git git = Git.init().setDirectory(rootFolder()).call()) {
+			setFile("committed.txt").toContent("committed");
+			git.add().addFilepattern(".").call();
+			git.commit().setMessage("init").call();
+
+			setFile("staged.txt").toContent("staged");
+			setFile("partial.txt").toContent("partial");
+			git.add().addFilepattern("staged.txt").addFilepattern("partial.txt").call();
+			setFile("partial.txt").toContent("partial plus unstaged");
+			setFile("untracked.txt").toContent("untracked");
+
+			try (Formatter formatter = upperCase();
+					GitStagedFormat staged = GitStagedFormat.open(rootFolder())) {
+				Assertions.assertThat(staged.stagedFiles()).containsExactlyInAnyOrder(newFile("staged.txt"), newFile("partial.txt"));
+				for (File file : staged.stagedFiles()) {
+					staged.format(file, formatter);
+				}
+				GitStagedFormat.Result result = staged.write();
+				Assertions.assertThat(result.getChangedInIndex()).containsExactlyInAnyOrder(newFile("staged.txt"), newFile("partial.txt"));
+				Assertions.assertThat(result.getChangedInWorkTree()).containsExactly(newFile("staged.txt"));
+			}
+			assertFile("staged.txt").hasContent("STAGED");
+			assertFile("partial.txt").hasContent("partial plus unstaged");
+			assertFile("untracked.txt").hasContent("untracked");
+			Assertions.assertThat(indexContent(git.getRepository(), "staged.txt")).isEqualTo("STAGED");
+			Assertions.assertThat(indexContent(git.getRepository(), "partial.txt")).isEqualTo("PARTIAL");
+			Assertions.assertThat(git.status().call().getAdded()).containsExactlyInAnyOrder("staged.txt", "partial.txt");
+			Assertions.assertThat(git.status().call().getModified()).containsExactly("partial.txt");
+		}
+	}
+
+	@Test
+	void formatsWithTheLineEndingsOfTheWorkTree() throws IOException, GitAPIException {
+		try (Git git = Git.init().setDirectory(rootFolder()).call()) {
+			StoredConfig config = git.getRepository().getConfig();
+			config.setString(ConfigConstants.CONFIG_CORE_SECTION, null, ConfigConstants.CONFIG_KEY_AUTOCRLF, "true");
+			config.save();
+			setFile("committed.txt").toContent("committed\r\n");
+			git.add().addFilepattern(".").call();
+			git.commit().setMessage("init").call();
+
+			setFile("staged.txt").toContent("staged\r\nlines\r\n");
+			setFile("clean.txt").toContent("CLEAN\r\nLINES\r\n");
+			git.add().addFilepattern("staged.txt").addFilepattern("clean.txt").call();
+			Assertions.assertThat(indexContent(git.getRepository(), "staged.txt")).isEqualTo("staged\nlines\n");
+
+			try (Formatter formatter = upperCase(LineEnding.WINDOWS);
+					GitStagedFormat staged = GitStagedFormat.open(rootFolder())) {
+				Assertions.assertThat(staged.format(newFile("clean.txt"), formatter).isClean()).isTrue();
+				Assertions.assertThat(staged.format(newFile("staged.txt"), formatter).isClean()).isFalse();
+				GitStagedFormat.Result result = staged.write();
+				Assertions.assertThat(result.getChangedInIndex()).containsExactly(newFile("staged.txt"));
+				Assertions.assertThat(result.getChangedInWorkTree()).containsExactly(newFile("staged.txt"));
+			}
+			assertFile("staged.txt").hasContent("STAGED\r\nLINES\r\n");
+			assertFile("clean.txt").hasContent("CLEAN\r\nLINES\r\n");
+			Assertions.assertThat(indexContent(git.getRepository(), "staged.txt")).isEqualTo("STAGED\nLINES\n");
+			Assertions.assertThat(indexContent(git.getRepository(), "clean.txt")).isEqualTo("CLEAN\nLINES\n");
+			Assertions.assertThat(git.status().call().getModified()).isEmpty();
+		}
+	}
+
+	private Formatter upperCase() {
+		return upperCase(LineEnding.UNIX);
+	}
+
+	private Formatter upperCase(LineEnding lineEnding) {
+		return Formatter.builder()
+				.lineEndingsPolicy(lineEnding.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(rootFolder().toPath())
+				.steps(Collections.singletonList(FormatterStep.createNeverUpToDate("upper", raw -> raw.toUpperCase(Locale.ROOT))))
+				.build();
+	}
+
+	private static String indexContent(Repository repo, String path) throws IOException {
+		return new String(repo.open(repo.readDirCache().getEntry(path).getObjectId()).getBytes(), StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Objects;
+
+/**
+ * A method or constructor which lives in a formatter's isolated classloader, bound once into a
+ * {@link MethodHandle} so that calling it for every file skips the access checks and
+ * {@link java.lang.reflect.InvocationTargetException} wrapping of {@link Method#invoke}.
+ *
+ * Instance methods take their receiver as the first argument, and any exception thrown by
+ * the target is rethrown as-is.
+ */
+public final class BoundMethod {
+	private final MethodHandle handle;
+
+	private BoundMethod(MethodHandle handle) {
+		int arity = handle.type().parameterCount();
+		this.handle = handle.asType(MethodType.genericMethodType(arity)).asSpreader(Object[].class, arity);
+	}
+
+	/** Binds the given method, which must be accessible. */
+	public static BoundMethod of(Method method) {
+		Objects.requireNonNull(method);
+		return new BoundMethod(ThrowingEx.get(() -> MethodHandles.lookup().unreflect(method)));
+	}
+
+	/** Binds the given constructor, which must be accessible. */
+	public static BoundMethod of(Constructor<?> constructor) {
+		Objects.requireNonNull(constructor);
+		return new BoundMethod(ThrowingEx.get(() -> MethodHandles.lookup().unreflectConstructor(constructor)));
+	}
+
+	/** Binds the public method with the given name and parameter types. */
+	public static BoundMethod of(Class<?> clazz, String name, Class<?>... parameterTypes) throws NoSuchMethodException {
+		return of(clazz.getMethod(name, parameterTypes));
+	}
+
+	/** Calls the method (with the receiver first, if it is not static) or constructor. */
+	public Object call(Object... args) throws Exception {
+		try {
+			return (Object) handle.invokeExact(args);
+		} catch (Exception | Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw ThrowingEx.asRuntimeRethrowError(t);
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*
- * Copyright 2016 DiffPlug
+ * Copyright 2016-2021 DiffPlug
  *
  * Licensed under the Apache License, Version 2.0 (the "License");
  * you may not use this file except in compliance with the License.
@@ -15,12 +15,24 @@
  */
 package com.diffplug.spotless;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Enumeration;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
 
 import javax.annotation.Nullable;
 
@@ -31,7 +43,10 @@ import javax.annotation.Nullable;
  * underlying build tool is e.g. skipped during the the search for classes.<br/>
  * Only {@link #BUILD_TOOLS_PACKAGES } are explicitly looked up from the class loader of
  * the build tool and the provided URLs are ignored. This allows the feature to use
- * distinct functionality of the build tool.
+ * distinct functionality of the build tool.<br/>
+ * If a {@link JarIndex} is available, classes and resources are looked up directly
+ * in the jars which contain their package, and each jar is only opened once it is needed.
+ * Anything the index can't find is searched for as usual, in case the index is stale.
  */
 class FeatureClassLoader extends URLClassLoader {
 	static {
@@ -61,11 +76,36 @@ class FeatureClassLoader extends URLClassLoader {
 	 */
 
 	FeatureClassLoader(URL[] urls, ClassLoader buildToolClassLoader) {
+		this(urls, buildToolClassLoader, null);
+	}
+
+	/**
+	 * Same as {@link #FeatureClassLoader(URL[], ClassLoader)}, but if {@code index} is non-null
+	 * it is used to go straight to the jar containing a class or resource, rather than searching
+	 * every jar in turn.  The index must have been built from exactly these {@code urls}, in this order.
+	 */
+	FeatureClassLoader(URL[] urls, ClassLoader buildToolClassLoader, @Nullable JarIndex index) {
 		super(urls, getParentClassLoader());
 		Objects.requireNonNull(buildToolClassLoader);
 		this.buildToolClassLoader = buildToolClassLoader;
+		this.urls = urls.clone();
+		this.index = index;
+		this.jars = new AtomicReferenceArray<>(urls.length);
+		this.jarLocks = new Object[urls.length];
+		for (int i = 0; i < jarLocks.length; ++i) {
+			jarLocks[i] = new Object();
+		}
 	}
 
+	private final URL[] urls;
+	private final @Nullable JarIndex index;
+	/**
+	 * Opened lazily, each under its own lock, so that opening one jar never blocks lookups in the others.
+	 * Classes are already loaded under a lock per class name, because this loader is parallel capable.
+	 */
+	private final AtomicReferenceArray<JarFile> jars;
+	private final Object[] jarLocks;
+
 	@Override
 	protected Class<?> findClass(String name) throws ClassNotFoundException {
 		for (String buildToolPackage : BUILD_TOOLS_PACKAGES) {
@@ -73,9 +113,135 @@ class FeatureClassLoader extends URLClassLoader {
 				return buildToolClassLoader.loadClass(name);
 			}
 		}
+		if (index == null) {
+			return super.findClass(name);
+		}
+		String resourceName = name.replace('.', '/') + ".class";
+		for (int jarIdx : index.jarsFor(resourceName)) {
+			if (index.isMultiRelease(jarIdx)) {
+				// let the JDK pick the right version of the class
+				return super.findClass(name);
+			}
+			try {
+				JarFile jar = jar(jarIdx);
+				JarEntry entry = jar.getJarEntry(resourceName);
+				if (entry != null) {
+					return defineClass(name, jarIdx, jar, entry);
+				}
+			} catch (IOException e) {
+				throw new ClassNotFoundException(name, e);
+			}
+		}
+		// the index might be stale, so a miss falls back to the plain search
 		return super.findClass(name);
 	}
 
+	@SuppressWarnings("deprecation")
+	private Class<?> defineClass(String name, int jarIdx, JarFile jar, JarEntry entry) throws IOException {
+		byte[] bytes;
+		try (InputStream input = jar.getInputStream(entry)) {
+			bytes = readAll(input);
+		}
+		int lastDot = name.lastIndexOf('.');
+		if (lastDot != -1) {
+			String packageName = name.substring(0, lastDot);
+			if (getPackage(packageName) == null) {
+				try {
+					Manifest manifest = jar.getManifest();
+					if (manifest != null) {
+						definePackage(packageName, manifest, urls[jarIdx]);
+					} else {
+						definePackage(packageName, null, null, null, null, null, null, null);
+					}
+				} catch (IllegalArgumentException e) {
+					// another thread defined it first, which is fine
+				}
+			}
+		}
+		// the code signers are only available once the entry has been fully read
+		CodeSource codeSource = new CodeSource(urls[jarIdx], entry.getCodeSigners());
+		return defineClass(name, bytes, 0, bytes.length, codeSource);
+	}
+
+	@Override
+	public @Nullable URL findResource(String name) {
+		if (index == null) {
+			return super.findResource(name);
+		}
+		for (int jarIdx : index.jarsFor(name)) {
+			if (index.isMultiRelease(jarIdx)) {
+				return super.findResource(name);
+			}
+			try {
+				if (jar(jarIdx).getJarEntry(name) != null) {
+					return resourceUrl(jarIdx, name);
+				}
+			} catch (IOException e) {
+				return null;
+			}
+		}
+		return super.findResource(name);
+	}
+
+	@Override
+	public Enumeration<URL> findResources(String name) throws IOException {
+		if (index == null) {
+			return super.findResources(name);
+		}
+		List<URL> resources = new ArrayList<>();
+		for (int jarIdx : index.jarsFor(name)) {
+			if (index.isMultiRelease(jarIdx)) {
+				return super.findResources(name);
+			}
+			if (jar(jarIdx).getJarEntry(name) != null) {
+				resources.add(resourceUrl(jarIdx, name));
+			}
+		}
+		return resources.isEmpty() ? super.findResources(name) : Collections.enumeration(resources);
+	}
+
+	private URL resourceUrl(int jarIdx, String name) throws MalformedURLException {
+		return new URL("jar:" + urls[jarIdx] + "!/" + name);
+	}
+
+	private JarFile jar(int jarIdx) throws IOException {
+		JarFile jar = jars.get(jarIdx);
+		if (jar != null) {
+			return jar;
+		}
+		synchronized (jarLocks[jarIdx]) {
+			jar = jars.get(jarIdx);
+			if (jar == null) {
+				jar = new JarFile(new File(ThrowingEx.get(urls[jarIdx]::toURI)));
+				jars.set(jarIdx, jar);
+			}
+			return jar;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (int i = 0; i < jarLocks.length; ++i) {
+			synchronized (jarLocks[i]) {
+				JarFile jar = jars.getAndSet(i, null);
+				if (jar != null) {
+					jar.close();
+				}
+			}
+		}
+		super.close();
+	}
+
+	private static byte[] readAll(InputStream input) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int numRead;
+		while ((numRead = input.read(buf)) != -1) {
+			output.write(buf, 0, numRead);
+		}
+		return output.toByteArray();
+	}
+
 	/**
 	 * Making spotless Java 9+ compatible. In Java 8 (and minor) the bootstrap
 	 * class loader saw every platform class. In Java 9+ it was changed so the
@@ -20,18 +20,29 @@ import static com.diffplug.spotless.MoreIterables.toSortedSet;
 import static java.util.Comparator.comparing;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
 
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
@@ -91,6 +102,47 @@ public final class FileSignature implements Serializable {
 			signatures[i] = cache.sign(file);
 			++i;
 		}
+		List<FileSignature> recording = recorder.get();
+		if (recording != null) {
+			recording.add(this);
+		}
+	}
+
+	/**
+	 * Returns true if any of the files has been modified or deleted since this signature was created.
+	 * Returns false for a signature which was deserialized, because it doesn't know its files.
+	 */
+	public boolean hasChanged() {
+		if (files == null) {
+			return false;
+		}
+		for (int i = 0; i < signatures.length; ++i) {
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(files.get(i).toPath(), BasicFileAttributes.class);
+				if (!signatures[i].isUpToDate(attributes)) {
+					return true;
+				}
+			} catch (IOException e) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static final ThreadLocal<List<FileSignature>> recorder = new ThreadLocal<>();
+
+	/** Returns the result of the given supplier, after adding every signature it created on this thread to the given list. */
+	static <T> T recordSignatures(List<FileSignature> into, ThrowingEx.Supplier<T> supplier) throws Exception {
+		List<FileSignature> outer = recorder.get();
+		recorder.set(into);
+		try {
+			return supplier.get();
+		} finally {
+			recorder.set(outer);
+			if (outer != null) {
+				outer.addAll(into);
+			}
+		}
 	}
 
 	/** Returns all of the files in this signature, throwing an exception if there are more or less than 1 file. */
@@ -138,60 +190,198 @@ public final class FileSignature implements Serializable {
 	/**
 	 * It is very common for a given set of files to be "signed" many times.  For example,
 	 * the jars which constitute any given formatter live in a central cache, but will be signed
-	 * over and over.  To save this I/O, we maintain a cache, invalidated by lastModified time.
+	 * over and over.  To save this I/O, we maintain a cache, invalidated by size, lastModified and
+	 * fileKey.  If {@link SpotlessCache#setPersistentDir(File)} has been called, the cache is also
+	 * backed by an on-disk index, so that a fresh JVM doesn't have to rehash every file.
 	 */
 	static final Cache cache = new Cache();
 
-	private static final class Cache {
-		Map<String, Sig> cache = new HashMap<>();
+	static final class Cache {
+		final Map<String, Sig> cache = new ConcurrentHashMap<>();
+		private @Nullable PersistentIndex persistentIndex;
 
-		synchronized Sig sign(File fileInput) throws IOException {
+		Sig sign(File fileInput) throws IOException {
 			String canonicalPath = fileInput.getCanonicalPath();
-			Sig sig = cache.computeIfAbsent(canonicalPath, ThrowingEx.<String, Sig> wrap(p -> {
-				MessageDigest digest = MessageDigest.getInstance("SHA-256");
-				File file = new File(p);
-				// calculate the size and content hash of the file
-				long size = 0;
-				byte[] buf = new byte[1024];
-				long lastModified;
-				try (InputStream input = new FileInputStream(file)) {
-					lastModified = file.lastModified();
-					int numRead;
-					while ((numRead = input.read(buf)) != -1) {
-						size += numRead;
-						digest.update(buf, 0, numRead);
+			Path path = Paths.get(canonicalPath);
+			BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+			Sig sig = cache.get(canonicalPath);
+			if (sig != null && sig.isUpToDate(attributes)) {
+				return sig;
+			}
+			PersistentIndex index = persistentIndex();
+			if (index != null) {
+				sig = index.get(canonicalPath);
+				if (sig != null && sig.isUpToDate(attributes)) {
+					cache.put(canonicalPath, sig);
+					return sig;
+				}
+			}
+			// two threads might hash the same file at the same time, but the result is the same
+			// and it's much cheaper than making every other file wait on a lock
+			sig = Sig.calculate(path, attributes);
+			cache.put(canonicalPath, sig);
+			if (index != null) {
+				index.put(canonicalPath, sig);
+			}
+			return sig;
+		}
+
+		private synchronized @Nullable PersistentIndex persistentIndex() {
+			File dir = SpotlessCache.persistentDir();
+			if (dir == null) {
+				persistentIndex = null;
+			} else if (persistentIndex == null || !persistentIndex.file.getParentFile().equals(dir)) {
+				persistentIndex = new PersistentIndex(new File(dir, PersistentIndex.FILENAME));
+			}
+			return persistentIndex;
+		}
+	}
+
+	/**
+	 * An append-only {@link IndexFile} with one record per signature: {@code size, lastModified, fileKey, hash, canonicalPath}.
+	 * Later records win over earlier ones, and the file is compacted when it has accumulated too many stale records.
+	 * It is only a cache, so every error reading or writing it degrades to rehashing the file.
+	 */
+	static final class PersistentIndex {
+		static final String FILENAME = "file-signatures-v1.idx";
+		private static final String HEADER = "spotless-file-signatures-v1";
+		private static final int COMPACT_THRESHOLD = 1_000;
+
+		final File file;
+		private final Map<String, Sig> entries = new ConcurrentHashMap<>();
+
+		PersistentIndex(File file) {
+			this.file = file;
+			int numLines = load();
+			if (numLines > COMPACT_THRESHOLD && numLines > 2 * entries.size()) {
+				compact();
+			}
+		}
+
+		@Nullable
+		Sig get(String canonicalPath) {
+			return entries.get(canonicalPath);
+		}
+
+		void put(String canonicalPath, Sig sig) {
+			entries.put(canonicalPath, sig);
+			String[] record = toRecord(canonicalPath, sig);
+			if (!IndexFile.canWrite(record)) {
+				// not representable in our format, but also not worth escaping
+				return;
+			}
+			synchronized (this) {
+				try {
+					IndexFile.append(file, HEADER, record);
+				} catch (IOException e) {
+					logger.log(Level.FINE, "Unable to write file signature index " + file, e);
+				}
+			}
+		}
+
+		private int load() {
+			if (!file.isFile()) {
+				return 0;
+			}
+			try {
+				return IndexFile.read(file, HEADER, 5, pieces -> {
+					if (pieces.length != 5) {
+						// partially written line from a concurrent writer, just skip it
+						return;
+					}
+					try {
+						long size = Long.parseLong(pieces[0]);
+						long lastModified = Long.parseLong(pieces[1]);
+						String fileKey = pieces[2].isEmpty() ? null : pieces[2];
+						byte[] hash = IndexFile.fromHex(pieces[3]);
+						String canonicalPath = pieces[4];
+						entries.put(canonicalPath, new Sig(new File(canonicalPath).getName(), size, hash, lastModified, fileKey));
+					} catch (IllegalArgumentException e) {
+						// skip it
 					}
+				});
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Unable to read file signature index " + file + ", starting over", e);
+				entries.clear();
+				try {
+					Files.deleteIfExists(file.toPath());
+				} catch (IOException deleteFailed) {
+					logger.log(Level.FINE, "Unable to delete file signature index " + file, deleteFailed);
 				}
-				return new Sig(file.getName(), size, digest.digest(), lastModified);
-			}));
-			long lastModified = fileInput.lastModified();
-			if (sig.lastModified != lastModified) {
-				cache.remove(canonicalPath);
-				return sign(fileInput);
-			} else {
-				return sig;
+				return 0;
 			}
 		}
+
+		private synchronized void compact() {
+			try {
+				List<String[]> records = new ArrayList<>(entries.size());
+				for (Map.Entry<String, Sig> entry : entries.entrySet()) {
+					records.add(toRecord(entry.getKey(), entry.getValue()));
+				}
+				IndexFile.write(file, HEADER, records);
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Unable to compact file signature index " + file, e);
+			}
+		}
+
+		private static String[] toRecord(String canonicalPath, Sig sig) {
+			return new String[]{Long.toString(sig.size), Long.toString(sig.lastModified), sig.fileKey == null ? "" : sig.fileKey, IndexFile.toHex(sig.hash), canonicalPath};
+		}
+
+		private static final Logger logger = Logger.getLogger(FileSignature.class.getName());
 	}
 
+	/** Large enough that reading a formatter jar takes only a handful of syscalls. */
+	private static final ThreadLocal<ByteBuffer> hashBuffer = ThreadLocal.withInitial(() -> ByteBuffer.allocate(64 * 1024));
+
 	@SuppressFBWarnings("SE_TRANSIENT_FIELD_NOT_RESTORED")
-	private static final class Sig implements Serializable {
+	static final class Sig implements Serializable {
 		private static final long serialVersionUID = 6727302747168655222L;
 
 		@SuppressWarnings("unused")
 		final String name;
-		@SuppressWarnings("unused")
 		final long size;
-		@SuppressWarnings("unused")
 		final byte[] hash;
 		/** transient because state should be transferable from machine to machine. */
 		final transient long lastModified;
+		/** transient for the same reason, null if the filesystem doesn't provide one. */
+		final transient @Nullable String fileKey;
 
-		Sig(String name, long size, byte[] hash, long lastModified) {
+		Sig(String name, long size, byte[] hash, long lastModified, @Nullable String fileKey) {
 			this.name = name;
 			this.size = size;
 			this.hash = hash;
 			this.lastModified = lastModified;
+			this.fileKey = fileKey;
+		}
+
+		boolean isUpToDate(BasicFileAttributes attributes) {
+			return size == attributes.size()
+					&& lastModified == attributes.lastModifiedTime().toMillis()
+					&& Objects.equals(fileKey, fileKeyOf(attributes));
+		}
+
+		static Sig calculate(Path path, BasicFileAttributes attributes) throws IOException {
+			MessageDigest digest = IndexFile.sha256();
+			// calculate the size and content hash of the file
+			long size = 0;
+			ByteBuffer buf = hashBuffer.get();
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				buf.clear();
+				int numRead;
+				while ((numRead = channel.read(buf)) != -1) {
+					size += numRead;
+					buf.flip();
+					digest.update(buf);
+					buf.clear();
+				}
+			}
+			return new Sig(path.toFile().getName(), size, digest.digest(), attributes.lastModifiedTime().toMillis(), fileKeyOf(attributes));
+		}
+
+		private static @Nullable String fileKeyOf(BasicFileAttributes attributes) {
+			Object fileKey = attributes.fileKey();
+			return fileKey == null ? null : fileKey.toString();
 		}
 	}
 
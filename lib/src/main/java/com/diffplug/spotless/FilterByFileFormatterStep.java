@@ -34,6 +34,14 @@ final class FilterByFileFormatterStep implements FormatterStep {
 		return delegateStep.getName();
 	}
 
+	FormatterStep getDelegateStep() {
+		return delegateStep;
+	}
+
+	FilterByFileFormatterStep withDelegateStep(FormatterStep delegateStep) {
+		return new FilterByFileFormatterStep(delegateStep, filter);
+	}
+
 	@Override
 	public @Nullable String format(String raw, File file) throws Exception {
 		Objects.requireNonNull(raw, "raw");
@@ -0,0 +1,465 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Serves the formats of a {@link FormatSession} to IDEs and editors over a local socket, so that formatting a
+ * file on save costs a round-trip rather than starting a build tool and creating every {@link FormatterFunc}.
+ *
+ * The port and a secret token are written to an info file which only the current user can read, and a client
+ * has to send the token within {@link #AUTH_TIMEOUT_MILLIS}.  Then, each request is a file path, its content (or
+ * {@code -1} to read it from disk) and whether to write the result to disk, and an empty path stops the daemon.
+ * Each response is one of {@link #IS_CLEAN}, {@link #IS_DIRTY} followed by the formatted content (or {@code -1}
+ * if it was written to disk), {@link #DID_NOT_CONVERGE}, or {@link #ERROR} followed by a message.  Use
+ * {@link Client} rather than speaking the protocol directly.
+ *
+ * Requests are served concurrently, on up to {@link #MAX_CONNECTIONS} connections, and a connection which is idle
+ * for {@link #IDLE_TIMEOUT_MILLIS} is closed.  A formatter isn't necessarily thread-safe, so each format lends its
+ * formatter to one request at a time, and {@link Formatter#fork() forks} it when every copy is busy.  The
+ * copies are kept warm until the daemon is closed.  A file which no format targets is reported as clean.
+ */
+public final class FormatDaemon implements AutoCloseable {
+	public static final String IS_CLEAN = "IS CLEAN";
+	public static final String IS_DIRTY = "IS DIRTY";
+	public static final String DID_NOT_CONVERGE = "DID NOT CONVERGE";
+	public static final String ERROR = "ERROR";
+
+	/** How long a client has to send the token after connecting. */
+	public static final int AUTH_TIMEOUT_MILLIS = 10_000;
+	/** How long an authenticated connection can wait between requests. */
+	public static final int IDLE_TIMEOUT_MILLIS = 10 * 60_000;
+	/** Further connections are closed right away, rather than each getting a thread. */
+	public static final int MAX_CONNECTIONS = 64;
+	/** The largest content that a request or response can carry. */
+	public static final int MAX_CONTENT_LENGTH = 64 * 1024 * 1024;
+
+	private static final String INFO_HEADER = "spotless-daemon-v1";
+	private static final String STOP = "";
+	private static final int NO_CONTENT = -1;
+
+	private final FormatSession session;
+	private final ServerSocket server;
+	private final String token;
+	private final ExecutorService executor = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "spotless-daemon");
+		thread.setDaemon(true);
+		return thread;
+	});
+	/** The formatters of each format which aren't serving a request, guarded by itself. */
+	private final Map<String, Deque<Formatter>> idle = new HashMap<>();
+	private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+	private final CountDownLatch closed = new CountDownLatch(1);
+
+	private FormatDaemon(FormatSession session, ServerSocket server, String token) {
+		this.session = session;
+		this.server = server;
+		this.token = token;
+	}
+
+	/**
+	 * Starts serving the formats of the given session on a loopback port, and writes the port and token to
+	 * {@code infoFile}.  The session is not closed by the daemon.
+	 */
+	public static FormatDaemon start(FormatSession session, File infoFile) throws IOException {
+		byte[] secret = new byte[16];
+		new SecureRandom().nextBytes(secret);
+		String token = IndexFile.toHex(secret);
+		ServerSocket server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		FormatDaemon daemon = new FormatDaemon(session, server, token);
+		try {
+			daemon.writeInfo(infoFile);
+		} catch (IOException | RuntimeException e) {
+			daemon.close();
+			throw e;
+		}
+		daemon.executor.execute(daemon::accept);
+		return daemon;
+	}
+
+	/** The port the daemon listens on, on the loopback address. */
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	/** Waits until the daemon is closed. */
+	public void awaitClose() throws InterruptedException {
+		closed.await();
+	}
+
+	private void writeInfo(File infoFile) throws IOException {
+		Path target = infoFile.toPath().toAbsolutePath();
+		Files.createDirectories(target.getParent());
+		Path tmp = Files.createTempFile(target.getParent(), infoFile.getName(), ".tmp");
+		try {
+			if (!FileSignature.machineIsWin()) {
+				// the token is what keeps other users from formatting our files
+				Files.setPosixFilePermissions(tmp, PosixFilePermissions.fromString("rw-------"));
+			}
+			String info = INFO_HEADER + "\n" + getPort() + "\n" + token + "\n";
+			Files.write(tmp, info.getBytes(StandardCharsets.UTF_8));
+			Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private void accept() {
+		while (!server.isClosed()) {
+			try {
+				Socket socket = server.accept();
+				if (connections.size() >= MAX_CONNECTIONS) {
+					logger.fine("Too many connections, closing " + socket);
+					socket.close();
+					continue;
+				}
+				connections.add(socket);
+				executor.execute(() -> serve(socket));
+			} catch (IOException e) {
+				if (!server.isClosed()) {
+					logger.log(Level.WARNING, "Unable to accept a connection", e);
+				}
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+			// a client which never sends the token mustn't hold on to a thread
+			socket.setSoTimeout(AUTH_TIMEOUT_MILLIS);
+			if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), in.readUTF().getBytes(StandardCharsets.UTF_8))) {
+				out.writeUTF(ERROR);
+				out.writeUTF("Wrong token");
+				return;
+			}
+			socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+			while (true) {
+				String path;
+				try {
+					path = in.readUTF();
+				} catch (EOFException e) {
+					// the client is done
+					return;
+				}
+				if (path.equals(STOP)) {
+					close();
+					return;
+				}
+				int length = in.readInt();
+				if (!isValidLength(length)) {
+					// the rest of the stream can't be parsed, so the connection is dropped
+					out.writeUTF(ERROR);
+					out.writeUTF("Invalid content length " + length);
+					return;
+				}
+				byte[] content = null;
+				if (length != NO_CONTENT) {
+					content = new byte[length];
+					in.readFully(content);
+				}
+				boolean write = in.readBoolean();
+				try {
+					respond(out, new File(path), content, write);
+				} catch (IOException | RuntimeException e) {
+					logger.log(Level.FINE, "Unable to format " + path, e);
+					String message = String.valueOf(e);
+					out.writeUTF(ERROR);
+					out.writeUTF(message.length() > 4096 ? message.substring(0, 4096) : message);
+				}
+				out.flush();
+			}
+		} catch (IOException e) {
+			if (!server.isClosed()) {
+				logger.log(Level.FINE, "Connection failed", e);
+			}
+		} finally {
+			connections.remove(socket);
+			try {
+				socket.close();
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Unable to close " + socket, e);
+			}
+		}
+	}
+
+	/** Returns true if the given length is {@link #NO_CONTENT}, or is small enough to allocate. */
+	private static boolean isValidLength(int length) {
+		return length == NO_CONTENT || (length >= 0 && length <= MAX_CONTENT_LENGTH);
+	}
+
+	private void respond(DataOutputStream out, File file, @Nullable byte[] content, boolean write) throws IOException {
+		if (!file.isAbsolute()) {
+			throw new IllegalArgumentException("The path must be absolute: " + file);
+		}
+		List<String> names;
+		synchronized (session) {
+			names = session.targeting(file);
+		}
+		if (names.isEmpty()) {
+			out.writeUTF(IS_CLEAN);
+			return;
+		}
+		byte[] rawBytes = content != null ? content : Files.readAllBytes(file.toPath());
+		byte[] current = rawBytes;
+		for (String name : names) {
+			Formatter formatter = checkOut(name);
+			PaddedCell.DirtyState state;
+			try {
+				state = PaddedCell.calculateDirtyState(formatter, file, current);
+			} finally {
+				checkIn(name, formatter);
+			}
+			if (state.didNotConverge()) {
+				out.writeUTF(DID_NOT_CONVERGE);
+				return;
+			} else if (!state.isClean()) {
+				current = state.canonicalBytes();
+			}
+		}
+		if (Arrays.equals(rawBytes, current)) {
+			out.writeUTF(IS_CLEAN);
+		} else if (write) {
+			Files.write(file.toPath(), current);
+			out.writeUTF(IS_DIRTY);
+			out.writeInt(NO_CONTENT);
+		} else {
+			out.writeUTF(IS_DIRTY);
+			out.writeInt(current.length);
+			out.write(current);
+		}
+	}
+
+	/** Returns a formatter for the given format which no other request is using, waiting for one if it can't be forked. */
+	private Formatter checkOut(String name) {
+		synchronized (idle) {
+			Deque<Formatter> formatters = idle.get(name);
+			if (formatters == null) {
+				// the session's own formatter is the first copy
+				formatters = new ArrayDeque<>();
+				formatters.push(session.formatter(name));
+				idle.put(name, formatters);
+			}
+			if (!formatters.isEmpty()) {
+				return formatters.pop();
+			}
+		}
+		Formatter fork = session.formatter(name).fork();
+		if (fork != null) {
+			return fork;
+		}
+		synchronized (idle) {
+			Deque<Formatter> formatters = idle.get(name);
+			boolean interrupted = false;
+			while (formatters.isEmpty()) {
+				try {
+					idle.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+			return formatters.pop();
+		}
+	}
+
+	private void checkIn(String name, Formatter formatter) {
+		synchronized (idle) {
+			if (closed.getCount() == 0 && formatter != session.formatter(name)) {
+				formatter.close();
+				return;
+			}
+			idle.get(name).push(formatter);
+			idle.notifyAll();
+		}
+	}
+
+	/** Stops serving, and closes every formatter which was forked, but not the session. */
+	@Override
+	public void close() {
+		try {
+			server.close();
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Unable to close " + server, e);
+		}
+		for (Socket socket : connections) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Unable to close " + socket, e);
+			}
+		}
+		executor.shutdown();
+		synchronized (idle) {
+			closed.countDown();
+			for (Map.Entry<String, Deque<Formatter>> entry : idle.entrySet()) {
+				Formatter own = session.formatter(entry.getKey());
+				for (Formatter formatter : entry.getValue()) {
+					if (formatter != own) {
+						formatter.close();
+					}
+				}
+			}
+			idle.clear();
+		}
+	}
+
+	/** Talks to a {@link FormatDaemon}, one request at a time. */
+	public static final class Client implements AutoCloseable {
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+
+		private Client(Socket socket) throws IOException {
+			this.socket = socket;
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		/** Connects to the daemon which wrote the given info file. */
+		public static Client connect(File infoFile) throws IOException {
+			List<String> lines = Files.readAllLines(infoFile.toPath(), StandardCharsets.UTF_8);
+			if (lines.size() < 3 || !INFO_HEADER.equals(lines.get(0))) {
+				throw new IOException(infoFile + " was not written by a spotless daemon");
+			}
+			Socket socket = new Socket(InetAddress.getLoopbackAddress(), Integer.parseInt(lines.get(1)));
+			try {
+				Client client = new Client(socket);
+				client.out.writeUTF(lines.get(2));
+				return client;
+			} catch (IOException | RuntimeException e) {
+				socket.close();
+				throw e;
+			}
+		}
+
+		/**
+		 * Formats the given file, using {@code content} rather than what is on disk if it is non-null.
+		 * If {@code write} is true, a dirty result is written to the file rather than returned.
+		 */
+		public Response format(File file, @Nullable byte[] content, boolean write) throws IOException {
+			out.writeUTF(file.getAbsolutePath());
+			if (content == null) {
+				out.writeInt(NO_CONTENT);
+			} else {
+				out.writeInt(content.length);
+				out.write(content);
+			}
+			out.writeBoolean(write);
+			out.flush();
+
+			String status = in.readUTF();
+			switch (status) {
+			case IS_CLEAN:
+			case DID_NOT_CONVERGE:
+				return new Response(status, null);
+			case IS_DIRTY:
+				int length = in.readInt();
+				if (length == NO_CONTENT) {
+					return new Response(status, null);
+				} else if (!isValidLength(length)) {
+					throw new IOException("Invalid content length " + length);
+				}
+				byte[] formatted = new byte[length];
+				in.readFully(formatted);
+				return new Response(status, formatted);
+			case ERROR:
+				throw new IOException("Unable to format " + file + ": " + in.readUTF());
+			default:
+				throw new IOException("Unexpected response: " + status);
+			}
+		}
+
+		/** Stops the daemon, which closes this client's connection as well as every other. */
+		public void stopDaemon() throws IOException {
+			out.writeUTF(STOP);
+			out.flush();
+			while (in.read() != -1) {
+				// the daemon closes the connection once it has stopped
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			socket.close();
+		}
+	}
+
+	/** The state of a file according to the daemon. */
+	public static final class Response {
+		private final String status;
+		private final @Nullable byte[] formatted;
+
+		private Response(String status, @Nullable byte[] formatted) {
+			this.status = status;
+			this.formatted = formatted;
+		}
+
+		/** One of {@link #IS_CLEAN}, {@link #IS_DIRTY} or {@link #DID_NOT_CONVERGE}. */
+		public String getStatus() {
+			return status;
+		}
+
+		public boolean isClean() {
+			return IS_CLEAN.equals(status);
+		}
+
+		public boolean didNotConverge() {
+			return DID_NOT_CONVERGE.equals(status);
+		}
+
+		/** The formatted content, if the file is dirty and the result wasn't written to disk. */
+		public @Nullable byte[] getFormatted() {
+			return formatted;
+		}
+	}
+
+	private static final Logger logger = Logger.getLogger(FormatDaemon.class.getName());
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * Runs several formats over the union of their targets, reading each file only once,
+ * rather than once per format which targets it.
+ *
+ * The formats are applied in the order they were added, which gives the same result as
+ * running them one after the other:
+ * - {@link #check(File)} compares every format against the file on disk
+ * - {@link #apply(File)} feeds the output of each format into the next, and writes the file at most once
+ *
+ * Closing the session closes all of its formatters.
+ */
+public final class FormatSession implements AutoCloseable {
+	private final List<Format> formats = new ArrayList<>();
+	private final Map<File, List<Format>> fileToFormats = new LinkedHashMap<>();
+
+	/** Adds a format which targets the given files. */
+	public FormatSession add(String name, Formatter formatter, Iterable<File> files) {
+		return add(name, formatter, files, unused -> false);
+	}
+
+	/**
+	 * Adds a format which targets the given files, as well as any file which is later passed
+	 * to {@link #track(File)} and matches {@code isTarget}, such as a file created after the session started.
+	 */
+	public FormatSession add(String name, Formatter formatter, Iterable<File> files, Predicate<File> isTarget) {
+		Format format = new Format(Objects.requireNonNull(name, "name"), Objects.requireNonNull(formatter, "formatter"), Objects.requireNonNull(isTarget, "isTarget"));
+		formats.add(format);
+		for (File file : files) {
+			fileToFormats.computeIfAbsent(file, unused -> new ArrayList<>(1)).add(format);
+		}
+		return this;
+	}
+
+	/**
+	 * Returns true if any format targets the given file, after adding it to the targets of every
+	 * format whose {@code isTarget} matches it, if no format targeted it yet.
+	 */
+	public boolean track(File file) {
+		if (fileToFormats.containsKey(file)) {
+			return true;
+		}
+		List<Format> matching = new ArrayList<>(1);
+		for (Format format : formats) {
+			if (format.isTarget.test(file)) {
+				matching.add(format);
+			}
+		}
+		if (matching.isEmpty()) {
+			return false;
+		}
+		fileToFormats.put(file, matching);
+		return true;
+	}
+
+	/** The union of the targets of every format, in the order they were first added. */
+	public Set<File> files() {
+		return Collections.unmodifiableSet(fileToFormats.keySet());
+	}
+
+	/** Returns the formatter for the given format name. */
+	public Formatter formatter(String name) {
+		for (Format format : formats) {
+			if (format.name.equals(name)) {
+				return format.formatter;
+			}
+		}
+		throw new IllegalArgumentException("No such format: " + name);
+	}
+
+	/** The names of the formats which target the given file, in the order they were added. */
+	public List<String> formatNames(File file) {
+		List<Format> forFile = formatsFor(file);
+		List<String> names = new ArrayList<>(forFile.size());
+		for (Format format : forFile) {
+			names.add(format.name);
+		}
+		return names;
+	}
+
+	/**
+	 * Calculates the state of the given file according to every format which targets it.  The file is read once,
+	 * and decoded once per encoding rather than once per format.
+	 */
+	public Result check(File file) throws IOException {
+		Content content = new Content(Files.readAllBytes(file.toPath()));
+		Map<String, PaddedCell.DirtyState> states = new LinkedHashMap<>();
+		for (Format format : formatsFor(file)) {
+			states.put(format.name, content.dirtyState(format.formatter, file));
+		}
+		return new Result(file, states);
+	}
+
+	/**
+	 * Applies every format which targets the given file, each to the output of the previous one,
+	 * and writes the result if it differs from what is on disk.  A format which does not converge
+	 * is skipped, just as it would be if it were applied on its own.
+	 */
+	public Result apply(File file) throws IOException {
+		byte[] rawBytes = Files.readAllBytes(file.toPath());
+		Content current = new Content(rawBytes);
+		Map<String, PaddedCell.DirtyState> states = new LinkedHashMap<>();
+		for (Format format : formatsFor(file)) {
+			PaddedCell.DirtyState state = current.dirtyState(format.formatter, file);
+			states.put(format.name, state);
+			if (!state.isClean() && !state.didNotConverge()) {
+				current = new Content(state.canonicalBytes());
+			}
+		}
+		if (!Arrays.equals(rawBytes, current.bytes)) {
+			Files.write(file.toPath(), current.bytes);
+		}
+		return new Result(file, states);
+	}
+
+	/**
+	 * The names of the formats which target the given file, or whose {@code isTarget} matches it,
+	 * in the order they were added.  Unlike {@link #track(File)}, the session is left as-is.
+	 */
+	List<String> targeting(File file) {
+		List<Format> forFile = fileToFormats.get(file);
+		List<String> names = new ArrayList<>(1);
+		for (Format format : formats) {
+			if (forFile != null ? forFile.contains(format) : format.isTarget.test(file)) {
+				names.add(format.name);
+			}
+		}
+		return names;
+	}
+
+	/**
+	 * Replaces the steps of every format whose state depends on a file which has changed since, such as
+	 * a config file, and returns the names of the formats which were refreshed.
+	 *
+	 * @see Formatter#refreshStaleSteps()
+	 */
+	public List<String> refreshStaleSteps() {
+		List<String> refreshed = new ArrayList<>();
+		for (Format format : formats) {
+			Formatter fresh = format.formatter.refreshStaleSteps();
+			if (fresh != format.formatter) {
+				format.formatter = fresh;
+				refreshed.add(format.name);
+			}
+		}
+		return refreshed;
+	}
+
+	/** The files which the state of any format depends on, such as config files. */
+	List<File> signedFiles() {
+		List<File> files = new ArrayList<>();
+		for (Format format : formats) {
+			files.addAll(format.formatter.signedFiles());
+		}
+		return files;
+	}
+
+	private List<Format> formatsFor(File file) {
+		List<Format> forFile = fileToFormats.get(file);
+		if (forFile == null) {
+			throw new IllegalArgumentException("No format targets " + file);
+		}
+		return forFile;
+	}
+
+	@Override
+	public void close() {
+		for (Format format : formats) {
+			format.formatter.close();
+		}
+	}
+
+	/** The state of a single file according to each of the formats which target it. */
+	public static final class Result {
+		private final File file;
+		private final Map<String, PaddedCell.DirtyState> states;
+
+		private Result(File file, Map<String, PaddedCell.DirtyState> states) {
+			this.file = file;
+			this.states = Collections.unmodifiableMap(states);
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		/** The state according to each format which targets this file, in the order the formats were added. */
+		public Map<String, PaddedCell.DirtyState> getStates() {
+			return states;
+		}
+	}
+
+	/**
+	 * The content of a file, decoded and converted to unix line endings at most once per encoding.  The line
+	 * ending policy of a format only applies to its output, so it doesn't matter here.
+	 */
+	private static final class Content {
+		final byte[] bytes;
+		private final Map<Charset, String> unixByEncoding = new HashMap<>(2);
+
+		Content(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		PaddedCell.DirtyState dirtyState(Formatter formatter, File file) throws IOException {
+			String rawUnix = unixByEncoding.computeIfAbsent(formatter.getEncoding(), encoding -> PaddedCell.toUnix(bytes, encoding));
+			return PaddedCell.calculateDirtyState(formatter, file, bytes, rawUnix);
+		}
+	}
+
+	private static final class Format {
+		final String name;
+		final Predicate<File> isTarget;
+		Formatter formatter;
+
+		Format(String name, Formatter formatter, Predicate<File> isTarget) {
+			this.name = name;
+			this.formatter = formatter;
+			this.isTarget = isTarget;
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Keeps the formatters of a {@link FormatSession} warm, and formats (or checks) each target as soon as it
+ * is saved, so that an IDE or a terminal gets its result in the time it takes to format a single file.
+ *
+ * Every folder under the given roots is watched, except for hidden folders (e.g. {@code .git}) and the
+ * excluded folders (e.g. the build folder), so that a new file is seen even if its folder doesn't contain
+ * a target yet.  So are the folders of targets outside of the roots, the folders of files which a step
+ * depends on (e.g. a config file), and any folder created inside a watched one.  A new file is formatted
+ * if a format of the session {@link FormatSession#track(File) tracks} it.  When a file which a step depends on changes, only the
+ * steps which depend on it are created again, the others keep their {@link FormatterFunc}.
+ *
+ * The session is only used by the thread which calls {@link #run()}, and is not closed by this watcher.
+ */
+public final class FormatWatcher implements AutoCloseable {
+	/** Events which arrive within this delay of each other are handled together, because saving a file can take several writes. */
+	private static final long DEBOUNCE_MS = 50;
+
+	private final FormatSession session;
+	private final boolean apply;
+	private final Listener listener;
+	private final WatchService watchService;
+	private final Map<WatchKey, Path> keys = new HashMap<>();
+	private final Set<Path> watchedDirs = new HashSet<>();
+	private final Set<Path> signedFiles = new HashSet<>();
+	private final Set<Path> excludedDirs = new HashSet<>();
+
+	/** Receives the outcome of everything the watcher does, on the thread which called {@link #run()}. */
+	public interface Listener {
+		/** Called after a target was formatted (or checked). */
+		void formatted(FormatSession.Result result);
+
+		/** Called after the given formats were refreshed, because a file which they depend on has changed. */
+		void refreshed(List<String> formatNames);
+
+		/** Called when the given file couldn't be formatted (or checked), or the given config file couldn't be reloaded. */
+		void failed(File file, Exception e);
+	}
+
+	private FormatWatcher(FormatSession session, boolean apply, Listener listener, WatchService watchService) {
+		this.session = session;
+		this.apply = apply;
+		this.listener = listener;
+		this.watchService = watchService;
+	}
+
+	/**
+	 * Starts watching every folder under {@code roots}, except for {@code excludedDirs}, for changes to the targets
+	 * of the given session, which are formatted if {@code apply} is true, else only checked.
+	 */
+	public static FormatWatcher watch(FormatSession session, boolean apply, Listener listener, Iterable<File> roots, Iterable<File> excludedDirs) throws IOException {
+		WatchService watchService = FileSystems.getDefault().newWatchService();
+		FormatWatcher watcher = new FormatWatcher(session, apply, listener, watchService);
+		try {
+			for (File excluded : excludedDirs) {
+				watcher.excludedDirs.add(excluded.getAbsoluteFile().toPath());
+			}
+			for (File root : roots) {
+				watcher.registerTree(root.getAbsoluteFile().toPath(), unused -> {});
+			}
+			for (File file : session.files()) {
+				watcher.register(file.getAbsoluteFile().toPath().getParent());
+			}
+			watcher.registerSignedFiles();
+		} catch (IOException | RuntimeException e) {
+			watcher.close();
+			throw e;
+		}
+		return watcher;
+	}
+
+	/** Handles changes until this watcher is closed, or the calling thread is interrupted. */
+	public void run() throws InterruptedException {
+		try {
+			while (true) {
+				Set<Path> changed = new LinkedHashSet<>();
+				collect(watchService.take(), changed);
+				WatchKey next;
+				while ((next = watchService.poll(DEBOUNCE_MS, TimeUnit.MILLISECONDS)) != null) {
+					collect(next, changed);
+				}
+				handle(changed);
+			}
+		} catch (ClosedWatchServiceException e) {
+			// closed by another thread, which is how the watcher stops
+		}
+	}
+
+	private void collect(WatchKey key, Set<Path> changed) {
+		Path dir = keys.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (dir == null) {
+				continue;
+			}
+			if (event.kind() == OVERFLOW) {
+				// we missed some events, so look at every target in this folder again
+				for (File file : session.files()) {
+					Path path = file.getAbsoluteFile().toPath();
+					if (dir.equals(path.getParent())) {
+						changed.add(path);
+					}
+				}
+				continue;
+			}
+			Path path = dir.resolve((Path) event.context());
+			if (event.kind() == ENTRY_CREATE && Files.isDirectory(path)) {
+				// a new folder (e.g. a new package) might already contain files by the time we register it
+				try {
+					registerTree(path, changed::add);
+				} catch (IOException e) {
+					listener.failed(path.toFile(), e);
+				}
+			} else {
+				changed.add(path);
+			}
+		}
+		if (!key.reset()) {
+			watchedDirs.remove(keys.remove(key));
+		}
+	}
+
+	private void handle(Set<Path> changed) {
+		for (Path path : changed) {
+			if (signedFiles.contains(path)) {
+				refresh(path);
+				break;
+			}
+		}
+		for (Path path : changed) {
+			File file = path.toFile();
+			if (!Files.isRegularFile(path) || !session.track(file)) {
+				continue;
+			}
+			try {
+				listener.formatted(apply ? session.apply(file) : session.check(file));
+			} catch (IOException | RuntimeException e) {
+				listener.failed(file, e);
+			}
+		}
+	}
+
+	private void refresh(Path configFile) {
+		try {
+			List<String> refreshed = session.refreshStaleSteps();
+			if (!refreshed.isEmpty()) {
+				listener.refreshed(refreshed);
+			}
+			registerSignedFiles();
+		} catch (IOException | RuntimeException e) {
+			listener.failed(configFile.toFile(), e);
+		}
+	}
+
+	private void registerSignedFiles() throws IOException {
+		for (File file : session.signedFiles()) {
+			Path path = file.getAbsoluteFile().toPath();
+			if (signedFiles.add(path)) {
+				register(path.getParent());
+			}
+		}
+	}
+
+	private void register(Path dir) throws IOException {
+		if (dir != null && !watchedDirs.contains(dir) && Files.isDirectory(dir)) {
+			keys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY), dir);
+			watchedDirs.add(dir);
+		}
+	}
+
+	/** Registers the given folder and every folder inside it which isn't hidden or excluded, and passes every file to {@code files}. */
+	private void registerTree(Path root, Consumer<Path> files) throws IOException {
+		if (!Files.isDirectory(root) || isSkipped(root)) {
+			return;
+		}
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+				if (!dir.equals(root) && isSkipped(dir)) {
+					return FileVisitResult.SKIP_SUBTREE;
+				}
+				register(dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+				files.accept(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				// e.g. a folder which was deleted while we walked it
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private boolean isSkipped(Path dir) {
+		Path name = dir.getFileName();
+		return excludedDirs.contains(dir) || (name != null && name.toString().startsWith("."));
+	}
+
+	@Override
+	public void close() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			throw ThrowingEx.asRuntime(e);
+		}
+	}
+}
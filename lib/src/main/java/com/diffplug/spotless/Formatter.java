@@ -32,6 +32,9 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nullable;
 
@@ -45,6 +48,13 @@ public final class Formatter implements Serializable, AutoCloseable {
 	private List<FormatterStep> steps;
 	private FormatExceptionPolicy exceptionPolicy;
 
+	/** Background creation of each step's FormatterFunc, started by the first call to {@link #compute}, null for the first step. */
+	private transient volatile @Nullable List<WarmUp> warmUp;
+
+	/** If non-null, closing this formatter returns its steps to the pool rather than closing them. */
+	private transient @Nullable FormatterStepPool pool;
+	private transient boolean checkedIn;
+
 	private Formatter(LineEnding.Policy lineEndingsPolicy, Charset encoding, Path rootDirectory, List<FormatterStep> steps, FormatExceptionPolicy exceptionPolicy) {
 		this.lineEndingsPolicy = Objects.requireNonNull(lineEndingsPolicy, "lineEndingsPolicy");
 		this.encoding = Objects.requireNonNull(encoding, "encoding");
@@ -225,8 +235,17 @@ public final class Formatter implements Serializable, AutoCloseable {
 		Objects.requireNonNull(unix, "unix");
 		Objects.requireNonNull(file, "file");
 
-		for (FormatterStep step : steps) {
+		List<WarmUp> warmUp = this.warmUp;
+		if (warmUp == null) {
+			warmUp = startWarmUp();
+		}
+		for (int i = 0; i < steps.size(); ++i) {
+			FormatterStep step = steps.get(i);
 			try {
+				WarmUp stepWarmUp = warmUp.get(i);
+				if (stepWarmUp != null) {
+					stepWarmUp.awaitAndRethrow();
+				}
 				String formatted = step.format(unix, file);
 				if (formatted == null) {
 					// This probably means it was a step that only checks
@@ -275,9 +294,216 @@ public final class Formatter implements Serializable, AutoCloseable {
 				exceptionPolicy.equals(other.exceptionPolicy);
 	}
 
+	/**
+	 * Many steps have an expensive startup (resolving jars, starting a node server, confirming
+	 * the version of an executable), which would otherwise happen one after the other as the first
+	 * file makes its way through the steps.  Instead, we start all but the first step in the background,
+	 * so that the first file only has to wait for the slowest step, rather than for the sum of them all.
+	 *
+	 * Each step gets its own short-lived thread, with the caller's context classloader, so that the step
+	 * starts up just as it would have on the calling thread.
+	 */
+	private synchronized List<WarmUp> startWarmUp() {
+		if (warmUp != null) {
+			return warmUp;
+		}
+		ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+		List<WarmUp> warmUps = new ArrayList<>(steps.size());
+		for (int i = 0; i < steps.size(); ++i) {
+			if (i == 0) {
+				// the first step is about to be started by the calling thread anyway
+				warmUps.add(null);
+				continue;
+			}
+			WarmUp stepWarmUp = new WarmUp(steps.get(i));
+			Thread thread = new Thread(stepWarmUp, "spotless-warm-up");
+			thread.setContextClassLoader(contextClassLoader);
+			thread.setDaemon(true);
+			thread.start();
+			warmUps.add(stepWarmUp);
+		}
+		warmUp = warmUps;
+		return warmUps;
+	}
+
+	/** Creates the state and FormatterFunc of a single step. */
+	private static final class WarmUp extends FutureTask<Void> {
+		private final AtomicBoolean failureRaised = new AtomicBoolean();
+
+		WarmUp(FormatterStep step) {
+			super(() -> {
+				warmUp(step);
+				return null;
+			});
+		}
+
+		/**
+		 * Waits for the warm-up to finish, and rethrows its failure the first time it's asked, so that the
+		 * failure is handled by the exceptionPolicy like any other error in the step.  After that, the step
+		 * raises its own errors.
+		 */
+		void awaitAndRethrow() throws Throwable {
+			try {
+				get();
+			} catch (InterruptedException e) {
+				// the step will just start up on this thread instead
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				if (failureRaised.compareAndSet(false, true)) {
+					throw e.getCause();
+				}
+			}
+		}
+	}
+
+	private static void warmUp(FormatterStep step) throws Exception {
+		if (step instanceof FilterByFileFormatterStep) {
+			warmUp(((FilterByFileFormatterStep) step).getDelegateStep());
+		} else if (step instanceof FormatterStepImpl) {
+			((FormatterStepImpl<?>) step).warmUp();
+		} else if (step instanceof LazyForwardingEquality) {
+			((LazyForwardingEquality<?>) step).state();
+		}
+	}
+
+	/** Waits for the warm-up to finish, so that we don't race it when cleaning up. */
+	private void awaitWarmUp() {
+		List<WarmUp> futures = warmUp;
+		if (futures == null) {
+			return;
+		}
+		boolean interrupted = false;
+		for (WarmUp future : futures) {
+			while (future != null) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException e) {
+					interrupted = true;
+				} catch (ExecutionException e) {
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns a formatter with the same configuration, whose steps create their own {@link FormatterFunc},
+	 * so that it can format files on another thread at the same time as this one.  Returns null if any
+	 * step is a custom implementation of {@link FormatterStep}, because then there's no way to fork it.
+	 *
+	 * The steps' state is shared with this formatter, so it is only computed once.
+	 */
+	public @Nullable Formatter fork() {
+		List<FormatterStep> forked = new ArrayList<>(steps.size());
+		for (FormatterStep step : steps) {
+			FormatterStep fork = fork(step);
+			if (fork == null) {
+				return null;
+			}
+			forked.add(fork);
+		}
+		return new Formatter(lineEndingsPolicy, encoding, rootDir, forked, exceptionPolicy);
+	}
+
+	/**
+	 * Returns a formatter whose steps calculate their state again if any file they signed has changed since,
+	 * such as a config file, while every other step is kept as-is, with its {@link FormatterFunc}.  Returns
+	 * this formatter if nothing has changed.  Otherwise, the replaced steps are closed, so only the returned
+	 * formatter should be used (and closed) from then on.
+	 */
+	public Formatter refreshStaleSteps() {
+		List<FormatterStep> refreshed = new ArrayList<>(steps.size());
+		List<FormatterStep> stale = new ArrayList<>();
+		for (FormatterStep step : steps) {
+			FormatterStep fresh = refreshed(step);
+			if (fresh == null) {
+				refreshed.add(step);
+			} else {
+				refreshed.add(fresh);
+				stale.add(step);
+			}
+		}
+		if (stale.isEmpty()) {
+			return this;
+		}
+		awaitWarmUp();
+		for (FormatterStep step : stale) {
+			cleanup(step);
+		}
+		return new Formatter(lineEndingsPolicy, encoding, rootDir, refreshed, exceptionPolicy);
+	}
+
+	/** Returns the files which were signed by the steps of this formatter, such as their config files, calculating their state if need be. */
+	List<File> signedFiles() {
+		List<File> files = new ArrayList<>();
+		for (FormatterStep step : steps) {
+			if (step instanceof FilterByFileFormatterStep) {
+				step = ((FilterByFileFormatterStep) step).getDelegateStep();
+			}
+			if (step instanceof FormatterStepImpl) {
+				FormatterStepImpl<?> impl = (FormatterStepImpl<?>) step;
+				impl.state();
+				files.addAll(impl.signedFiles());
+			}
+		}
+		return files;
+	}
+
+	private static @Nullable FormatterStep refreshed(FormatterStep step) {
+		if (step instanceof FilterByFileFormatterStep) {
+			FilterByFileFormatterStep filtered = (FilterByFileFormatterStep) step;
+			FormatterStep delegate = refreshed(filtered.getDelegateStep());
+			return delegate == null ? null : filtered.withDelegateStep(delegate);
+		} else if (step instanceof FormatterStepImpl && ((FormatterStepImpl<?>) step).isStale()) {
+			return ((FormatterStepImpl<?>) step).recalculate();
+		} else {
+			return null;
+		}
+	}
+
+	private static void cleanup(FormatterStep step) {
+		if (step instanceof FilterByFileFormatterStep) {
+			cleanup(((FilterByFileFormatterStep) step).getDelegateStep());
+		} else if (step instanceof FormatterStepImpl.Standard) {
+			((FormatterStepImpl.Standard<?>) step).cleanupFormatterFunc();
+		}
+	}
+
+	/** Used by {@link FormatterStepPool#checkOut(Formatter)}. */
+	Formatter pooled(FormatterStepPool pool, List<FormatterStep> steps) {
+		Formatter pooled = new Formatter(lineEndingsPolicy, encoding, rootDir, steps, exceptionPolicy);
+		pooled.pool = pool;
+		return pooled;
+	}
+
+	private static @Nullable FormatterStep fork(FormatterStep step) {
+		if (step instanceof FilterByFileFormatterStep) {
+			FilterByFileFormatterStep filtered = (FilterByFileFormatterStep) step;
+			FormatterStep delegate = fork(filtered.getDelegateStep());
+			return delegate == null ? null : filtered.withDelegateStep(delegate);
+		} else if (step instanceof FormatterStepImpl) {
+			return ((FormatterStepImpl<?>) step).fork();
+		} else {
+			return null;
+		}
+	}
+
 	@SuppressWarnings("rawtypes")
 	@Override
 	public void close() {
+		awaitWarmUp();
+		if (pool != null) {
+			// a step must never be in the pool twice, because then two formatters could check it out at once
+			if (!checkedIn) {
+				checkedIn = true;
+				pool.checkIn(steps);
+			}
+			return;
+		}
 		for (FormatterStep step : steps) {
 			if (step instanceof FormatterStepImpl.Standard) {
 				((FormatterStepImpl.Standard) step).cleanupFormatterFunc();
@@ -17,6 +17,9 @@ package com.diffplug.spotless;
 
 import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
 import java.util.Random;
 
@@ -51,16 +54,53 @@ abstract class FormatterStepImpl<State extends Serializable> extends Strict<Stat
 		return name;
 	}
 
+	/** The signatures which were created while calculating the state, e.g. of a config file. */
+	private transient volatile List<FileSignature> signatures = Collections.emptyList();
+
 	@Override
 	protected State calculateState() throws Exception {
-		return stateSupplier.get();
+		List<FileSignature> recorded = new ArrayList<>();
+		State state = FileSignature.recordSignatures(recorded, stateSupplier);
+		signatures = recorded;
+		return state;
+	}
+
+	/** Returns the files which were signed while calculating the state, which is empty until the state has been calculated. */
+	List<File> signedFiles() {
+		List<File> files = new ArrayList<>();
+		for (FileSignature signature : signatures) {
+			files.addAll(signature.files());
+		}
+		return files;
+	}
+
+	/** Returns true if any file which was signed while calculating the state has changed since. */
+	boolean isStale() {
+		for (FileSignature signature : signatures) {
+			if (signature.hasChanged()) {
+				return true;
+			}
+		}
+		return false;
 	}
 
+	/** Returns a step with the same name, which calculates its state again, e.g. because this one {@link #isStale()}. */
+	abstract FormatterStepImpl<State> recalculate();
+
+	/** Creates the state and the {@link FormatterFunc} ahead of the first call to format, so that it can be done in the background. */
+	abstract void warmUp() throws Exception;
+
+	/**
+	 * Returns a step with the same name and state, but which creates its own {@link FormatterFunc},
+	 * so that it can be used on another thread at the same time as this step.
+	 */
+	abstract FormatterStepImpl<State> fork();
+
 	static final class Standard<State extends Serializable> extends FormatterStepImpl<State> {
 		private static final long serialVersionUID = 1L;
 
 		final transient ThrowingEx.Function<State, FormatterFunc> stateToFormatter;
-		transient FormatterFunc formatter; // initialized lazily
+		transient volatile FormatterFunc formatter; // initialized lazily
 
 		Standard(String name, ThrowingEx.Supplier<State> stateSupplier, ThrowingEx.Function<State, FormatterFunc> stateToFormatter) {
 			super(name, stateSupplier);
@@ -72,13 +112,40 @@ abstract class FormatterStepImpl<State extends Serializable> extends Strict<Stat
 			Objects.requireNonNull(state, "state");
 			Objects.requireNonNull(rawUnix, "rawUnix");
 			Objects.requireNonNull(file, "file");
-			if (formatter == null) {
-				formatter = stateToFormatter.apply(state());
+			return formatter().apply(rawUnix, file);
+		}
+
+		@Override
+		void warmUp() throws Exception {
+			formatter();
+		}
+
+		@Override
+		Standard<State> recalculate() {
+			return new Standard<>(name, stateSupplier, stateToFormatter);
+		}
+
+		@Override
+		Standard<State> fork() {
+			// the state is computed at most once, and shared by every fork
+			return new Standard<>(name, this::state, stateToFormatter);
+		}
+
+		private FormatterFunc formatter() throws Exception {
+			FormatterFunc result = formatter;
+			if (result == null) {
+				synchronized (this) {
+					result = formatter;
+					if (result == null) {
+						result = stateToFormatter.apply(state());
+						formatter = result;
+					}
+				}
 			}
-			return formatter.apply(rawUnix, file);
+			return result;
 		}
 
-		void cleanupFormatterFunc() {
+		synchronized void cleanupFormatterFunc() {
 			if (formatter instanceof FormatterFunc.Closeable) {
 				((FormatterFunc.Closeable) formatter).close();
 				formatter = null;
@@ -93,22 +160,52 @@ abstract class FormatterStepImpl<State extends Serializable> extends Strict<Stat
 		private static final Random RANDOM = new Random();
 
 		final transient ThrowingEx.Supplier<FormatterFunc> formatterSupplier;
-		transient FormatterFunc formatter; // initialized lazily
+		transient volatile FormatterFunc formatter; // initialized lazily
 
 		NeverUpToDate(String name, ThrowingEx.Supplier<FormatterFunc> formatterSupplier) {
-			super(name, RANDOM::nextInt);
+			this(name, RANDOM::nextInt, formatterSupplier);
+		}
+
+		private NeverUpToDate(String name, ThrowingEx.Supplier<Integer> stateSupplier, ThrowingEx.Supplier<FormatterFunc> formatterSupplier) {
+			super(name, stateSupplier);
 			this.formatterSupplier = Objects.requireNonNull(formatterSupplier, "formatterSupplier");
 		}
 
 		@Override
 		protected String format(Integer state, String rawUnix, File file) throws Exception {
-			if (formatter == null) {
-				formatter = formatterSupplier.get();
-				if (formatter instanceof FormatterFunc.Closeable) {
-					throw new AssertionError("NeverUpToDate does not support FormatterFunc.Closeable.  See https://github.com/diffplug/spotless/pull/284");
+			return formatter().apply(rawUnix, file);
+		}
+
+		@Override
+		void warmUp() throws Exception {
+			formatter();
+		}
+
+		@Override
+		NeverUpToDate recalculate() {
+			return new NeverUpToDate(name, stateSupplier, formatterSupplier);
+		}
+
+		@Override
+		NeverUpToDate fork() {
+			return new NeverUpToDate(name, this::state, formatterSupplier);
+		}
+
+		private FormatterFunc formatter() throws Exception {
+			FormatterFunc result = formatter;
+			if (result == null) {
+				synchronized (this) {
+					result = formatter;
+					if (result == null) {
+						result = formatterSupplier.get();
+						if (result instanceof FormatterFunc.Closeable) {
+							throw new AssertionError("NeverUpToDate does not support FormatterFunc.Closeable.  See https://github.com/diffplug/spotless/pull/284");
+						}
+						formatter = result;
+					}
 				}
 			}
-			return formatter.apply(rawUnix, file);
+			return result;
 		}
 	}
 
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import java.lang.ref.SoftReference;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the steps of closed formatters whose {@link FormatterFunc}s have already been created, so that a later
+ * formatter with equal steps (same names and same state) can reuse them rather than creating every
+ * {@link FormatterFunc} again.  Creating them can be expensive: parsing Eclipse settings, loading ktlint's rules,
+ * or starting a node server.
+ *
+ * The steps of a formatter are pooled together, rather than one by one, because some steps share their state
+ * with another step of the same formatter (e.g. toggle off / on).  They are checked out by at most one formatter
+ * at a time, because a {@link FormatterFunc} isn't necessarily thread-safe.  Closing a formatter from
+ * {@link #checkOut(Formatter)} returns its steps to the pool, rather than closing them.  Idle steps are closed by
+ * {@link #evictIdle(Duration)}, and all of them are closed if the JVM has come under memory pressure since the
+ * last time the pool was used.
+ */
+public final class FormatterStepPool {
+	private final Map<Key, Deque<Idle>> idle = new HashMap<>();
+	/** Cleared by the garbage collector when memory is low, which is our hint to close every idle step. */
+	private SoftReference<Object> memoryPressure = new SoftReference<>(new Object());
+
+	/**
+	 * Returns a formatter with the same configuration, whose steps are equal steps from the pool if there
+	 * are any, or else a {@link Formatter#fork()} of the given formatter's steps.  Closing the returned
+	 * formatter returns its steps to this pool.
+	 *
+	 * The given formatter's own steps are never handed out (unless they can't be forked), because whoever
+	 * passed them in might pass them in again, or use them directly, while they are checked out or idle here.
+	 */
+	public Formatter checkOut(Formatter formatter) {
+		List<FormatterStep> steps = formatter.getSteps();
+		synchronized (this) {
+			evictIfMemoryIsLow();
+			Key key = Key.of(steps);
+			Deque<Idle> pooled = key == null ? null : idle.get(key);
+			if (pooled != null && !pooled.isEmpty()) {
+				return formatter.pooled(this, pooled.pop().steps);
+			}
+		}
+		Formatter fork = formatter.fork();
+		return formatter.pooled(this, fork == null ? steps : fork.getSteps());
+	}
+
+	/** Called by {@link Formatter#close()}, once nothing else can be using the given steps. */
+	synchronized void checkIn(List<FormatterStep> steps) {
+		evictIfMemoryIsLow();
+		Idle warm = new Idle(steps, System.nanoTime());
+		if (!warm.hasFormatterFunc()) {
+			// there's nothing warm to keep
+			return;
+		}
+		Key key = Key.of(steps);
+		if (key == null) {
+			warm.close();
+		} else {
+			idle.computeIfAbsent(key, unused -> new ArrayDeque<>()).push(warm);
+		}
+	}
+
+	/** Closes every step which hasn't been used for at least the given duration. */
+	public synchronized void evictIdle(Duration timeout) {
+		if (evictIfMemoryIsLow()) {
+			return;
+		}
+		long now = System.nanoTime();
+		Iterator<Deque<Idle>> values = idle.values().iterator();
+		while (values.hasNext()) {
+			Deque<Idle> steps = values.next();
+			steps.removeIf(warm -> {
+				boolean expired = now - warm.lastUsed >= timeout.toNanos();
+				if (expired) {
+					warm.close();
+				}
+				return expired;
+			});
+			if (steps.isEmpty()) {
+				values.remove();
+			}
+		}
+	}
+
+	/** Returns true if there aren't any idle steps. */
+	public synchronized boolean isEmpty() {
+		return idle.isEmpty();
+	}
+
+	/** Closes every idle step. */
+	public synchronized void evictAll() {
+		for (Deque<Idle> steps : idle.values()) {
+			steps.forEach(Idle::close);
+		}
+		idle.clear();
+	}
+
+	private boolean evictIfMemoryIsLow() {
+		if (memoryPressure.get() != null) {
+			return false;
+		}
+		logger.fine("Memory is low, closing every idle formatter step");
+		evictAll();
+		memoryPressure = new SoftReference<>(new Object());
+		return true;
+	}
+
+	/**
+	 * The names and the steps, because the name of a step isn't part of its equality.  Null unless every step
+	 * is a standard step, because any other step (e.g. {@code NeverUpToDate}) is never equal to a later one.
+	 */
+	private static final class Key {
+		final List<String> names;
+		final List<FormatterStep> steps;
+		final int hashCode;
+
+		private Key(List<String> names, List<FormatterStep> steps) {
+			this.names = names;
+			this.steps = steps;
+			this.hashCode = Objects.hash(names, steps);
+		}
+
+		static @Nullable Key of(List<FormatterStep> steps) {
+			List<String> names = new ArrayList<>(steps.size());
+			for (FormatterStep step : steps) {
+				if (Idle.standard(step) == null) {
+					return null;
+				}
+				names.add(step.getName());
+			}
+			try {
+				return new Key(names, new ArrayList<>(steps));
+			} catch (RuntimeException e) {
+				// a state couldn't be computed, so leave it to the step to raise the error when it is used
+				logger.log(Level.FINE, "Unable to pool steps " + names, e);
+				return null;
+			}
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			} else if (!(obj instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) obj;
+			return hashCode == other.hashCode && names.equals(other.names) && steps.equals(other.steps);
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+	}
+
+	private static final class Idle {
+		final List<FormatterStep> steps;
+		final long lastUsed;
+
+		Idle(List<FormatterStep> steps, long lastUsed) {
+			this.steps = steps;
+			this.lastUsed = lastUsed;
+		}
+
+		boolean hasFormatterFunc() {
+			for (FormatterStep step : steps) {
+				FormatterStepImpl.Standard<?> standard = standard(step);
+				if (standard != null && standard.formatter != null) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		void close() {
+			for (FormatterStep step : steps) {
+				FormatterStepImpl.Standard<?> standard = standard(step);
+				if (standard == null) {
+					continue;
+				}
+				try {
+					standard.cleanupFormatterFunc();
+				} catch (RuntimeException e) {
+					logger.log(Level.WARNING, "Unable to close step '" + step.getName() + "'", e);
+				}
+			}
+		}
+
+		private static @Nullable FormatterStepImpl.Standard<?> standard(FormatterStep step) {
+			if (step instanceof FilterByFileFormatterStep) {
+				step = ((FilterByFileFormatterStep) step).getDelegateStep();
+			}
+			return step instanceof FormatterStepImpl.Standard ? (FormatterStepImpl.Standard<?>) step : null;
+		}
+	}
+
+	private static final Logger logger = Logger.getLogger(FormatterStepPool.class.getName());
+}
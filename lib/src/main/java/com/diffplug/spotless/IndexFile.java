@@ -0,0 +1,162 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The text files which Spotless uses to remember things between builds.  Each one starts with a header
+ * which names its format and version, such as {@code spotless-jar-index-v1}, followed by one record per line,
+ * with its fields separated by tabs.  The last field of a record may contain tabs, but no field may contain a line break.
+ *
+ * A file is either replaced as a whole, via a temporary file which is atomically renamed over it, so that a reader never
+ * sees half of it, or appended to one record at a time, in which case a reader may see a partially written last line.
+ */
+public final class IndexFile {
+	private IndexFile() {}
+
+	/** Reads the records of an index file. */
+	@FunctionalInterface
+	public interface RecordReader {
+		/** Receives a single line, split into at most {@code numFields} fields, which the reader has to validate. */
+		void accept(String[] fields) throws IOException;
+	}
+
+	/** Returns true if the given fields can be written as a single record. */
+	public static boolean canWrite(String... fields) {
+		for (int i = 0; i < fields.length; ++i) {
+			String field = fields[i];
+			if (field.indexOf('\n') != -1 || field.indexOf('\r') != -1 || (i < fields.length - 1 && field.indexOf('\t') != -1)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads every record of the given file, and returns the number of records (including malformed ones).
+	 * Throws an IOException if the file doesn't start with the given header.
+	 */
+	public static int read(File file, String header, int numFields, RecordReader reader) throws IOException {
+		int numRecords = 0;
+		try (BufferedReader lines = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+			String firstLine = lines.readLine();
+			if (!header.equals(firstLine)) {
+				throw new IOException(file + " has an unknown format '" + firstLine + "', expected '" + header + "'");
+			}
+			String line;
+			while ((line = lines.readLine()) != null) {
+				++numRecords;
+				reader.accept(line.split("\t", numFields));
+			}
+		}
+		return numRecords;
+	}
+
+	/** Replaces the given file with the given records, none of which may fail {@link #canWrite(String...)}. */
+	public static void write(File file, String header, Iterable<String[]> records) throws IOException {
+		Files.createDirectories(file.getParentFile().toPath());
+		Path tmp = Files.createTempFile(file.getParentFile().toPath(), file.getName(), ".tmp");
+		try {
+			try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+				writer.write(header);
+				writer.write('\n');
+				for (String[] record : records) {
+					writer.write(toLine(record));
+				}
+			}
+			Files.move(tmp, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Appends a single record to the given file, which is created with the given header if it doesn't exist yet.
+	 * The record may not fail {@link #canWrite(String...)}.  Callers must not append to the same file concurrently.
+	 */
+	public static void append(File file, String header, String... record) throws IOException {
+		byte[] line = toLine(record).getBytes(StandardCharsets.UTF_8);
+		if (!file.exists()) {
+			Files.createDirectories(file.getParentFile().toPath());
+			try {
+				Files.write(file.toPath(), (header + "\n").getBytes(StandardCharsets.UTF_8), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+			} catch (FileAlreadyExistsException e) {
+				// another process created it first
+			}
+		}
+		Files.write(file.toPath(), line, StandardOpenOption.APPEND);
+	}
+
+	private static String toLine(String[] record) {
+		if (!canWrite(record)) {
+			throw new IllegalArgumentException("Not representable as a record: " + String.join(" | ", record));
+		}
+		return String.join("\t", record) + "\n";
+	}
+
+	/** Returns the given bytes as lowercase hex. */
+	public static String toHex(byte[] bytes) {
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; ++i) {
+			hex[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+			hex[2 * i + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+		}
+		return new String(hex);
+	}
+
+	/** Parses the output of {@link #toHex(byte[])}, throwing an IllegalArgumentException if it isn't hex. */
+	public static byte[] fromHex(String hex) {
+		if (hex.length() % 2 != 0) {
+			throw new IllegalArgumentException("Odd number of hex digits: " + hex);
+		}
+		byte[] bytes = new byte[hex.length() / 2];
+		for (int i = 0; i < bytes.length; ++i) {
+			int hi = Character.digit(hex.charAt(2 * i), 16);
+			int lo = Character.digit(hex.charAt(2 * i + 1), 16);
+			if (hi == -1 || lo == -1) {
+				throw new IllegalArgumentException("Not a hex digit: " + hex);
+			}
+			bytes[i] = (byte) ((hi << 4) | lo);
+		}
+		return bytes;
+	}
+
+	/** Returns the SHA-256 of the given bytes, as hex. */
+	public static String sha256Hex(byte[] bytes) {
+		return toHex(sha256().digest(bytes));
+	}
+
+	/** Returns a new SHA-256 digest, which every JVM is required to support. */
+	public static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw ThrowingEx.asRuntime(e);
+		}
+	}
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+
+import javax.annotation.Nullable;
+
+/**
+ * Maps every directory inside a set of jars to the jars which contain it,
+ * so that {@link FeatureClassLoader} can go straight to the right jar rather
+ * than probing each one in turn.
+ *
+ * The index only depends on the content of the jars, so it can be persisted
+ * next to the {@link FileSignature} cache, keyed by the {@link JarState}.
+ */
+final class JarIndex {
+	private static final String HEADER = "spotless-jar-index-v2";
+	private static final String MULTI_RELEASE = "multi-release";
+
+	/** Directory (with trailing slash, or empty for the root) to the indices of the jars which contain it. */
+	private final Map<String, int[]> dirToJars;
+	/** Jars which are multi-release, and therefore can't be read entry-by-entry without the JDK's help. */
+	private final BitSet multiRelease;
+
+	private JarIndex(Map<String, int[]> dirToJars, BitSet multiRelease) {
+		this.dirToJars = dirToJars;
+		this.multiRelease = multiRelease;
+	}
+
+	/** Returns the indices of the jars which might contain the given resource, in classpath order. */
+	int[] jarsFor(String resourceName) {
+		int lastSlash = resourceName.lastIndexOf('/');
+		String dir = lastSlash == -1 ? "" : resourceName.substring(0, lastSlash + 1);
+		int[] jars = dirToJars.get(dir);
+		return jars == null ? NONE : jars;
+	}
+
+	boolean isMultiRelease(int jar) {
+		return multiRelease.get(jar);
+	}
+
+	private static final int[] NONE = new int[0];
+
+	/**
+	 * Reads the index from {@code persisted} if it exists, otherwise builds it and writes it there.
+	 * Returns null if the jars can't be indexed (e.g. they use a manifest {@code Class-Path}),
+	 * in which case the classloader must fall back to a plain linear search.
+	 */
+	static @Nullable JarIndex loadOrBuild(List<File> jars, @Nullable File persisted) {
+		if (persisted != null && persisted.isFile()) {
+			try {
+				return read(persisted, jars.size());
+			} catch (IOException | RuntimeException e) {
+				logger.log(Level.FINE, "Unable to read jar index " + persisted, e);
+			}
+		}
+		JarIndex index;
+		try {
+			index = build(jars);
+		} catch (IOException e) {
+			logger.log(Level.FINE, "Unable to index " + jars, e);
+			return null;
+		}
+		if (index != null && persisted != null) {
+			try {
+				index.write(persisted);
+			} catch (IOException e) {
+				logger.log(Level.FINE, "Unable to write jar index " + persisted, e);
+			}
+		}
+		return index;
+	}
+
+	private static @Nullable JarIndex build(List<File> jars) throws IOException {
+		Map<String, List<Integer>> dirToJars = new HashMap<>();
+		BitSet multiRelease = new BitSet();
+		for (int i = 0; i < jars.size(); ++i) {
+			try (JarFile jar = new JarFile(jars.get(i), false)) {
+				Manifest manifest = jar.getManifest();
+				if (manifest != null) {
+					Attributes attributes = manifest.getMainAttributes();
+					if (attributes.getValue(Attributes.Name.CLASS_PATH) != null) {
+						// the jar pulls in other jars, which URLClassLoader knows how to handle and we don't
+						return null;
+					}
+					if ("true".equalsIgnoreCase(attributes.getValue("Multi-Release"))) {
+						multiRelease.set(i);
+					}
+				}
+				Enumeration<? extends ZipEntry> entries = jar.entries();
+				while (entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					if (entry.isDirectory()) {
+						continue;
+					}
+					String name = entry.getName();
+					int lastSlash = name.lastIndexOf('/');
+					String dir = lastSlash == -1 ? "" : name.substring(0, lastSlash + 1);
+					List<Integer> jarsForDir = dirToJars.computeIfAbsent(dir, unused -> new ArrayList<>(1));
+					if (jarsForDir.isEmpty() || jarsForDir.get(jarsForDir.size() - 1) != i) {
+						jarsForDir.add(i);
+					}
+				}
+			}
+		}
+		Map<String, int[]> compact = new HashMap<>(dirToJars.size() * 4 / 3 + 1);
+		for (Map.Entry<String, List<Integer>> entry : dirToJars.entrySet()) {
+			compact.put(entry.getKey(), entry.getValue().stream().mapToInt(Integer::intValue).toArray());
+		}
+		return new JarIndex(compact, multiRelease);
+	}
+
+	/**
+	 * The format is an {@link IndexFile} with one record per multi-release jar ({@code index, multi-release}),
+	 * then one per directory ({@code index,index,..., dir}).  The directory goes last because it may contain a tab.
+	 */
+	private void write(File persisted) throws IOException {
+		List<String[]> records = new ArrayList<>(multiRelease.cardinality() + dirToJars.size());
+		for (int i = multiRelease.nextSetBit(0); i >= 0; i = multiRelease.nextSetBit(i + 1)) {
+			records.add(new String[]{Integer.toString(i), MULTI_RELEASE});
+		}
+		for (Map.Entry<String, int[]> entry : dirToJars.entrySet()) {
+			StringBuilder jars = new StringBuilder();
+			for (int jar : entry.getValue()) {
+				if (jars.length() > 0) {
+					jars.append(',');
+				}
+				jars.append(jar);
+			}
+			records.add(new String[]{jars.toString(), entry.getKey()});
+		}
+		if (!records.stream().allMatch(IndexFile::canWrite)) {
+			throw new IOException("A directory contains a line break");
+		}
+		IndexFile.write(persisted, HEADER, records);
+	}
+
+	private static JarIndex read(File persisted, int numJars) throws IOException {
+		Map<String, int[]> dirToJars = new HashMap<>();
+		BitSet multiRelease = new BitSet();
+		IndexFile.read(persisted, HEADER, 2, pieces -> {
+			if (pieces.length != 2) {
+				throw new IOException("Malformed line in " + persisted + ": " + pieces[0]);
+			}
+			if (pieces[1].equals(MULTI_RELEASE)) {
+				multiRelease.set(parseJar(pieces[0], numJars));
+			} else {
+				String[] values = pieces[0].split(",");
+				int[] jars = new int[values.length];
+				for (int i = 0; i < values.length; ++i) {
+					jars[i] = parseJar(values[i], numJars);
+				}
+				dirToJars.put(pieces[1], jars);
+			}
+		});
+		return new JarIndex(Collections.unmodifiableMap(dirToJars), multiRelease);
+	}
+
+	private static int parseJar(String value, int numJars) throws IOException {
+		int jar = Integer.parseInt(value);
+		if (jar < 0 || jar >= numJars) {
+			throw new IOException("Jar index " + jar + " out of range for " + numJars + " jars");
+		}
+		return jar;
+	}
+
+	private static final Logger logger = Logger.getLogger(JarIndex.class.getName());
+}
@@ -20,8 +20,10 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.net.URI;
 import java.net.URL;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Objects;
 import java.util.Set;
@@ -77,6 +79,11 @@ public final class JarState implements Serializable {
 		return fileSignature.files().stream().map(File::toURI).map(ThrowingEx.wrap(URI::toURL)).toArray(URL[]::new);
 	}
 
+	/** The jars in the same order as {@link #jarUrls()}. */
+	List<File> jarFiles() {
+		return new ArrayList<>(fileSignature.files());
+	}
+
 	/**
 	 * Returns a classloader containing the only jars in this JarState.
 	 * Look-up of classes in the {@code org.slf4j} package
@@ -19,11 +19,13 @@ import java.io.File;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.util.Objects;
-import java.util.function.BiFunction;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 import javax.annotation.Nullable;
 
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
 /**
  * Represents the line endings which should be written by the tool.
  */
@@ -31,7 +33,7 @@ public enum LineEnding {
 	// @formatter:off
 	/** Uses the same line endings as Git, using {@code .gitattributes} and the {@code core.eol} property. */
 	GIT_ATTRIBUTES {
-		/** .gitattributes is path-specific, so you must use {@link LineEnding#createPolicy(File, Supplier)}. */
+		/** .gitattributes is path-specific, so you must use {@link LineEnding#createPolicy(File)}. */
 		@Override @Deprecated
 		public Policy createPolicy() {
 			return super.createPolicy();
@@ -45,31 +47,67 @@ public enum LineEnding {
 	UNIX;
 	// @formatter:on
 
-	/** Returns a {@link Policy} appropriate for files which are contained within the given rootFolder. */
+	/**
+	 * Returns a {@link Policy} appropriate for files which are contained within the given rootFolder.
+	 *
+	 * @deprecated no policy needs the files to format anymore, use {@link #createPolicy(File)} instead.
+	 */
+	@Deprecated
 	public Policy createPolicy(File projectDir, Supplier<Iterable<File>> toFormat) {
+		return createPolicy(projectDir);
+	}
+
+	/** Returns a {@link Policy} appropriate for files which are contained within the given rootFolder. */
+	public Policy createPolicy(File projectDir) {
 		Objects.requireNonNull(projectDir, "projectDir");
-		Objects.requireNonNull(toFormat, "toFormat");
 		if (this != GIT_ATTRIBUTES) {
 			return createPolicy();
 		} else {
-			if (gitAttributesPolicyCreator == null) {
-				try {
-					Class<?> clazz = Class.forName("com.diffplug.spotless.extra.GitAttributesLineEndings");
-					Method method = clazz.getMethod("create", File.class, Supplier.class);
-					gitAttributesPolicyCreator = (proj, target) -> ThrowingEx.get(() -> (Policy) method.invoke(null, proj, target));
-				} catch (ClassNotFoundException | NoSuchMethodException | SecurityException e) {
-					throw new IllegalStateException("LineEnding.GIT_ATTRIBUTES requires the spotless-lib-extra library, but it is not on the classpath", e);
-				}
+			// loading the real policy loads JGit, which a build shouldn't pay for unless it formats something
+			return new LazyGitAttributesPolicy(projectDir);
+		}
+	}
+
+	private static Policy createGitAttributesPolicy(File projectDir) {
+		if (gitAttributesPolicyCreator == null) {
+			try {
+				Class<?> clazz = Class.forName("com.diffplug.spotless.extra.GitAttributesLineEndings");
+				Method method = clazz.getMethod("create", File.class);
+				gitAttributesPolicyCreator = proj -> ThrowingEx.get(() -> (Policy) method.invoke(null, proj));
+			} catch (ClassNotFoundException | NoSuchMethodException | SecurityException e) {
+				throw new IllegalStateException("LineEnding.GIT_ATTRIBUTES requires the spotless-lib-extra library, but it is not on the classpath", e);
 			}
-			// gitAttributesPolicyCreator will always be nonnull at this point
-			return gitAttributesPolicyCreator.apply(projectDir, toFormat);
 		}
+		// gitAttributesPolicyCreator will always be nonnull at this point
+		return gitAttributesPolicyCreator.apply(projectDir);
 	}
 
-	private static volatile @Nullable BiFunction<File, Supplier<Iterable<File>>, Policy> gitAttributesPolicyCreator;
+	private static volatile @Nullable Function<File, Policy> gitAttributesPolicyCreator;
+
+	/** Creates the {@link #GIT_ATTRIBUTES} policy the first time it is used, compared or serialized. */
+	@SuppressFBWarnings("SE_TRANSIENT_FIELD_NOT_RESTORED")
+	static final class LazyGitAttributesPolicy extends LazyForwardingEquality<Policy> implements Policy {
+		private static final long serialVersionUID = 1L;
+
+		private final transient File projectDir;
+
+		LazyGitAttributesPolicy(File projectDir) {
+			this.projectDir = projectDir;
+		}
+
+		@Override
+		protected Policy calculateState() {
+			return createGitAttributesPolicy(projectDir);
+		}
+
+		@Override
+		public String getEndingFor(File file) {
+			return state().getEndingFor(file);
+		}
+	}
 
 	// @formatter:off
-	/** Should use {@link #createPolicy(File, Supplier)} instead, but this will work iff its a path-independent LineEnding policy. */
+	/** Should use {@link #createPolicy(File)} instead, but this will work iff its a path-independent LineEnding policy. */
 	public Policy createPolicy() {
 		switch (this) {
 		case PLATFORM_NATIVE:	return _platformNativePolicy;
@@ -20,6 +20,7 @@ import static com.diffplug.spotless.LibPreconditions.requireElementsNonNull;
 import java.io.File;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -189,14 +190,22 @@ public final class PaddedCell {
 	}
 
 	public static DirtyState calculateDirtyState(Formatter formatter, File file, byte[] rawBytes) throws IOException {
-		String raw = new String(rawBytes, formatter.getEncoding());
+		return calculateDirtyState(formatter, file, rawBytes, toUnix(rawBytes, formatter.getEncoding()));
+	}
+
+	/** Decodes the given bytes and converts them to unix line endings, throwing if they aren't valid in the given encoding. */
+	static String toUnix(byte[] rawBytes, Charset encoding) {
+		String raw = new String(rawBytes, encoding);
 		// check that all characters were encodable
-		String encodingError = EncodingErrorMsg.msg(raw, rawBytes, formatter.getEncoding());
+		String encodingError = EncodingErrorMsg.msg(raw, rawBytes, encoding);
 		if (encodingError != null) {
 			throw new IllegalArgumentException(encodingError);
 		}
-		String rawUnix = LineEnding.toUnix(raw);
+		return LineEnding.toUnix(raw);
+	}
 
+	/** Like {@link #calculateDirtyState(Formatter, File, byte[])}, for bytes which were already passed through {@link #toUnix(byte[], Charset)}. */
+	static DirtyState calculateDirtyState(Formatter formatter, File file, byte[] rawBytes, String rawUnix) throws IOException {
 		// enforce the format
 		String formattedUnix = formatter.compute(rawUnix, file);
 		// convert the line endings if necessary
@@ -254,7 +263,8 @@ public final class PaddedCell {
 			return this == didNotConverge;
 		}
 
-		private byte[] canonicalBytes() {
+		/** The canonical form of the file, which must not be modified. */
+		public byte[] canonicalBytes() {
 			if (canonicalBytes == null) {
 				throw new IllegalStateException("First make sure that {@code !isClean()} and {@code !didNotConverge()}");
 			}
@@ -15,6 +15,7 @@
  */
 package com.diffplug.spotless;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.URLClassLoader;
@@ -68,7 +69,18 @@ public final class SpotlessCache {
 	synchronized ClassLoader classloader(Serializable key, JarState state) {
 		SerializedKey serializedKey = new SerializedKey(key);
 		return cache
-				.computeIfAbsent(serializedKey, k -> new FeatureClassLoader(state.jarUrls(), this.getClass().getClassLoader()));
+				.computeIfAbsent(serializedKey, k -> new FeatureClassLoader(state.jarUrls(), this.getClass().getClassLoader(), jarIndex(state)));
+	}
+
+	/** Loads the index for the given jars, persisting it if possible so the next JVM can skip the indexing. */
+	private static @Nullable JarIndex jarIndex(JarState state) {
+		File dir = persistentDir;
+		File persisted = null;
+		if (dir != null) {
+			String digest = IndexFile.sha256Hex(new SerializedKey(state).serialized);
+			persisted = new File(dir, "jar-index/" + digest + ".idx");
+		}
+		return JarIndex.loadOrBuild(state.jarFiles(), persisted);
 	}
 
 	static SpotlessCache instance() {
@@ -95,6 +107,22 @@ public final class SpotlessCache {
 
 	private static volatile Object lastClear;
 
+	private static volatile @Nullable File persistentDir;
+
+	/**
+	 * Sets a directory where Spotless can persist caches which outlive this JVM, such as the
+	 * signatures of formatter jars and the index of which jar contains which package.  Everything in it is safe to delete at any time.  If never set
+	 * (or set to null), nothing is persisted.
+	 */
+	public static void setPersistentDir(@Nullable File dir) {
+		persistentDir = dir;
+	}
+
+	/** Returns the directory set by {@link #setPersistentDir(File)}, if any. */
+	static @Nullable File persistentDir() {
+		return persistentDir;
+	}
+
 	/**
 	 * Closes all cached classloaders iff {@code key} is not {@code .equals()} to the last call to {@code clearOnce()}.
 	 * If {@code key} is null, the clear will always happen (as though null != null).
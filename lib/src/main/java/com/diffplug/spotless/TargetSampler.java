@@ -0,0 +1,153 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.TreeSet;
+
+/**
+ * Picks a deterministic subset of the target files, so that a frequent check can
+ * look at only some of the files, leaving the full check to a less frequent build.
+ *
+ * A file is picked based on a hash of its path relative to the root directory, so
+ * the same seed always picks the same files (on any machine), and rotating the seed
+ * eventually covers every file.  Files which changed recently are always picked, but
+ * which files those are is up to the caller, see {@link #withRecent(Path, Collection)},
+ * because the modification time of a file says nothing on a fresh clone.
+ */
+public final class TargetSampler implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	/** Resolution of the sampling percentage. */
+	private static final long BUCKETS = 1_000_000;
+
+	private final double percent;
+	private final long seed;
+	private final long recentHours;
+	/** Paths relative to the root directory, with unix separators. */
+	private final TreeSet<String> recentPaths;
+
+	private TargetSampler(double percent, long seed, long recentHours, TreeSet<String> recentPaths) {
+		if (!(percent >= 0 && percent <= 100)) {
+			throw new IllegalArgumentException("Sample percentage must be between 0 and 100, was " + percent);
+		}
+		if (recentHours < 0) {
+			throw new IllegalArgumentException("Recent window must not be negative, was " + recentHours + " hours");
+		}
+		this.percent = percent;
+		this.seed = seed;
+		this.recentHours = recentHours;
+		this.recentPaths = recentPaths;
+	}
+
+	/**
+	 * Picks {@code percent} of the files using the given {@code seed}, plus the files which changed
+	 * within {@code recentHours}, once they have been passed to {@link #withRecent(Path, Collection)}.
+	 */
+	public static TargetSampler of(double percent, long seed, long recentHours) {
+		return new TargetSampler(percent, seed, recentHours, new TreeSet<>());
+	}
+
+	/** How far back a change makes a file recent, which the caller uses to find the files for {@link #withRecent(Path, Collection)}. */
+	public long getRecentHours() {
+		return recentHours;
+	}
+
+	/** Returns a copy of this sampler which also picks the given files, such as those changed within {@link #getRecentHours()}. */
+	public TargetSampler withRecent(Path rootDir, Collection<File> recentFiles) {
+		TreeSet<String> paths = new TreeSet<>(recentPaths);
+		for (File file : recentFiles) {
+			paths.add(relativePath(rootDir, file));
+		}
+		return new TargetSampler(percent, seed, recentHours, paths);
+	}
+
+	/** Parses a percentage such as {@code 10} or {@code 12.5%}. */
+	public static double parsePercent(String percent) {
+		String trimmed = percent.trim();
+		if (trimmed.endsWith("%")) {
+			trimmed = trimmed.substring(0, trimmed.length() - 1).trim();
+		}
+		try {
+			return Double.parseDouble(trimmed);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Expected a percentage such as '10' or '12.5%', was '" + percent + "'", e);
+		}
+	}
+
+	/** Returns true if the given file should be checked. */
+	public boolean includes(Path rootDir, File file) {
+		String path = relativePath(rootDir, file);
+		if (recentPaths.contains(path)) {
+			return true;
+		}
+		long bucket = Long.remainderUnsigned(stableHash(path, seed), BUCKETS);
+		return bucket < (long) (percent * (BUCKETS / 100));
+	}
+
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "%s%% of files (seed %d)", stripZeros(percent), seed);
+	}
+
+	private static String stripZeros(double value) {
+		return value == Math.rint(value) ? Long.toString((long) value) : Double.toString(value);
+	}
+
+	/** The path of the file relative to the root, with unix separators, so that it is the same on every machine. */
+	static String relativePath(Path rootDir, File file) {
+		return rootDir.relativize(file.toPath().toAbsolutePath()).toString().replace('\\', '/');
+	}
+
+	/** A seeded FNV-1a hash with a final avalanche, which is the same on every JVM and platform. */
+	static long stableHash(String path, long seed) {
+		long hash = 0xcbf29ce484222325L ^ mix(seed);
+		for (byte b : path.getBytes(StandardCharsets.UTF_8)) {
+			hash ^= b & 0xff;
+			hash *= 0x100000001b3L;
+		}
+		return mix(hash);
+	}
+
+	/** The finalizer from SplitMix64. */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		} else if (!(other instanceof TargetSampler)) {
+			return false;
+		}
+		TargetSampler that = (TargetSampler) other;
+		return Double.compare(percent, that.percent) == 0 && seed == that.seed && recentHours == that.recentHours && recentPaths.equals(that.recentPaths);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(percent, seed, recentHours, recentPaths);
+	}
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import java.io.File;
+import java.io.Serializable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * One of {@code count} disjoint shards of the target files, so that a check can be
+ * split across several machines without any coordination between them.
+ *
+ * By default a file's shard is decided by a hash of its path relative to the root directory,
+ * which is stable across machines.  With {@code bySize}, the files are instead spread so that
+ * every shard has roughly the same number of bytes, which requires every machine to see the
+ * same set of files (true for a CI fan-out over the same commit).
+ */
+public final class TargetShard implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final int index;
+	private final int count;
+	private final boolean bySize;
+
+	private TargetShard(int index, int count, boolean bySize) {
+		if (count < 1 || index < 1 || index > count) {
+			throw new IllegalArgumentException("Shard must be 'index/count' with 1 <= index <= count, was " + index + "/" + count);
+		}
+		this.index = index;
+		this.count = count;
+		this.bySize = bySize;
+	}
+
+	/** Parses a shard such as {@code 2/8}, where the index is 1-based. */
+	public static TargetShard parse(String shard, boolean bySize) {
+		int slash = shard.indexOf('/');
+		if (slash == -1) {
+			throw new IllegalArgumentException("Expected a shard such as '2/8', was '" + shard + "'");
+		}
+		try {
+			return new TargetShard(Integer.parseInt(shard.substring(0, slash).trim()), Integer.parseInt(shard.substring(slash + 1).trim()), bySize);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Expected a shard such as '2/8', was '" + shard + "'", e);
+		}
+	}
+
+	/** True if the shard can be decided one file at a time, false if it needs to see every file via {@link #select}. */
+	public boolean isPerFile() {
+		return !bySize;
+	}
+
+	/** Returns true if the given file belongs to this shard, only available if {@link #isPerFile()}. */
+	public boolean includes(Path rootDir, File file) {
+		if (bySize) {
+			throw new IllegalStateException("A shard by size needs to see all of the files, use select()");
+		}
+		return shardOf(TargetSampler.relativePath(rootDir, file)) == index - 1;
+	}
+
+	/** Returns the files which belong to this shard, in their original order. */
+	public List<File> select(Path rootDir, Collection<File> files) {
+		return select(rootDir, files, "");
+	}
+
+	/**
+	 * Like {@link #select(Path, Collection)}, but when balancing by size, ties between equally loaded shards
+	 * go to the first shard at or after one which is picked by {@code tieBreakSeed}, such as the path of the task.
+	 * Otherwise every format would put its first file on the first shard, and a build with many small formats
+	 * would overload it.
+	 */
+	public List<File> select(Path rootDir, Collection<File> files, String tieBreakSeed) {
+		if (!bySize) {
+			List<File> selected = new ArrayList<>();
+			for (File file : files) {
+				if (includes(rootDir, file)) {
+					selected.add(file);
+				}
+			}
+			return selected;
+		}
+		// biggest first, each into the lightest shard so far
+		List<Weighted> weighted = new ArrayList<>(files.size());
+		for (File file : files) {
+			weighted.add(new Weighted(file, TargetSampler.relativePath(rootDir, file)));
+		}
+		weighted.sort(Comparator.comparingLong((Weighted w) -> w.size).reversed().thenComparing(w -> w.path));
+		long[] load = new long[count];
+		int first = (int) Long.remainderUnsigned(TargetSampler.stableHash(tieBreakSeed, 0), count);
+		Set<File> mine = new HashSet<>();
+		for (Weighted w : weighted) {
+			int lightest = first;
+			for (int i = 1; i < count; ++i) {
+				int candidate = (first + i) % count;
+				if (load[candidate] < load[lightest]) {
+					lightest = candidate;
+				}
+			}
+			// empty files still cost something to read and format
+			load[lightest] += Math.max(w.size, 1);
+			if (lightest == index - 1) {
+				mine.add(w.file);
+			}
+		}
+		List<File> selected = new ArrayList<>(mine.size());
+		for (File file : files) {
+			if (mine.contains(file)) {
+				selected.add(file);
+			}
+		}
+		return selected;
+	}
+
+	private int shardOf(String relativePath) {
+		return (int) Long.remainderUnsigned(TargetSampler.stableHash(relativePath, 0), count);
+	}
+
+	private static final class Weighted {
+		final File file;
+		final String path;
+		final long size;
+
+		Weighted(File file, String path) {
+			this.file = file;
+			this.path = path;
+			this.size = file.length();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "shard " + index + "/" + count + (bySize ? " (by size)" : "");
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		} else if (!(other instanceof TargetShard)) {
+			return false;
+		}
+		TargetShard that = (TargetShard) other;
+		return index == that.index && count == that.count && bySize == that.bySize;
+	}
+
+	@Override
+	public int hashCode() {
+		return (index * 31 + count) * 31 + Boolean.hashCode(bySize);
+	}
+}
@@ -20,6 +20,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.time.YearMonth;
 import java.util.Arrays;
 import java.util.List;
@@ -51,19 +53,21 @@ public final class LicenseHeaderStep {
 	}
 
 	public static LicenseHeaderStep headerDelimiter(ThrowingEx.Supplier<String> headerLazy, String delimiter) {
-		return new LicenseHeaderStep(headerLazy, delimiter, DEFAULT_YEAR_DELIMITER, () -> YearMode.PRESERVE);
+		return new LicenseHeaderStep(headerLazy, delimiter, DEFAULT_YEAR_DELIMITER, () -> YearMode.PRESERVE, null);
 	}
 
 	final ThrowingEx.Supplier<String> headerLazy;
 	final String delimiter;
 	final String yearSeparator;
 	final Supplier<YearMode> yearMode;
+	final @Nullable File projectDir;
 
-	private LicenseHeaderStep(ThrowingEx.Supplier<String> headerLazy, String delimiter, String yearSeparator, Supplier<YearMode> yearMode) {
+	private LicenseHeaderStep(ThrowingEx.Supplier<String> headerLazy, String delimiter, String yearSeparator, Supplier<YearMode> yearMode, @Nullable File projectDir) {
 		this.headerLazy = Objects.requireNonNull(headerLazy);
 		this.delimiter = Objects.requireNonNull(delimiter);
 		this.yearSeparator = Objects.requireNonNull(yearSeparator);
 		this.yearMode = Objects.requireNonNull(yearMode);
+		this.projectDir = projectDir;
 	}
 
 	public LicenseHeaderStep withHeaderString(String header) {
@@ -71,15 +75,15 @@ public final class LicenseHeaderStep {
 	}
 
 	public LicenseHeaderStep withHeaderLazy(ThrowingEx.Supplier<String> headerLazy) {
-		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode);
+		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode, projectDir);
 	}
 
 	public LicenseHeaderStep withDelimiter(String delimiter) {
-		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode);
+		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode, projectDir);
 	}
 
 	public LicenseHeaderStep withYearSeparator(String yearSeparator) {
-		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode);
+		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode, projectDir);
 	}
 
 	public LicenseHeaderStep withYearMode(YearMode yearMode) {
@@ -87,13 +91,28 @@ public final class LicenseHeaderStep {
 	}
 
 	public LicenseHeaderStep withYearModeLazy(Supplier<YearMode> yearMode) {
-		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode);
+		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode, projectDir);
+	}
+
+	/**
+	 * The project which is being formatted.  With {@link YearMode#SET_FROM_GIT} and {@code spotless-lib-extra}
+	 * on the classpath, this lets the step be up-to-date until the project's git HEAD changes.
+	 */
+	public LicenseHeaderStep withProjectDir(File projectDir) {
+		return new LicenseHeaderStep(headerLazy, delimiter, yearSeparator, yearMode, Objects.requireNonNull(projectDir));
 	}
 
 	public FormatterStep build() {
 		if (yearMode.get() == YearMode.SET_FROM_GIT) {
+			boolean updateYear = false; // doesn't matter
+			if (projectDir != null && GitHistory.isAvailable()) {
+				File projectDir = this.projectDir;
+				// the years only change when HEAD does
+				return FormatterStep.createLazy(LicenseHeaderStep.name(),
+						() -> new GitHistoryState(new Runtime(headerLazy.get(), delimiter, yearSeparator, updateYear), GitHistory.headSha(projectDir)),
+						state -> FormatterFunc.needsFile(state.runtime::setLicenseHeaderYearsFromGitHistory));
+			}
 			return FormatterStep.createNeverUpToDateLazy(LicenseHeaderStep.name(), () -> {
-				boolean updateYear = false; // doesn't matter
 				Runtime runtime = new Runtime(headerLazy.get(), delimiter, yearSeparator, updateYear);
 				return FormatterFunc.needsFile(runtime::setLicenseHeaderYearsFromGitHistory);
 			});
@@ -142,6 +161,61 @@ public final class LicenseHeaderStep {
 		return spotlessSetLicenseHeaderYearsFromGitHistory;
 	}
 
+	private static class GitHistoryState implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final Runtime runtime;
+		final String headSha;
+
+		GitHistoryState(Runtime runtime, String headSha) {
+			this.runtime = runtime;
+			this.headSha = headSha;
+		}
+	}
+
+	/** Finds the years when a file was added and last modified from the git history index in {@code spotless-lib-extra}, if it's on the classpath. */
+	private static final class GitHistory {
+		private static final String CLASS_NAME = "com.diffplug.spotless.extra.GitHistoryYears";
+		private static final @Nullable Method HEAD_SHA, YEARS_OF;
+
+		static {
+			Method headSha, yearsOf;
+			try {
+				Class<?> clazz = Class.forName(CLASS_NAME);
+				headSha = clazz.getMethod("headSha", File.class);
+				yearsOf = clazz.getMethod("yearsOf", File.class);
+			} catch (ClassNotFoundException | NoSuchMethodException | SecurityException e) {
+				headSha = null;
+				yearsOf = null;
+			}
+			HEAD_SHA = headSha;
+			YEARS_OF = yearsOf;
+		}
+
+		static boolean isAvailable() {
+			return HEAD_SHA != null;
+		}
+
+		static String headSha(File projectDir) {
+			return (String) invoke(HEAD_SHA, projectDir);
+		}
+
+		/** Returns {yearAdded, yearLastModified}, or null if the file hasn't been committed. */
+		static @Nullable int[] yearsOf(File file) {
+			return (int[]) invoke(YEARS_OF, file);
+		}
+
+		private static @Nullable Object invoke(@Nullable Method method, File arg) {
+			return ThrowingEx.get(() -> {
+				try {
+					return Objects.requireNonNull(method, CLASS_NAME).invoke(null, arg);
+				} catch (InvocationTargetException e) {
+					throw ThrowingEx.unwrapCause(e);
+				}
+			});
+		}
+	}
+
 	private static class Runtime implements Serializable {
 		private static final long serialVersionUID = 1475199492829130965L;
 
@@ -315,16 +389,23 @@ public final class LicenseHeaderStep {
 				throw new IllegalArgumentException("Unable to find delimiter regex " + delimiterPattern);
 			}
 
-			String oldYear;
-			try {
-				oldYear = parseYear("git log --follow --find-renames=40% --diff-filter=A", file);
-			} catch (IllegalArgumentException e) {
-				// Ideally, git log would always find the commit where it was added.
-				// For some reason, that is sometimes not possible - in that case,
-				// we'll settle for just the most recent, even if it was just a modification.
-				oldYear = parseYear("git log --follow --find-renames=40% --reverse", file);
+			String oldYear, newYear;
+			if (GitHistory.isAvailable()) {
+				int[] years = GitHistory.yearsOf(file);
+				// a file which hasn't been committed yet was made today
+				oldYear = years == null ? yearToday : Integer.toString(years[0]);
+				newYear = years == null ? yearToday : Integer.toString(years[1]);
+			} else {
+				try {
+					oldYear = parseYear("git log --follow --find-renames=40% --diff-filter=A", file);
+				} catch (IllegalArgumentException e) {
+					// Ideally, git log would always find the commit where it was added.
+					// For some reason, that is sometimes not possible - in that case,
+					// we'll settle for just the most recent, even if it was just a modification.
+					oldYear = parseYear("git log --follow --find-renames=40% --reverse", file);
+				}
+				newYear = parseYear("git log --max-count=1", file);
 			}
-			String newYear = parseYear("git log --max-count=1", file);
 			String yearRange;
 			if (oldYear.equals(newYear)) {
 				yearRange = oldYear;
@@ -110,7 +110,7 @@ public class PipeStepPair {
 		private static final long serialVersionUID = -844178006407733370L;
 
 		final List<FormatterStep> steps;
-		final transient StringBuilder builder = new StringBuilder();
+		final transient ThreadLocal<StringBuilder> builder = ThreadLocal.withInitial(StringBuilder::new);
 
 		StateApplyToBlock(Pattern regex, Collection<? extends FormatterStep> steps) {
 			super(regex);
@@ -118,15 +118,19 @@ public class PipeStepPair {
 		}
 
 		Formatter buildFormatter(Path rootDir) {
-			return Formatter.builder()
+			Formatter formatter = Formatter.builder()
 					.encoding(StandardCharsets.UTF_8) // can be any UTF, doesn't matter
 					.lineEndingsPolicy(LineEnding.UNIX.createPolicy()) // just internal, won't conflict with user
 					.steps(steps)
 					.rootDir(rootDir)
 					.build();
+			// every FormatterFunc of this step gets its own substeps, in case the step has been forked onto several threads
+			Formatter fork = formatter.fork();
+			return fork != null ? fork : formatter;
 		}
 
 		private String format(Formatter formatter, String unix, File file) throws Exception {
+			ArrayList<String> groups = this.groups.get();
 			groups.clear();
 			Matcher matcher = regex.matcher(unix);
 			while (matcher.find()) {
@@ -134,7 +138,7 @@ public class PipeStepPair {
 				groups.add(formatter.compute(matcher.group(1), file));
 			}
 			// and then assemble the result right away
-			return stateOutCompute(this, builder, unix);
+			return stateOutCompute(this, builder.get(), unix);
 		}
 	}
 
@@ -148,9 +152,11 @@ public class PipeStepPair {
 			this.regex = Objects.requireNonNull(regex);
 		}
 
-		final transient ArrayList<String> groups = new ArrayList<>();
+		/** Per thread, because a forked step shares its state with the original. */
+		final transient ThreadLocal<ArrayList<String>> groups = ThreadLocal.withInitial(ArrayList::new);
 
 		private String format(String unix) throws Exception {
+			ArrayList<String> groups = this.groups.get();
 			groups.clear();
 			Matcher matcher = regex.matcher(unix);
 			while (matcher.find()) {
@@ -170,15 +176,16 @@ public class PipeStepPair {
 			this.in = Objects.requireNonNull(in);
 		}
 
-		final transient StringBuilder builder = new StringBuilder();
+		final transient ThreadLocal<StringBuilder> builder = ThreadLocal.withInitial(StringBuilder::new);
 
 		private String format(String unix) {
-			return stateOutCompute(in, builder, unix);
+			return stateOutCompute(in, builder.get(), unix);
 		}
 	}
 
 	private static String stateOutCompute(StateIn in, StringBuilder builder, String unix) {
-		if (in.groups.isEmpty()) {
+		ArrayList<String> groups = in.groups.get();
+		if (groups.isEmpty()) {
 			return unix;
 		}
 		builder.setLength(0);
@@ -187,11 +194,11 @@ public class PipeStepPair {
 		int groupIdx = 0;
 		while (matcher.find()) {
 			builder.append(unix, lastEnd, matcher.start(1));
-			builder.append(in.groups.get(groupIdx));
+			builder.append(groups.get(groupIdx));
 			lastEnd = matcher.end(1);
 			++groupIdx;
 		}
-		if (groupIdx == in.groups.size()) {
+		if (groupIdx == groups.size()) {
 			builder.append(unix, lastEnd, unix.length());
 			return builder.toString();
 		} else {
@@ -19,6 +19,7 @@ import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.util.Objects;
 
+import com.diffplug.spotless.BoundMethod;
 import com.diffplug.spotless.FormatterFunc;
 import com.diffplug.spotless.FormatterStep;
 import com.diffplug.spotless.JarState;
@@ -146,19 +147,19 @@ public class GoogleJavaFormatStep {
 
 			Class<?> formatterClazz = classLoader.loadClass(FORMATTER_CLASS);
 			Object formatter = formatterClazz.getConstructor(optionsClass).newInstance(options);
-			Method formatterMethod = formatterClazz.getMethod(FORMATTER_METHOD, String.class);
+			BoundMethod formatterMethod = BoundMethod.of(formatterClazz, FORMATTER_METHOD, String.class);
 
 			Function<String, String> removeUnused = constructRemoveUnusedFunction(classLoader);
 
 			Class<?> importOrdererClass = classLoader.loadClass(IMPORT_ORDERER_CLASS);
-			Method importOrdererMethod = importOrdererClass.getMethod(IMPORT_ORDERER_METHOD, String.class);
+			BoundMethod importOrdererMethod = BoundMethod.of(importOrdererClass, IMPORT_ORDERER_METHOD, String.class);
 
 			BiFunction<String, Object, String> reflowLongStrings = this.reflowLongStrings ? constructReflowLongStringsFunction(classLoader, formatterClazz) : (s, f) -> s;
 
 			return JVM_SUPPORT.suggestLaterVersionOnError(version, (input -> {
-				String formatted = (String) formatterMethod.invoke(formatter, input);
+				String formatted = (String) formatterMethod.call(formatter, input);
 				String removedUnused = removeUnused.apply(formatted);
-				String sortedImports = (String) importOrdererMethod.invoke(null, removedUnused);
+				String sortedImports = (String) importOrdererMethod.call(removedUnused);
 				String reflowedLongStrings = reflowLongStrings.apply(sortedImports, formatter);
 				return fixWindowsBug(reflowedLongStrings, version);
 			}));
@@ -186,11 +187,11 @@ public class GoogleJavaFormatStep {
 			if (removeJavadocOnlyClass != null) {
 				@SuppressWarnings({"unchecked", "rawtypes"})
 				Object removeJavadocConstant = Enum.valueOf((Class<Enum>) removeJavadocOnlyClass, REMOVE_UNUSED_IMPORT_JavadocOnlyImports_Keep);
-				Method removeUnusedMethod = removeUnusedClass.getMethod(REMOVE_UNUSED_METHOD, String.class, removeJavadocOnlyClass);
-				removeUnused = (x) -> (String) removeUnusedMethod.invoke(null, x, removeJavadocConstant);
+				BoundMethod removeUnusedMethod = BoundMethod.of(removeUnusedClass, REMOVE_UNUSED_METHOD, String.class, removeJavadocOnlyClass);
+				removeUnused = (x) -> (String) removeUnusedMethod.call(x, removeJavadocConstant);
 			} else {
-				Method removeUnusedMethod = removeUnusedClass.getMethod(REMOVE_UNUSED_METHOD, String.class);
-				removeUnused = (x) -> (String) removeUnusedMethod.invoke(null, x);
+				BoundMethod removeUnusedMethod = BoundMethod.of(removeUnusedClass, REMOVE_UNUSED_METHOD, String.class);
+				removeUnused = (x) -> (String) removeUnusedMethod.call(x);
 			}
 			return removeUnused;
 		}
@@ -205,8 +206,8 @@ public class GoogleJavaFormatStep {
 					throw e;
 				};
 			}
-			Method stringWrapperMethod = stringWrapperClass.getMethod(STRING_WRAPPER_METHOD, String.class, formatterClazz);
-			return (s, f) -> (String) stringWrapperMethod.invoke(null, s, f);
+			BoundMethod stringWrapperMethod = BoundMethod.of(stringWrapperClass, STRING_WRAPPER_METHOD, String.class, formatterClazz);
+			return (s, f) -> (String) stringWrapperMethod.call(s, f);
 		}
 	}
 
@@ -17,11 +17,9 @@ package com.diffplug.spotless.json;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.Objects;
 
+import com.diffplug.spotless.BoundMethod;
 import com.diffplug.spotless.FormatterFunc;
 import com.diffplug.spotless.FormatterStep;
 import com.diffplug.spotless.JarState;
@@ -51,20 +49,20 @@ public final class JsonSimpleStep {
 		}
 
 		FormatterFunc toFormatter() {
-			Method objectToString;
-			Method arrayToString;
-			Constructor<?> objectConstructor;
-			Constructor<?> arrayConstructor;
+			BoundMethod objectToString;
+			BoundMethod arrayToString;
+			BoundMethod objectConstructor;
+			BoundMethod arrayConstructor;
 			try {
 				ClassLoader classLoader = jarState.getClassLoader();
 				Class<?> jsonObject = classLoader.loadClass("org.json.JSONObject");
 				Class<?>[] constructorArguments = new Class[]{String.class};
-				objectConstructor = jsonObject.getConstructor(constructorArguments);
-				objectToString = jsonObject.getMethod("toString", int.class);
+				objectConstructor = BoundMethod.of(jsonObject.getConstructor(constructorArguments));
+				objectToString = BoundMethod.of(jsonObject, "toString", int.class);
 
 				Class<?> jsonArray = classLoader.loadClass("org.json.JSONArray");
-				arrayConstructor = jsonArray.getConstructor(constructorArguments);
-				arrayToString = jsonArray.getMethod("toString", int.class);
+				arrayConstructor = BoundMethod.of(jsonArray.getConstructor(constructorArguments));
+				arrayToString = BoundMethod.of(jsonArray, "toString", int.class);
 			} catch (ClassNotFoundException | NoSuchMethodException e) {
 				throw new IllegalStateException("There was a problem preparing org.json dependencies", e);
 			}
@@ -85,12 +83,12 @@ public final class JsonSimpleStep {
 			};
 		}
 
-		private String format(Constructor<?> constructor, Method toString, String input) throws Exception {
+		private String format(BoundMethod constructor, BoundMethod toString, String input) throws Exception {
 			try {
-				Object parsed = constructor.newInstance(input);
-				return toString.invoke(parsed, indentSpaces) + "\n";
-			} catch (InvocationTargetException ex) {
-				throw new AssertionError("Unable to format JSON", ex.getCause());
+				Object parsed = constructor.call(input);
+				return toString.call(parsed, indentSpaces) + "\n";
+			} catch (RuntimeException ex) {
+				throw new AssertionError("Unable to format JSON", ex);
 			}
 		}
 	}
@@ -17,9 +17,6 @@ package com.diffplug.spotless.kotlin;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.*;
 
@@ -116,9 +113,9 @@ public class DiktatStep {
 			// next, we create an error callback which throws an assertion error when the format is bad
 			Class<?> function2Interface = classLoader.loadClass("kotlin.jvm.functions.Function2");
 			Class<?> lintErrorClass = classLoader.loadClass(pkgKtlint + ".core.LintError");
-			Method detailGetter = lintErrorClass.getMethod("getDetail");
-			Method lineGetter = lintErrorClass.getMethod("getLine");
-			Method colGetter = lintErrorClass.getMethod("getCol");
+			BoundMethod detailGetter = BoundMethod.of(lintErrorClass, "getDetail");
+			BoundMethod lineGetter = BoundMethod.of(lintErrorClass, "getLine");
+			BoundMethod colGetter = BoundMethod.of(lintErrorClass, "getCol");
 
 			// grab the KtLint singleton
 			Class<?> ktlintClass = classLoader.loadClass(pkgKtlint + ".core.KtLint");
@@ -126,7 +123,7 @@ public class DiktatStep {
 
 			Class<?> paramsClass = classLoader.loadClass(pkgKtlint + ".core.KtLint$Params");
 			// and its constructor
-			Constructor<?> constructor = paramsClass.getConstructor(
+			BoundMethod constructor = BoundMethod.of(paramsClass.getConstructor(
 					/* fileName, nullable */ String.class,
 					/* text */ String.class,
 					/* ruleSets */ Iterable.class,
@@ -134,50 +131,52 @@ public class DiktatStep {
 					/* callback */ function2Interface,
 					/* script */ boolean.class,
 					/* editorConfigPath, nullable */ String.class,
-					/* debug */ boolean.class);
-			Method formatterMethod = ktlintClass.getMethod("format", paramsClass);
-			FormatterFunc.NeedsFile formatterFunc = (input, file) -> {
-				ArrayList<Object> errors = new ArrayList<>();
-
-				Object formatterCallback = Proxy.newProxyInstance(classLoader, new Class[]{function2Interface},
-						(proxy, method, args) -> {
-							Object lintError = args[0]; //ktlint.core.LintError
-							boolean corrected = (Boolean) args[1];
-							if (!corrected) {
-								errors.add(lintError);
-							}
-							return null;
-						});
-
-				userData.put("file_path", file.getAbsolutePath());
-				try {
-					Object params = constructor.newInstance(
-							/* fileName, nullable */ file.getName(),
-							/* text */ input,
-							/* ruleSets */ ruleSets,
-							/* userData */ userData,
-							/* callback */ formatterCallback,
-							/* script */ isScript,
-							/* editorConfigPath, nullable */ null,
-							/* debug */ false);
-					String result = (String) formatterMethod.invoke(ktlint, params);
-					if (!errors.isEmpty()) {
-						StringBuilder error = new StringBuilder("");
-						error.append("There are ").append(errors.size()).append(" unfixed errors:");
-						for (Object er : errors) {
-							String detail = (String) detailGetter.invoke(er);
-							int line = (Integer) lineGetter.invoke(er);
-							int col = (Integer) colGetter.invoke(er);
-
-							error.append(System.lineSeparator()).append("Error on line: ").append(line).append(", column: ").append(col).append(" cannot be fixed automatically")
-									.append(System.lineSeparator()).append(detail);
+					/* debug */ boolean.class));
+			BoundMethod formatterMethod = BoundMethod.of(ktlintClass, "format", paramsClass);
+
+			// one callback for every file, which collects the errors of whichever file is being formatted on this thread
+			ThreadLocal<List<Object>> errors = ThreadLocal.withInitial(ArrayList::new);
+			Object formatterCallback = Proxy.newProxyInstance(classLoader, new Class[]{function2Interface},
+					(proxy, method, args) -> {
+						Object lintError = args[0]; //ktlint.core.LintError
+						boolean corrected = (Boolean) args[1];
+						if (!corrected) {
+							errors.get().add(lintError);
 						}
-						throw new AssertionError(error);
+						return null;
+					});
+
+			FormatterFunc.NeedsFile formatterFunc = (input, file) -> {
+				List<Object> errorsForFile = errors.get();
+				errorsForFile.clear();
+
+				Map<String, String> userDataForFile = new TreeMap<>(userData);
+				userDataForFile.put("file_path", file.getAbsolutePath());
+				Object params = constructor.call(
+						/* fileName, nullable */ file.getName(),
+						/* text */ input,
+						/* ruleSets */ ruleSets,
+						/* userData */ userDataForFile,
+						/* callback */ formatterCallback,
+						/* script */ isScript,
+						/* editorConfigPath, nullable */ null,
+						/* debug */ false);
+				String result = (String) formatterMethod.call(ktlint, params);
+				if (!errorsForFile.isEmpty()) {
+					StringBuilder error = new StringBuilder("");
+					error.append("There are ").append(errorsForFile.size()).append(" unfixed errors:");
+					for (Object er : errorsForFile) {
+						String detail = (String) detailGetter.call(er);
+						int line = (Integer) lineGetter.call(er);
+						int col = (Integer) colGetter.call(er);
+
+						error.append(System.lineSeparator()).append("Error on line: ").append(line).append(", column: ").append(col).append(" cannot be fixed automatically")
+								.append(System.lineSeparator()).append(detail);
 					}
-					return result;
-				} catch (InvocationTargetException e) {
-					throw ThrowingEx.unwrapCause(e);
+					errorsForFile.clear();
+					throw new AssertionError(error);
 				}
+				return result;
 			};
 
 			return formatterFunc;
@@ -17,20 +17,17 @@ package com.diffplug.spotless.kotlin;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.lang.reflect.Proxy;
 import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
 import java.util.TreeMap;
 
+import com.diffplug.spotless.BoundMethod;
 import com.diffplug.spotless.FormatterFunc;
 import com.diffplug.spotless.FormatterStep;
 import com.diffplug.spotless.JarState;
 import com.diffplug.spotless.Provisioner;
-import com.diffplug.spotless.ThrowingEx;
 
 /** Wraps up <a href="https://github.com/pinterest/ktlint">ktlint</a> as a FormatterStep. */
 public class KtLintStep {
@@ -115,17 +112,17 @@ public class KtLintStep {
 			// next, we create an error callback which throws an assertion error when the format is bad
 			Class<?> function2Interface = classLoader.loadClass("kotlin.jvm.functions.Function2");
 			Class<?> lintErrorClass = classLoader.loadClass(pkg + ".ktlint.core.LintError");
-			Method detailGetter = lintErrorClass.getMethod("getDetail");
-			Method lineGetter = lintErrorClass.getMethod("getLine");
-			Method colGetter = lintErrorClass.getMethod("getCol");
+			BoundMethod detailGetter = BoundMethod.of(lintErrorClass, "getDetail");
+			BoundMethod lineGetter = BoundMethod.of(lintErrorClass, "getLine");
+			BoundMethod colGetter = BoundMethod.of(lintErrorClass, "getCol");
 			Object formatterCallback = Proxy.newProxyInstance(classLoader, new Class[]{function2Interface},
 					(proxy, method, args) -> {
 						Object lintError = args[0]; //ktlint.core.LintError
 						boolean corrected = (Boolean) args[1];
 						if (!corrected) {
-							String detail = (String) detailGetter.invoke(lintError);
-							int line = (Integer) lineGetter.invoke(lintError);
-							int col = (Integer) colGetter.invoke(lintError);
+							String detail = (String) detailGetter.call(lintError);
+							int line = (Integer) lineGetter.call(lintError);
+							int col = (Integer) colGetter.call(lintError);
 							throw new AssertionError("Error on line: " + line + ", column: " + col + "\n" + detail);
 						}
 						return null;
@@ -144,7 +141,7 @@ public class KtLintStep {
 				// grab the Params class
 				Class<?> paramsClass = classLoader.loadClass(pkg + ".ktlint.core.KtLint$Params");
 				// and its constructor
-				Constructor<?> constructor = paramsClass.getConstructor(
+				BoundMethod constructor = BoundMethod.of(paramsClass.getConstructor(
 						/* fileName, nullable */ String.class,
 						/* text */ String.class,
 						/* ruleSets */ Iterable.class,
@@ -152,35 +149,25 @@ public class KtLintStep {
 						/* callback */ function2Interface,
 						/* script */ boolean.class,
 						/* editorConfigPath, nullable */ String.class,
-						/* debug */ boolean.class);
-				Method formatterMethod = ktlintClass.getMethod("format", paramsClass);
+						/* debug */ boolean.class));
+				BoundMethod formatterMethod = BoundMethod.of(ktlintClass, "format", paramsClass);
 				formatterFunc = input -> {
-					try {
-						Object params = constructor.newInstance(
-								/* fileName, nullable */ null,
-								/* text */ input,
-								/* ruleSets */ ruleSets,
-								/* userData */ userData,
-								/* callback */ formatterCallback,
-								/* script */ isScript,
-								/* editorConfigPath, nullable */ null,
-								/* debug */ false);
-						return (String) formatterMethod.invoke(ktlint, params);
-					} catch (InvocationTargetException e) {
-						throw ThrowingEx.unwrapCause(e);
-					}
+					Object params = constructor.call(
+							/* fileName, nullable */ null,
+							/* text */ input,
+							/* ruleSets */ ruleSets,
+							/* userData */ userData,
+							/* callback */ formatterCallback,
+							/* script */ isScript,
+							/* editorConfigPath, nullable */ null,
+							/* debug */ false);
+					return (String) formatterMethod.call(ktlint, params);
 				};
 			} else {
 				// and its format method
 				String formatterMethodName = isScript ? "formatScript" : "format";
-				Method formatterMethod = ktlintClass.getMethod(formatterMethodName, String.class, Iterable.class, Map.class, function2Interface);
-				formatterFunc = input -> {
-					try {
-						return (String) formatterMethod.invoke(ktlint, input, ruleSets, userData, formatterCallback);
-					} catch (InvocationTargetException e) {
-						throw ThrowingEx.unwrapCause(e);
-					}
-				};
+				BoundMethod formatterMethod = BoundMethod.of(ktlintClass, formatterMethodName, String.class, Iterable.class, Map.class, function2Interface);
+				formatterFunc = input -> (String) formatterMethod.call(ktlint, input, ruleSets, userData, formatterCallback);
 			}
 
 			return formatterFunc;
@@ -19,7 +19,6 @@ import static com.diffplug.spotless.kotlin.KtfmtStep.Style.DEFAULT;
 
 import java.io.IOException;
 import java.io.Serializable;
-import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.Objects;
 
@@ -121,22 +120,16 @@ public class KtfmtStep {
 		FormatterFunc createFormat() throws Exception {
 			ClassLoader classLoader = jarState.getClassLoader();
 			Class<?> formatterClazz = classLoader.loadClass(pkg + ".ktfmt.FormatterKt");
-			return input -> {
-				try {
-					if (style == DEFAULT) {
-						Method formatterMethod = formatterClazz.getMethod(FORMATTER_METHOD, String.class);
-						return (String) formatterMethod.invoke(formatterClazz, input);
-					} else {
-						Class<?> formattingOptionsClazz = classLoader.loadClass(pkg + ".ktfmt.FormattingOptions");
-						Method formatterMethod = formatterClazz.getMethod(FORMATTER_METHOD, formattingOptionsClazz,
-								String.class);
-						Object formattingOptions = getCustomFormattingOptions(classLoader, style);
-						return (String) formatterMethod.invoke(formatterClazz, formattingOptions, input);
-					}
-				} catch (InvocationTargetException e) {
-					throw ThrowingEx.unwrapCause(e);
-				}
-			};
+			if (style == DEFAULT) {
+				BoundMethod formatterMethod = BoundMethod.of(formatterClazz, FORMATTER_METHOD, String.class);
+				return input -> (String) formatterMethod.call(input);
+			} else {
+				Class<?> formattingOptionsClazz = classLoader.loadClass(pkg + ".ktfmt.FormattingOptions");
+				BoundMethod formatterMethod = BoundMethod.of(formatterClazz, FORMATTER_METHOD, formattingOptionsClazz,
+						String.class);
+				Object formattingOptions = getCustomFormattingOptions(classLoader, style);
+				return input -> (String) formatterMethod.call(formattingOptions, input);
+			}
 		}
 
 		private Object getCustomFormattingOptions(ClassLoader classLoader, Style style) throws Exception {
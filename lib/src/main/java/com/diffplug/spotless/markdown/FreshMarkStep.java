@@ -18,7 +18,6 @@ package com.diffplug.spotless.markdown;
 import static com.diffplug.spotless.markdown.LibMarkdownPreconditions.requireKeysAndValuesNonNull;
 
 import java.io.Serializable;
-import java.lang.reflect.Method;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Objects;
@@ -26,6 +25,7 @@ import java.util.TreeMap;
 import java.util.function.Consumer;
 import java.util.logging.Logger;
 
+import com.diffplug.spotless.BoundMethod;
 import com.diffplug.spotless.FormatterFunc;
 import com.diffplug.spotless.FormatterStep;
 import com.diffplug.spotless.JarState;
@@ -86,8 +86,8 @@ public class FreshMarkStep {
 			// instantiate the formatter and get its format method
 			Class<?> formatterClazz = classLoader.loadClass(FORMATTER_CLASS);
 			Object formatter = formatterClazz.getConstructor(Map.class, Consumer.class).newInstance(properties, loggingStream);
-			Method method = formatterClazz.getMethod(FORMATTER_METHOD, String.class);
-			return input -> (String) method.invoke(formatter, input);
+			BoundMethod method = BoundMethod.of(formatterClazz, FORMATTER_METHOD, String.class);
+			return input -> (String) method.call(formatter, input);
 		}
 	}
 }
@@ -28,6 +28,7 @@ import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
 
+import com.diffplug.spotless.BoundMethod;
 import com.diffplug.spotless.FileSignature;
 import com.diffplug.spotless.FormatterFunc;
 import com.diffplug.spotless.FormatterStep;
@@ -89,7 +90,7 @@ public class ScalaFmtStep {
 
 			// scalafmt returns instances of formatted, we get result by calling get()
 			Class<?> formatted = classLoader.loadClass("org.scalafmt.Formatted");
-			Method formattedGet = formatted.getMethod("get");
+			BoundMethod formattedGet = BoundMethod.of(formatted, "get");
 
 			// this is how we actually do a format
 			Class<?> scalafmt = classLoader.loadClass("org.scalafmt.Scalafmt");
@@ -97,7 +98,7 @@ public class ScalaFmtStep {
 
 			Object defaultScalaFmtConfig = scalafmt.getMethod("format$default$2").invoke(null);
 			Object emptyRange = scalafmt.getMethod("format$default$3").invoke(null);
-			Method formatMethod = scalafmt.getMethod("format", String.class, defaultScalaFmtConfig.getClass(), scalaSet);
+			BoundMethod formatMethod = BoundMethod.of(scalafmt, "format", String.class, defaultScalaFmtConfig.getClass(), scalaSet);
 
 			// now we just need to parse the config, if any
 			Object config;
@@ -132,8 +133,8 @@ public class ScalaFmtStep {
 				config = invokeNoArg(configured, "get");
 			}
 			return input -> {
-				Object resultInsideFormatted = formatMethod.invoke(null, input, config, emptyRange);
-				return (String) formattedGet.invoke(resultInsideFormatted);
+				Object resultInsideFormatted = formatMethod.call(input, config, emptyRange);
+				return (String) formattedGet.call(resultInsideFormatted);
 			};
 		}
 	}
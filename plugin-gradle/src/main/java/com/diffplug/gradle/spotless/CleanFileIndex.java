@@ -0,0 +1,148 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+import com.diffplug.spotless.IndexFile;
+
+/**
+ * Remembers which files were clean for a given formatter configuration, by their size and last-modified time,
+ * so that {@link SpotlessAggregate} only formats the files which changed since its last run, however many projects
+ * and formats there are.
+ *
+ * An {@link IndexFile} with one record per clean file: {@code key, size, lastModified, path}.  Only the files
+ * which were seen by the latest run are kept.  It is only a cache, so any error reading it just means that
+ * every file is formatted again.
+ */
+final class CleanFileIndex {
+	private static final String HEADER = "spotless-clean-v1";
+
+	private final File file;
+	private final Map<String, Clean> previous;
+	private final Map<String, Clean> current = new ConcurrentHashMap<>();
+
+	private CleanFileIndex(File file, Map<String, Clean> previous) {
+		this.file = file;
+		this.previous = previous;
+	}
+
+	/** Returns true if the given file hasn't changed since it was clean for the given key. */
+	boolean isClean(String key, File input, BasicFileAttributes attributes) {
+		String id = key + "\t" + input.getAbsolutePath();
+		Clean clean = previous.get(id);
+		if (clean == null || !clean.matches(attributes)) {
+			return false;
+		}
+		current.put(id, clean);
+		return true;
+	}
+
+	/** Records that the given file, with the given attributes, is clean for the given key. */
+	void markClean(String key, File input, BasicFileAttributes attributes) {
+		String path = input.getAbsolutePath();
+		if (!IndexFile.canWrite(path)) {
+			// not representable in our format, but also not worth escaping
+			return;
+		}
+		current.put(key + "\t" + path, new Clean(attributes.size(), attributes.lastModifiedTime().toMillis()));
+	}
+
+	/** Replaces the index on disk with the files which were clean in this run. */
+	void save() throws IOException {
+		List<String[]> records = new ArrayList<>(current.size());
+		for (Map.Entry<String, Clean> entry : current.entrySet()) {
+			int tab = entry.getKey().indexOf('\t');
+			Clean clean = entry.getValue();
+			records.add(new String[]{entry.getKey().substring(0, tab), Long.toString(clean.size), Long.toString(clean.lastModified), entry.getKey().substring(tab + 1)});
+		}
+		IndexFile.write(file, HEADER, records);
+	}
+
+	static CleanFileIndex load(File file) {
+		Map<String, Clean> previous = new HashMap<>();
+		if (file.isFile()) {
+			try {
+				IndexFile.read(file, HEADER, 4, pieces -> {
+					if (pieces.length == 4) {
+						previous.put(pieces[0] + "\t" + pieces[3], new Clean(Long.parseLong(pieces[1]), Long.parseLong(pieces[2])));
+					}
+				});
+			} catch (IOException | NumberFormatException e) {
+				logger.log(Level.FINE, "Unable to read " + file + ", every file will be formatted", e);
+				previous.clear();
+			}
+		}
+		return new CleanFileIndex(file, previous);
+	}
+
+	/**
+	 * Returns a hash of everything which decides whether a file is clean, or null if it can't be serialized.
+	 * A step whose state is different every time, such as a custom step, makes a different key every time.
+	 */
+	static @Nullable String keyOf(SpotlessSource source) {
+		try {
+			MessageDigest digest = IndexFile.sha256();
+			try (ObjectOutputStream output = new ObjectOutputStream(new DigestOutputStream(NULL, digest))) {
+				output.writeObject(new Serializable[]{source.encoding, source.lineEndingsPolicy.get(), new ArrayList<>(source.steps.get())});
+			}
+			return IndexFile.toHex(digest.digest());
+		} catch (IOException | RuntimeException e) {
+			logger.log(Level.FINE, "Unable to compute a key for " + source.taskPath + ", so its files won't be cached", e);
+			return null;
+		}
+	}
+
+	private static final OutputStream NULL = new OutputStream() {
+		@Override
+		public void write(int b) {}
+
+		@Override
+		public void write(byte[] b, int off, int len) {}
+	};
+
+	private static final class Clean {
+		final long size;
+		final long lastModified;
+
+		Clean(long size, long lastModified) {
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		boolean matches(BasicFileAttributes attributes) {
+			return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis();
+		}
+	}
+
+	private static final Logger logger = Logger.getLogger(CleanFileIndex.class.getName());
+}
@@ -23,11 +23,13 @@ import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
@@ -39,6 +41,7 @@ import org.gradle.api.Task;
 import org.gradle.api.file.ConfigurableFileTree;
 import org.gradle.api.file.FileCollection;
 import org.gradle.api.plugins.BasePlugin;
+import org.gradle.api.provider.Provider;
 
 import com.diffplug.spotless.FormatExceptionPolicyStrict;
 import com.diffplug.spotless.FormatterFunc;
@@ -228,11 +231,8 @@ public class FormatExtension {
 			// they don't want to format which will slow down the operation greatly
 			// but we only want to do that if they are *including* - if they are specifying
 			// what they want to exclude, we shouldn't filter at all
-			if (isExclude) {
-				return matchedFiles;
-			}
-			if (targetString.startsWith("**/") || targetString.startsWith("**\\")) {
-				List<String> excludes = new ArrayList<>();
+			List<String> excludes = new ArrayList<>();
+			if (!isExclude && (targetString.startsWith("**/") || targetString.startsWith("**\\"))) {
 				// no git
 				excludes.add(".git");
 				// no .gradle
@@ -246,12 +246,20 @@ public class FormatExtension {
 				}
 				matchedFiles.exclude(excludes);
 			}
-			return matchedFiles;
+			return fromGitOr(matchedFiles, dir, targetString, excludes);
 		} else {
 			return getProject().files(target);
 		}
 	}
 
+	/** Decided lazily, since {@link SpotlessExtension#setTargetsFromGit(boolean)} might be set after this format. */
+	private FileCollection fromGitOr(ConfigurableFileTree fileTree, File dir, String include, List<String> excludes) {
+		Provider<GitIndexTargetsService> gitIndexTargets = GitIndexTargetsService.registerIfAbsent(getProject());
+		return getProject().files((Callable<Object>) () -> spotless.isTargetsFromGit()
+				? gitIndexTargets.get().targets().select(dir, Collections.singletonList(include), excludes)
+				: fileTree);
+	}
+
 	private static void relativizeIfSubdir(List<String> relativePaths, File root, File dest) {
 		String relativized = relativize(root, dest);
 		if (relativized != null) {
@@ -439,7 +447,7 @@ public class FormatExtension {
 		}
 
 		FormatterStep createStep() {
-			return builder.withYearModeLazy(() -> {
+			return builder.withProjectDir(spotless.project.getProjectDir()).withYearModeLazy(() -> {
 				if ("true".equals(spotless.project.findProperty(LicenseHeaderStep.FLAG_SET_LICENSE_HEADER_YEARS_FROM_GIT_HISTORY()))) {
 					return YearMode.SET_FROM_GIT;
 				} else {
@@ -713,7 +721,9 @@ public class FormatExtension {
 	protected void setupTask(SpotlessTask task) {
 		task.setEncoding(getEncoding().name());
 		task.setExceptionPolicy(exceptionPolicy);
+		task.setPackOutputs(spotless.isPackOutputs());
 		FileCollection totalTarget = targetExclude == null ? target : target.minus(targetExclude);
+		task.setShard(spotless.shard());
 		task.setTarget(totalTarget);
 		List<FormatterStep> steps;
 		if (togglePair != null) {
@@ -725,12 +735,14 @@ public class FormatExtension {
 			steps = this.steps;
 		}
 		task.setSteps(steps);
-		task.setLineEndingsPolicy(getLineEndings().createPolicy(getProject().getProjectDir(), () -> totalTarget));
+		task.setLineEndingsPolicy(getLineEndings().createPolicy(getProject().getProjectDir()));
 		if (spotless.project != spotless.project.getRootProject()) {
 			spotless.getRegisterDependenciesTask().hookSubprojectTask(task);
 		}
 		if (getRatchetFrom() != null) {
-			task.setupRatchet(spotless.getRegisterDependenciesTask().getGitRatchet().get(), getRatchetFrom());
+			task.setupRatchet(spotless.getRegisterDependenciesTask().gitRatchet(), getRatchetFrom());
+		} else {
+			task.setSampler(spotless.sampler());
 		}
 	}
 
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.time.Duration;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import com.diffplug.spotless.Formatter;
+import com.diffplug.spotless.FormatterStepPool;
+
+/**
+ * Hands out formatters whose steps come from a {@link FormatterStepPool}, so that every task and every
+ * build in a daemon with the same step configuration reuses the same warm {@code FormatterFunc}s.
+ *
+ * The service itself only lives as long as a build, but the pool outlives it.  At the end of every build,
+ * and then every {@link #IDLE_TIMEOUT} until the pool is empty, the steps which haven't been used for
+ * {@link #IDLE_TIMEOUT} are closed.  Nothing outside of this class refers to the pool once it is empty, so
+ * if a later build uses a different version of the plugin, the old plugin classloader can be collected.
+ */
+public abstract class FormatterPoolService implements BuildService<BuildServiceParameters.None>, AutoCloseable {
+	static final String NAME = "SpotlessFormatterPool";
+	static final Duration IDLE_TIMEOUT = Duration.ofMinutes(10);
+
+	private static final FormatterStepPool POOL = new FormatterStepPool();
+	/** Guards everything below. */
+	private static final Object LOCK = new Object();
+	/** The number of builds which are using the pool right now. */
+	private static int activeBuilds;
+	/** Stops the pooled steps (e.g. node servers) along with the daemon, but only registered while it is needed. */
+	private static @Nullable Thread shutdownHook;
+	/** Evicts between builds.  Its thread times out, so it doesn't hold on to the classloader either. */
+	private static final ScheduledThreadPoolExecutor EVICTOR = new ScheduledThreadPoolExecutor(1, runnable -> {
+		Thread thread = new Thread(runnable, "spotless-formatter-pool-eviction");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static boolean evictionScheduled;
+
+	static {
+		EVICTOR.setKeepAliveTime(1, TimeUnit.SECONDS);
+		EVICTOR.allowCoreThreadTimeOut(true);
+	}
+
+	public FormatterPoolService() {
+		synchronized (LOCK) {
+			++activeBuilds;
+			if (shutdownHook == null) {
+				shutdownHook = new Thread(POOL::evictAll, "spotless-formatter-pool-shutdown");
+				Runtime.getRuntime().addShutdownHook(shutdownHook);
+			}
+		}
+	}
+
+	static Provider<FormatterPoolService> registerIfAbsent(Project project) {
+		return project.getGradle().getSharedServices().registerIfAbsent(NAME, FormatterPoolService.class, unused -> {});
+	}
+
+	/** Returns a formatter whose steps are returned to the pool when it is closed. */
+	Formatter checkOut(Formatter formatter) {
+		return POOL.checkOut(formatter);
+	}
+
+	@Override
+	public void close() {
+		synchronized (LOCK) {
+			--activeBuilds;
+		}
+		evictIdle();
+	}
+
+	/**
+	 * Closes the idle steps, and then evicts again later if there are any left, or lets go of the
+	 * shutdown hook if there aren't, and no build is using the pool.
+	 */
+	private static void evictIdle() {
+		POOL.evictIdle(IDLE_TIMEOUT);
+		synchronized (LOCK) {
+			if (!POOL.isEmpty()) {
+				if (!evictionScheduled) {
+					evictionScheduled = true;
+					EVICTOR.schedule(() -> {
+						synchronized (LOCK) {
+							evictionScheduled = false;
+						}
+						evictIdle();
+					}, IDLE_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+				}
+			} else if (activeBuilds == 0 && shutdownHook != null) {
+				try {
+					Runtime.getRuntime().removeShutdownHook(shutdownHook);
+				} catch (IllegalStateException e) {
+					// the JVM is already shutting down, so the hook is running
+				}
+				shutdownHook = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+import com.diffplug.spotless.extra.GitIndexTargets;
+
+/**
+ * Holds the {@link GitIndexTargets} for a single build, so that each folder is walked once,
+ * no matter how many formats or projects target it.
+ */
+public abstract class GitIndexTargetsService implements BuildService<BuildServiceParameters.None> {
+	static final String NAME = "GitIndexTargetsService";
+
+	static Provider<GitIndexTargetsService> registerIfAbsent(Project project) {
+		return project.getGradle().getSharedServices().registerIfAbsent(NAME, GitIndexTargetsService.class, unused -> {});
+	}
+
+	private final GitIndexTargets targets = new GitIndexTargets();
+
+	GitIndexTargets targets() {
+		return targets;
+	}
+}
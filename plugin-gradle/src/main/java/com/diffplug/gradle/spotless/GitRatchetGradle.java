@@ -16,10 +16,11 @@
 package com.diffplug.gradle.spotless;
 
 import java.io.File;
+import java.io.IOException;
 
 import javax.annotation.Nullable;
 
-import org.gradle.api.Project;
+import org.eclipse.jgit.lib.ObjectId;
 import org.gradle.api.services.BuildService;
 import org.gradle.api.services.BuildServiceParameters;
 import org.gradle.tooling.events.FinishEvent;
@@ -27,16 +28,39 @@ import org.gradle.tooling.events.OperationCompletionListener;
 
 import com.diffplug.spotless.extra.GitRatchet;
 
-/** Gradle implementation of GitRatchet. */
-public abstract class GitRatchetGradle extends GitRatchet<Project> implements BuildService<BuildServiceParameters.None>, OperationCompletionListener {
+/**
+ * Gradle implementation of GitRatchet, keyed on the project directory rather than the {@code Project},
+ * so that tasks can use it at execution time without touching the project (for the configuration cache).
+ */
+public abstract class GitRatchetGradle extends GitRatchet<File> implements BuildService<BuildServiceParameters.None>, OperationCompletionListener {
 	@Override
-	protected File getDir(Project project) {
-		return project.getProjectDir();
+	protected File getDir(File projectDir) {
+		return projectDir;
 	}
 
 	@Override
-	protected @Nullable Project getParent(Project project) {
-		return project.getParent();
+	protected @Nullable File getParent(File projectDir) {
+		return projectDir.getParentFile();
+	}
+
+	/** Like {@link #rootTreeShaOf(Object, String)}, but as a hex string, so that tasks don't need JGit on their API. */
+	String rootTreeShaNameOf(File projectDir, String reference) {
+		return rootTreeShaOf(projectDir, reference).name();
+	}
+
+	/** Like {@link #subtreeShaOf(Object, ObjectId)}, but as a hex string. */
+	String subtreeShaNameOf(File projectDir, String rootTreeSha) {
+		return subtreeShaOf(projectDir, ObjectId.fromString(rootTreeSha)).name();
+	}
+
+	/** Like {@link #isClean(Object, ObjectId, File)}, but with the tree as a hex string. */
+	boolean isCleanSince(File projectDir, String rootTreeSha, File file) throws IOException {
+		return isClean(projectDir, ObjectId.fromString(rootTreeSha), file);
+	}
+
+	/** Like {@link #isCleanNow(Object, ObjectId, File)}, but with the tree as a hex string. */
+	boolean isCleanNowSince(File projectDir, String rootTreeSha, File file) throws IOException {
+		return isCleanNow(projectDir, ObjectId.fromString(rootTreeSha), file);
 	}
 
 	@Override
@@ -19,6 +19,11 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 
+import org.gradle.api.Action;
+import org.gradle.api.Project;
+import org.gradle.api.Task;
+import org.gradle.api.provider.Provider;
+
 import com.diffplug.common.base.Errors;
 import com.diffplug.common.io.ByteStreams;
 import com.diffplug.spotless.Formatter;
@@ -33,23 +38,39 @@ class IdeHook {
 		System.err.println("IS CLEAN");
 	}
 
-	static void performHook(SpotlessTask spotlessTask) {
-		String path = (String) spotlessTask.getProject().property(PROPERTY);
+	/** Reads the hook's properties at configuration time, and runs the hook at execution time. */
+	static class HookAction implements Action<Task> {
+		private final Provider<SpotlessSource> source;
+		private final String path;
+		private final boolean useStdIn, useStdOut;
+
+		HookAction(Project project, SpotlessTask spotlessTask) {
+			this.source = project.provider(spotlessTask::toSource);
+			this.path = (String) project.property(PROPERTY);
+			this.useStdIn = project.hasProperty(USE_STD_IN);
+			this.useStdOut = project.hasProperty(USE_STD_OUT);
+		}
+
+		@Override
+		public void execute(Task task) {
+			performHook(source.get(), path, useStdIn, useStdOut);
+		}
+	}
+
+	static void performHook(SpotlessSource spotlessTask, String path, boolean useStdIn, boolean useStdOut) {
 		File file = new File(path);
 		if (!file.isAbsolute()) {
 			System.err.println("Argument passed to " + PROPERTY + " must be an absolute path");
 			return;
 		}
-		if (spotlessTask.getTarget().contains(file)) {
+		if (spotlessTask.target.contains(file)) {
 			try (Formatter formatter = spotlessTask.buildFormatter()) {
-				if (spotlessTask.ratchet != null) {
-					if (spotlessTask.ratchet.isClean(spotlessTask.getProject(), spotlessTask.rootTreeSha, file)) {
-						dumpIsClean();
-						return;
-					}
+				if (spotlessTask.isRatchetClean(file)) {
+					dumpIsClean();
+					return;
 				}
 				byte[] bytes;
-				if (spotlessTask.getProject().hasProperty(USE_STD_IN)) {
+				if (useStdIn) {
 					bytes = ByteStreams.toByteArray(System.in);
 				} else {
 					bytes = Files.readAllBytes(file.toPath());
@@ -62,7 +83,7 @@ class IdeHook {
 					System.err.println("Run 'spotlessDiagnose' for details https://github.com/diffplug/spotless/blob/main/PADDEDCELL.md");
 				} else {
 					System.err.println("IS DIRTY");
-					if (spotlessTask.getProject().hasProperty(USE_STD_OUT)) {
+					if (useStdOut) {
 						dirty.writeCanonicalTo(System.out);
 					} else {
 						dirty.writeCanonicalTo(file);
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.io.File;
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.gradle.api.GradleException;
+import org.gradle.api.Task;
+
+import com.diffplug.spotless.FileSignature;
+
+/**
+ * Formatter steps and line ending policies hold onto functions and classloaders which can't be serialized,
+ * but Gradle's configuration cache serializes every task.  So instead of the live value, the task holds a
+ * {@link LiveCache}, which is just a serializable key into a map that lives as long as the daemon.
+ *
+ * If the configuration cache is reused by a different daemon, the map is empty and we throw
+ * {@link #cacheIsStale()}, which tells the user how to regenerate the configuration cache.
+ */
+class JvmLocalCache {
+	private JvmLocalCache() {}
+
+	private static GradleException cacheIsStale() {
+		return new GradleException("Spotless JVM-local cache is stale, probably because the configuration cache was created by a different Gradle daemon. Regenerate it with\n" +
+				"  " + (FileSignature.machineIsWin() ? "rmdir /q /s" : "rm -rf") + " .gradle/configuration-cache");
+	}
+
+	interface LiveCache<T> extends Serializable {
+		T get();
+
+		void set(T value);
+	}
+
+	static <T> LiveCache<T> createLive(Task task, String propertyName) {
+		return new LiveCacheKeyImpl<>(new InternalCacheKey(task.getProject().getProjectDir(), task.getPath(), propertyName));
+	}
+
+	static <T> LiveCache<T> createLive(Task task, String propertyName, T initialValue) {
+		LiveCache<T> cache = createLive(task, propertyName);
+		cache.set(initialValue);
+		return cache;
+	}
+
+	private static final Map<InternalCacheKey, Object> daemonState = new ConcurrentHashMap<>();
+
+	private static final class LiveCacheKeyImpl<T> implements LiveCache<T> {
+		private static final long serialVersionUID = 1L;
+
+		private final InternalCacheKey internalKey;
+
+		LiveCacheKeyImpl(InternalCacheKey internalKey) {
+			this.internalKey = internalKey;
+		}
+
+		@Override
+		public void set(T value) {
+			daemonState.put(internalKey, Objects.requireNonNull(value));
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public T get() {
+			Object value = daemonState.get(internalKey);
+			if (value == null) {
+				throw cacheIsStale();
+			}
+			return (T) value;
+		}
+	}
+
+	private static final class InternalCacheKey implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		private final File projectDir;
+		private final String taskPath;
+		private final String propertyName;
+
+		InternalCacheKey(File projectDir, String taskPath, String propertyName) {
+			this.projectDir = projectDir;
+			this.taskPath = taskPath;
+			this.propertyName = propertyName;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			} else if (!(o instanceof InternalCacheKey)) {
+				return false;
+			}
+			InternalCacheKey that = (InternalCacheKey) o;
+			return projectDir.equals(that.projectDir) && taskPath.equals(that.taskPath) && propertyName.equals(that.propertyName);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(projectDir, taskPath, propertyName);
+		}
+	}
+}
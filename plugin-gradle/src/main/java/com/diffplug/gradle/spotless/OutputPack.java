@@ -0,0 +1,246 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+import com.diffplug.spotless.IndexFile;
+
+/**
+ * Keeps the formatted content of every dirty file in a single pack file, rather than one output file per
+ * dirty file, so that there are only two files for Gradle to snapshot and for the build cache to store.
+ *
+ * {@code formatted.pack} holds the formatted contents back to back, and new content is always appended to it.
+ * {@code formatted.idx} is an {@link IndexFile} with one record per dirty file: {@code offset, length, crc32, path},
+ * and is only rewritten by {@link #commit()}, so a task which fails halfway leaves the last good index.
+ * The pack is compacted once it holds more stale content than live content.
+ */
+final class OutputPack extends SpotlessOutputs {
+	static final String PACK = "formatted.pack";
+	static final String INDEX = "formatted.idx";
+	private static final String HEADER = "spotless-pack-v1";
+
+	private final File outputDirectory;
+	private final FileChannel pack;
+	private final boolean writable;
+	private final TreeMap<String, Entry> entries;
+
+	private OutputPack(File outputDirectory, FileChannel pack, boolean writable, TreeMap<String, Entry> entries) {
+		this.outputDirectory = outputDirectory;
+		this.pack = pack;
+		this.writable = writable;
+		this.entries = entries;
+	}
+
+	/** Returns true if the given output directory holds a pack, rather than a mirror of the project's files. */
+	static boolean isPacked(File outputDirectory) {
+		return new File(outputDirectory, INDEX).isFile();
+	}
+
+	/** Opens the pack in the given directory for reading. */
+	static OutputPack read(File outputDirectory) throws IOException {
+		FileChannel pack = FileChannel.open(new File(outputDirectory, PACK).toPath(), StandardOpenOption.READ);
+		try {
+			return new OutputPack(outputDirectory, pack, false, loadIndex(outputDirectory, pack.size()));
+		} catch (IOException | RuntimeException e) {
+			pack.close();
+			throw e;
+		}
+	}
+
+	/** Opens the pack in the given directory for writing, creating it if it doesn't exist yet. */
+	static OutputPack write(File outputDirectory) throws IOException {
+		Files.createDirectories(outputDirectory.toPath());
+		FileChannel pack = FileChannel.open(new File(outputDirectory, PACK).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			TreeMap<String, Entry> entries = isPacked(outputDirectory) ? loadIndex(outputDirectory, pack.size()) : new TreeMap<>();
+			return new OutputPack(outputDirectory, pack, true, entries);
+		} catch (IOException | RuntimeException e) {
+			pack.close();
+			throw e;
+		}
+	}
+
+	@Override
+	synchronized List<String> paths() {
+		return new ArrayList<>(entries.keySet());
+	}
+
+	@Override
+	byte[] read(String path) throws IOException {
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(path);
+		}
+		if (entry == null) {
+			throw new IllegalArgumentException(path + " is not in " + new File(outputDirectory, PACK));
+		}
+		byte[] content = new byte[entry.length];
+		ByteBuffer buffer = ByteBuffer.wrap(content);
+		while (buffer.hasRemaining()) {
+			if (pack.read(buffer, entry.offset + buffer.position()) == -1) {
+				throw corrupt("the pack ends before '" + path + "'");
+			}
+		}
+		if (crc32(content) != entry.crc32) {
+			throw corrupt("the content of '" + path + "' doesn't match its checksum");
+		}
+		return content;
+	}
+
+	@Override
+	void copyTo(String path, File file) throws IOException {
+		// overwrites the content in place, so the file keeps its permissions
+		Files.write(file.toPath(), read(path));
+	}
+
+	/** Appends the formatted content of the given path, which replaces any earlier content. */
+	synchronized void put(String path, byte[] content) throws IOException {
+		requireWritable();
+		if (!IndexFile.canWrite(path)) {
+			throw new IllegalArgumentException("Spotless can't pack '" + path + "' because of the line break in its path, set 'packOutputs = false'");
+		}
+		long offset = pack.size();
+		ByteBuffer buffer = ByteBuffer.wrap(content);
+		while (buffer.hasRemaining()) {
+			pack.write(buffer, offset + buffer.position());
+		}
+		entries.put(path, new Entry(offset, content.length, crc32(content)));
+	}
+
+	/** Removes the given path, which is either clean now or gone. */
+	synchronized void remove(String path) {
+		requireWritable();
+		entries.remove(path);
+	}
+
+	/** Writes the index, after compacting the pack if need be.  Deletes the pack and the index if there aren't any dirty files. */
+	synchronized void commit() throws IOException {
+		requireWritable();
+		Path packFile = new File(outputDirectory, PACK).toPath();
+		Path indexFile = new File(outputDirectory, INDEX).toPath();
+		if (entries.isEmpty()) {
+			pack.close();
+			Files.deleteIfExists(indexFile);
+			Files.deleteIfExists(packFile);
+			return;
+		}
+		long live = 0;
+		for (Entry entry : entries.values()) {
+			live += entry.length;
+		}
+		if (pack.size() - live > live) {
+			compact(packFile);
+		} else {
+			pack.force(false);
+		}
+		List<String[]> records = new ArrayList<>(entries.size());
+		for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+			Entry value = entry.getValue();
+			records.add(new String[]{Long.toString(value.offset), Integer.toString(value.length), Long.toHexString(value.crc32), entry.getKey()});
+		}
+		IndexFile.write(indexFile.toFile(), HEADER, records);
+	}
+
+	/** Copies only the live content to a new pack, in path order. */
+	private void compact(Path packFile) throws IOException {
+		Path tmp = new File(outputDirectory, PACK + ".tmp").toPath();
+		try (FileChannel compacted = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			long offset = 0;
+			for (Map.Entry<String, Entry> entry : entries.entrySet()) {
+				Entry value = entry.getValue();
+				long copied = 0;
+				while (copied < value.length) {
+					copied += pack.transferTo(value.offset + copied, value.length - copied, compacted);
+				}
+				entry.setValue(new Entry(offset, value.length, value.crc32));
+				offset += value.length;
+			}
+			compacted.force(false);
+		}
+		pack.close();
+		Files.move(tmp, packFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	@Override
+	public void close() throws IOException {
+		pack.close();
+	}
+
+	private void requireWritable() {
+		if (!writable) {
+			throw new IllegalStateException(new File(outputDirectory, PACK) + " was opened for reading");
+		}
+	}
+
+	private IOException corrupt(String reason) {
+		return new IOException("Spotless output " + new File(outputDirectory, PACK) + " is corrupt, because " + reason + ".  Run 'clean' and try again.");
+	}
+
+	private static TreeMap<String, Entry> loadIndex(File outputDirectory, long packSize) throws IOException {
+		File index = new File(outputDirectory, INDEX);
+		TreeMap<String, Entry> entries = new TreeMap<>();
+		try {
+			IndexFile.read(index, HEADER, 4, pieces -> {
+				Entry entry = null;
+				if (pieces.length == 4) {
+					try {
+						entry = new Entry(Long.parseLong(pieces[0]), Integer.parseInt(pieces[1]), Long.parseLong(pieces[2], 16));
+					} catch (NumberFormatException e) {
+						// reported below
+					}
+				}
+				if (entry == null || entry.offset < 0 || entry.length < 0 || entry.offset + entry.length > packSize) {
+					throw new IOException("it has an invalid line '" + String.join("\t", pieces) + "'");
+				}
+				entries.put(pieces[3], entry);
+			});
+		} catch (IOException e) {
+			throw new IOException("Spotless output " + index + " is unreadable, because " + e.getMessage() + ".  Run 'clean' and try again.", e);
+		}
+		return entries;
+	}
+
+	private static long crc32(byte[] content) {
+		CRC32 crc = new CRC32();
+		crc.update(content, 0, content.length);
+		return crc.getValue();
+	}
+
+	private static final class Entry {
+		final long offset;
+		final int length;
+		final long crc32;
+
+		Entry(long offset, int length, long crc32) {
+			this.offset = offset;
+			this.length = length;
+			this.crc32 = crc32;
+		}
+	}
+}
@@ -20,12 +20,13 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import org.gradle.api.DefaultTask;
-import org.gradle.api.execution.TaskExecutionGraph;
-import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.Internal;
@@ -34,6 +35,7 @@ import org.gradle.api.tasks.TaskAction;
 import org.gradle.build.event.BuildEventsListenerRegistry;
 
 import com.diffplug.common.base.Preconditions;
+import com.diffplug.gradle.spotless.JvmLocalCache.LiveCache;
 import com.diffplug.common.io.Files;
 import com.diffplug.spotless.FormatterStep;
 
@@ -53,23 +55,19 @@ public abstract class RegisterDependenciesTask extends DefaultTask {
 	@Input
 	public List<FormatterStep> getSteps() {
 		List<FormatterStep> allSteps = new ArrayList<>();
-		TaskExecutionGraph taskGraph = getProject().getGradle().getTaskGraph();
-		tasks.stream()
-				.filter(taskGraph::hasTask)
-				.sorted()
-				.forEach(task -> allSteps.addAll(task.getSteps()));
+		for (LiveCache<List<FormatterStep>> steps : scheduledSteps) {
+			allSteps.addAll(steps.get());
+		}
 		return allSteps;
 	}
 
-	private List<SpotlessTask> tasks = new ArrayList<>();
-
-	@Internal
-	public List<SpotlessTask> getTasks() {
-		return tasks;
-	}
+	/** The steps of every hooked SpotlessTask, sorted by task path. */
+	private final transient Map<String, LiveCache<List<FormatterStep>>> stepsByTaskPath = new TreeMap<>();
+	/** The steps of the hooked SpotlessTasks which are in the task graph, set once the graph is ready. */
+	private List<LiveCache<List<FormatterStep>>> scheduledSteps = new ArrayList<>();
 
 	void hookSubprojectTask(SpotlessTask task) {
-		tasks.add(task);
+		stepsByTaskPath.put(task.getPath(), task.steps);
 		task.dependsOn(this);
 	}
 
@@ -80,7 +78,7 @@ public abstract class RegisterDependenciesTask extends DefaultTask {
 		return unitOutput;
 	}
 
-	GradleProvisioner.RootProvisioner rootProvisioner;
+	transient GradleProvisioner.RootProvisioner rootProvisioner;
 
 	@Internal
 	public GradleProvisioner.RootProvisioner getRootProvisioner() {
@@ -91,9 +89,16 @@ public abstract class RegisterDependenciesTask extends DefaultTask {
 		Preconditions.checkArgument(getProject().getRootProject() == getProject(), "Can only be used on the root project");
 		unitOutput = new File(getProject().getBuildDir(), "tmp/spotless-register-dependencies");
 		rootProvisioner = new GradleProvisioner.RootProvisioner(getProject());
-		Provider<GitRatchetGradle> gitRatchetProvider = getProject().getGradle().getSharedServices().registerIfAbsent("GitRatchetGradle", GitRatchetGradle.class, unused -> {});
-		getBuildEventsListenerRegistry().onTaskCompletion(gitRatchetProvider);
-		getGitRatchet().set(gitRatchetProvider);
+		// only the tasks which are at risk of being executed get their steps evaluated
+		getProject().getGradle().getTaskGraph().whenReady(taskGraph -> {
+			List<LiveCache<List<FormatterStep>>> scheduled = new ArrayList<>();
+			stepsByTaskPath.forEach((path, steps) -> {
+				if (taskGraph.hasTask(path)) {
+					scheduled.add(steps);
+				}
+			});
+			scheduledSteps = scheduled;
+		});
 	}
 
 	@TaskAction
@@ -102,8 +107,16 @@ public abstract class RegisterDependenciesTask extends DefaultTask {
 		Files.write(Integer.toString(getSteps().size()), unitOutput, StandardCharsets.UTF_8);
 	}
 
-	@Internal
-	public abstract Property<GitRatchetGradle> getGitRatchet();
+	/** Registered by the first format which uses ratchet, so that a build which doesn't use it never loads JGit. */
+	private transient @Nullable Provider<GitRatchetGradle> gitRatchet;
+
+	synchronized Provider<GitRatchetGradle> gitRatchet() {
+		if (gitRatchet == null) {
+			gitRatchet = getProject().getGradle().getSharedServices().registerIfAbsent("GitRatchetGradle", GitRatchetGradle.class, unused -> {});
+			getBuildEventsListenerRegistry().onTaskCompletion(gitRatchet);
+		}
+		return gitRatchet;
+	}
 
 	@Inject
 	protected abstract BuildEventsListenerRegistry getBuildEventsListenerRegistry();
@@ -0,0 +1,248 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.workers.WorkerExecutor;
+
+import com.diffplug.spotless.FileSignature;
+import com.diffplug.spotless.Formatter;
+import com.diffplug.spotless.FormatterStep;
+import com.diffplug.spotless.PaddedCell;
+import com.diffplug.spotless.extra.integration.DiffMessageFormatter;
+
+/**
+ * Checks or applies every format of every project in the build from a single task in the root project,
+ * see {@link SpotlessExtension#PROPERTY_AGGREGATE}.  There's no need for a task graph with thousands of tasks,
+ * or for Gradle to fingerprint the steps of each one.  Instead, this task skips every file which was clean the
+ * last time it ran, according to a {@link CleanFileIndex}, and formats the rest on Gradle's workers.  Formats
+ * whose steps are equal share their warm steps through the daemon's {@link FormatterPoolService}.
+ */
+public abstract class SpotlessAggregate extends DefaultTask {
+	private final List<Provider<SpotlessSource>> sources = new ArrayList<>();
+	private final int maxWorkers = getProject().getGradle().getStartParameter().getMaxWorkerCount();
+	private final File indexFile = new File(getProject().getBuildDir(), "spotless/" + getName() + ".idx");
+	/** True for {@code spotlessApplyAll}, false for {@code spotlessCheckAll}. */
+	boolean apply;
+
+	@Inject
+	protected abstract WorkerExecutor getWorkerExecutor();
+
+	void addSource(SpotlessTask source) {
+		sources.add(getProject().provider(source::toSource));
+	}
+
+	@TaskAction
+	public void performAction() throws IOException {
+		CleanFileIndex index = CleanFileIndex.load(indexFile);
+		// sources with equal steps are next to each other, so that they reuse each other's warm steps right away
+		Map<List<FormatterStep>, List<SpotlessSource>> byConfig = new LinkedHashMap<>();
+		for (Provider<SpotlessSource> provider : sources) {
+			SpotlessSource source = provider.get();
+			byConfig.computeIfAbsent(source.steps.get(), unused -> new ArrayList<>()).add(source);
+		}
+		getLogger().info(getPath() + " has " + sources.size() + " formats with " + byConfig.size() + " distinct configurations");
+
+		List<Target> targets = new ArrayList<>();
+		int numSkipped = 0;
+		for (List<SpotlessSource> group : byConfig.values()) {
+			for (SpotlessSource source : group) {
+				String key = CleanFileIndex.keyOf(source);
+				for (File file : source.target) {
+					if (!file.isFile()) {
+						continue;
+					}
+					if (source.isRatchetClean(file)) {
+						continue;
+					}
+					if (!apply && source.sampler != null && !source.sampler.includes(source.rootDir.toPath(), file)) {
+						continue;
+					}
+					if (key != null && index.isClean(key, file, Files.readAttributes(file.toPath(), BasicFileAttributes.class))) {
+						++numSkipped;
+						continue;
+					}
+					targets.add(new Target(source, key, file));
+				}
+			}
+		}
+		getLogger().info(getPath() + " is formatting " + targets.size() + " files, and skipping " + numSkipped + " which haven't changed since they were clean");
+
+		Map<SpotlessSource, Queue<Problem>> problems = new ConcurrentHashMap<>();
+		try {
+			processTargets(chunk(targets), index, problems);
+		} finally {
+			index.save();
+		}
+		if (!problems.isEmpty()) {
+			throw formatViolations(problems);
+		}
+	}
+
+	/**
+	 * Splits the targets into one chunk per worker, keeping every target of a single file in the same chunk,
+	 * so that a file which is targeted by several formats is never written by two threads at once.
+	 */
+	private List<Map<SpotlessSource, List<Target>>> chunk(List<Target> targets) {
+		int numChunks = Math.max(1, Math.min(maxWorkers, targets.size() / SpotlessTaskImpl.MIN_FILES_PER_WORKER));
+		List<Map<SpotlessSource, List<Target>>> chunks = new ArrayList<>(numChunks);
+		for (int i = 0; i < numChunks; ++i) {
+			chunks.add(new LinkedHashMap<>());
+		}
+		Map<File, Integer> chunkOfFile = new HashMap<>();
+		for (Target target : targets) {
+			int chunk = chunkOfFile.computeIfAbsent(target.file, unused -> chunkOfFile.size() % numChunks);
+			chunks.get(chunk).computeIfAbsent(target.source, unused -> new ArrayList<>()).add(target);
+		}
+		return chunks;
+	}
+
+	/** The first chunk is processed by the task's own thread, and the rest by Gradle's workers. */
+	private void processTargets(List<Map<SpotlessSource, List<Target>>> chunks, CleanFileIndex index, Map<SpotlessSource, Queue<Problem>> problems) throws IOException {
+		List<String> keys = new ArrayList<>();
+		try {
+			for (int i = 1; i < chunks.size(); ++i) {
+				Map<SpotlessSource, List<Target>> chunk = chunks.get(i);
+				String key = getPath() + "#" + i;
+				keys.add(key);
+				SpotlessTaskImpl.submitChunk(getWorkerExecutor(), key, () -> processChunk(chunk, index, problems));
+			}
+			processChunk(chunks.get(0), index, problems);
+		} finally {
+			try {
+				getWorkerExecutor().await();
+			} finally {
+				keys.forEach(SpotlessTaskImpl.PENDING_CHUNKS::remove);
+			}
+		}
+	}
+
+	private void processChunk(Map<SpotlessSource, List<Target>> chunk, CleanFileIndex index, Map<SpotlessSource, Queue<Problem>> problems) throws IOException {
+		for (Map.Entry<SpotlessSource, List<Target>> entry : chunk.entrySet()) {
+			SpotlessSource source = entry.getKey();
+			// a fork has its own steps, so that several chunks can format the same source at once
+			Formatter fork = source.buildForkedFormatter();
+			if (fork != null) {
+				try (Formatter formatter = fork) {
+					processTargets(formatter, entry.getValue(), index, problems);
+				}
+			} else {
+				// a custom step can't be forked, so only one chunk at a time can use it
+				synchronized (source) {
+					try (Formatter formatter = source.buildFormatter()) {
+						processTargets(formatter, entry.getValue(), index, problems);
+					}
+				}
+			}
+		}
+	}
+
+	private void processTargets(Formatter formatter, List<Target> targets, CleanFileIndex index, Map<SpotlessSource, Queue<Problem>> problems) throws IOException {
+		for (Target target : targets) {
+			BasicFileAttributes attributes = Files.readAttributes(target.file.toPath(), BasicFileAttributes.class);
+			PaddedCell.DirtyState dirtyState = PaddedCell.calculateDirtyState(formatter, target.file);
+			if (dirtyState.isClean()) {
+				target.markClean(index, attributes);
+			} else if (dirtyState.didNotConverge()) {
+				getLogger().warn("Skipping '" + target.file + "' because it does not converge.  Run {@code spotlessDiagnose} without -P" + SpotlessExtension.PROPERTY_AGGREGATE + " to understand why");
+			} else if (apply) {
+				getLogger().debug("Applying format to " + target.file);
+				dirtyState.writeCanonicalTo(target.file);
+				target.markClean(index, Files.readAttributes(target.file.toPath(), BasicFileAttributes.class));
+			} else {
+				problems.computeIfAbsent(target.source, unused -> new ConcurrentLinkedQueue<>()).add(new Problem(target.file, dirtyState));
+			}
+		}
+	}
+
+	private GradleException formatViolations(Map<SpotlessSource, Queue<Problem>> problems) {
+		List<Map.Entry<SpotlessSource, Queue<Problem>>> entries = new ArrayList<>(problems.entrySet());
+		entries.sort(Comparator.comparing(entry -> entry.getKey().taskPath));
+		List<String> messages = new ArrayList<>(entries.size());
+		for (Map.Entry<SpotlessSource, Queue<Problem>> entry : entries) {
+			Map<File, byte[]> canonical = new HashMap<>();
+			List<File> problemFiles = new ArrayList<>();
+			for (Problem problem : entry.getValue()) {
+				canonical.put(problem.file, problem.dirtyState.canonicalBytes());
+				problemFiles.add(problem.file);
+			}
+			Collections.sort(problemFiles);
+			try (Formatter formatter = entry.getKey().buildFormatter()) {
+				messages.add(DiffMessageFormatter.builder()
+						.runToFix("Run '" + calculateGradleCommand() + " :" + SpotlessExtension.EXTENSION + SpotlessExtension.APPLY + SpotlessExtension.ALL + "' to fix these violations.")
+						.formatter(formatter)
+						.problemFiles(problemFiles)
+						.precomputed(file -> DiffMessageFormatter.RawAndCanonical.of(Files.readAllBytes(file.toPath()), canonical.get(file)))
+						.getMessage());
+			}
+		}
+		return new GradleException(String.join("\n", messages));
+	}
+
+	private static String calculateGradleCommand() {
+		return FileSignature.machineIsWin() ? "gradlew.bat" : "./gradlew";
+	}
+
+	/** A file, and one of the formats which targets it. */
+	private static final class Target {
+		final SpotlessSource source;
+		final @Nullable String key;
+		final File file;
+
+		Target(SpotlessSource source, @Nullable String key, File file) {
+			this.source = source;
+			this.key = key;
+			this.file = file;
+		}
+
+		void markClean(CleanFileIndex index, BasicFileAttributes attributes) {
+			if (key != null) {
+				index.markClean(key, file, attributes);
+			}
+		}
+	}
+
+	private static final class Problem {
+		final File file;
+		final PaddedCell.DirtyState dirtyState;
+
+		Problem(File file, PaddedCell.DirtyState dirtyState) {
+			this.file = file;
+			this.dirtyState = dirtyState;
+		}
+	}
+}
@@ -17,23 +17,22 @@ package com.diffplug.gradle.spotless;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
+import java.util.List;
 
 import org.gradle.api.DefaultTask;
-import org.gradle.api.file.ConfigurableFileTree;
-import org.gradle.api.file.FileVisitDetails;
-import org.gradle.api.file.FileVisitor;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.TaskAction;
 
 public class SpotlessApply extends DefaultTask {
-	private SpotlessTask source;
+	private final Provider<SpotlessTaskService> taskService = SpotlessTaskService.registerIfAbsent(getProject());
+	private String sourcePath;
+	private File projectDir;
 
-	/** Bidirectional link between Apply and Spotless allows check to know if Apply ran or not. */
+	/** Links this apply to the SpotlessTask whose output it copies back into the project. */
 	void linkSource(SpotlessTask source) {
-		this.source = source;
-		source.applyTask = this;
+		this.sourcePath = source.getPath();
+		this.projectDir = source.projectDir;
 	}
 
 	private File spotlessOutDirectory;
@@ -48,29 +47,18 @@ public class SpotlessApply extends DefaultTask {
 	}
 
 	@TaskAction
-	public void performAction() {
-		ConfigurableFileTree files = getProject().fileTree(spotlessOutDirectory);
-		if (files.isEmpty()) {
-			getState().setDidWork(source.getDidWork());
-		} else {
-			files.visit(new FileVisitor() {
-				@Override
-				public void visitDir(FileVisitDetails fileVisitDetails) {
-
-				}
-
-				@Override
-				public void visitFile(FileVisitDetails fileVisitDetails) {
-					String path = fileVisitDetails.getPath();
-					File originalSource = new File(getProject().getProjectDir(), path);
-					try {
-						getLogger().debug("Copying " + fileVisitDetails.getFile() + " to " + originalSource);
-						Files.copy(fileVisitDetails.getFile().toPath(), originalSource.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
-					} catch (IOException e) {
-						throw new RuntimeException(e);
-					}
+	public void performAction() throws IOException {
+		try (SpotlessOutputs outputs = SpotlessOutputs.open(spotlessOutDirectory)) {
+			List<String> paths = outputs.paths();
+			if (paths.isEmpty()) {
+				getState().setDidWork(taskService.get().sourceDidWork(sourcePath));
+			} else {
+				for (String path : paths) {
+					File originalSource = new File(projectDir, path);
+					getLogger().debug("Copying " + path + " from " + spotlessOutDirectory + " to " + originalSource);
+					outputs.copyTo(path, originalSource);
 				}
-			});
+			}
 		}
 	}
 }
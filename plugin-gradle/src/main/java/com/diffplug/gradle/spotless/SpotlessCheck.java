@@ -15,32 +15,35 @@
  */
 package com.diffplug.gradle.spotless;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 
 import org.gradle.api.DefaultTask;
 import org.gradle.api.GradleException;
-import org.gradle.api.file.ConfigurableFileTree;
-import org.gradle.api.file.FileVisitDetails;
-import org.gradle.api.file.FileVisitor;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.TaskAction;
 
 import com.diffplug.spotless.FileSignature;
 import com.diffplug.spotless.Formatter;
-import com.diffplug.spotless.ThrowingEx;
 import com.diffplug.spotless.extra.integration.DiffMessageFormatter;
 
 public class SpotlessCheck extends DefaultTask {
-	SpotlessTask source;
+	private final Provider<SpotlessTaskService> taskService = SpotlessTaskService.registerIfAbsent(getProject());
+	Provider<SpotlessSource> source;
+	/** True if the matching apply is in the task graph, in which case check doesn't need to do anything. */
+	Provider<Boolean> applyIsScheduled;
 	private File spotlessOutDirectory;
 
+	void setSource(SpotlessTask source) {
+		this.source = getProject().provider(source::toSource);
+	}
+
 	@Internal
 	public File getSpotlessOutDirectory() {
 		return spotlessOutDirectory;
@@ -59,74 +62,63 @@ public class SpotlessCheck extends DefaultTask {
 		performAction(false);
 	}
 
-	private void performAction(boolean isTest) {
-		ConfigurableFileTree files = getProject().fileTree(spotlessOutDirectory);
-		if (files.isEmpty()) {
-			getState().setDidWork(source.getDidWork());
-		} else if (!isTest && getProject().getGradle().getTaskGraph().hasTask(source.applyTask)) {
-			// if our matching apply has already run, then we don't need to do anything
-			getState().setDidWork(false);
-		} else {
-			List<File> problemFiles = new ArrayList<>();
-			files.visit(new FileVisitor() {
-				@Override
-				public void visitDir(FileVisitDetails fileVisitDetails) {
-
-				}
-
-				@Override
-				public void visitFile(FileVisitDetails fileVisitDetails) {
-					String path = fileVisitDetails.getPath();
-					File originalSource = new File(getProject().getProjectDir(), path);
-					try {
-						// read the file on disk
-						byte[] userFile = Files.readAllBytes(originalSource.toPath());
-						// and the formatted version from spotlessOutDirectory
-						byte[] formatted;
-						{
-							ByteArrayOutputStream clean = new ByteArrayOutputStream();
-							fileVisitDetails.copyTo(clean);
-							formatted = clean.toByteArray();
-						}
-						// If these two are equal, it means that SpotlessTask left a file
-						// in its output directory which ought to have been removed. As
-						// best I can tell, this is a filesytem race which is very hard
-						// to trigger.  GitRatchetGradleTest can *sometimes* reproduce it
-						// but it's very erratic, and that test writes both to gradle cache
-						// and git cache very quickly.  Either of gradle or jgit might be
-						// caching something wrong because of the fast repeated writes.
-						if (!Arrays.equals(userFile, formatted)) {
-							// If the on-disk content is equal to the formatted content,
-							// just don't add it as a problem file. Easy!
-							problemFiles.add(originalSource);
-						}
-					} catch (IOException e) {
-						throw ThrowingEx.asRuntime(e);
+	private void performAction(boolean isTest) throws IOException {
+		SpotlessSource source = this.source.get();
+		try (SpotlessOutputs outputs = SpotlessOutputs.open(spotlessOutDirectory)) {
+			List<String> paths = outputs.paths();
+			if (paths.isEmpty()) {
+				getState().setDidWork(taskService.get().sourceDidWork(source.taskPath));
+			} else if (!isTest && applyIsScheduled != null && applyIsScheduled.get()) {
+				// if our matching apply has already run, then we don't need to do anything
+				getState().setDidWork(false);
+			} else {
+				List<File> problemFiles = new ArrayList<>();
+				for (String path : paths) {
+					File originalSource = new File(source.projectDir, path);
+					// read the file on disk
+					byte[] userFile = Files.readAllBytes(originalSource.toPath());
+					// and the formatted version from spotlessOutDirectory
+					byte[] formatted = outputs.read(path);
+					// If these two are equal, it means that SpotlessTask left a file
+					// in its output directory which ought to have been removed. As
+					// best I can tell, this is a filesytem race which is very hard
+					// to trigger.  GitRatchetGradleTest can *sometimes* reproduce it
+					// but it's very erratic, and that test writes both to gradle cache
+					// and git cache very quickly.  Either of gradle or jgit might be
+					// caching something wrong because of the fast repeated writes.
+					if (!Arrays.equals(userFile, formatted)) {
+						// If the on-disk content is equal to the formatted content,
+						// just don't add it as a problem file. Easy!
+						problemFiles.add(originalSource);
 					}
 				}
-			});
-			if (!problemFiles.isEmpty()) {
-				try (Formatter formatter = source.buildFormatter()) {
-					Collections.sort(problemFiles);
-					throw formatViolationsFor(formatter, problemFiles);
+				if (!problemFiles.isEmpty()) {
+					try (Formatter formatter = source.buildFormatter()) {
+						throw formatViolationsFor(source, formatter, outputs, problemFiles);
+					}
 				}
 			}
 		}
 	}
 
 	/** Returns an exception which indicates problem files nicely. */
-	private GradleException formatViolationsFor(Formatter formatter, List<File> problemFiles) {
+	private GradleException formatViolationsFor(SpotlessSource source, Formatter formatter, SpotlessOutputs outputs, List<File> problemFiles) {
+		Path projectDir = source.projectDir.toPath();
 		return new GradleException(DiffMessageFormatter.builder()
-				.runToFix("Run '" + calculateGradleCommand() + " " + getTaskPathPrefix() + "spotlessApply' to fix these violations.")
+				.runToFix("Run '" + calculateGradleCommand() + " " + getTaskPathPrefix(source.projectPath) + "spotlessApply' to fix these violations.")
 				.formatter(formatter)
 				.problemFiles(problemFiles)
+				// the formatted content is already in spotlessOutDirectory, so there's no need to format again
+				.precomputed(file -> DiffMessageFormatter.RawAndCanonical.of(
+						Files.readAllBytes(file.toPath()),
+						outputs.read(FileSignature.pathNativeToUnix(projectDir.relativize(file.toPath()).toString()))))
 				.getMessage());
 	}
 
-	private String getTaskPathPrefix() {
-		return getProject().getPath().equals(":")
+	private static String getTaskPathPrefix(String projectPath) {
+		return projectPath.equals(":")
 				? ":"
-				: getProject().getPath() + ":";
+				: projectPath + ":";
 	}
 
 	private static String calculateGradleCommand() {
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Predicate;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+
+import com.diffplug.spotless.FormatDaemon;
+import com.diffplug.spotless.FormatSession;
+import com.diffplug.spotless.ThrowingEx;
+
+/**
+ * Serves every format of a project to IDEs over a local socket until the build is cancelled or a client stops it, see
+ * {@link FormatDaemon} for the protocol.  Unlike {@code -PspotlessIdeHook}, which starts a build for
+ * every file, the formatters stay warm between requests, and requests are served concurrently.
+ * The port and token are written to {@link #getInfoFile()}.  Like {@code spotlessFusedCheck}, it
+ * has no outputs and is never up-to-date.
+ */
+public class SpotlessDaemon extends DefaultTask {
+	private final List<Provider<SpotlessSource>> sources = new ArrayList<>();
+	private final File infoFile = new File(getProject().getBuildDir(), "spotless/daemon.info");
+
+	void addSource(SpotlessTask source) {
+		sources.add(getProject().provider(source::toSource));
+	}
+
+	/** The file which clients read the port and token from. */
+	@Internal
+	public File getInfoFile() {
+		return infoFile;
+	}
+
+	@TaskAction
+	public void performAction() throws IOException {
+		try (FormatSession session = new FormatSession()) {
+			for (Provider<SpotlessSource> provider : sources) {
+				SpotlessSource source = provider.get();
+				// the targets are matched on each request, rather than walking the tree up front
+				session.add(source.name, source.buildFormatter(), Collections.emptyList(), new IsTarget(source));
+			}
+			try (FormatDaemon daemon = FormatDaemon.start(session, infoFile)) {
+				getLogger().lifecycle("Spotless daemon is listening on port " + daemon.getPort() + ", see " + infoFile + ".  Cancel the build or use FormatDaemon.Client.stopDaemon() to stop it.");
+				daemon.awaitClose();
+			} catch (InterruptedException e) {
+				// the build was cancelled
+				Thread.currentThread().interrupt();
+			} finally {
+				if (!infoFile.delete() && infoFile.exists()) {
+					getLogger().warn("Unable to delete " + infoFile);
+				}
+			}
+		}
+	}
+
+	/** A file which is ratchet-clean isn't a target, so it is reported as clean, just like the IDE hook does. */
+	private static class IsTarget implements Predicate<File> {
+		private final SpotlessSource source;
+
+		IsTarget(SpotlessSource source) {
+			this.source = source;
+		}
+
+		@Override
+		public boolean test(File file) {
+			try {
+				// the daemon outlives the ratchet's cache of dirty files, so each file is checked as it is now
+				return source.target.contains(file) && !source.isRatchetCleanNow(file);
+			} catch (IOException e) {
+				throw ThrowingEx.asRuntime(e);
+			}
+		}
+	}
+}
@@ -23,7 +23,8 @@ import java.nio.file.Paths;
 import java.util.Locale;
 
 import org.gradle.api.DefaultTask;
-import org.gradle.api.tasks.Internal;
+import org.gradle.api.file.Directory;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.TaskAction;
 
 import com.diffplug.spotless.Formatter;
@@ -32,19 +33,20 @@ import com.diffplug.spotless.PaddedCell;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 public class SpotlessDiagnoseTask extends DefaultTask {
-	SpotlessTask source;
+	private final Provider<Directory> buildDir = getProject().getLayout().getBuildDirectory();
+	Provider<SpotlessSource> source;
 
-	@Internal
-	public SpotlessTask getSource() {
-		return source;
+	void setSource(SpotlessTask source) {
+		this.source = getProject().provider(source::toSource);
 	}
 
 	@TaskAction
 	@SuppressFBWarnings("NP_NULL_ON_SOME_PATH_FROM_RETURN_VALUE")
 	public void performAction() throws IOException {
-		Path srcRoot = getProject().getProjectDir().toPath();
-		Path diagnoseRoot = getProject().getBuildDir().toPath().resolve("spotless-diagnose-" + source.formatName());
-		getProject().delete(diagnoseRoot.toFile());
+		SpotlessSource source = this.source.get();
+		Path srcRoot = source.projectDir.toPath();
+		Path diagnoseRoot = buildDir.get().getAsFile().toPath().resolve("spotless-diagnose-" + source.formatName());
+		SpotlessTask.deleteRecursively(diagnoseRoot.toFile());
 		try (Formatter formatter = source.buildFormatter()) {
 			for (File file : source.target) {
 				getLogger().debug("Running padded cell check on " + file);
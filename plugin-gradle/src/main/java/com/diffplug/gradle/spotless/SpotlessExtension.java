@@ -29,6 +29,8 @@ import org.gradle.api.GradleException;
 import org.gradle.api.Project;
 
 import com.diffplug.spotless.LineEnding;
+import com.diffplug.spotless.TargetSampler;
+import com.diffplug.spotless.TargetShard;
 
 public abstract class SpotlessExtension {
 	final Project project;
@@ -36,11 +38,22 @@ public abstract class SpotlessExtension {
 	protected static final String TASK_GROUP = "Verification";
 	protected static final String CHECK_DESCRIPTION = "Checks that sourcecode satisfies formatting steps.";
 	protected static final String APPLY_DESCRIPTION = "Applies code formatting steps to sourcecode in-place.";
+	protected static final String FUSED_CHECK_DESCRIPTION = "Checks every format in a single pass, reading each file only once.";
+	protected static final String STAGED_APPLY_DESCRIPTION = "Applies code formatting steps to the content staged in git, for use in a pre-commit hook.";
+	protected static final String WATCH_DESCRIPTION = "Formats every file as soon as it is saved, until the build is cancelled.";
+	protected static final String DAEMON_DESCRIPTION = "Serves every format to IDEs over a local socket, until the build is cancelled or a client stops it.";
+	protected static final String CHECK_ALL_DESCRIPTION = "Checks every format of every project in a single task.";
+	protected static final String APPLY_ALL_DESCRIPTION = "Applies every format of every project in a single task.";
 
 	static final String EXTENSION = "spotless";
 	static final String CHECK = "Check";
 	static final String APPLY = "Apply";
 	static final String DIAGNOSE = "Diagnose";
+	static final String FUSED = "Fused";
+	static final String STAGED = "Staged";
+	static final String ALL = "All";
+	static final String WATCH = "Watch";
+	static final String DAEMON = "Daemon";
 
 	protected SpotlessExtension(Project project) {
 		this.project = requireNonNull(project);
@@ -102,6 +115,88 @@ public abstract class SpotlessExtension {
 		setRatchetFrom(ratchetFrom);
 	}
 
+	/**
+	 * Project property which limits every format to a deterministic sample of its target,
+	 * e.g. {@code -PspotlessSample=10} to check 10% of the files.  Ignored when {@link #setRatchetFrom(String)} is set,
+	 * since that already limits the target to the changed files, and when {@code spotlessApply} is scheduled, since
+	 * apply shouldn't skip files.
+	 */
+	static final String PROPERTY_SAMPLE = "spotlessSample";
+	/** The seed which picks the sample, defaults to 0.  Rotating it between builds eventually covers every file. */
+	static final String PROPERTY_SAMPLE_SEED = "spotlessSampleSeed";
+	/**
+	 * Files changed by a commit within this many hours of {@code HEAD}, or with uncommitted changes, are always
+	 * included in the sample, defaults to 24.
+	 */
+	static final String PROPERTY_SAMPLE_RECENT_HOURS = "spotlessSampleRecentHours";
+
+	/** Returns the sampler requested by the project properties, or null if there isn't one. */
+	@Nullable
+	TargetSampler sampler() {
+		Object percent = project.findProperty(PROPERTY_SAMPLE);
+		if (percent == null) {
+			return null;
+		}
+		Object seed = project.findProperty(PROPERTY_SAMPLE_SEED);
+		Object recentHours = project.findProperty(PROPERTY_SAMPLE_RECENT_HOURS);
+		try {
+			return TargetSampler.of(TargetSampler.parsePercent(percent.toString()),
+					seed == null ? 0 : Long.parseLong(seed.toString().trim()),
+					recentHours == null ? 24 : Long.parseLong(recentHours.toString().trim()));
+		} catch (IllegalArgumentException e) {
+			throw new GradleException("Invalid value for -P" + PROPERTY_SAMPLE + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Project property which limits every format to one of several disjoint shards of its target,
+	 * e.g. {@code -PspotlessShard=2/8} on the second of eight CI agents.
+	 */
+	static final String PROPERTY_SHARD = "spotlessShard";
+	/** If {@code true}, shards are balanced by the size of their files rather than just by path. */
+	static final String PROPERTY_SHARD_BY_SIZE = "spotlessShardBySize";
+
+	/** Returns the shard requested by the project properties, or null if there isn't one. */
+	@Nullable
+	TargetShard shard() {
+		Object shard = project.findProperty(PROPERTY_SHARD);
+		if (shard == null) {
+			return null;
+		}
+		Object bySize = project.findProperty(PROPERTY_SHARD_BY_SIZE);
+		try {
+			return TargetShard.parse(shard.toString(), bySize != null && Boolean.parseBoolean(bySize.toString().trim()));
+		} catch (IllegalArgumentException e) {
+			throw new GradleException("Invalid value for -P" + PROPERTY_SHARD + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Project property which makes {@code spotlessApply} write the formatted files straight back to the sources,
+	 * e.g. {@code -PspotlessApplyDirectly=true} when first adopting a formatter on a big project.  Only takes effect
+	 * for the formats whose check isn't going to run in the same build, since the check needs the formatted copies.
+	 */
+	static final String PROPERTY_APPLY_DIRECTLY = "spotlessApplyDirectly";
+
+	/** Returns true if {@link #PROPERTY_APPLY_DIRECTLY} is set. */
+	boolean applyDirectly() {
+		Object applyDirectly = project.findProperty(PROPERTY_APPLY_DIRECTLY);
+		return applyDirectly != null && Boolean.parseBoolean(applyDirectly.toString().trim());
+	}
+
+	/**
+	 * Project property which replaces the tasks of every format of every project with a single {@code spotlessCheckAll}
+	 * and {@code spotlessApplyAll} in the root project, e.g. {@code spotlessAggregate=true} in the root {@code gradle.properties}
+	 * of a build with hundreds of projects.  Up-to-date checking is then per file rather than per task.
+	 */
+	static final String PROPERTY_AGGREGATE = "spotlessAggregate";
+
+	/** Returns true if {@link #PROPERTY_AGGREGATE} is set. */
+	boolean aggregate() {
+		Object aggregate = project.findProperty(PROPERTY_AGGREGATE);
+		return aggregate != null && Boolean.parseBoolean(aggregate.toString().trim());
+	}
+
 	final Map<String, FormatExtension> formats = new LinkedHashMap<>();
 
 	/** Configures the special java-specific extension. */
@@ -208,6 +303,42 @@ public abstract class SpotlessExtension {
 		this.enforceCheck = enforceCheck;
 	}
 
+	boolean targetsFromGit = false;
+
+	/** Returns {@code true} if string targets are found from the git index rather than by walking the filesystem. */
+	public boolean isTargetsFromGit() {
+		return targetsFromGit;
+	}
+
+	/**
+	 * If {@code true}, targets which are given as patterns (e.g. {@code '**}{@code /*.md'}) are found from the
+	 * git index, plus any untracked files which aren't ignored, rather than by walking the project directory.
+	 * Ignored folders such as {@code node_modules} are never entered, which can be much faster on large repositories.
+	 *
+	 * {@code false} by default.
+	 */
+	public void setTargetsFromGit(boolean targetsFromGit) {
+		this.targetsFromGit = targetsFromGit;
+	}
+
+	boolean packOutputs = false;
+
+	/** Returns {@code true} if the formatted files are kept in a single pack file rather than mirrored one by one. */
+	public boolean isPackOutputs() {
+		return packOutputs;
+	}
+
+	/**
+	 * If {@code true}, each format keeps the formatted content of its dirty files in {@code build/spotless/<task>/formatted.pack}
+	 * plus an index, rather than in one file per dirty file which mirrors the project's folders.  After a formatter upgrade
+	 * there can be tens of thousands of dirty files, which are much faster to write, read and cache as a single file.
+	 *
+	 * {@code false} by default.
+	 */
+	public void setPackOutputs(boolean packOutputs) {
+		this.packOutputs = packOutputs;
+	}
+
 	@SuppressWarnings("unchecked")
 	public <T extends FormatExtension> void format(String name, Class<T> clazz, Action<T> configure) {
 		maybeCreate(name, clazz).lazyActions.add((Action<FormatExtension>) configure);
@@ -15,8 +15,11 @@
  */
 package com.diffplug.gradle.spotless;
 
+import javax.annotation.Nullable;
+
 import org.gradle.api.Action;
 import org.gradle.api.Project;
+import org.gradle.api.execution.TaskExecutionGraph;
 import org.gradle.api.plugins.BasePlugin;
 import org.gradle.api.plugins.JavaBasePlugin;
 import org.gradle.api.tasks.TaskContainer;
@@ -38,6 +41,22 @@ public class SpotlessExtensionImpl extends SpotlessExtension {
 		rootDiagnoseTask = project.getTasks().register(EXTENSION + DIAGNOSE, task -> {
 			task.setGroup(TASK_GROUP); // no description on purpose
 		});
+		fusedCheckTask = project.getTasks().register(EXTENSION + FUSED + CHECK, SpotlessFusedCheck.class, task -> {
+			task.setGroup(TASK_GROUP);
+			task.setDescription(FUSED_CHECK_DESCRIPTION);
+		});
+		stagedApplyTask = project.getTasks().register(EXTENSION + STAGED + APPLY, SpotlessStagedApply.class, task -> {
+			task.setGroup(TASK_GROUP);
+			task.setDescription(STAGED_APPLY_DESCRIPTION);
+		});
+		watchTask = project.getTasks().register(EXTENSION + WATCH, SpotlessWatch.class, task -> {
+			task.setGroup(TASK_GROUP);
+			task.setDescription(WATCH_DESCRIPTION);
+		});
+		daemonTask = project.getTasks().register(EXTENSION + DAEMON, SpotlessDaemon.class, task -> {
+			task.setGroup(TASK_GROUP);
+			task.setDescription(DAEMON_DESCRIPTION);
+		});
 
 		TaskContainer rootProjectTasks = project.getRootProject().getTasks();
 		if (!rootProjectTasks.getNames().contains(RegisterDependenciesTask.TASK_NAME)) {
@@ -46,6 +65,16 @@ public class SpotlessExtensionImpl extends SpotlessExtension {
 			this.registerDependenciesTask = rootProjectTasks.named(RegisterDependenciesTask.TASK_NAME, RegisterDependenciesTask.class);
 		}
 
+		if (aggregate() && !project.hasProperty(IdeHook.PROPERTY)) {
+			checkAllTask = registerAggregate(rootProjectTasks, EXTENSION + CHECK + ALL, false, CHECK_ALL_DESCRIPTION);
+			applyAllTask = registerAggregate(rootProjectTasks, EXTENSION + APPLY + ALL, true, APPLY_ALL_DESCRIPTION);
+			rootCheckTask.configure(task -> task.dependsOn(checkAllTask));
+			rootApplyTask.configure(task -> task.dependsOn(applyAllTask));
+		} else {
+			checkAllTask = null;
+			applyAllTask = null;
+		}
+
 		project.afterEvaluate(unused -> {
 			if (enforceCheck) {
 				project.getTasks().named(JavaBasePlugin.CHECK_TASK_NAME)
@@ -55,6 +84,28 @@ public class SpotlessExtensionImpl extends SpotlessExtension {
 	}
 
 	final TaskProvider<?> rootCheckTask, rootApplyTask, rootDiagnoseTask;
+	final TaskProvider<SpotlessFusedCheck> fusedCheckTask;
+	final TaskProvider<SpotlessStagedApply> stagedApplyTask;
+	final TaskProvider<SpotlessWatch> watchTask;
+	final TaskProvider<SpotlessDaemon> daemonTask;
+	/** Null unless {@link #PROPERTY_AGGREGATE} is set, in which case they replace the tasks of every format. */
+	final @Nullable TaskProvider<SpotlessAggregate> checkAllTask, applyAllTask;
+
+	/** Registers the given aggregate task in the root project, unless another project has already registered it. */
+	private static TaskProvider<SpotlessAggregate> registerAggregate(TaskContainer rootProjectTasks, String name, boolean apply, String description) {
+		if (rootProjectTasks.getNames().contains(name)) {
+			return rootProjectTasks.named(name, SpotlessAggregate.class);
+		}
+		return rootProjectTasks.register(name, SpotlessAggregate.class, task -> {
+			task.setGroup(TASK_GROUP);
+			task.setDescription(description);
+			task.apply = apply;
+			if (!apply) {
+				// if the user runs both, make sure that apply happens first
+				task.mustRunAfter(EXTENSION + APPLY + ALL);
+			}
+		});
+	}
 
 	RegisterDependenciesTask getRegisterDependenciesTask() {
 		return registerDependenciesTask.get();
@@ -85,6 +136,18 @@ public class SpotlessExtensionImpl extends SpotlessExtension {
 			});
 		});
 
+		if (checkAllTask != null && applyAllTask != null) {
+			// the format task is only used to hold the configuration, the aggregate tasks do the work
+			checkAllTask.configure(task -> task.addSource(spotlessTask.get()));
+			applyAllTask.configure(task -> task.addSource(spotlessTask.get()));
+			fusedCheckTask.configure(task -> task.addSource(spotlessTask.get()));
+			stagedApplyTask.configure(task -> task.addSource(spotlessTask.get()));
+			watchTask.configure(task -> task.addSource(spotlessTask.get()));
+		daemonTask.configure(task -> task.addSource(spotlessTask.get()));
+			daemonTask.configure(task -> task.addSource(spotlessTask.get()));
+			return;
+		}
+
 		// create the check and apply control tasks
 		TaskProvider<SpotlessApply> applyTask = tasks.register(taskName + APPLY, SpotlessApply.class, task -> {
 			task.setEnabled(!isIdeHook);
@@ -97,7 +160,7 @@ public class SpotlessExtensionImpl extends SpotlessExtension {
 
 			if (isIdeHook) {
 				// the rootApplyTask is no longer just a marker task, now it does a bit of work itself
-				task.doLast(unused -> IdeHook.performHook(spotlessTask.get()));
+				task.doLast(new IdeHook.HookAction(project, spotlessTask.get()));
 			}
 		});
 
@@ -105,16 +168,34 @@ public class SpotlessExtensionImpl extends SpotlessExtension {
 			task.setEnabled(!isIdeHook);
 			task.dependsOn(spotlessTask);
 			task.setSpotlessOutDirectory(spotlessTask.get().getOutputDirectory());
-			task.source = spotlessTask.get();
+			task.setSource(spotlessTask.get());
+			// the task graph is ready by the time this is queried, including when it is stored in the configuration cache
+			task.applyIsScheduled = project.provider(() -> project.getGradle().getTaskGraph().hasTask(applyTask.get()));
 
 			// if the user runs both, make sure that apply happens first,
 			task.mustRunAfter(applyTask);
 		});
 		rootCheckTask.configure(task -> task.dependsOn(checkTask));
+		String pathPrefix = project.getPath().equals(":") ? ":" : project.getPath() + ":";
+		String applyPath = pathPrefix + applyTask.getName();
+		spotlessTask.configure(task -> task.applyIsScheduled = project.provider(() -> project.getGradle().getTaskGraph().hasTask(applyPath)));
+		if (applyDirectly()) {
+			String checkPath = pathPrefix + checkTask.getName();
+			spotlessTask.configure(task -> task.applyDirectly = project.provider(() -> {
+				TaskExecutionGraph taskGraph = project.getGradle().getTaskGraph();
+				return taskGraph.hasTask(applyPath) && !taskGraph.hasTask(checkPath);
+			}));
+		}
+		fusedCheckTask.configure(task -> {
+			task.addSource(spotlessTask.get());
+			task.mustRunAfter(applyTask);
+		});
+		stagedApplyTask.configure(task -> task.addSource(spotlessTask.get()));
+		watchTask.configure(task -> task.addSource(spotlessTask.get()));
 
 		// create the diagnose task
 		TaskProvider<SpotlessDiagnoseTask> diagnoseTask = tasks.register(taskName + DIAGNOSE, SpotlessDiagnoseTask.class, task -> {
-			task.source = spotlessTask.get();
+			task.setSource(spotlessTask.get());
 			task.mustRunAfter(cleanTask);
 		});
 		rootDiagnoseTask.configure(task -> task.dependsOn(diagnoseTask));
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.GradleException;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.TaskAction;
+
+import com.diffplug.spotless.FileSignature;
+import com.diffplug.spotless.FormatSession;
+import com.diffplug.spotless.PaddedCell;
+import com.diffplug.spotless.extra.integration.DiffMessageFormatter;
+
+/**
+ * Checks every format of a project in a single pass, so that a file which is targeted by
+ * several formats is only read once.  Unlike {@code spotlessCheck}, it has no outputs and
+ * is never up-to-date, which makes it a good fit for one-shot CI builds with many overlapping
+ * formats, and a poor fit for incremental local builds.
+ */
+public class SpotlessFusedCheck extends DefaultTask {
+	private final List<Provider<SpotlessSource>> sources = new ArrayList<>();
+	private final String projectPath = getProject().getPath();
+
+	void addSource(SpotlessTask source) {
+		sources.add(getProject().provider(source::toSource));
+	}
+
+	@TaskAction
+	public void performAction() throws IOException {
+		Map<String, List<File>> problemFiles = new LinkedHashMap<>();
+		Map<File, Map<String, PaddedCell.DirtyState>> dirtyStates = new HashMap<>();
+		try (FormatSession session = new FormatSession()) {
+			for (Provider<SpotlessSource> provider : sources) {
+				SpotlessSource source = provider.get();
+				Path rootDir = source.rootDir.toPath();
+				List<File> files = new ArrayList<>();
+				for (File file : source.target) {
+					if (!file.isFile()) {
+						continue;
+					}
+					if (source.isRatchetClean(file)) {
+						continue;
+					}
+					if (source.sampler != null && !source.sampler.includes(rootDir, file)) {
+						continue;
+					}
+					files.add(file);
+				}
+				session.add(source.name, source.buildFormatter(), files);
+			}
+			for (File file : session.files()) {
+				for (Map.Entry<String, PaddedCell.DirtyState> entry : session.check(file).getStates().entrySet()) {
+					PaddedCell.DirtyState dirtyState = entry.getValue();
+					if (dirtyState.didNotConverge()) {
+						getLogger().warn("Skipping '" + file + "' because it does not converge.  Run {@code spotlessDiagnose} to understand why");
+					} else if (!dirtyState.isClean()) {
+						problemFiles.computeIfAbsent(entry.getKey(), unused -> new ArrayList<>()).add(file);
+						dirtyStates.computeIfAbsent(file, unused -> new HashMap<>()).put(entry.getKey(), dirtyState);
+					}
+				}
+			}
+			if (!problemFiles.isEmpty()) {
+				List<String> messages = new ArrayList<>(problemFiles.size());
+				for (Map.Entry<String, List<File>> entry : problemFiles.entrySet()) {
+					Collections.sort(entry.getValue());
+					messages.add(DiffMessageFormatter.builder()
+							.runToFix("Run '" + calculateGradleCommand() + " " + getTaskPathPrefix() + "spotlessApply' to fix these violations.")
+							.formatter(session.formatter(entry.getKey()))
+							.problemFiles(entry.getValue())
+							.precomputed(file -> DiffMessageFormatter.RawAndCanonical.of(
+									Files.readAllBytes(file.toPath()),
+									dirtyStates.get(file).get(entry.getKey()).canonicalBytes()))
+							.getMessage());
+				}
+				throw new GradleException(String.join("\n", messages));
+			}
+		}
+	}
+
+	private String getTaskPathPrefix() {
+		return projectPath.equals(":")
+				? ":"
+				: projectPath + ":";
+	}
+
+	private static String calculateGradleCommand() {
+		return FileSignature.machineIsWin() ? "gradlew.bat" : "./gradlew";
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import com.diffplug.spotless.FileSignature;
+
+/**
+ * The formatted content of the dirty files, which a {@link SpotlessTask} leaves in its output directory
+ * for the check and apply tasks.  Either a mirror of the project's folders with one file per dirty file,
+ * or an {@link OutputPack} if {@link SpotlessExtension#setPackOutputs(boolean)} is set.
+ */
+abstract class SpotlessOutputs implements Closeable {
+	/** Opens whichever kind of outputs the given directory contains. */
+	static SpotlessOutputs open(File outputDirectory) throws IOException {
+		return OutputPack.isPacked(outputDirectory) ? OutputPack.read(outputDirectory) : new Mirror(outputDirectory);
+	}
+
+	/** Returns the paths of the dirty files, relative to the project directory and with unix separators, sorted. */
+	abstract List<String> paths() throws IOException;
+
+	/** Returns the formatted content of the given path. */
+	abstract byte[] read(String path) throws IOException;
+
+	/** Overwrites the given file with the formatted content of the given path. */
+	abstract void copyTo(String path, File file) throws IOException;
+
+	/** One output file per dirty file, at the same path relative to the output directory as the dirty file has to the project. */
+	static final class Mirror extends SpotlessOutputs {
+		private final File outputDirectory;
+
+		Mirror(File outputDirectory) {
+			this.outputDirectory = outputDirectory;
+		}
+
+		@Override
+		List<String> paths() throws IOException {
+			if (!outputDirectory.isDirectory()) {
+				return Collections.emptyList();
+			}
+			Path root = outputDirectory.toPath();
+			try (Stream<Path> paths = Files.walk(root)) {
+				return paths.filter(Files::isRegularFile)
+						.map(path -> FileSignature.pathNativeToUnix(root.relativize(path).toString()))
+						.sorted()
+						.collect(Collectors.toList());
+			}
+		}
+
+		@Override
+		byte[] read(String path) throws IOException {
+			return Files.readAllBytes(new File(outputDirectory, path).toPath());
+		}
+
+		@Override
+		void copyTo(String path, File file) throws IOException {
+			// the output file was copied from the original, so this keeps the original's attributes
+			Files.copy(new File(outputDirectory, path).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+		}
+
+		@Override
+		public void close() {}
+	}
+}
@@ -15,9 +15,13 @@
  */
 package com.diffplug.gradle.spotless;
 
+import java.io.File;
+
+import org.gradle.api.Action;
 import org.gradle.api.GradleException;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
+import org.gradle.api.Task;
 import org.gradle.api.plugins.BasePlugin;
 
 import com.diffplug.spotless.SpotlessCache;
@@ -48,7 +52,24 @@ public class SpotlessPlugin implements Plugin<Project> {
 		//
 		// we use System.identityHashCode() to avoid a memory leak by hanging on to the reference directly
 		int cacheKey = System.identityHashCode(project.getRootProject());
-		project.getTasks().named(BasePlugin.CLEAN_TASK_NAME).configure(clean -> clean.doLast(unused -> SpotlessCache.clearOnce(cacheKey)));
+		project.getTasks().named(BasePlugin.CLEAN_TASK_NAME).configure(clean -> clean.doLast(new ClearCache(cacheKey)));
+
+		// file signatures (and similar) can be reused by the next daemon
+		SpotlessCache.setPersistentDir(new File(project.getGradle().getGradleUserHomeDir(), "caches/spotless"));
+	}
+
+	/** A class rather than a lambda, so that the configuration cache can store it. */
+	private static class ClearCache implements Action<Task> {
+		private final int cacheKey;
+
+		ClearCache(int cacheKey) {
+			this.cacheKey = cacheKey;
+		}
+
+		@Override
+		public void execute(Task task) {
+			SpotlessCache.clearOnce(cacheKey);
+		}
 	}
 
 	static String capitalize(String input) {
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.gradle.api.file.FileCollection;
+import org.gradle.api.provider.Provider;
+
+import com.diffplug.gradle.spotless.JvmLocalCache.LiveCache;
+import com.diffplug.spotless.FormatExceptionPolicy;
+import com.diffplug.spotless.Formatter;
+import com.diffplug.spotless.FormatterStep;
+import com.diffplug.spotless.LineEnding;
+import com.diffplug.spotless.TargetSampler;
+
+/**
+ * Everything that the check, apply, diagnose and fused tasks need from a {@link SpotlessTask} at execution time.
+ * The configuration cache doesn't allow a task to hold a reference to another task, so they hold one of these instead,
+ * usually behind a {@link Provider} so that it is only captured once the {@link SpotlessTask} has been fully configured.
+ */
+class SpotlessSource {
+	final String name;
+	final String taskPath;
+	final String projectPath;
+	final File projectDir;
+	final File rootDir;
+	final File outputDirectory;
+	final FileCollection target;
+	final String encoding;
+	final FormatExceptionPolicy exceptionPolicy;
+	final LiveCache<LineEnding.Policy> lineEndingsPolicy;
+	final LiveCache<List<FormatterStep>> steps;
+	final @Nullable Provider<GitRatchetGradle> ratchet;
+	final @Nullable String ratchetFrom;
+	/** Resolved from {@link #ratchetFrom} when it's first needed, so the configuration cache never freezes the baseline. */
+	private transient volatile @Nullable String rootTreeSha;
+	final @Nullable TargetSampler sampler;
+	final Provider<FormatterPoolService> formatterPool;
+
+	SpotlessSource(SpotlessTask task) {
+		this.name = task.getName();
+		this.taskPath = task.getPath();
+		this.projectPath = task.projectPath;
+		this.projectDir = task.projectDir;
+		this.rootDir = task.rootDir;
+		this.outputDirectory = task.getOutputDirectory();
+		this.target = task.getTarget();
+		this.encoding = task.getEncoding();
+		this.exceptionPolicy = task.getExceptionPolicy();
+		this.lineEndingsPolicy = task.lineEndingsPolicy;
+		this.steps = task.steps;
+		this.ratchet = task.ratchet;
+		this.ratchetFrom = task.getRatchetFrom();
+		this.sampler = task.getSampler();
+		this.formatterPool = task.formatterPool;
+	}
+
+	/** Returns the name of this format. */
+	String formatName() {
+		return SpotlessTask.formatName(name);
+	}
+
+	/** Returns true if the given file is clean according to the ratchet, or false if there is no ratchet. */
+	boolean isRatchetClean(File file) throws IOException {
+		return ratchet != null && ratchet.get().isCleanSince(projectDir, rootTreeSha(), file);
+	}
+
+	/**
+	 * Like {@link #isRatchetClean(File)}, but checks the file as it is right now, for tasks which run until they are
+	 * cancelled, where a file can be edited after the ratchet has cached which files are dirty.
+	 */
+	boolean isRatchetCleanNow(File file) throws IOException {
+		return ratchet != null && ratchet.get().isCleanNowSince(projectDir, rootTreeSha(), file);
+	}
+
+	private String rootTreeSha() {
+		String result = rootTreeSha;
+		if (result == null) {
+			result = ratchet.get().rootTreeShaNameOf(projectDir, ratchetFrom);
+			rootTreeSha = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Builds a formatter whose steps come from the daemon's pool of warm steps, or are a fork of this source's
+	 * steps if the pool has none, and go back to the pool when the formatter is closed.
+	 */
+	Formatter buildFormatter() {
+		return formatterPool.get().checkOut(newFormatter());
+	}
+
+	/**
+	 * Like {@link #buildFormatter()}, but returns null if a step can't be forked, in which case the formatter
+	 * would share this source's steps, and couldn't be used alongside another formatter from this source.
+	 */
+	@Nullable
+	Formatter buildForkedFormatter() {
+		Formatter formatter = newFormatter();
+		return formatter.fork() == null ? null : formatterPool.get().checkOut(formatter);
+	}
+
+	private Formatter newFormatter() {
+		return Formatter.builder()
+				.lineEndingsPolicy(lineEndingsPolicy.get())
+				.encoding(Charset.forName(encoding))
+				.rootDir(rootDir.toPath())
+				.steps(steps.get())
+				.exceptionPolicy(exceptionPolicy)
+				.build();
+	}
+}
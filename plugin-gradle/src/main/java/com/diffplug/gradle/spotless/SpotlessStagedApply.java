@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.TaskAction;
+
+import com.diffplug.spotless.Formatter;
+import com.diffplug.spotless.PaddedCell;
+import com.diffplug.spotless.extra.GitStagedFormat;
+
+/**
+ * Formats the content which is staged in the git index, for use in a pre-commit hook.
+ * Only the staged files are read, and the formatted content is written back to the index,
+ * as well as to the working tree for every file which isn't partially staged.  Like
+ * {@code spotlessFusedCheck}, it has no outputs and is never up-to-date.
+ */
+public class SpotlessStagedApply extends DefaultTask {
+	private final List<Provider<SpotlessSource>> sources = new ArrayList<>();
+	private final File projectDir = getProject().getProjectDir();
+
+	void addSource(SpotlessTask source) {
+		sources.add(getProject().provider(source::toSource));
+	}
+
+	@TaskAction
+	public void performAction() throws IOException {
+		try (GitStagedFormat staged = GitStagedFormat.open(projectDir)) {
+			List<File> stagedFiles = staged.stagedFiles();
+			if (stagedFiles.isEmpty()) {
+				getLogger().info("Nothing is staged");
+				return;
+			}
+			for (Provider<SpotlessSource> provider : sources) {
+				SpotlessSource source = provider.get();
+				List<File> files = new ArrayList<>();
+				for (File file : stagedFiles) {
+					// a pattern-based target checks the path against its patterns, without walking the tree
+					if (source.target.contains(file)) {
+						files.add(file);
+					}
+				}
+				if (files.isEmpty()) {
+					continue;
+				}
+				try (Formatter formatter = source.buildFormatter()) {
+					for (File file : files) {
+						PaddedCell.DirtyState dirtyState = staged.format(file, formatter);
+						if (dirtyState.didNotConverge()) {
+							getLogger().warn("Skipping '" + file + "' because it does not converge.  Run {@code spotlessDiagnose} to understand why");
+						}
+					}
+				}
+			}
+			GitStagedFormat.Result result = staged.write();
+			for (File file : result.getChangedInIndex()) {
+				if (result.getChangedInWorkTree().contains(file)) {
+					getLogger().lifecycle("Formatted " + file);
+				} else {
+					getLogger().lifecycle("Formatted the staged content of " + file + ", but it has unstaged changes which were left as-is");
+				}
+			}
+		}
+	}
+}
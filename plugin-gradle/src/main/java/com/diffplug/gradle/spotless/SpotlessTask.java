@@ -16,40 +16,53 @@
 package com.diffplug.gradle.spotless;
 
 import java.io.File;
-import java.nio.charset.Charset;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import javax.annotation.Nullable;
 
-import org.eclipse.jgit.lib.ObjectId;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.FileCollection;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.specs.Spec;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.InputFiles;
 import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.Optional;
 import org.gradle.api.tasks.OutputDirectory;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
 import org.gradle.work.Incremental;
 
+import com.diffplug.gradle.spotless.JvmLocalCache.LiveCache;
 import com.diffplug.spotless.FormatExceptionPolicy;
 import com.diffplug.spotless.FormatExceptionPolicyStrict;
 import com.diffplug.spotless.Formatter;
 import com.diffplug.spotless.FormatterStep;
 import com.diffplug.spotless.LineEnding;
+import com.diffplug.spotless.TargetSampler;
+import com.diffplug.spotless.TargetShard;
+import com.diffplug.spotless.ThrowingEx;
+import com.diffplug.spotless.extra.GitRecentFiles;
 
 public class SpotlessTask extends DefaultTask {
-	SpotlessApply applyTask;
-
-	/** Internal use only, allows coordination between check and apply when they are in the same build */
-	@Internal
-	SpotlessApply getApplyTask() {
-		return applyTask;
-	}
+	// captured at configuration time, because the configuration cache doesn't allow the project at execution time
+	final File projectDir = getProject().getProjectDir();
+	final File rootDir = getProject().getRootDir();
+	final String projectPath = getProject().getPath();
+	final Provider<SpotlessTaskService> taskService = SpotlessTaskService.registerIfAbsent(getProject());
+	final Provider<FormatterPoolService> formatterPool = FormatterPoolService.registerIfAbsent(getProject());
 
 	// set by SpotlessExtension, but possibly overridden by FormatExtension
 	protected String encoding = "UTF-8";
@@ -63,48 +76,61 @@ public class SpotlessTask extends DefaultTask {
 		this.encoding = Objects.requireNonNull(encoding);
 	}
 
-	protected LineEnding.Policy lineEndingsPolicy;
+	protected final LiveCache<LineEnding.Policy> lineEndingsPolicy = JvmLocalCache.createLive(this, "lineEndingsPolicy");
 
 	@Input
 	public LineEnding.Policy getLineEndingsPolicy() {
-		return lineEndingsPolicy;
+		return lineEndingsPolicy.get();
 	}
 
 	public void setLineEndingsPolicy(LineEnding.Policy lineEndingsPolicy) {
-		this.lineEndingsPolicy = Objects.requireNonNull(lineEndingsPolicy);
+		this.lineEndingsPolicy.set(Objects.requireNonNull(lineEndingsPolicy));
 	}
 
 	/*** API which performs git up-to-date tasks. */
 	@Nullable
-	GitRatchetGradle ratchet;
+	Provider<GitRatchetGradle> ratchet;
+	/** The reference to ratchet from, which is only resolved once the task needs it, so that JGit isn't loaded otherwise. */
+	@Nullable
+	private String ratchetFrom;
 	/** The sha of the tree at repository root, used for determining if an individual *file* is clean according to git. */
-	ObjectId rootTreeSha;
-	/**
-	 * The sha of the tree at the root of *this project*, used to determine if the git baseline has changed within this folder.
-	 * Using a more fine-grained tree (rather than the project root) allows Gradle to mark more subprojects as up-to-date
-	 * compared to using the project root.
-	 */
-	private ObjectId subtreeSha = ObjectId.zeroId();
+	@Nullable
+	private String rootTreeSha;
 
-	public void setupRatchet(GitRatchetGradle gitRatchet, String ratchetFrom) {
-		ratchet = gitRatchet;
-		rootTreeSha = gitRatchet.rootTreeShaOf(getProject(), ratchetFrom);
-		subtreeSha = gitRatchet.subtreeShaOf(getProject(), rootTreeSha);
+	public void setupRatchet(Provider<GitRatchetGradle> gitRatchet, String ratchetFrom) {
+		this.ratchet = gitRatchet;
+		this.ratchetFrom = ratchetFrom;
+		this.rootTreeSha = null;
 	}
 
 	@Internal
-	GitRatchetGradle getRatchet() {
-		return ratchet;
+	@Nullable
+	String getRatchetFrom() {
+		return ratchetFrom;
 	}
 
 	@Internal
-	ObjectId getRootTreeSha() {
+	@Nullable
+	String getRootTreeSha() {
+		if (ratchet == null) {
+			return null;
+		} else if (rootTreeSha == null) {
+			rootTreeSha = ratchet.get().rootTreeShaNameOf(projectDir, ratchetFrom);
+		}
 		return rootTreeSha;
 	}
 
+	/**
+	 * The sha of the tree at the root of *this project*, used to determine if the git baseline has changed within this folder.
+	 * Using a more fine-grained tree (rather than the project root) allows Gradle to mark more subprojects as up-to-date
+	 * compared to using the project root.  Null if this format doesn't use ratchet.
+	 */
 	@Input
-	public ObjectId getRatchetSha() {
-		return subtreeSha;
+	@Optional
+	@Nullable
+	public String getRatchetSha() {
+		String rootTreeSha = getRootTreeSha();
+		return rootTreeSha == null ? null : ratchet.get().subtreeShaNameOf(projectDir, rootTreeSha);
 	}
 
 	protected FormatExceptionPolicy exceptionPolicy = new FormatExceptionPolicyStrict();
@@ -118,13 +144,87 @@ public class SpotlessTask extends DefaultTask {
 		return exceptionPolicy;
 	}
 
+	/** If non-null, only a sample of the target is formatted, see {@link SpotlessExtension#PROPERTY_SAMPLE}. */
+	protected @Nullable TargetSampler sampler;
+	/** The sampler plus the files which git says changed recently, resolved on first use. */
+	private transient @Nullable TargetSampler resolvedSampler;
+
+	/**
+	 * True if {@code spotlessApply} is scheduled, which turns sampling and sharding off, because apply shouldn't
+	 * skip files without saying so.  A provider, because it depends on the task graph.
+	 */
+	@Nullable
+	Provider<Boolean> applyIsScheduled;
+
+	/**
+	 * The sampler which limits the target, including the files which git says changed recently, or null
+	 * if there isn't one, or if {@code spotlessApply} is scheduled.
+	 */
+	@Input
+	@Optional
+	public @Nullable TargetSampler getSampler() {
+		if (sampler == null || (applyIsScheduled != null && applyIsScheduled.get())) {
+			return null;
+		} else if (resolvedSampler == null) {
+			TargetSampler configured = sampler;
+			resolvedSampler = configured.getRecentHours() == 0 ? configured
+					: configured.withRecent(rootDir.toPath(), ThrowingEx.get(() -> GitRecentFiles.changedWithin(projectDir, configured.getRecentHours())));
+		}
+		return resolvedSampler;
+	}
+
+	public void setSampler(@Nullable TargetSampler sampler) {
+		this.sampler = sampler;
+		this.resolvedSampler = null;
+	}
+
+	/** If non-null, the target is limited to this shard, see {@link SpotlessExtension#PROPERTY_SHARD}. */
+	protected @Nullable TargetShard shard;
+
+	/** The shard which limits the target, or null if there isn't one, or if {@code spotlessApply} is scheduled. */
+	@Input
+	@Optional
+	public @Nullable TargetShard getShard() {
+		return shard == null || (applyIsScheduled != null && applyIsScheduled.get()) ? null : shard;
+	}
+
+	/** Limits the target to the given shard, no matter whether the target is set before or after. */
+	public void setShard(@Nullable TargetShard shard) {
+		this.shard = shard;
+		this.shardedTarget = null;
+	}
+
+	/**
+	 * If true, dirty files are written straight back to the sources rather than to the output directory,
+	 * see {@link SpotlessExtension#PROPERTY_APPLY_DIRECTLY}.  A provider, because it depends on the task graph.
+	 */
+	@Nullable
+	Provider<Boolean> applyDirectly;
+
+	@Input
+	public boolean isApplyDirectly() {
+		return applyDirectly != null && applyDirectly.get();
+	}
+
 	protected FileCollection target;
+	/** The target filtered down to the shard, created on first use. */
+	private transient @Nullable FileCollection shardedTarget;
 
+	/**
+	 * The target, filtered down to the {@link #getShard() shard} if there is one, so that the task's inputs
+	 * (and therefore its up-to-date check and build cache key) only cover the files of this shard.
+	 */
 	@PathSensitive(PathSensitivity.RELATIVE)
 	@Incremental
 	@InputFiles
 	public FileCollection getTarget() {
-		return target;
+		TargetShard shard = getShard();
+		if (shard == null) {
+			return target;
+		} else if (shardedTarget == null) {
+			shardedTarget = target.filter(new ShardSpec(rootDir, shard, shard.isPerFile() ? null : target, getPath()));
+		}
+		return shardedTarget;
 	}
 
 	public void setTarget(Iterable<File> target) {
@@ -133,6 +233,40 @@ public class SpotlessTask extends DefaultTask {
 		} else {
 			this.target = getProject().files(target);
 		}
+		this.shardedTarget = null;
+	}
+
+	/** A class rather than a lambda, so that the configuration cache can serialize it. */
+	private static final class ShardSpec implements Spec<File> {
+		private final File rootDir;
+		private final TargetShard shard;
+		/** Only needed if the shard has to see every file to decide, e.g. to balance by size. */
+		private final @Nullable FileCollection files;
+		/** Breaks ties between shards which are balanced by size. */
+		private final String taskPath;
+		private transient @Nullable Set<File> selected;
+
+		ShardSpec(File rootDir, TargetShard shard, @Nullable FileCollection files, String taskPath) {
+			this.rootDir = rootDir;
+			this.shard = shard;
+			this.files = files;
+			this.taskPath = taskPath;
+		}
+
+		@Override
+		public boolean isSatisfiedBy(File file) {
+			if (files == null) {
+				return shard.includes(rootDir.toPath(), file);
+			}
+			return selected().contains(file);
+		}
+
+		private synchronized Set<File> selected() {
+			if (selected == null) {
+				selected = new HashSet<>(shard.select(rootDir.toPath(), files.getFiles(), taskPath));
+			}
+			return selected;
+		}
 	}
 
 	protected File outputDirectory = new File(getProject().getBuildDir(), "spotless/" + getName());
@@ -142,24 +276,39 @@ public class SpotlessTask extends DefaultTask {
 		return outputDirectory;
 	}
 
-	protected List<FormatterStep> steps = new ArrayList<>();
+	/** If true, the formatted files are kept in a single {@link OutputPack} rather than mirrored one by one. */
+	protected boolean packOutputs = false;
+
+	@Input
+	public boolean isPackOutputs() {
+		return packOutputs;
+	}
+
+	public void setPackOutputs(boolean packOutputs) {
+		this.packOutputs = packOutputs;
+	}
+
+	protected final LiveCache<List<FormatterStep>> steps = JvmLocalCache.createLive(this, "steps", new ArrayList<>());
 
 	@Input
 	public List<FormatterStep> getSteps() {
-		return Collections.unmodifiableList(steps);
+		return Collections.unmodifiableList(steps.get());
 	}
 
 	public void setSteps(List<FormatterStep> steps) {
-		this.steps = PluginGradlePreconditions.requireElementsNonNull(steps);
+		this.steps.set(PluginGradlePreconditions.requireElementsNonNull(steps));
 	}
 
 	public boolean addStep(FormatterStep step) {
-		return this.steps.add(Objects.requireNonNull(step));
+		return this.steps.get().add(Objects.requireNonNull(step));
 	}
 
 	/** Returns the name of this format. */
 	String formatName() {
-		String name = getName();
+		return formatName(getName());
+	}
+
+	static String formatName(String name) {
 		if (name.startsWith(SpotlessExtension.EXTENSION)) {
 			return name.substring(SpotlessExtension.EXTENSION.length()).toLowerCase(Locale.ROOT);
 		} else {
@@ -168,12 +317,27 @@ public class SpotlessTask extends DefaultTask {
 	}
 
 	Formatter buildFormatter() {
-		return Formatter.builder()
-				.lineEndingsPolicy(lineEndingsPolicy)
-				.encoding(Charset.forName(encoding))
-				.rootDir(getProject().getRootDir().toPath())
-				.steps(steps)
-				.exceptionPolicy(exceptionPolicy)
-				.build();
+		return toSource().buildFormatter();
+	}
+
+	/** Deletes the given file, or the given folder and everything in it. */
+	static void deleteRecursively(File file) throws IOException {
+		if (file.isDirectory()) {
+			List<Path> children;
+			try (Stream<Path> paths = Files.walk(file.toPath())) {
+				children = paths.sorted(Comparator.reverseOrder()).collect(Collectors.toList());
+			}
+			// deepest first, so every folder is empty by the time we delete it
+			for (Path child : children) {
+				Files.delete(child);
+			}
+		} else {
+			Files.deleteIfExists(file.toPath());
+		}
+	}
+
+	/** Everything that the other tasks need from this one at execution time, without a reference to this task. */
+	SpotlessSource toSource() {
+		return new SpotlessSource(this);
 	}
 }
@@ -17,64 +17,264 @@ package com.diffplug.gradle.spotless;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.ArrayList;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
 
 import org.gradle.api.GradleException;
+import org.gradle.api.Task;
+import org.gradle.api.provider.Property;
+import org.gradle.api.specs.Spec;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.TaskAction;
 import org.gradle.work.ChangeType;
 import org.gradle.work.FileChange;
 import org.gradle.work.InputChanges;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.gradle.workers.WorkerExecutor;
 
 import com.diffplug.common.base.StringPrinter;
+import com.diffplug.spotless.FileSignature;
 import com.diffplug.spotless.Formatter;
 import com.diffplug.spotless.PaddedCell;
+import com.diffplug.spotless.TargetSampler;
+import com.diffplug.spotless.ThrowingEx;
 
 @CacheableTask
-public class SpotlessTaskImpl extends SpotlessTask {
+public abstract class SpotlessTaskImpl extends SpotlessTask {
+	/** Below this many files per worker, it's faster to format them on one thread than to start each formatter again. */
+	static final int MIN_FILES_PER_WORKER = 200;
+
+	private final int maxWorkers = getProject().getGradle().getStartParameter().getMaxWorkerCount();
+
+	/** Set at the start of every execution, see {@link #isApplyDirectly()}. */
+	private boolean writeDirectly;
+	/** Whether this execution has written any file straight to the sources yet. */
+	private volatile boolean wroteDirectly;
+	/** Open for the duration of an execution if {@link #isPackOutputs()}. */
+	private @Nullable OutputPack pack;
+
+	public SpotlessTaskImpl() {
+		// Gradle fingerprints the inputs before the task runs, so a source which we wrote and which was then changed
+		// back to exactly what Gradle saw would look unchanged; only a run which actually wrote a source distrusts them
+		getOutputs().upToDateWhen(new NoSourceWrittenLastRun());
+		getOutputs().doNotCacheIf("Spotless wrote the formatted files straight to the sources", new AppliedDirectly());
+	}
+
+	/** Classes rather than lambdas, so that the configuration cache can serialize them. */
+	private static final class AppliedDirectly implements Spec<Task> {
+		@Override
+		public boolean isSatisfiedBy(Task task) {
+			return ((SpotlessTask) task).isApplyDirectly();
+		}
+	}
+
+	private static final class NoSourceWrittenLastRun implements Spec<Task> {
+		@Override
+		public boolean isSatisfiedBy(Task task) {
+			return !((SpotlessTaskImpl) task).wroteDirectlyMarker().exists();
+		}
+	}
+
+	/** Exists if the last execution wrote any file straight to the sources. */
+	private File wroteDirectlyMarker() {
+		return new File(getTemporaryDir(), "wrote-directly");
+	}
+
+	private synchronized void markWroteDirectly() throws IOException {
+		if (!wroteDirectly) {
+			Files.write(wroteDirectlyMarker().toPath(), new byte[0]);
+			wroteDirectly = true;
+		}
+	}
+
+	@Inject
+	protected abstract WorkerExecutor getWorkerExecutor();
+
 	@TaskAction
 	public void performAction(InputChanges inputs) throws Exception {
 		if (target == null) {
 			throw new GradleException("You must specify 'Iterable<File> target'");
 		}
 
+		taskService.get().registerSourceRan(getPath());
+		writeDirectly = isApplyDirectly();
+		wroteDirectly = false;
+		Files.deleteIfExists(wroteDirectlyMarker().toPath());
+
 		if (!inputs.isIncremental()) {
 			getLogger().info("Not incremental: removing prior outputs");
-			getProject().delete(outputDirectory);
+			deleteRecursively(outputDirectory);
 			Files.createDirectories(outputDirectory.toPath());
 		}
 
-		try (Formatter formatter = buildFormatter()) {
-			for (FileChange fileChange : inputs.getFileChanges(target)) {
-				File input = fileChange.getFile();
-				if (fileChange.getChangeType() == ChangeType.REMOVED) {
-					deletePreviousResult(input);
-				} else {
-					if (input.isFile()) {
-						processInputFile(formatter, input);
+		pack = packOutputs ? OutputPack.write(outputDirectory) : null;
+		try {
+			processInputChanges(inputs);
+			if (pack != null) {
+				pack.commit();
+			}
+		} finally {
+			if (pack != null) {
+				pack.close();
+				pack = null;
+			}
+		}
+	}
+
+	private void processInputChanges(InputChanges inputs) throws IOException {
+		// files which changed since the last run are always checked, so we only sample a full run
+		TargetSampler sampler = getSampler();
+		boolean sample = sampler != null && !inputs.isIncremental();
+		List<File> skipped = new ArrayList<>();
+		List<File> toFormat = new ArrayList<>();
+		for (FileChange fileChange : inputs.getFileChanges(getTarget())) {
+			File input = fileChange.getFile();
+			if (fileChange.getChangeType() == ChangeType.REMOVED) {
+				deletePreviousResult(input);
+			} else {
+				if (input.isFile()) {
+					if (sample && !sampler.includes(rootDir.toPath(), input)) {
+						skipped.add(input);
+					} else {
+						toFormat.add(input);
 					}
 				}
 			}
 		}
+		try (Formatter formatter = buildFormatter()) {
+			processInputFiles(formatter, toFormat);
+		}
+		if (sample) {
+			reportSample(toFormat.size(), skipped);
+		}
+	}
+
+	/**
+	 * If there are enough files, they are split into chunks which are formatted by Gradle's workers,
+	 * so that {@code --max-workers} governs how many threads a single large task uses.  Every chunk
+	 * but the first gets a {@link Formatter#fork()}, because a {@code FormatterFunc} isn't necessarily
+	 * thread-safe, and the first chunk is formatted by the task's own thread.
+	 */
+	private void processInputFiles(Formatter formatter, List<File> files) throws IOException {
+		int numChunks = Math.min(maxWorkers, files.size() / MIN_FILES_PER_WORKER);
+		List<Formatter> forks = new ArrayList<>();
+		for (int i = 1; i < numChunks; ++i) {
+			Formatter fork = formatter.fork();
+			if (fork == null) {
+				getLogger().info(getPath() + " has a custom step which can't be forked, so it will format on a single thread");
+				break;
+			}
+			// a previous build might have left some warm forks in the pool
+			forks.add(formatterPool.get().checkOut(fork));
+		}
+		if (forks.isEmpty()) {
+			for (File file : files) {
+				processInputFile(formatter, file);
+			}
+			return;
+		}
+		List<List<File>> chunks = new ArrayList<>();
+		for (int i = 0; i <= forks.size(); ++i) {
+			chunks.add(new ArrayList<>());
+		}
+		for (int i = 0; i < files.size(); ++i) {
+			chunks.get(i % chunks.size()).add(files.get(i));
+		}
+		List<String> keys = new ArrayList<>();
+		try {
+			for (int i = 0; i < forks.size(); ++i) {
+				Formatter fork = forks.get(i);
+				List<File> chunk = chunks.get(i + 1);
+				String key = getPath() + "#" + i;
+				keys.add(key);
+				submitChunk(getWorkerExecutor(), key, () -> {
+					for (File file : chunk) {
+						processInputFile(fork, file);
+					}
+				});
+			}
+			for (File file : chunks.get(0)) {
+				processInputFile(formatter, file);
+			}
+		} finally {
+			// the forks can't be closed until every worker is done with them
+			try {
+				getWorkerExecutor().await();
+			} finally {
+				keys.forEach(PENDING_CHUNKS::remove);
+				forks.forEach(Formatter::close);
+			}
+		}
+	}
+
+	/** The chunks which have been submitted to a worker, but not yet picked up by it. */
+	static final Map<String, ThrowingEx.Runnable> PENDING_CHUNKS = new ConcurrentHashMap<>();
+
+	/** Runs the given chunk on one of Gradle's worker threads.  The caller must remove the key from {@link #PENDING_CHUNKS} once the workers are done. */
+	static void submitChunk(WorkerExecutor workerExecutor, String key, ThrowingEx.Runnable chunk) {
+		PENDING_CHUNKS.put(key, chunk);
+		workerExecutor.noIsolation().submit(FormatChunk.class, params -> params.getKey().set(key));
+	}
+
+	/** Formats one chunk of a {@link SpotlessTaskImpl}'s or a {@link SpotlessAggregate}'s files, on one of Gradle's worker threads. */
+	public abstract static class FormatChunk implements WorkAction<FormatChunk.Params> {
+		public interface Params extends WorkParameters {
+			Property<String> getKey();
+		}
+
+		@Override
+		public void execute() {
+			ThrowingEx.Runnable chunk = PENDING_CHUNKS.remove(getParameters().getKey().get());
+			if (chunk == null) {
+				throw new IllegalStateException("No pending chunk for " + getParameters().getKey().get());
+			}
+			ThrowingEx.run(chunk);
+		}
+	}
+
+	private void reportSample(int checked, List<File> skipped) {
+		getLogger().lifecycle(getPath() + " sampled " + getSampler() + ": checked " + checked + " files, skipped " + skipped.size());
+		if (getLogger().isInfoEnabled()) {
+			skipped.sort(Comparator.naturalOrder());
+			for (File file : skipped) {
+				getLogger().info("  skipped " + FormatExtension.relativize(projectDir, file));
+			}
+		}
 	}
 
 	private void processInputFile(Formatter formatter, File input) throws IOException {
 		File output = getOutputFile(input);
 		getLogger().debug("Applying format to " + input + " and writing to " + output);
 		PaddedCell.DirtyState dirtyState;
-		if (ratchet != null && ratchet.isClean(getProject(), rootTreeSha, input)) {
+		if (ratchet != null && ratchet.get().isCleanSince(projectDir, getRootTreeSha(), input)) {
 			dirtyState = PaddedCell.isClean();
 		} else {
 			dirtyState = PaddedCell.calculateDirtyState(formatter, input);
 		}
 		if (dirtyState.isClean()) {
 			// Remove previous output if it exists
-			Files.deleteIfExists(output.toPath());
+			deleteOutput(input, output);
 		} else if (dirtyState.didNotConverge()) {
 			getLogger().warn("Skipping '" + input + "' because it does not converge.  Run {@code spotlessDiagnose} to understand why");
+		} else if (writeDirectly) {
+			deleteOutput(input, output);
+			getLogger().debug("Writing " + input + " directly");
+			markWroteDirectly();
+			writeAtomically(input, dirtyState);
+		} else if (pack != null) {
+			pack.put(getPackPath(input), dirtyState.canonicalBytes());
 		} else {
 			Path parentDir = output.toPath().getParent();
 			if (parentDir == null) {
@@ -87,27 +287,65 @@ public class SpotlessTaskImpl extends SpotlessTask {
 		}
 	}
 
-	private void deletePreviousResult(File input) throws IOException {
-		File output = getOutputFile(input);
-		if (output.isDirectory()) {
-			Files.walk(output.toPath())
-					.sorted(Comparator.reverseOrder())
-					.map(Path::toFile)
-					.forEach(File::delete);
+	/** Writes through a temp file and a rename, so that the source is never half-written, and keeps its permissions. */
+	private static void writeAtomically(File file, PaddedCell.DirtyState dirtyState) throws IOException {
+		Path path = file.toPath();
+		if (Files.isSymbolicLink(path)) {
+			// a rename would replace the link with a regular file
+			dirtyState.writeCanonicalTo(file);
+			return;
+		}
+		Path tmp = path.resolveSibling("." + path.getFileName() + ".spotless-tmp");
+		try {
+			Files.write(tmp, dirtyState.canonicalBytes());
+			if (Files.getFileStore(path).supportsFileAttributeView(PosixFileAttributeView.class)) {
+				Files.setPosixFilePermissions(tmp, Files.getPosixFilePermissions(path));
+			}
+			try {
+				Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (AtomicMoveNotSupportedException e) {
+				Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING);
+			}
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	private void deleteOutput(File input, File output) throws IOException {
+		if (pack != null) {
+			pack.remove(getPackPath(input));
 		} else {
 			Files.deleteIfExists(output.toPath());
 		}
 	}
 
+	private void deletePreviousResult(File input) throws IOException {
+		if (pack != null) {
+			pack.remove(getPackPath(input));
+		} else {
+			deleteRecursively(getOutputFile(input));
+		}
+	}
+
+	/** The path of the given input within the pack, relative to the project and with unix separators. */
+	private String getPackPath(File input) {
+		String path = FileSignature.pathNativeToUnix(getOutputPath(input));
+		return path.startsWith("/") ? path.substring(1) : path;
+	}
+
 	private File getOutputFile(File input) {
-		String outputFileName = FormatExtension.relativize(getProject().getProjectDir(), input);
+		return new File(outputDirectory, getOutputPath(input));
+	}
+
+	private String getOutputPath(File input) {
+		String outputFileName = FormatExtension.relativize(projectDir, input);
 		if (outputFileName == null) {
 			throw new IllegalArgumentException(StringPrinter.buildString(printer -> {
-				printer.println("Spotless error! All target files must be within the project root. In project " + getProject().getPath());
-				printer.println("  root dir: " + getProject().getProjectDir().getAbsolutePath());
+				printer.println("Spotless error! All target files must be within the project root. In project " + projectPath);
+				printer.println("  root dir: " + projectDir.getAbsolutePath());
 				printer.println("    target: " + input.getAbsolutePath());
 			}));
 		}
-		return new File(outputDirectory, outputFileName);
+		return outputFileName;
 	}
 }
@@ -0,0 +1,46 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Lets the check and apply tasks know whether their {@link SpotlessTask} did any work in this build,
+ * without holding a reference to the task itself, which the configuration cache doesn't allow.
+ */
+public abstract class SpotlessTaskService implements BuildService<BuildServiceParameters.None> {
+	static final String NAME = "SpotlessTaskService";
+
+	static Provider<SpotlessTaskService> registerIfAbsent(Project project) {
+		return project.getGradle().getSharedServices().registerIfAbsent(NAME, SpotlessTaskService.class, unused -> {});
+	}
+
+	private final Set<String> sourcesWhichRan = ConcurrentHashMap.newKeySet();
+
+	void registerSourceRan(String sourcePath) {
+		sourcesWhichRan.add(sourcePath);
+	}
+
+	boolean sourceDidWork(String sourcePath) {
+		return sourcesWhichRan.contains(sourcePath);
+	}
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.gradle.api.DefaultTask;
+import org.gradle.api.Project;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.TaskAction;
+import org.gradle.api.tasks.options.Option;
+
+import com.diffplug.spotless.FormatSession;
+import com.diffplug.spotless.FormatWatcher;
+import com.diffplug.spotless.PaddedCell;
+
+/**
+ * Keeps every format of a project warm, and formats each target as soon as it is saved,
+ * until the build is cancelled.  With {@code --check}, files are only checked and each
+ * violation is logged.  A change to a file which a step depends on (e.g. an eclipse config
+ * file) is picked up by creating only that step again, but a change to the buildscript
+ * needs a restart.  Like {@code spotlessFusedCheck}, it has no outputs and is never up-to-date.
+ */
+public class SpotlessWatch extends DefaultTask {
+	private final List<Provider<SpotlessSource>> sources = new ArrayList<>();
+	private final File projectDir = getProject().getProjectDir();
+	/** The build folders of this project and its subprojects, which are never watched, resolved once every project has been configured. */
+	private final Provider<List<File>> buildDirs = getProject().provider(new BuildDirs(getProject()));
+	private boolean check;
+
+	void addSource(SpotlessTask source) {
+		sources.add(getProject().provider(source::toSource));
+	}
+
+	@Internal
+	public boolean isCheck() {
+		return check;
+	}
+
+	@Option(option = "check", description = "Only checks the files which are saved, rather than formatting them.")
+	public void setCheck(boolean check) {
+		this.check = check;
+	}
+
+	@TaskAction
+	public void performAction() throws IOException {
+		try (FormatSession session = new FormatSession()) {
+			for (Provider<SpotlessSource> provider : sources) {
+				SpotlessSource source = provider.get();
+				List<File> files = new ArrayList<>();
+				for (File file : source.target) {
+					if (file.isFile()) {
+						files.add(file);
+					}
+				}
+				// a pattern-based target checks the path of a new file against its patterns, without walking the tree
+				session.add(source.name, source.buildFormatter(), files, source.target::contains);
+			}
+			try (FormatWatcher watcher = FormatWatcher.watch(session, !check, new Listener(), Collections.singletonList(projectDir), buildDirs.get())) {
+				getLogger().lifecycle("Watching " + session.files().size() + " files for changes, cancel the build to stop.");
+				watcher.run();
+			} catch (InterruptedException e) {
+				// the build was cancelled, which is the only way to stop watching
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/** A class rather than a lambda, so that the configuration cache can serialize the provider. */
+	private static final class BuildDirs implements Callable<List<File>> {
+		private final transient Project project;
+
+		BuildDirs(Project project) {
+			this.project = project;
+		}
+
+		@Override
+		public List<File> call() {
+			List<File> buildDirs = new ArrayList<>();
+			for (Project each : project.getAllprojects()) {
+				buildDirs.add(each.getBuildDir());
+			}
+			return buildDirs;
+		}
+	}
+
+	private class Listener implements FormatWatcher.Listener {
+		@Override
+		public void formatted(FormatSession.Result result) {
+			for (Map.Entry<String, PaddedCell.DirtyState> entry : result.getStates().entrySet()) {
+				PaddedCell.DirtyState dirtyState = entry.getValue();
+				if (dirtyState.didNotConverge()) {
+					getLogger().warn("Skipping '" + result.getFile() + "' because it does not converge.  Run {@code spotlessDiagnose} to understand why");
+				} else if (dirtyState.isClean()) {
+					continue;
+				} else if (check) {
+					getLogger().warn("The following file had format violations for '" + entry.getKey() + "': " + result.getFile());
+				} else {
+					getLogger().lifecycle("Formatted " + result.getFile() + " with '" + entry.getKey() + "'");
+				}
+			}
+		}
+
+		@Override
+		public void refreshed(List<String> formatNames) {
+			getLogger().lifecycle("Reloaded the configuration of " + formatNames);
+		}
+
+		@Override
+		public void failed(File file, Exception e) {
+			getLogger().error("Unable to format " + file, e);
+		}
+	}
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.assertj.core.api.Assertions;
+import org.gradle.testkit.runner.BuildResult;
+import org.junit.jupiter.api.Test;
+
+class AggregateTest extends GradleIntegrationHarness {
+	private void writeBuild() throws IOException {
+		setFile("settings.gradle").toLines("include 'a', 'b'");
+		setFile("gradle.properties").toLines("spotlessAggregate=true");
+		setFile("build.gradle").toLines();
+		for (String project : new String[]{"a", "b"}) {
+			setFile(project + "/build.gradle").toLines(
+					"plugins {",
+					"    id 'com.diffplug.spotless'",
+					"}",
+					"spotless {",
+					"    format 'misc', {",
+					"        target '*.md'",
+					"        custom 'lowercase', { str -> str.toLowerCase(Locale.ROOT) }",
+					"        bumpThisNumberIfACustomStepChanges(1)",
+					"    }",
+					"}");
+		}
+	}
+
+	@Test
+	void checkAndApplyEveryProjectFromTheRoot() throws IOException {
+		writeBuild();
+		setFile("a/README.md").toContent("ABC");
+		setFile("b/README.md").toContent("clean");
+
+		String failure = gradleRunner().withArguments("spotlessCheckAll").buildAndFail().getOutput();
+		Assertions.assertThat(failure).contains("a/README.md").doesNotContain("b/README.md").contains(":spotlessApplyAll");
+
+		gradleRunner().withArguments("spotlessApplyAll").build();
+		assertFile("a/README.md").hasContent("abc");
+		assertFile("b/README.md").hasContent("clean");
+
+		// each project's spotlessCheck is just the aggregate, without any per-format tasks
+		BuildResult result = gradleRunner().withArguments("spotlessCheck").build();
+		Assertions.assertThat(result.task(":spotlessCheckAll")).isNotNull();
+		Assertions.assertThat(result.task(":a:spotlessMisc")).isNull();
+		Assertions.assertThat(result.task(":a:spotlessMiscCheck")).isNull();
+
+		// both files are known to be clean now
+		List<String> index = Files.readAllLines(newFile("build/spotless/spotlessCheckAll.idx").toPath());
+		Assertions.assertThat(index).hasSize(3);
+
+		// so only a changed file is formatted again
+		setFile("b/README.md").toContent("DIRTY");
+		failure = gradleRunner().withArguments("spotlessCheckAll").buildAndFail().getOutput();
+		Assertions.assertThat(failure).contains("b/README.md").doesNotContain("a/README.md");
+	}
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.assertj.core.api.Assertions;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.Test;
+
+class ApplyDirectlyTest extends GradleIntegrationHarness {
+	private void writeBuildFile() throws IOException {
+		setFile("build.gradle").toLines(
+				"plugins {",
+				"    id 'com.diffplug.spotless'",
+				"}",
+				"spotless {",
+				"    format 'misc', {",
+				"        target file('README.md')",
+				"        custom 'lowercase', { str -> str.toLowerCase(Locale.ROOT) }",
+				"        bumpThisNumberIfACustomStepChanges(1)",
+				"    }",
+				"}");
+	}
+
+	@Test
+	void writesStraightToTheSource() throws IOException {
+		writeBuildFile();
+		setFile("README.md").toContent("ABC");
+		gradleRunner().withArguments("spotlessApply", "-PspotlessApplyDirectly=true").build();
+		assertFile("README.md").hasContent("abc");
+		Assertions.assertThat(new File(rootFolder(), "build/spotless/spotlessMisc/README.md")).doesNotExist();
+
+		// changing the file back to EXACTLY its original content still gets it formatted again
+		setFile("README.md").toContent("ABC");
+		pauseForFilesystem();
+		BuildResult buildResult = gradleRunner().withArguments("spotlessApply", "-PspotlessApplyDirectly=true").build();
+		Assertions.assertThat(buildResult.taskPaths(TaskOutcome.UP_TO_DATE)).isEmpty();
+		assertFile("README.md").hasContent("abc");
+
+		// and a regular check agrees
+		gradleRunner().withArguments("spotlessCheck").build();
+	}
+
+	@Test
+	void upToDateOnceNothingIsWritten() throws IOException {
+		writeBuildFile();
+		setFile("README.md").toContent("ABC");
+		gradleRunner().withArguments("spotlessApply", "-PspotlessApplyDirectly=true").build();
+		assertFile("README.md").hasContent("abc");
+
+		// the run after a write checks everything again, but writes nothing
+		BuildResult buildResult = gradleRunner().withArguments("spotlessApply", "-PspotlessApplyDirectly=true").build();
+		Assertions.assertThat(buildResult.taskPaths(TaskOutcome.UP_TO_DATE)).doesNotContain(":spotlessMisc");
+		// so the run after that is up-to-date
+		buildResult = gradleRunner().withArguments("spotlessApply", "-PspotlessApplyDirectly=true").build();
+		Assertions.assertThat(buildResult.taskPaths(TaskOutcome.UP_TO_DATE)).contains(":spotlessMisc");
+		assertFile("README.md").hasContent("abc");
+	}
+
+	@Test
+	void usesTheOutputDirectoryWhenCheckRunsToo() throws IOException {
+		writeBuildFile();
+		setFile("README.md").toContent("ABC");
+		gradleRunner().withArguments("spotlessCheck", "spotlessApply", "-PspotlessApplyDirectly=true").build();
+		assertFile("README.md").hasContent("abc");
+		assertFile("build/spotless/spotlessMisc/README.md").hasContent("abc");
+	}
+}
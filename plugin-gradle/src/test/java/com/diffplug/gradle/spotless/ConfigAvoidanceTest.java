@@ -56,4 +56,24 @@ class ConfigAvoidanceTest extends GradleIntegrationHarness {
 		String check = gradleRunner().withArguments("check").buildAndFail().getOutput();
 		Assertions.assertThat(check).contains("Canary was configured", "Canary ran", "Execution failed for task ':spotlessJavaCheck'");
 	}
+
+	@Test
+	void ratchetIsOnlyResolvedWhenScheduled() throws IOException {
+		setFile("build.gradle").toLines(
+				"plugins {",
+				"    id 'com.diffplug.spotless'",
+				"}",
+				"spotless {",
+				"    ratchetFrom 'no-such-ref'",
+				"    format 'misc', {",
+				"        target '*.md'",
+				"        trimTrailingWhitespace()",
+				"    }",
+				"}");
+		setFile("README.md").toContent("abc");
+
+		// listing the tasks configures them, but doesn't need the ratchet
+		gradleRunner().withArguments("tasks", "--all").build();
+		gradleRunner().withArguments("spotlessCheck").buildAndFail();
+	}
 }
@@ -66,4 +66,26 @@ public class ConfigurationCacheTest extends GradleIntegrationHarness {
 				"tasks.named('spotlessJavaApply').get()");
 		runTasks("help");
 	}
+
+	@Test
+	public void checkAndApplyWithConfigurationCache() throws IOException {
+		setFile("build.gradle").toLines(
+				"plugins {",
+				"    id 'com.diffplug.spotless'",
+				"}",
+				"spotless {",
+				"    format 'misc', {",
+				"        target 'test.md'",
+				"        trimTrailingWhitespace()",
+				"    }",
+				"}");
+		setFile("test.md").toContent("dirty  ");
+		// once to store the configuration cache, and again to reuse it
+		runTasks("spotlessApply");
+		assertFile("test.md").hasContent("dirty");
+		setFile("test.md").toContent("dirty again  ");
+		runTasks("spotlessApply");
+		assertFile("test.md").hasContent("dirty again");
+		runTasks("spotlessCheck");
+	}
 }
@@ -17,6 +17,8 @@ package com.diffplug.gradle.spotless;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -29,8 +31,10 @@ import org.junit.jupiter.api.Test;
 
 import com.diffplug.common.base.StringPrinter;
 import com.diffplug.spotless.FileSignature;
+import com.diffplug.spotless.Formatter;
 import com.diffplug.spotless.FormatterStep;
 import com.diffplug.spotless.LineEnding;
+import com.diffplug.spotless.PaddedCell;
 import com.diffplug.spotless.ResourceHarness;
 import com.diffplug.spotless.TestProvisioner;
 import com.diffplug.spotless.extra.integration.DiffMessageFormatter;
@@ -59,7 +63,7 @@ class DiffMessageFormatterTest extends ResourceHarness {
 
 		private SpotlessCheck createCheckTask(String name, SpotlessTask source) {
 			SpotlessCheck task = project.getTasks().create("spotless" + SpotlessPlugin.capitalize(name) + "Check", SpotlessCheck.class);
-			task.source = source;
+			task.setSource(source);
 			task.setSpotlessOutDirectory(source.getOutputDirectory());
 			return task;
 		}
@@ -303,6 +307,37 @@ class DiffMessageFormatterTest extends ResourceHarness {
 				"Violations also present in " + DiffMessageFormatter.MAX_FILES_TO_LIST + " other files.");
 	}
 
+	@Test
+	void precomputedMatchesFormatter() throws Exception {
+		List<File> testFiles = new ArrayList<>();
+		for (int i = 0; i < 3 * DiffMessageFormatter.MAX_FILES_TO_LIST; ++i) {
+			String fileName = String.format("%02d", i) + ".txt";
+			testFiles.add(setFile(fileName).toContent(i % 2 == 0 ? "1\r\n2\r\n" : "A \nB\t\n"));
+		}
+		try (Formatter formatter = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(rootFolder().toPath())
+				.steps(Collections.singletonList(FormatterStep.createNeverUpToDate("trim", input -> input.replace(" ", "").replace("\t", ""))))
+				.build()) {
+			String fromFormatter = DiffMessageFormatter.builder()
+					.runToFix("fix")
+					.formatter(formatter)
+					.problemFiles(testFiles)
+					.getMessage();
+			String fromPrecomputed = DiffMessageFormatter.builder()
+					.runToFix("fix")
+					.formatter(formatter)
+					.problemFiles(testFiles)
+					.precomputed(file -> {
+						byte[] raw = Files.readAllBytes(file.toPath());
+						return DiffMessageFormatter.RawAndCanonical.of(raw, PaddedCell.calculateDirtyState(formatter, file, raw).canonicalBytes());
+					})
+					.getMessage();
+			Assertions.assertThat(fromPrecomputed).isEqualTo(fromFormatter);
+		}
+	}
+
 	@Test
 	void longFile() throws Exception {
 		StringBuilder builder = new StringBuilder();
@@ -16,8 +16,11 @@
 package com.diffplug.gradle.spotless;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 
+import org.assertj.core.api.Assertions;
 import org.gradle.api.Project;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -25,6 +28,7 @@ import org.junit.jupiter.api.Test;
 import com.diffplug.spotless.FormatterStep;
 import com.diffplug.spotless.LineEnding;
 import com.diffplug.spotless.ResourceHarness;
+import com.diffplug.spotless.TargetShard;
 import com.diffplug.spotless.TestProvisioner;
 
 class FormatTaskTest extends ResourceHarness {
@@ -59,4 +63,24 @@ class FormatTaskTest extends ResourceHarness {
 
 		assertFile(outputFile).hasContent("aple");
 	}
+
+	@Test
+	void testShardIsAppliedWhicheverIsSetFirst() throws Exception {
+		List<File> files = new ArrayList<>();
+		for (int i = 0; i < 20; ++i) {
+			files.add(setFile("testFile" + i).toContent("apple"));
+		}
+		TargetShard shard = TargetShard.parse("1/4", false);
+		List<File> expected = shard.select(rootFolder().toPath(), files);
+
+		spotlessTask.setShard(shard);
+		spotlessTask.setTarget(files);
+		Assertions.assertThat(spotlessTask.getTarget().getFiles()).containsExactlyInAnyOrderElementsOf(expected);
+
+		spotlessTask.setShard(null);
+		Assertions.assertThat(spotlessTask.getTarget().getFiles()).containsExactlyInAnyOrderElementsOf(files);
+
+		spotlessTask.setShard(shard);
+		Assertions.assertThat(spotlessTask.getTarget().getFiles()).containsExactlyInAnyOrderElementsOf(expected);
+	}
 }
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.assertj.core.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+class OutputPackTest extends GradleIntegrationHarness {
+	@Test
+	void putReplaceAndRemove() throws IOException {
+		File dir = newFile("pack");
+		try (OutputPack pack = OutputPack.write(dir)) {
+			pack.put("src/b.txt", bytes("b"));
+			pack.put("a.txt", bytes("a"));
+			pack.commit();
+		}
+		assertContent(dir, "a.txt", "a");
+		assertContent(dir, "src/b.txt", "b");
+
+		try (OutputPack pack = OutputPack.write(dir)) {
+			pack.put("src/b.txt", bytes("b2"));
+			pack.remove("a.txt");
+			pack.commit();
+		}
+		try (SpotlessOutputs outputs = SpotlessOutputs.open(dir)) {
+			Assertions.assertThat(outputs.paths()).containsExactly("src/b.txt");
+		}
+		assertContent(dir, "src/b.txt", "b2");
+
+		// without any dirty files, there's nothing left
+		try (OutputPack pack = OutputPack.write(dir)) {
+			pack.remove("src/b.txt");
+			pack.commit();
+		}
+		Assertions.assertThat(dir.list()).isEmpty();
+	}
+
+	@Test
+	void uncommittedChangesAreDiscarded() throws IOException {
+		File dir = newFile("pack");
+		try (OutputPack pack = OutputPack.write(dir)) {
+			pack.put("a.txt", bytes("a"));
+			pack.commit();
+		}
+		try (OutputPack pack = OutputPack.write(dir)) {
+			pack.put("a.txt", bytes("changed"));
+			pack.put("b.txt", bytes("b"));
+		}
+		try (SpotlessOutputs outputs = SpotlessOutputs.open(dir)) {
+			Assertions.assertThat(outputs.paths()).containsExactly("a.txt");
+		}
+		assertContent(dir, "a.txt", "a");
+	}
+
+	@Test
+	void compactsOnceMostlyStale() throws IOException {
+		File dir = newFile("pack");
+		for (int i = 0; i < 10; ++i) {
+			try (OutputPack pack = OutputPack.write(dir)) {
+				pack.put("a.txt", bytes("0123456789"));
+				pack.commit();
+			}
+		}
+		Assertions.assertThat(new File(dir, OutputPack.PACK).length()).isLessThanOrEqualTo(20);
+		assertContent(dir, "a.txt", "0123456789");
+	}
+
+	@Test
+	void corruptionIsDetected() throws IOException {
+		File dir = newFile("pack");
+		try (OutputPack pack = OutputPack.write(dir)) {
+			pack.put("a.txt", bytes("a"));
+			pack.commit();
+		}
+		try (RandomAccessFile file = new RandomAccessFile(new File(dir, OutputPack.PACK), "rw")) {
+			file.write('z');
+		}
+		try (SpotlessOutputs outputs = SpotlessOutputs.open(dir)) {
+			Assertions.assertThatThrownBy(() -> outputs.read("a.txt"))
+					.isInstanceOf(IOException.class)
+					.hasMessageContaining("doesn't match its checksum");
+		}
+	}
+
+	@Test
+	void checkAndApply() throws IOException {
+		setFile("build.gradle").toLines(
+				"plugins {",
+				"    id 'com.diffplug.spotless'",
+				"}",
+				"spotless {",
+				"    packOutputs = true",
+				"    format 'misc', {",
+				"        target '**/*.md'",
+				"        custom 'lowercase', { str -> str.toLowerCase(Locale.ROOT) }",
+				"        bumpThisNumberIfACustomStepChanges(1)",
+				"    }",
+				"}");
+		setFile("README.md").toContent("ABC");
+		setFile("docs/clean.md").toContent("clean");
+		setFile("docs/dirty.md").toContent("DIRTY");
+
+		gradleRunner().withArguments("spotlessCheck").buildAndFail();
+		Assertions.assertThat(newFile("build/spotless/spotlessMisc").list())
+				.containsExactlyInAnyOrder(OutputPack.PACK, OutputPack.INDEX);
+
+		gradleRunner().withArguments("spotlessApply").build();
+		assertFile("README.md").hasContent("abc");
+		assertFile("docs/clean.md").hasContent("clean");
+		assertFile("docs/dirty.md").hasContent("dirty");
+
+		gradleRunner().withArguments("spotlessCheck").build();
+	}
+
+	private static byte[] bytes(String content) {
+		return content.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static void assertContent(File dir, String path, String expected) throws IOException {
+		try (SpotlessOutputs outputs = SpotlessOutputs.open(dir)) {
+			Assertions.assertThat(new String(outputs.read(path), StandardCharsets.UTF_8)).isEqualTo(expected);
+		}
+	}
+}
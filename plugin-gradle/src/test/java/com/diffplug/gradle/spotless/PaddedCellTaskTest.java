@@ -64,7 +64,7 @@ class PaddedCellTaskTest extends ResourceHarness {
 
 		private SpotlessCheck createCheckTask(String name, SpotlessTask source) {
 			SpotlessCheck task = project.getTasks().create("spotless" + SpotlessPlugin.capitalize(name) + "Check", SpotlessCheck.class);
-			task.source = source;
+			task.setSource(source);
 			task.setSpotlessOutDirectory(source.getOutputDirectory());
 			return task;
 		}
@@ -87,7 +87,7 @@ class PaddedCellTaskTest extends ResourceHarness {
 
 		void diagnose() throws IOException {
 			SpotlessDiagnoseTask diagnose = project.getTasks().create("spotless" + SpotlessPlugin.capitalize(name) + "Diagnose", SpotlessDiagnoseTask.class);
-			diagnose.source = task;
+			diagnose.setSource(task);
 			diagnose.performAction();
 		}
 
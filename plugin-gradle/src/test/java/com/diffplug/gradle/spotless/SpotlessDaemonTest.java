@@ -0,0 +1,86 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.gradle.spotless;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.assertj.core.api.Assertions;
+import org.eclipse.jgit.api.Git;
+import org.gradle.testkit.runner.BuildResult;
+import org.gradle.testkit.runner.TaskOutcome;
+import org.junit.jupiter.api.Test;
+
+import com.diffplug.spotless.FormatDaemon;
+
+class SpotlessDaemonTest extends GradleIntegrationHarness {
+	@Test
+	void servesUntilStopped() throws Exception {
+		setFile("build.gradle").toLines(
+				"plugins {",
+				"  id 'com.diffplug.spotless'",
+				"}",
+				"spotless {",
+				"  ratchetFrom 'HEAD'",
+				"  format 'misc', {",
+				"    target '*.md'",
+				"    custom 'lowercase', { str -> str.toLowerCase(Locale.ROOT) }",
+				"  }",
+				"}");
+		File committed = setFile("COMMITTED.md").toContent("ABC");
+		try (Git git = Git.init().setDirectory(rootFolder()).call()) {
+			git.add().addFilepattern(".").call();
+			git.commit().setMessage("Initial state").call();
+		}
+
+		File info = new File(rootFolder(), "build/spotless/daemon.info");
+		CompletableFuture<BuildResult> build = CompletableFuture.supplyAsync(() -> {
+			try {
+				return gradleRunner().withArguments("spotlessDaemon").build();
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		});
+		long deadline = System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(2);
+		while (!info.exists()) {
+			Assertions.assertThat(build).isNotDone();
+			Assertions.assertThat(System.currentTimeMillis()).isLessThan(deadline);
+			Thread.sleep(100);
+		}
+
+		try (FormatDaemon.Client client = FormatDaemon.Client.connect(info)) {
+			// unchanged since HEAD, so the ratchet says it's clean
+			Assertions.assertThat(client.format(committed, null, false).isClean()).isTrue();
+			// edited after the daemon started, which the ratchet has to notice
+			setFile("COMMITTED.md").toContent("DEFG");
+			FormatDaemon.Response edited = client.format(committed, null, false);
+			Assertions.assertThat(edited.getStatus()).isEqualTo(FormatDaemon.IS_DIRTY);
+			Assertions.assertThat(new String(edited.getFormatted(), StandardCharsets.UTF_8)).isEqualTo("defg");
+			// created after the daemon started
+			File created = setFile("CREATED.md").toContent("GHI");
+			client.format(created, null, true);
+			assertFile(created).hasContent("ghi");
+			// not a target
+			Assertions.assertThat(client.format(new File(rootFolder(), "build.gradle"), null, false).isClean()).isTrue();
+			client.stopDaemon();
+		}
+		BuildResult result = build.get(2, TimeUnit.MINUTES);
+		Assertions.assertThat(result.task(":spotlessDaemon").getOutcome()).isEqualTo(TaskOutcome.SUCCESS);
+		Assertions.assertThat(info).doesNotExist();
+	}
+}
@@ -19,11 +19,15 @@ import static java.util.stream.Collectors.toList;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
@@ -33,6 +37,8 @@ import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
+import javax.annotation.Nullable;
+
 import org.apache.maven.plugin.AbstractMojo;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Component;
@@ -45,9 +51,13 @@ import org.eclipse.aether.RepositorySystem;
 import org.eclipse.aether.RepositorySystemSession;
 import org.eclipse.aether.repository.RemoteRepository;
 
-import com.diffplug.spotless.Formatter;
+import com.diffplug.spotless.FormatSession;
 import com.diffplug.spotless.LineEnding;
 import com.diffplug.spotless.Provisioner;
+import com.diffplug.spotless.SpotlessCache;
+import com.diffplug.spotless.TargetSampler;
+import com.diffplug.spotless.TargetShard;
+import com.diffplug.spotless.extra.GitIndexTargets;
 import com.diffplug.spotless.generic.LicenseHeaderStep;
 import com.diffplug.spotless.maven.antlr4.Antlr4;
 import com.diffplug.spotless.maven.cpp.Cpp;
@@ -129,36 +139,76 @@ public abstract class AbstractSpotlessMojo extends AbstractMojo {
 	@Parameter(property = "spotlessFiles")
 	private String filePatterns;
 
+	/** Finds the files from the git index plus untracked files which aren't ignored, rather than by walking the whole baseDir. */
+	@Parameter(property = "spotless.targetsFromGit", defaultValue = "false")
+	private boolean targetsFromGit;
+
 	@Parameter(property = LicenseHeaderStep.spotlessSetLicenseHeaderYearsFromGitHistory)
 	private String setLicenseHeaderYearsFromGitHistory;
 
-	protected abstract void process(Iterable<File> files, Formatter formatter) throws MojoExecutionException;
+	/** Walked once per execution, rather than once per format. */
+	private final GitIndexTargets gitIndexTargets = new GitIndexTargets();
+
+	/** Processes every file of every format, each file is in {@link FormatSession#files()} only once no matter how many formats target it. */
+	protected abstract void process(FormatSession session) throws MojoExecutionException;
+
+	/**
+	 * If non-null, only these paths (relative to baseDir) are candidates for the includes and excludes,
+	 * rather than every file under baseDir, and ratchet and sampling are ignored.
+	 */
+	protected @Nullable List<String> candidates(File baseDir) throws MojoExecutionException {
+		return null;
+	}
+
+	/** If non-null, only a sample of the files (which aren't limited by ratchet) are processed. */
+	protected @Nullable TargetSampler sampler(File baseDir) throws MojoExecutionException {
+		return null;
+	}
+
+	/** If non-null, only this shard of the files of each format is processed. */
+	protected @Nullable TargetShard shard() throws MojoExecutionException {
+		return null;
+	}
 
 	@Override
 	public final void execute() throws MojoExecutionException {
+		// file signatures (and similar) can be reused by the next maven invocation
+		SpotlessCache.setPersistentDir(new File(repositorySystemSession.getLocalRepository().getBasedir(), ".cache/spotless"));
+
 		List<FormatterFactory> formatterFactories = getFormatterFactories();
-		for (FormatterFactory formatterFactory : formatterFactories) {
-			execute(formatterFactory);
+		FormatterConfig config = getFormatterConfig();
+		List<String> candidates = candidates(baseDir);
+		try (FormatSession session = new FormatSession()) {
+			Map<String, Integer> nameCounts = new HashMap<>();
+			for (FormatterFactory formatterFactory : formatterFactories) {
+				String kind = formatterFactory.getClass().getSimpleName().toLowerCase(Locale.ROOT);
+				int count = nameCounts.merge(kind, 1, Integer::sum);
+				String name = count == 1 ? kind : kind + count;
+				List<File> files = candidates != null ? matching(formatterFactory, candidates) : collectFiles(formatterFactory, config, name);
+				session.add(name, formatterFactory.newFormatter(files, config), files, isTarget(formatterFactory));
+			}
+			process(session);
 		}
 	}
 
-	private void execute(FormatterFactory formatterFactory) throws MojoExecutionException {
-		FormatterConfig config = getFormatterConfig();
-		List<File> files = collectFiles(formatterFactory, config);
-
-		try (Formatter formatter = formatterFactory.newFormatter(files, config)) {
-			process(files, formatter);
-		}
+	private List<File> collectFiles(FormatterFactory formatterFactory, FormatterConfig config, String name) throws MojoExecutionException {
+		List<File> files = collectAllFiles(formatterFactory, config);
+		TargetShard targetShard = shard();
+		return targetShard == null ? files : shard(targetShard, files, name);
 	}
 
-	private List<File> collectFiles(FormatterFactory formatterFactory, FormatterConfig config) throws MojoExecutionException {
+	private List<File> collectAllFiles(FormatterFactory formatterFactory, FormatterConfig config) throws MojoExecutionException {
 		Optional<String> ratchetFrom = formatterFactory.ratchetFrom(config);
 		try {
-			final List<File> files;
+			List<File> files;
 			if (ratchetFrom.isPresent()) {
 				files = collectFilesFromGit(formatterFactory, ratchetFrom.get());
 			} else {
-				files = collectFilesFromFormatterFactory(formatterFactory);
+				files = targetsFromGit ? collectFilesFromGitIndex(formatterFactory) : collectFilesFromFormatterFactory(formatterFactory);
+				TargetSampler sampler = sampler(baseDir);
+				if (sampler != null) {
+					files = sample(sampler, files);
+				}
 			}
 			if (filePatterns == null || filePatterns.isEmpty()) {
 				return files;
@@ -180,12 +230,32 @@ public abstract class AbstractSpotlessMojo extends AbstractMojo {
 		}
 	}
 
-	private List<File> collectFilesFromGit(FormatterFactory formatterFactory, String ratchetFrom) throws MojoExecutionException {
-		MatchPatterns includePatterns = MatchPatterns.from(
-				withNormalizedFileSeparators(getIncludes(formatterFactory)));
-		MatchPatterns excludePatterns = MatchPatterns.from(
-				withNormalizedFileSeparators(getExcludes(formatterFactory)));
+	private List<File> shard(TargetShard targetShard, List<File> files, String name) {
+		List<File> selected = targetShard.select(baseDir.toPath(), files, baseDir.getName() + ":" + name);
+		getLog().info("Processing " + targetShard + ": " + selected.size() + " of " + files.size() + " files");
+		return selected;
+	}
 
+	private List<File> sample(TargetSampler sampler, List<File> files) {
+		List<File> sampled = new ArrayList<>();
+		List<File> skipped = new ArrayList<>();
+		for (File file : files) {
+			if (sampler.includes(baseDir.toPath(), file)) {
+				sampled.add(file);
+			} else {
+				skipped.add(file);
+			}
+		}
+		getLog().info("Sampled " + sampler + ": checking " + sampled.size() + " files, skipped " + skipped.size());
+		if (getLog().isDebugEnabled()) {
+			for (File file : skipped) {
+				getLog().debug("  skipped " + file);
+			}
+		}
+		return sampled;
+	}
+
+	private List<File> collectFilesFromGit(FormatterFactory formatterFactory, String ratchetFrom) throws MojoExecutionException {
 		Iterable<String> dirtyFiles;
 		try {
 			dirtyFiles = GitRatchetMaven
@@ -193,18 +263,50 @@ public abstract class AbstractSpotlessMojo extends AbstractMojo {
 		} catch (IOException e) {
 			throw new MojoExecutionException("Unable to scan file tree rooted at " + baseDir, e);
 		}
+		return matching(formatterFactory, dirtyFiles);
+	}
+
+	private List<File> collectFilesFromGitIndex(FormatterFactory formatterFactory) throws MojoExecutionException, IOException {
+		List<String> candidates;
+		try {
+			candidates = gitIndexTargets.candidatesOf(baseDir);
+		} catch (IllegalArgumentException e) {
+			throw new MojoExecutionException(e.getMessage(), e);
+		}
+		return matching(formatterFactory, candidates);
+	}
 
+	/** Returns the given paths (relative to baseDir) which match the includes and excludes of the formatter. */
+	private List<File> matching(FormatterFactory formatterFactory, Iterable<String> relativePaths) throws MojoExecutionException {
+		Predicate<String> matcher = matcher(formatterFactory);
 		List<File> result = new ArrayList<>();
-		for (String file : withNormalizedFileSeparators(dirtyFiles)) {
-			if (includePatterns.matches(file, true)) {
-				if (!excludePatterns.matches(file, true)) {
-					result.add(new File(baseDir.getPath(), file));
-				}
+		for (String file : withNormalizedFileSeparators(relativePaths)) {
+			if (matcher.test(file)) {
+				result.add(new File(baseDir.getPath(), file));
 			}
 		}
 		return result;
 	}
 
+	/** Returns whether a file, which might not have existed when the files were collected, matches the includes and excludes of the formatter. */
+	private Predicate<File> isTarget(FormatterFactory formatterFactory) throws MojoExecutionException {
+		Predicate<String> matcher = matcher(formatterFactory);
+		Path base = baseDir.toPath().toAbsolutePath();
+		return file -> {
+			Path path = file.toPath().toAbsolutePath();
+			return path.startsWith(base) && matcher.test(base.relativize(path).toString());
+		};
+	}
+
+	/** Matches a path (relative to baseDir, with native separators) against the includes and excludes of the formatter. */
+	private Predicate<String> matcher(FormatterFactory formatterFactory) throws MojoExecutionException {
+		MatchPatterns includePatterns = MatchPatterns.from(
+				withNormalizedFileSeparators(getIncludes(formatterFactory)));
+		MatchPatterns excludePatterns = MatchPatterns.from(
+				withNormalizedFileSeparators(getExcludes(formatterFactory)));
+		return file -> includePatterns.matches(file, true) && !excludePatterns.matches(file, true);
+	}
+
 	private List<File> collectFilesFromFormatterFactory(FormatterFactory formatterFactory)
 			throws MojoExecutionException, IOException {
 		String includesString = String.join(",", getIncludes(formatterFactory));
@@ -22,8 +22,7 @@ import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
-import com.diffplug.spotless.Formatter;
-import com.diffplug.spotless.PaddedCell;
+import com.diffplug.spotless.FormatSession;
 
 /**
  * Performs formatting of all source files according to configured formatters.
@@ -34,18 +33,15 @@ public class SpotlessApplyMojo extends AbstractSpotlessMojo {
 	private boolean skip;
 
 	@Override
-	protected void process(Iterable<File> files, Formatter formatter) throws MojoExecutionException {
+	protected void process(FormatSession session) throws MojoExecutionException {
 		if (skip) {
 			getLog().info("Spotless apply skipped");
 			return;
 		}
 
-		for (File file : files) {
+		for (File file : session.files()) {
 			try {
-				PaddedCell.DirtyState dirtyState = PaddedCell.calculateDirtyState(formatter, file);
-				if (!dirtyState.isClean() && !dirtyState.didNotConverge()) {
-					dirtyState.writeCanonicalTo(file);
-				}
+				session.apply(file);
 			} catch (IOException e) {
 				throw new MojoExecutionException("Unable to format file " + file, e);
 			}
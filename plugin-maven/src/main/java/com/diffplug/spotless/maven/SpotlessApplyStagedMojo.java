@@ -0,0 +1,85 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+
+import com.diffplug.spotless.FileSignature;
+import com.diffplug.spotless.FormatSession;
+import com.diffplug.spotless.PaddedCell;
+import com.diffplug.spotless.extra.GitStagedFormat;
+
+/**
+ * Formats the content which is staged in the git index, for use in a pre-commit hook.
+ * Only the staged files are read, and the formatted content is written back to the index,
+ * as well as to the working tree for every file which isn't partially staged.
+ */
+@Mojo(name = "apply-staged", threadSafe = true)
+public class SpotlessApplyStagedMojo extends AbstractSpotlessMojo {
+	private @Nullable GitStagedFormat staged;
+
+	@Override
+	protected List<String> candidates(File baseDir) throws MojoExecutionException {
+		try {
+			staged = GitStagedFormat.open(baseDir);
+		} catch (IOException | IllegalArgumentException e) {
+			throw new MojoExecutionException("Unable to read the git index for " + baseDir, e);
+		}
+		String base = FileSignature.pathNativeToUnix(baseDir.getAbsolutePath()) + "/";
+		List<String> candidates = new ArrayList<>();
+		for (File file : staged.stagedFiles()) {
+			candidates.add(FileSignature.subpath(base, FileSignature.pathNativeToUnix(file.getAbsolutePath())));
+		}
+		return candidates;
+	}
+
+	@Override
+	protected void process(FormatSession session) throws MojoExecutionException {
+		if (staged == null) {
+			throw new IllegalStateException("candidates() was not called");
+		}
+		try (GitStagedFormat staged = this.staged) {
+			for (File file : session.files()) {
+				for (String name : session.formatNames(file)) {
+					PaddedCell.DirtyState dirtyState = staged.format(file, session.formatter(name));
+					if (dirtyState.didNotConverge()) {
+						getLog().warn("Skipping '" + file + "' because it does not converge.");
+					}
+				}
+			}
+			GitStagedFormat.Result result = staged.write();
+			for (File file : result.getChangedInIndex()) {
+				if (result.getChangedInWorkTree().contains(file)) {
+					getLog().info("Formatted " + file);
+				} else {
+					getLog().info("Formatted the staged content of " + file + ", but it has unstaged changes which were left as-is");
+				}
+			}
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to format the staged files", e);
+		} finally {
+			this.staged = null;
+		}
+	}
+}
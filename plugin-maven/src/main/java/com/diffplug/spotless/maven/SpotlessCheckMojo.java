@@ -17,16 +17,23 @@ package com.diffplug.spotless.maven;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugins.annotations.LifecyclePhase;
 import org.apache.maven.plugins.annotations.Mojo;
 import org.apache.maven.plugins.annotations.Parameter;
 
-import com.diffplug.spotless.Formatter;
+import com.diffplug.spotless.FormatSession;
 import com.diffplug.spotless.PaddedCell;
+import com.diffplug.spotless.TargetSampler;
+import com.diffplug.spotless.TargetShard;
+import com.diffplug.spotless.extra.GitRecentFiles;
 import com.diffplug.spotless.extra.integration.DiffMessageFormatter;
 
 /**
@@ -39,19 +46,89 @@ public class SpotlessCheckMojo extends AbstractSpotlessMojo {
 	@Parameter(property = "spotless.check.skip", defaultValue = "false")
 	private boolean skip;
 
+	/**
+	 * Checks only a deterministic sample of the files, e.g. {@code -Dspotless.sample=10} for 10%.
+	 * Ignored when {@code ratchetFrom} is set, since that already limits the check to the changed files.
+	 */
+	@Parameter(property = "spotless.sample")
+	private String samplePercent;
+
+	/** The seed which picks the sample.  Rotating it between builds eventually covers every file. */
+	@Parameter(property = "spotless.sample.seed", defaultValue = "0")
+	private long sampleSeed;
+
+	/**
+	 * Files changed by a commit within this many hours of {@code HEAD}, or with uncommitted changes, are always
+	 * included in the sample.
+	 */
+	@Parameter(property = "spotless.sample.recentHours", defaultValue = "24")
+	private long sampleRecentHours;
+
+	/**
+	 * Limits the files to one of several disjoint shards, e.g. {@code -Dspotless.shard=2/8} on the second of eight CI agents.
+	 * Only the check is sharded, since apply has to cover every file.
+	 */
+	@Parameter(property = "spotless.shard")
+	private String shard;
+
+	/** If {@code true}, shards are balanced by the size of their files rather than just by path. */
+	@Parameter(property = "spotless.shard.bySize", defaultValue = "false")
+	private boolean shardBySize;
+
+	@Override
+	protected TargetShard shard() throws MojoExecutionException {
+		if (shard == null || shard.isEmpty()) {
+			return null;
+		}
+		try {
+			return TargetShard.parse(shard, shardBySize);
+		} catch (IllegalArgumentException e) {
+			throw new MojoExecutionException("Invalid value for spotless.shard: " + e.getMessage(), e);
+		}
+	}
+
+	/** Resolved on first use, because finding the recent files walks the git history. */
+	private TargetSampler sampler;
+
 	@Override
-	protected void process(Iterable<File> files, Formatter formatter) throws MojoExecutionException {
+	protected TargetSampler sampler(File baseDir) throws MojoExecutionException {
+		if (samplePercent == null || samplePercent.isEmpty()) {
+			return null;
+		} else if (sampler != null) {
+			return sampler;
+		}
+		try {
+			sampler = TargetSampler.of(TargetSampler.parsePercent(samplePercent), sampleSeed, sampleRecentHours);
+		} catch (IllegalArgumentException e) {
+			throw new MojoExecutionException("Invalid value for spotless.sample: " + e.getMessage(), e);
+		}
+		if (sampleRecentHours > 0) {
+			try {
+				sampler = sampler.withRecent(baseDir.toPath(), GitRecentFiles.changedWithin(baseDir, sampleRecentHours));
+			} catch (IOException e) {
+				throw new MojoExecutionException("Unable to find the recently changed files in git", e);
+			}
+		}
+		return sampler;
+	}
+
+	@Override
+	protected void process(FormatSession session) throws MojoExecutionException {
 		if (skip) {
 			getLog().info("Spotless check skipped");
 			return;
 		}
 
-		List<File> problemFiles = new ArrayList<>();
-		for (File file : files) {
+		Map<String, List<File>> problemFiles = new LinkedHashMap<>();
+		Map<File, Map<String, PaddedCell.DirtyState>> dirtyStates = new HashMap<>();
+		for (File file : session.files()) {
 			try {
-				PaddedCell.DirtyState dirtyState = PaddedCell.calculateDirtyState(formatter, file);
-				if (!dirtyState.isClean() && !dirtyState.didNotConverge()) {
-					problemFiles.add(file);
+				for (Map.Entry<String, PaddedCell.DirtyState> entry : session.check(file).getStates().entrySet()) {
+					PaddedCell.DirtyState dirtyState = entry.getValue();
+					if (!dirtyState.isClean() && !dirtyState.didNotConverge()) {
+						problemFiles.computeIfAbsent(entry.getKey(), unused -> new ArrayList<>()).add(file);
+						dirtyStates.computeIfAbsent(file, unused -> new HashMap<>()).put(entry.getKey(), dirtyState);
+					}
 				}
 			} catch (IOException e) {
 				throw new MojoExecutionException("Unable to format file " + file, e);
@@ -59,11 +136,19 @@ public class SpotlessCheckMojo extends AbstractSpotlessMojo {
 		}
 
 		if (!problemFiles.isEmpty()) {
-			throw new MojoExecutionException(DiffMessageFormatter.builder()
-					.runToFix("Run 'mvn spotless:apply' to fix these violations.")
-					.formatter(formatter)
-					.problemFiles(problemFiles)
-					.getMessage());
+			List<String> messages = new ArrayList<>(problemFiles.size());
+			for (Map.Entry<String, List<File>> entry : problemFiles.entrySet()) {
+				messages.add(DiffMessageFormatter.builder()
+						.runToFix("Run 'mvn spotless:apply' to fix these violations.")
+						.formatter(session.formatter(entry.getKey()))
+						.problemFiles(entry.getValue())
+						// the check already formatted every problem file, so there's no need to format again
+						.precomputed(file -> DiffMessageFormatter.RawAndCanonical.of(
+								Files.readAllBytes(file.toPath()),
+								dirtyStates.get(file).get(entry.getKey()).canonicalBytes()))
+						.getMessage());
+			}
+			throw new MojoExecutionException(String.join("\n", messages));
 		}
 	}
 }
@@ -0,0 +1,53 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.maven;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import com.diffplug.spotless.FormatDaemon;
+import com.diffplug.spotless.FormatSession;
+
+/**
+ * Serves every formatter to IDEs over a local socket until maven or a client stops it, see {@link FormatDaemon}
+ * for the protocol.  The formatters stay warm between requests, and requests are served concurrently.
+ */
+@Mojo(name = "daemon", threadSafe = true)
+public class SpotlessDaemonMojo extends AbstractSpotlessMojo {
+	/** The file which clients read the port and token from. */
+	@Parameter(property = "spotless.daemon.infoFile", defaultValue = "${project.build.directory}/spotless/daemon.info")
+	private File infoFile;
+
+	@Override
+	protected void process(FormatSession session) throws MojoExecutionException {
+		try (FormatDaemon daemon = FormatDaemon.start(session, infoFile)) {
+			getLog().info("Spotless daemon is listening on port " + daemon.getPort() + ", see " + infoFile + ".  Press Ctrl+C or use FormatDaemon.Client.stopDaemon() to stop it.");
+			daemon.awaitClose();
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to start the spotless daemon", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			if (!infoFile.delete() && infoFile.exists()) {
+				getLog().warn("Unable to delete " + infoFile);
+			}
+		}
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless.maven;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import com.diffplug.spotless.FormatSession;
+import com.diffplug.spotless.FormatWatcher;
+import com.diffplug.spotless.PaddedCell;
+
+/**
+ * Keeps every formatter warm, and formats each file as soon as it is saved, until maven is stopped.
+ * With {@code -Dspotless.watch.check}, files are only checked and each violation is logged.  A change
+ * to a file which a step depends on (e.g. an eclipse config file) is picked up by creating only that
+ * step again, but a change to the pom needs a restart.
+ */
+@Mojo(name = "watch", threadSafe = true)
+public class SpotlessWatchMojo extends AbstractSpotlessMojo {
+	@Parameter(property = "spotless.watch.check", defaultValue = "false")
+	private boolean check;
+
+	/** Every folder under it is watched, so that new files are formatted too. */
+	@Parameter(defaultValue = "${project.basedir}", required = true, readonly = true)
+	private File watchRoot;
+
+	/** Never watched, because it only has build outputs. */
+	@Parameter(defaultValue = "${project.build.directory}", required = true, readonly = true)
+	private File buildDirectory;
+
+	@Override
+	protected void process(FormatSession session) throws MojoExecutionException {
+		try (FormatWatcher watcher = FormatWatcher.watch(session, !check, new Listener(), Collections.singletonList(watchRoot), Collections.singletonList(buildDirectory))) {
+			getLog().info("Watching " + session.files().size() + " files for changes, press Ctrl+C to stop.");
+			watcher.run();
+		} catch (IOException e) {
+			throw new MojoExecutionException("Unable to watch the files", e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private class Listener implements FormatWatcher.Listener {
+		@Override
+		public void formatted(FormatSession.Result result) {
+			for (Map.Entry<String, PaddedCell.DirtyState> entry : result.getStates().entrySet()) {
+				PaddedCell.DirtyState dirtyState = entry.getValue();
+				if (dirtyState.didNotConverge()) {
+					getLog().warn("Skipping '" + result.getFile() + "' because it does not converge.");
+				} else if (dirtyState.isClean()) {
+					continue;
+				} else if (check) {
+					getLog().warn("The following file had format violations for '" + entry.getKey() + "': " + result.getFile());
+				} else {
+					getLog().info("Formatted " + result.getFile() + " with '" + entry.getKey() + "'");
+				}
+			}
+		}
+
+		@Override
+		public void refreshed(List<String> formatNames) {
+			getLog().info("Reloaded the configuration of " + formatNames);
+		}
+
+		@Override
+		public void failed(File file, Exception e) {
+			getLog().error("Unable to format " + file, e);
+		}
+	}
+}
@@ -53,6 +53,7 @@ public class LicenseHeader implements FormatterStepFactory {
 			}
 			return LicenseHeaderStep.headerDelimiter(() -> readFileOrContent(config), delimiterString)
 					.withYearMode(yearMode)
+					.withProjectDir(config.getFileLocator().getBaseDir())
 					.build()
 					.filterByFile(LicenseHeaderStep.unsupportedJvmFilesFilter());
 		} else {
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+class BoundMethodTest {
+	@Test
+	void staticMethod() throws Exception {
+		BoundMethod valueOf = BoundMethod.of(String.class, "valueOf", int.class);
+		assertThat(valueOf.call(42)).isEqualTo("42");
+	}
+
+	@Test
+	void instanceMethodTakesTheReceiverFirst() throws Exception {
+		BoundMethod indent = BoundMethod.of(Target.class, "indent", String.class, int.class);
+		assertThat(indent.call(new Target("> "), "x", 2)).isEqualTo("> > x");
+		BoundMethod toString = BoundMethod.of(Object.class.getMethod("toString"));
+		assertThat(toString.call(new Target("> "))).isEqualTo("Target> ");
+	}
+
+	@Test
+	void constructor() throws Exception {
+		BoundMethod constructor = BoundMethod.of(Target.class.getConstructor(String.class));
+		Object target = constructor.call("- ");
+		assertThat(target).isInstanceOf(Target.class).hasToString("Target- ");
+	}
+
+	@Test
+	void exceptionsAreRethrownAsIs() throws Exception {
+		BoundMethod fail = BoundMethod.of(Target.class, "fail", String.class);
+		assertThatThrownBy(() -> fail.call("checked")).isExactlyInstanceOf(IOException.class).hasMessage("checked").hasNoCause();
+		assertThatThrownBy(() -> fail.call("runtime")).isExactlyInstanceOf(IllegalArgumentException.class).hasMessage("runtime").hasNoCause();
+		assertThatThrownBy(() -> fail.call("error")).isExactlyInstanceOf(AssertionError.class).hasMessage("error");
+	}
+
+	@Test
+	void wrongArguments() throws Exception {
+		BoundMethod indent = BoundMethod.of(Target.class, "indent", String.class, int.class);
+		assertThatThrownBy(() -> indent.call(new Target(""), "x")).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> indent.call(new Target(""), 1, "x")).isInstanceOf(ClassCastException.class);
+		assertThatThrownBy(() -> BoundMethod.of(Target.class, "indent", String.class)).isInstanceOf(NoSuchMethodException.class);
+	}
+
+	public static class Target {
+		private final String prefix;
+
+		public Target(String prefix) {
+			this.prefix = prefix;
+		}
+
+		public String indent(String content, int times) {
+			StringBuilder builder = new StringBuilder();
+			for (int i = 0; i < times; ++i) {
+				builder.append(prefix);
+			}
+			return builder.append(content).toString();
+		}
+
+		public static void fail(String kind) throws IOException {
+			switch (kind) {
+			case "checked":
+				throw new IOException(kind);
+			case "runtime":
+				throw new IllegalArgumentException(kind);
+			default:
+				throw new AssertionError(kind);
+			}
+		}
+
+		@Override
+		public String toString() {
+			return "Target" + prefix;
+		}
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.jar.Attributes;
+
+import javax.annotation.Nullable;
+
+import org.junit.jupiter.api.Test;
+
+class FeatureClassLoaderTest extends ResourceHarness {
+	/** Loaded from a jar by the {@link FeatureClassLoader}, rather than from the test classpath. */
+	public static class Fixture {}
+
+	private static final String FIXTURE = Fixture.class.getName();
+
+	@Test
+	void classResourceAndPackage() throws Exception {
+		List<File> jars = jars();
+		for (boolean indexed : new boolean[]{false, true}) {
+			try (FeatureClassLoader loader = loader(jars, indexed ? JarIndex.loadOrBuild(jars, null) : null)) {
+				Class<?> fixture = loader.loadClass(FIXTURE);
+				assertThat(fixture.getClassLoader()).isSameAs(loader);
+				assertThat(fixture).isNotSameAs(Fixture.class);
+				assertThat(fixture.getPackage().getName()).isEqualTo("com.diffplug.spotless");
+				assertThat(fixture.getPackage().getImplementationTitle()).isEqualTo("fixture");
+				assertThat(loader.loadClass(FIXTURE)).isSameAs(fixture);
+
+				assertThat(read(loader.getResource("a/one.txt"))).isEqualTo("one");
+				assertThat(read(loader.getResource("com/diffplug/spotless/two.txt"))).isEqualTo("two");
+				assertThat(loader.getResource("a/missing.txt")).isNull();
+				List<String> shared = new ArrayList<>();
+				for (URL url : Collections.list(loader.getResources("shared/same.txt"))) {
+					shared.add(read(url));
+				}
+				assertThat(shared).containsExactly("first", "second");
+
+				assertThatThrownBy(() -> loader.loadClass("com.diffplug.spotless.Missing")).isInstanceOf(ClassNotFoundException.class);
+			}
+		}
+	}
+
+	@Test
+	void staleIndexFallsBackToSearch() throws Exception {
+		List<File> jars = jars();
+		// an index of the same jars in the opposite order points everything at the wrong jar
+		List<File> reversed = Arrays.asList(jars.get(1), jars.get(0));
+		try (FeatureClassLoader loader = loader(jars, JarIndex.loadOrBuild(reversed, null))) {
+			assertThat(loader.loadClass(FIXTURE).getClassLoader()).isSameAs(loader);
+			assertThat(read(loader.getResource("a/one.txt"))).isEqualTo("one");
+			assertThat(Collections.list(loader.getResources("com/diffplug/spotless/two.txt"))).hasSize(1);
+		}
+	}
+
+	@Test
+	void parallelLoadsDefineOneClass() throws Exception {
+		List<File> jars = jars();
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try (FeatureClassLoader loader = loader(jars, JarIndex.loadOrBuild(jars, null))) {
+			List<Future<Class<?>>> loads = new ArrayList<>();
+			for (int i = 0; i < 32; ++i) {
+				loads.add(executor.submit(() -> loader.loadClass(FIXTURE)));
+			}
+			Class<?> first = loads.get(0).get();
+			for (Future<Class<?>> load : loads) {
+				assertThat(load.get()).isSameAs(first);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private List<File> jars() throws IOException {
+		Map<String, byte[]> first = new LinkedHashMap<>();
+		first.put("a/one.txt", bytes("one"));
+		first.put("shared/same.txt", bytes("first"));
+		Map<String, byte[]> second = new LinkedHashMap<>();
+		String fixturePath = FIXTURE.replace('.', '/') + ".class";
+		try (InputStream input = FeatureClassLoaderTest.class.getClassLoader().getResourceAsStream(fixturePath)) {
+			second.put(fixturePath, readAll(input));
+		}
+		second.put("com/diffplug/spotless/two.txt", bytes("two"));
+		second.put("shared/same.txt", bytes("second"));
+		return Arrays.asList(
+				JarIndexTest.jar(newFile("first.jar"), null, first),
+				JarIndexTest.jar(newFile("second.jar"), JarIndexTest.manifest(Attributes.Name.IMPLEMENTATION_TITLE, "fixture"), second));
+	}
+
+	private static FeatureClassLoader loader(List<File> jars, @Nullable JarIndex index) throws IOException {
+		URL[] urls = new URL[jars.size()];
+		for (int i = 0; i < urls.length; ++i) {
+			urls[i] = jars.get(i).toURI().toURL();
+		}
+		return new FeatureClassLoader(urls, FeatureClassLoaderTest.class.getClassLoader(), index);
+	}
+
+	private static byte[] bytes(String content) {
+		return content.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static String read(URL url) throws IOException {
+		try (InputStream input = url.openStream()) {
+			return new String(readAll(input), StandardCharsets.UTF_8);
+		}
+	}
+
+	private static byte[] readAll(InputStream input) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		byte[] buf = new byte[1024];
+		int numRead;
+		while ((numRead = input.read(buf)) != -1) {
+			output.write(buf, 0, numRead);
+		}
+		return output.toByteArray();
+	}
+}
@@ -21,6 +21,8 @@ import static org.junit.jupiter.api.condition.OS.WINDOWS;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -70,6 +72,25 @@ class FileSignatureTest extends ResourceHarness {
 				.isInstanceOf(IllegalArgumentException.class);
 	}
 
+	@Test
+	void testPersistentIndex() throws IOException {
+		File file = setFile("A").toContent("some content");
+		File indexFile = new File(newFolder("cache"), FileSignature.PersistentIndex.FILENAME);
+
+		FileSignature.PersistentIndex index = new FileSignature.PersistentIndex(indexFile);
+		String canonicalPath = file.getCanonicalPath();
+		FileSignature.Sig original = FileSignature.Sig.calculate(file.toPath(), Files.readAttributes(file.toPath(), BasicFileAttributes.class));
+		index.put(canonicalPath, original);
+
+		FileSignature.Sig reloaded = new FileSignature.PersistentIndex(indexFile).get(canonicalPath);
+		assertThat(reloaded).isNotNull();
+		assertThat(LazyForwardingEquality.toBytes(reloaded)).isEqualTo(LazyForwardingEquality.toBytes(original));
+		assertThat(reloaded.isUpToDate(Files.readAttributes(file.toPath(), BasicFileAttributes.class))).isTrue();
+
+		setFile("A").toContent("different content");
+		assertThat(reloaded.isUpToDate(Files.readAttributes(file.toPath(), BasicFileAttributes.class))).isFalse();
+	}
+
 	private List<File> getTestFiles(final String[] paths) throws IOException {
 		final List<File> result = new ArrayList<>(paths.length);
 		for (String path : paths) {
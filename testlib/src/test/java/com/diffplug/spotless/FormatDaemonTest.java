@@ -0,0 +1,142 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+class FormatDaemonTest extends ResourceHarness {
+	private FormatSession session() {
+		FormatterStep upper = FormatterStep.create("upper", "", unused -> raw -> raw.toUpperCase(Locale.ROOT));
+		Formatter formatter = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(rootFolder().toPath())
+				.steps(Collections.singletonList(upper))
+				.build();
+		return new FormatSession().add("upper", formatter, Collections.emptyList(), file -> file.getName().endsWith(".txt"));
+	}
+
+	@Test
+	void formatsContentAndFiles() throws Exception {
+		File file = setFile("file.txt").toContent("a b");
+		File info = newFile("daemon.info");
+		try (FormatSession session = session();
+				FormatDaemon daemon = FormatDaemon.start(session, info);
+				FormatDaemon.Client client = FormatDaemon.Client.connect(info)) {
+			FormatDaemon.Response dirty = client.format(file, "c d".getBytes(StandardCharsets.UTF_8), false);
+			assertThat(dirty.getStatus()).isEqualTo(FormatDaemon.IS_DIRTY);
+			assertThat(new String(dirty.getFormatted(), StandardCharsets.UTF_8)).isEqualTo("C D");
+			assertFile(file).hasContent("a b");
+
+			FormatDaemon.Response written = client.format(file, null, true);
+			assertThat(written.getStatus()).isEqualTo(FormatDaemon.IS_DIRTY);
+			assertThat(written.getFormatted()).isNull();
+			assertFile(file).hasContent("A B");
+
+			assertThat(client.format(file, null, false).isClean()).isTrue();
+			assertThat(client.format(newFile("untargeted.md"), "x".getBytes(StandardCharsets.UTF_8), false).isClean()).isTrue();
+			assertThatThrownBy(() -> client.format(newFile("missing.txt"), null, false)).isInstanceOf(IOException.class);
+		}
+	}
+
+	@Test
+	void servesConcurrentClients() throws Exception {
+		File info = newFile("daemon.info");
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try (FormatSession session = session();
+				FormatDaemon daemon = FormatDaemon.start(session, info)) {
+			List<Future<String>> results = new ArrayList<>();
+			for (int i = 0; i < 16; ++i) {
+				File file = newFile("file" + i + ".txt");
+				String content = "content " + i;
+				results.add(executor.submit(() -> {
+					try (FormatDaemon.Client client = FormatDaemon.Client.connect(info)) {
+						return new String(client.format(file, content.getBytes(StandardCharsets.UTF_8), false).getFormatted(), StandardCharsets.UTF_8);
+					}
+				}));
+			}
+			for (int i = 0; i < results.size(); ++i) {
+				assertThat(results.get(i).get()).isEqualTo("CONTENT " + i);
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	void rejectsWrongToken() throws Exception {
+		File info = newFile("daemon.info");
+		try (FormatSession session = session();
+				FormatDaemon daemon = FormatDaemon.start(session, info)) {
+			setFile("forged.info").toContent("spotless-daemon-v1\n" + daemon.getPort() + "\nnot-the-token\n");
+			try (FormatDaemon.Client client = FormatDaemon.Client.connect(newFile("forged.info"))) {
+				assertThatThrownBy(() -> client.format(newFile("file.txt"), "a".getBytes(StandardCharsets.UTF_8), false))
+						.isInstanceOf(IOException.class);
+			}
+		}
+	}
+
+	@Test
+	void rejectsInvalidLength() throws Exception {
+		File info = newFile("daemon.info");
+		try (FormatSession session = session();
+				FormatDaemon daemon = FormatDaemon.start(session, info);
+				Socket socket = new Socket(InetAddress.getLoopbackAddress(), daemon.getPort())) {
+			DataOutputStream out = new DataOutputStream(socket.getOutputStream());
+			DataInputStream in = new DataInputStream(socket.getInputStream());
+			out.writeUTF(Files.readAllLines(info.toPath(), StandardCharsets.UTF_8).get(2));
+			out.writeUTF(newFile("file.txt").getAbsolutePath());
+			out.writeInt(-2);
+			out.flush();
+			assertThat(in.readUTF()).isEqualTo(FormatDaemon.ERROR);
+			assertThat(in.readUTF()).isEqualTo("Invalid content length -2");
+			assertThat(in.read()).isEqualTo(-1);
+		}
+	}
+
+	@Test
+	void stopsOnRequest() throws Exception {
+		File info = newFile("daemon.info");
+		try (FormatSession session = session();
+				FormatDaemon daemon = FormatDaemon.start(session, info)) {
+			try (FormatDaemon.Client client = FormatDaemon.Client.connect(info)) {
+				client.stopDaemon();
+			}
+			daemon.awaitClose();
+			assertThatThrownBy(() -> FormatDaemon.Client.connect(info).format(newFile("file.txt"), null, false))
+					.isInstanceOf(IOException.class);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.jupiter.api.Test;
+
+class FormatSessionTest extends ResourceHarness {
+	private Formatter formatter(FormatterStep step) {
+		return Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(rootFolder().toPath())
+				.steps(Collections.singletonList(step))
+				.build();
+	}
+
+	@Test
+	void formatsAreAppliedInOrder() throws Exception {
+		File both = setFile("both.txt").toContent("a b");
+		File upperOnly = setFile("upper.txt").toContent("a b");
+		FormatterStep upper = FormatterStep.createNeverUpToDate("upper", raw -> raw.toUpperCase());
+		FormatterStep noSpaces = FormatterStep.createNeverUpToDate("noSpaces", raw -> raw.replace(" ", ""));
+		try (FormatSession session = new FormatSession()
+				.add("upper", formatter(upper), Arrays.asList(both, upperOnly))
+				.add("noSpaces", formatter(noSpaces), Collections.singletonList(both))) {
+			assertThat(session.files()).containsExactly(both, upperOnly);
+
+			FormatSession.Result check = session.check(both);
+			assertThat(check.getStates()).containsOnlyKeys("upper", "noSpaces");
+			assertThat(check.getStates().get("upper").isClean()).isFalse();
+			assertThat(check.getStates().get("noSpaces").isClean()).isFalse();
+			assertFile(both).hasContent("a b");
+
+			session.apply(both);
+			session.apply(upperOnly);
+			assertFile(both).hasContent("AB");
+			assertFile(upperOnly).hasContent("A B");
+
+			FormatSession.Result after = session.check(both);
+			assertThat(after.getStates().values()).allMatch(PaddedCell.DirtyState::isClean);
+		}
+	}
+
+	@Test
+	void eachEncodingDecodesTheFile() throws Exception {
+		File file = newFile("file.txt");
+		Files.write(file.toPath(), "\u00e9\r\n".getBytes(StandardCharsets.UTF_8));
+		List<String> seen = new CopyOnWriteArrayList<>();
+		FormatterStep record = FormatterStep.createNeverUpToDate("record", raw -> {
+			seen.add(raw);
+			return raw;
+		});
+		Formatter latin1 = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.WINDOWS.createPolicy())
+				.encoding(StandardCharsets.ISO_8859_1)
+				.rootDir(rootFolder().toPath())
+				.steps(Collections.singletonList(record))
+				.build();
+		Formatter utf8 = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.WINDOWS.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(rootFolder().toPath())
+				.steps(Collections.singletonList(record))
+				.build();
+		try (FormatSession session = new FormatSession()
+				.add("utf8", utf8, Collections.singletonList(file))
+				.add("latin1", latin1, Collections.singletonList(file))
+				.add("utf8again", formatter(record), Collections.singletonList(file))) {
+			FormatSession.Result check = session.check(file);
+			assertThat(check.getStates().get("utf8").isClean()).isTrue();
+			assertThat(check.getStates().get("latin1").isClean()).isTrue();
+			// the only format which wants unix line endings
+			assertThat(check.getStates().get("utf8again").isClean()).isFalse();
+			assertThat(seen).startsWith("\u00e9\n", "\u00c3\u00a9\n", "\u00e9\n");
+		}
+	}
+
+	@Test
+	void staleStepsAreRefreshed() throws Exception {
+		File config = setFile("suffix.cfg").toContent("!");
+		File file = setFile("file.txt").toContent("a");
+		FormatterStep suffix = FormatterStep.createLazy("suffix",
+				() -> new Suffix(config),
+				state -> raw -> raw.replaceAll("[!?]*$", "") + state.suffix);
+		try (FormatSession session = new FormatSession()
+				.add("suffix", formatter(suffix), Collections.singletonList(file), candidate -> candidate.getName().endsWith(".txt"))) {
+			session.apply(file);
+			assertFile(file).hasContent("a!");
+			assertThat(session.refreshStaleSteps()).isEmpty();
+
+			setFile("suffix.cfg").toContent("??");
+			assertThat(config.setLastModified(config.lastModified() + 2_000)).isTrue();
+			assertThat(session.refreshStaleSteps()).containsExactly("suffix");
+			session.apply(file);
+			assertFile(file).hasContent("a??");
+
+			File created = setFile("created.txt").toContent("b");
+			assertThat(session.track(created)).isTrue();
+			assertThat(session.track(newFile("created.md"))).isFalse();
+			session.apply(created);
+			assertFile(created).hasContent("b??");
+		}
+	}
+
+	private static class Suffix implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final FileSignature signature;
+		final String suffix;
+
+		Suffix(File config) throws IOException {
+			this.signature = FileSignature.signAsList(config);
+			this.suffix = new String(Files.readAllBytes(config.toPath()), StandardCharsets.UTF_8);
+		}
+	}
+}
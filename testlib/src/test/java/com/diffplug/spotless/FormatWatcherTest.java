@@ -0,0 +1,98 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+class FormatWatcherTest extends ResourceHarness {
+	@Test
+	void newFilesInFoldersWithoutTargetsAreFormatted() throws Exception {
+		File existing = setFile("src/com/example/Existing.txt").toContent("existing");
+		newFile("src/com/other").mkdirs();
+		newFile("build/out").mkdirs();
+		FormatterStep upper = FormatterStep.create("upper", "", unused -> raw -> raw.toUpperCase(Locale.ROOT));
+		Formatter formatter = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(rootFolder().toPath())
+				.steps(Collections.singletonList(upper))
+				.build();
+		BlockingQueue<File> formatted = new LinkedBlockingQueue<>();
+		try (FormatSession session = new FormatSession().add("upper", formatter, Collections.singletonList(existing), file -> file.getName().endsWith(".txt"));
+				FormatWatcher watcher = FormatWatcher.watch(session, true, new Listener(formatted), Collections.singletonList(rootFolder()), Collections.singletonList(newFile("build")))) {
+			Thread thread = new Thread(() -> {
+				try {
+					watcher.run();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			});
+			thread.start();
+
+			// neither folder contained a target when the watcher started
+			setFile("build/out/Ignored.txt").toContent("ignored");
+			File sibling = setFile("src/com/other/Sibling.txt").toContent("sibling");
+			File intermediate = setFile("src/com/Intermediate.txt").toContent("intermediate");
+			Set<File> seen = new HashSet<>();
+			while (seen.size() < 2) {
+				File file = formatted.poll(10, TimeUnit.SECONDS);
+				assertThat(file).isIn(sibling, intermediate);
+				seen.add(file);
+			}
+			assertFile(sibling).hasContent("SIBLING");
+			assertFile(intermediate).hasContent("INTERMEDIATE");
+			assertFile("build/out/Ignored.txt").hasContent("ignored");
+
+			watcher.close();
+			thread.join(TimeUnit.SECONDS.toMillis(10));
+			assertThat(thread.isAlive()).isFalse();
+		}
+	}
+
+	private static final class Listener implements FormatWatcher.Listener {
+		private final BlockingQueue<File> formatted;
+
+		Listener(BlockingQueue<File> formatted) {
+			this.formatted = formatted;
+		}
+
+		@Override
+		public void formatted(FormatSession.Result result) {
+			formatted.add(result.getFile());
+		}
+
+		@Override
+		public void refreshed(List<String> formatNames) {}
+
+		@Override
+		public void failed(File file, Exception e) {
+			throw new AssertionError("Unable to format " + file, e);
+		}
+	}
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.diffplug.common.base.StandardSystemProperty;
+
+class FormatterStepPoolTest {
+	private final AtomicInteger created = new AtomicInteger();
+	private final AtomicInteger closed = new AtomicInteger();
+
+	private FormatterStep step(String suffix) {
+		return FormatterStep.createLazy("suffix", () -> suffix, state -> {
+			created.incrementAndGet();
+			return FormatterFunc.Closeable.ofDangerous(closed::incrementAndGet, raw -> raw + state);
+		});
+	}
+
+	private static Formatter formatter(FormatterStep... steps) {
+		return Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(Paths.get(StandardSystemProperty.USER_DIR.value()))
+				.steps(Arrays.asList(steps))
+				.build();
+	}
+
+	@Test
+	void equalStepsReuseTheFormatterFunc() {
+		FormatterStepPool pool = new FormatterStepPool();
+		try (Formatter formatter = pool.checkOut(formatter(step("a")))) {
+			assertThat(formatter.compute("0", new File("file"))).isEqualTo("0a");
+		}
+		try (Formatter formatter = pool.checkOut(formatter(step("a")))) {
+			assertThat(formatter.compute("0", new File("file"))).isEqualTo("0a");
+		}
+		assertThat(created.get()).isEqualTo(1);
+		assertThat(closed.get()).isEqualTo(0);
+
+		// a different state gets its own FormatterFunc
+		try (Formatter formatter = pool.checkOut(formatter(step("b")))) {
+			assertThat(formatter.compute("0", new File("file"))).isEqualTo("0b");
+		}
+		assertThat(created.get()).isEqualTo(2);
+
+		pool.evictIdle(Duration.ofHours(1));
+		assertThat(closed.get()).isEqualTo(0);
+		assertThat(pool.isEmpty()).isFalse();
+		pool.evictIdle(Duration.ZERO);
+		assertThat(closed.get()).isEqualTo(2);
+		assertThat(pool.isEmpty()).isTrue();
+	}
+
+	@Test
+	void checkedOutStepsAreNotShared() {
+		FormatterStepPool pool = new FormatterStepPool();
+		try (Formatter first = pool.checkOut(formatter(step("a")));
+				Formatter second = pool.checkOut(formatter(step("a")))) {
+			first.compute("0", new File("file"));
+			second.compute("0", new File("file"));
+		}
+		assertThat(created.get()).isEqualTo(2);
+		pool.evictAll();
+		assertThat(closed.get()).isEqualTo(2);
+	}
+
+	@Test
+	void stepsPassedInAreNeverCheckedInTwice() {
+		FormatterStepPool pool = new FormatterStepPool();
+		// e.g. the steps of a single SpotlessTask, used by several tasks of the same build
+		Formatter source = formatter(step("a"));
+		try (Formatter first = pool.checkOut(source)) {
+			first.compute("0", new File("file"));
+			assertThat(first.getSteps().get(0)).isNotSameAs(source.getSteps().get(0));
+		}
+		Formatter checkedOut = pool.checkOut(source);
+		// the pool is empty while the first steps are checked out, so this one misses
+		Formatter missed = pool.checkOut(source);
+		assertThat(missed.getSteps().get(0))
+				.isNotSameAs(source.getSteps().get(0))
+				.isNotSameAs(checkedOut.getSteps().get(0));
+		missed.compute("0", new File("file"));
+		checkedOut.compute("0", new File("file"));
+		missed.close();
+		checkedOut.close();
+		assertThat(created.get()).isEqualTo(2);
+
+		// both sets of steps are in the pool exactly once, so they are handed out to two formatters at most
+		try (Formatter one = pool.checkOut(source);
+				Formatter two = pool.checkOut(source);
+				Formatter three = pool.checkOut(source)) {
+			assertThat(one.getSteps().get(0)).isNotSameAs(two.getSteps().get(0));
+			one.compute("0", new File("file"));
+			two.compute("0", new File("file"));
+			three.compute("0", new File("file"));
+			assertThat(created.get()).isEqualTo(3);
+		}
+		pool.evictAll();
+		assertThat(closed.get()).isEqualTo(3);
+	}
+
+	@Test
+	void neverUpToDateIsNotPooled() {
+		FormatterStepPool pool = new FormatterStepPool();
+		FormatterStep never = FormatterStep.createNeverUpToDate("never", raw -> raw + "n");
+		try (Formatter formatter = pool.checkOut(formatter(step("a"), never))) {
+			assertThat(formatter.compute("0", new File("file"))).isEqualTo("0an");
+		}
+		// closed right away, rather than kept until it is evicted
+		assertThat(closed.get()).isEqualTo(1);
+	}
+}
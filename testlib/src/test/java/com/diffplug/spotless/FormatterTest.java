@@ -15,12 +15,23 @@
  */
 package com.diffplug.spotless;
 
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.jupiter.api.Test;
 
@@ -81,4 +92,126 @@ class FormatterTest {
 			}
 		}.testEquals();
 	}
+
+	@Test
+	void stepsStartInParallel() throws Exception {
+		CountDownLatch secondStarted = new CountDownLatch(1);
+		// the first step can't finish starting until the second one has begun starting too
+		FormatterStep first = FormatterStep.createLazy("first", () -> 1, state -> {
+			if (!secondStarted.await(10, TimeUnit.SECONDS)) {
+				throw new AssertionError("second step was not started in the background");
+			}
+			return raw -> raw + "1";
+		});
+		FormatterStep second = FormatterStep.createLazy("second", () -> 2, state -> {
+			secondStarted.countDown();
+			return raw -> raw + "2";
+		});
+		try (Formatter formatter = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(Paths.get(StandardSystemProperty.USER_DIR.value()))
+				.steps(Arrays.asList(first, second))
+				.build()) {
+			assertThat(formatter.compute("0", new File("file"))).isEqualTo("012");
+		}
+	}
+
+	@Test
+	void warmUpUsesTheCallersContextClassLoader() throws Exception {
+		AtomicReference<ClassLoader> seen = new AtomicReference<>();
+		FormatterStep first = FormatterStep.createNeverUpToDate("first", raw -> raw + "1");
+		FormatterStep second = FormatterStep.createLazy("second", () -> {
+			seen.set(Thread.currentThread().getContextClassLoader());
+			return 2;
+		}, state -> raw -> raw + state);
+		ClassLoader original = Thread.currentThread().getContextClassLoader();
+		ClassLoader caller = new URLClassLoader(new URL[0], original);
+		Thread.currentThread().setContextClassLoader(caller);
+		try (Formatter formatter = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(Paths.get(StandardSystemProperty.USER_DIR.value()))
+				.steps(Arrays.asList(first, second))
+				.build()) {
+			assertThat(formatter.compute("0", new File("file"))).isEqualTo("012");
+			assertThat(seen.get()).isSameAs(caller);
+		} finally {
+			Thread.currentThread().setContextClassLoader(original);
+		}
+	}
+
+	@Test
+	void warmUpFailureIsHandledByTheExceptionPolicy() throws Exception {
+		AtomicInteger attempts = new AtomicInteger();
+		FormatterStep first = FormatterStep.createNeverUpToDate("first", raw -> raw + "1");
+		FormatterStep second = FormatterStep.createLazy("second", () -> {
+			if (attempts.incrementAndGet() == 1) {
+				throw new IllegalStateException("warm-up failed");
+			}
+			return 2;
+		}, state -> raw -> raw + state);
+		try (Formatter formatter = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(Paths.get(StandardSystemProperty.USER_DIR.value()))
+				.steps(Arrays.asList(first, second))
+				.exceptionPolicy(new FormatExceptionPolicyStrict())
+				.build()) {
+			// the exceptionPolicy needs a file within the rootDir
+			File file = new File(StandardSystemProperty.USER_DIR.value(), "file");
+			assertThatThrownBy(() -> formatter.compute("0", file))
+					.hasMessageContaining("warm-up failed");
+			// the failure is only raised once, after that the step starts up on its own
+			assertThat(formatter.compute("0", file)).isEqualTo("012");
+			assertThat(attempts.get()).isEqualTo(2);
+		}
+	}
+
+	@Test
+	void forkSharesStateButNotFormatterFunc() throws Exception {
+		AtomicInteger statesCreated = new AtomicInteger();
+		AtomicInteger funcsCreated = new AtomicInteger();
+		FormatterStep step = FormatterStep.createLazy("counted", statesCreated::incrementAndGet, state -> {
+			funcsCreated.incrementAndGet();
+			return raw -> raw + state;
+		});
+		FormatterStep filtered = FormatterStep.createNeverUpToDate("filtered", raw -> raw + "f").filterByFile(SerializableFileFilter.skipFilesNamed("skip"));
+		try (Formatter formatter = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(Paths.get(StandardSystemProperty.USER_DIR.value()))
+				.steps(Arrays.asList(step, filtered))
+				.build();
+				Formatter fork = formatter.fork()) {
+			assertThat(fork).isEqualTo(formatter);
+			assertThat(formatter.compute("0", new File("file"))).isEqualTo("01f");
+			assertThat(fork.compute("0", new File("file"))).isEqualTo("01f");
+			assertThat(statesCreated.get()).isEqualTo(1);
+			assertThat(funcsCreated.get()).isEqualTo(2);
+		}
+	}
+
+	@Test
+	void forkOfCustomStepIsNull() {
+		FormatterStep custom = new FormatterStep() {
+			@Override
+			public String getName() {
+				return "custom";
+			}
+
+			@Override
+			public String format(String rawUnix, File file) {
+				return rawUnix;
+			}
+		};
+		try (Formatter formatter = Formatter.builder()
+				.lineEndingsPolicy(LineEnding.UNIX.createPolicy())
+				.encoding(StandardCharsets.UTF_8)
+				.rootDir(Paths.get(StandardSystemProperty.USER_DIR.value()))
+				.steps(Arrays.asList(custom))
+				.build()) {
+			assertThat(formatter.fork()).isNull();
+		}
+	}
 }
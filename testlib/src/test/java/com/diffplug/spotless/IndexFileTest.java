@@ -0,0 +1,87 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class IndexFileTest extends ResourceHarness {
+	@Test
+	void hex() {
+		byte[] bytes = {0, 1, 15, 16, 127, -128, -1};
+		assertThat(IndexFile.toHex(bytes)).isEqualTo("00010f107f80ff");
+		assertThat(IndexFile.fromHex("00010f107f80ff")).isEqualTo(bytes);
+		assertThat(IndexFile.fromHex("00010F107F80FF")).isEqualTo(bytes);
+		assertThatThrownBy(() -> IndexFile.fromHex("abc")).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> IndexFile.fromHex("zz")).isInstanceOf(IllegalArgumentException.class);
+		assertThat(IndexFile.sha256Hex("abc".getBytes(StandardCharsets.UTF_8)))
+				.isEqualTo("ba7816bf8f01cfea414140de5dae2223b00361a396177a9cb410ff61f20015ad");
+	}
+
+	@Test
+	void onlyTheLastFieldMayHaveTabs() {
+		assertThat(IndexFile.canWrite("a", "b\tc")).isTrue();
+		assertThat(IndexFile.canWrite("a\tb", "c")).isFalse();
+		assertThat(IndexFile.canWrite("a", "b\nc")).isFalse();
+		assertThat(IndexFile.canWrite("a\r", "b")).isFalse();
+		assertThatThrownBy(() -> IndexFile.write(newFile("index.idx"), "test-v1", Arrays.<String[]> asList(new String[]{"a\tb", "c"})))
+				.isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void writeThenRead() throws IOException {
+		File file = newFile("sub/index.idx");
+		IndexFile.write(file, "test-v1", Arrays.asList(new String[]{"a", "1"}, new String[]{"b", "with\ttab"}));
+		assertThat(read(file, "test-v1")).containsExactly("a|1", "b|with\ttab");
+		assertThat(file.getParentFile().list()).containsExactly("index.idx");
+
+		IndexFile.write(file, "test-v1", Arrays.<String[]> asList(new String[]{"c", "3"}));
+		assertThat(read(file, "test-v1")).containsExactly("c|3");
+	}
+
+	@Test
+	void appendCreatesTheHeader() throws IOException {
+		File file = newFile("sub/append.idx");
+		IndexFile.append(file, "test-v1", "a", "1");
+		IndexFile.append(file, "test-v1", "b", "2");
+		assertThat(read(file, "test-v1")).containsExactly("a|1", "b|2");
+		assertThat(file).hasContent("test-v1\na\t1\nb\t2");
+	}
+
+	@Test
+	void unknownHeaderIsAnError() throws IOException {
+		File file = setFile("index.idx").toLines("test-v0", "a\t1");
+		assertThatThrownBy(() -> read(file, "test-v1")).isInstanceOf(IOException.class).hasMessageContaining("test-v0");
+		File empty = setFile("empty.idx").toContent("");
+		assertThatThrownBy(() -> read(empty, "test-v1")).isInstanceOf(IOException.class);
+	}
+
+	private static List<String> read(File file, String header) throws IOException {
+		List<String> records = new ArrayList<>();
+		int numRecords = IndexFile.read(file, header, 2, fields -> records.add(String.join("|", fields)));
+		assertThat(numRecords).isEqualTo(records.size());
+		return records;
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import javax.annotation.Nullable;
+
+import org.junit.jupiter.api.Test;
+
+class JarIndexTest extends ResourceHarness {
+	@Test
+	void persistsAndReads() throws IOException {
+		List<File> jars = twoJars();
+		File persisted = newFile("index/jars.idx");
+		JarIndex built = JarIndex.loadOrBuild(jars, persisted);
+		assertThat(persisted).isFile();
+		assertThat(Files.readAllLines(persisted.toPath()).get(0)).isEqualTo("spotless-jar-index-v2");
+		assertIndexOfTwoJars(built);
+
+		// the jars are gone, so this can only pass if the index was read rather than rebuilt
+		for (File jar : jars) {
+			Files.delete(jar.toPath());
+		}
+		assertIndexOfTwoJars(JarIndex.loadOrBuild(jars, persisted));
+	}
+
+	@Test
+	void corruptIndexIsRebuilt() throws IOException {
+		List<File> jars = twoJars();
+		File persisted = newFile("jars.idx");
+		for (String corrupt : Arrays.asList("garbage", "spotless-jar-index-v1\n0\ta/", "spotless-jar-index-v2\nno tab", "spotless-jar-index-v2\n7\ta/", "spotless-jar-index-v2\nx\ta/")) {
+			Files.write(persisted.toPath(), corrupt.getBytes(StandardCharsets.UTF_8));
+			assertIndexOfTwoJars(JarIndex.loadOrBuild(jars, persisted));
+			assertThat(Files.readAllLines(persisted.toPath()).get(0)).isEqualTo("spotless-jar-index-v2");
+		}
+	}
+
+	@Test
+	void directoriesWithoutEntriesAreIndexed() throws IOException {
+		// the jar has no entries for 'a/' or 'a/b/', only for the files within them
+		File jar = jar("nodirs.jar", null, "a/b/c.txt", "top.txt");
+		JarIndex index = JarIndex.loadOrBuild(Arrays.asList(jar), null);
+		assertThat(index.jarsFor("a/b/c.txt")).containsExactly(0);
+		assertThat(index.jarsFor("a/b/other.txt")).containsExactly(0);
+		assertThat(index.jarsFor("top.txt")).containsExactly(0);
+		assertThat(index.jarsFor("a/c.txt")).isEmpty();
+	}
+
+	@Test
+	void classPathAndMultiRelease() throws IOException {
+		Manifest classPath = manifest(Attributes.Name.CLASS_PATH, "other.jar");
+		assertThat(JarIndex.loadOrBuild(Arrays.asList(jar("cp.jar", classPath, "a/A.txt")), null)).isNull();
+
+		Manifest multiRelease = manifest(new Attributes.Name("Multi-Release"), "true");
+		JarIndex index = JarIndex.loadOrBuild(Arrays.asList(jar("plain.jar", null, "a/A.txt"), jar("mr.jar", multiRelease, "a/A.txt")), null);
+		assertThat(index.isMultiRelease(0)).isFalse();
+		assertThat(index.isMultiRelease(1)).isTrue();
+	}
+
+	private List<File> twoJars() throws IOException {
+		return Arrays.asList(
+				jar("first.jar", null, "a/one.txt", "shared/first.txt"),
+				jar("second.jar", null, "b/two.txt", "shared/second.txt"));
+	}
+
+	private static void assertIndexOfTwoJars(JarIndex index) {
+		assertThat(index.jarsFor("a/one.txt")).containsExactly(0);
+		assertThat(index.jarsFor("b/two.txt")).containsExactly(1);
+		assertThat(index.jarsFor("shared/anything.txt")).containsExactly(0, 1);
+		assertThat(index.jarsFor("missing/one.txt")).isEmpty();
+	}
+
+	static Manifest manifest(Attributes.Name name, String value) {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(name, value);
+		return manifest;
+	}
+
+	/** Writes a jar which contains each of the given paths, with the path itself as the content. */
+	File jar(String name, @Nullable Manifest manifest, String... paths) throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<>();
+		for (String path : paths) {
+			entries.put(path, path.getBytes(StandardCharsets.UTF_8));
+		}
+		return jar(newFile(name), manifest, entries);
+	}
+
+	/** Writes a jar with only file entries, and no entries for the directories which contain them. */
+	static File jar(File file, @Nullable Manifest manifest, Map<String, byte[]> entries) throws IOException {
+		Files.createDirectories(file.getParentFile().toPath());
+		try (OutputStream output = Files.newOutputStream(file.toPath());
+				JarOutputStream jar = manifest == null ? new JarOutputStream(output) : new JarOutputStream(output, manifest)) {
+			for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+				jar.putNextEntry(new JarEntry(entry.getKey()));
+				jar.write(entry.getValue());
+				jar.closeEntry();
+			}
+		}
+		return file;
+	}
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+class TargetSamplerTest extends ResourceHarness {
+	@Test
+	void sampleIsStableAndProportional() throws Exception {
+		Path root = rootFolder().toPath();
+		List<File> files = new ArrayList<>();
+		for (int i = 0; i < 1000; ++i) {
+			File file = new File(rootFolder(), "src/File" + i + ".java");
+			files.add(file);
+		}
+		TargetSampler sampler = TargetSampler.of(10, 42, 0);
+		List<File> sampled = sample(sampler, root, files);
+		assertThat(sampled).hasSizeBetween(50, 150);
+		assertThat(sample(TargetSampler.of(10, 42, 0), root, files)).isEqualTo(sampled);
+		assertThat(sample(TargetSampler.of(10, 43, 0), root, files)).isNotEqualTo(sampled);
+		assertThat(sample(TargetSampler.of(0, 42, 0), root, files)).isEmpty();
+		assertThat(sample(TargetSampler.of(100, 42, 0), root, files)).hasSize(1000);
+	}
+
+	@Test
+	void recentFilesAreAlwaysIncluded() throws Exception {
+		File recent = setFile("recent.txt").toContent("recent");
+		File old = setFile("old.txt").toContent("old");
+		TargetSampler sampler = TargetSampler.of(0, 0, 1);
+		assertThat(sampler.includes(rootFolder().toPath(), recent)).isFalse();
+		TargetSampler withRecent = sampler.withRecent(rootFolder().toPath(), Collections.singletonList(recent));
+		assertThat(withRecent.includes(rootFolder().toPath(), recent)).isTrue();
+		assertThat(withRecent.includes(rootFolder().toPath(), old)).isFalse();
+		assertThat(withRecent).isNotEqualTo(sampler);
+		assertThat(withRecent).isEqualTo(sampler.withRecent(rootFolder().toPath(), Collections.singletonList(recent)));
+	}
+
+	@Test
+	void parsePercent() {
+		assertThat(TargetSampler.parsePercent("10")).isEqualTo(10.0);
+		assertThat(TargetSampler.parsePercent(" 12.5% ")).isEqualTo(12.5);
+		assertThat(TargetSampler.of(12.5, 3, 0)).hasToString("12.5% of files (seed 3)");
+	}
+
+	private static List<File> sample(TargetSampler sampler, Path root, List<File> files) {
+		List<File> sampled = new ArrayList<>();
+		for (File file : files) {
+			if (sampler.includes(root, file)) {
+				sampled.add(file);
+			}
+		}
+		return sampled;
+	}
+}
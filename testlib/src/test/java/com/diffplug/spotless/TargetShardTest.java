@@ -0,0 +1,101 @@
+/*
+ * Copyright 2021 DiffPlug
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.diffplug.spotless;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class TargetShardTest extends ResourceHarness {
+	@Test
+	void shardsArePartition() throws Exception {
+		List<File> files = new ArrayList<>();
+		for (int i = 0; i < 200; ++i) {
+			files.add(setFile("src/File" + i + ".java").toContent(repeat('x', i)));
+		}
+		for (boolean bySize : new boolean[]{false, true}) {
+			Set<File> union = new HashSet<>();
+			int total = 0;
+			for (int i = 1; i <= 4; ++i) {
+				List<File> shard = TargetShard.parse(i + "/4", bySize).select(rootFolder().toPath(), files);
+				assertThat(shard).isEqualTo(TargetShard.parse(i + "/4", bySize).select(rootFolder().toPath(), files));
+				union.addAll(shard);
+				total += shard.size();
+			}
+			assertThat(union).hasSize(files.size());
+			assertThat(total).isEqualTo(files.size());
+		}
+	}
+
+	@Test
+	void bySizeIsBalanced() throws Exception {
+		List<File> files = new ArrayList<>();
+		for (int i = 0; i < 100; ++i) {
+			files.add(setFile("src/File" + i + ".java").toContent(repeat('x', i * 10)));
+		}
+		Path root = rootFolder().toPath();
+		long min = Long.MAX_VALUE, max = 0;
+		for (int i = 1; i <= 4; ++i) {
+			long size = 0;
+			for (File file : TargetShard.parse(i + "/4", true).select(root, files)) {
+				size += file.length();
+			}
+			min = Math.min(min, size);
+			max = Math.max(max, size);
+		}
+		assertThat(max - min).isLessThanOrEqualTo(990);
+	}
+
+	@Test
+	void bySizeTiesDependOnTheSeed() throws Exception {
+		List<File> files = new ArrayList<>();
+		files.add(setFile("src/Only.java").toContent("x"));
+		Set<Integer> owners = new HashSet<>();
+		for (int seed = 0; seed < 32; ++seed) {
+			for (int i = 1; i <= 4; ++i) {
+				if (!TargetShard.parse(i + "/4", true).select(rootFolder().toPath(), files, ":sub" + seed + ":spotlessJava").isEmpty()) {
+					owners.add(i);
+				}
+			}
+		}
+		assertThat(owners).hasSizeGreaterThan(1);
+	}
+
+	@Test
+	void parse() {
+		assertThat(TargetShard.parse("2/8", false)).hasToString("shard 2/8");
+		assertThat(TargetShard.parse(" 2 / 8 ", true)).hasToString("shard 2/8 (by size)");
+		assertThatThrownBy(() -> TargetShard.parse("0/8", false)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> TargetShard.parse("9/8", false)).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> TargetShard.parse("2", false)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	private static String repeat(char c, int count) {
+		StringBuilder builder = new StringBuilder(count);
+		for (int i = 0; i < count; ++i) {
+			builder.append(c);
+		}
+		return builder.toString();
+	}
+}